@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.adminservice.message;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageSavedEvent;
+import com.ctrip.framework.apollo.common.dto.ReleaseMessageDTO;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Pushes the committed release messages to all config service instances, so they don't have to wait for the next
+ * database scan. Pushing is best effort, lost pushes are picked up by the config service's fallback scan.
+ * Config service only accepts pushes with a valid admin service access token, so nothing is pushed if access control
+ * is not enabled or access tokens are not configured.
+ */
+@Component
+public class ReleaseMessagePusher {
+  private static final Logger logger = LoggerFactory.getLogger(ReleaseMessagePusher.class);
+  private static final Splitter ACCESS_TOKEN_SPLITTER = Splitter.on(",").omitEmptyStrings()
+      .trimResults();
+  private static final int PUSH_TIMEOUT_IN_MILLI = 1000;
+  private static final int PUSH_THREADS = 4;
+  private static final int PUSH_QUEUE_SIZE = 1000;
+  private static final String RELEASE_MESSAGE_PUSH_PATH = "/release-messages";
+
+  private final BizConfig bizConfig;
+  private final DiscoveryClient discoveryClient;
+  private final RestTemplate restTemplate;
+  private final ExecutorService pushExecutorService;
+
+  public ReleaseMessagePusher(final BizConfig bizConfig, final DiscoveryClient discoveryClient) {
+    this.bizConfig = bizConfig;
+    this.discoveryClient = discoveryClient;
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(PUSH_TIMEOUT_IN_MILLI);
+    requestFactory.setReadTimeout(PUSH_TIMEOUT_IN_MILLI);
+    this.restTemplate = new RestTemplate(requestFactory);
+    this.pushExecutorService = new ThreadPoolExecutor(PUSH_THREADS, PUSH_THREADS, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(PUSH_QUEUE_SIZE), ApolloThreadFactory.create("ReleaseMessagePusher", true));
+  }
+
+  /**
+   * Only committed messages are pushed, otherwise config service might skip the id of an uncommitted message
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onReleaseMessageSaved(ReleaseMessageSavedEvent event) {
+    if (!bizConfig.isReleaseMessagePushEnabled()) {
+      return;
+    }
+
+    ReleaseMessage releaseMessage = event.getReleaseMessage();
+    String accessToken = findAccessToken();
+    if (accessToken == null) {
+      Tracer.logEvent("Apollo.ReleaseMessage.Push.NoAccessToken", String.valueOf(releaseMessage.getId()));
+      return;
+    }
+
+    List<ServiceInstance> instances = discoveryClient.getInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE);
+    if (instances.isEmpty()) {
+      Tracer.logEvent("Apollo.ReleaseMessage.Push.NoConfigService", String.valueOf(releaseMessage.getId()));
+      return;
+    }
+
+    ReleaseMessageDTO dto = new ReleaseMessageDTO(releaseMessage.getId(), releaseMessage.getMessage());
+    HttpEntity<ReleaseMessageDTO> request = new HttpEntity<>(dto, assembleHeaders(accessToken));
+
+    for (ServiceInstance instance : instances) {
+      try {
+        pushExecutorService.execute(() -> push(instance, request));
+      } catch (RejectedExecutionException ex) {
+        //config service will scan it from database
+        logger.warn("Too many pending pushes, skip pushing {} to {}", dto, instance.getUri());
+        Tracer.logEvent("Apollo.ReleaseMessage.Push.Rejected", instance.getUri().toString());
+      }
+    }
+  }
+
+  private void push(ServiceInstance instance, HttpEntity<ReleaseMessageDTO> request) {
+    String url = instance.getUri().toString() + RELEASE_MESSAGE_PUSH_PATH;
+    try {
+      restTemplate.postForEntity(url, request, Void.class);
+    } catch (Throwable ex) {
+      logger.warn("Push {} to {} failed, reason: {}", request.getBody(), url, ex.getMessage());
+      Tracer.logEvent("Apollo.ReleaseMessage.Push.Failed", url);
+    }
+  }
+
+  private HttpHeaders assembleHeaders(String accessToken) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.AUTHORIZATION, accessToken);
+    return headers;
+  }
+
+  private String findAccessToken() {
+    if (!bizConfig.isAdminServiceAccessControlEnabled()) {
+      return null;
+    }
+    String accessTokens = bizConfig.getAdminServiceAccessTokens();
+    if (Strings.isNullOrEmpty(accessTokens)) {
+      return null;
+    }
+    List<String> tokens = ACCESS_TOKEN_SPLITTER.splitToList(accessTokens);
+    return tokens.isEmpty() ? null : tokens.get(0);
+  }
+}
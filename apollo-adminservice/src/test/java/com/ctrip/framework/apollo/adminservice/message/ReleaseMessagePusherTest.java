@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.adminservice.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageSavedEvent;
+import com.ctrip.framework.apollo.common.dto.ReleaseMessageDTO;
+import com.ctrip.framework.apollo.core.ServiceNameConsts;
+import com.google.common.collect.Lists;
+import java.net.URI;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessagePusherTest {
+
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private DiscoveryClient discoveryClient;
+  @Mock
+  private RestTemplate restTemplate;
+
+  private ReleaseMessagePusher releaseMessagePusher;
+  private ReleaseMessage someReleaseMessage;
+
+  @Before
+  public void setUp() throws Exception {
+    releaseMessagePusher = new ReleaseMessagePusher(bizConfig, discoveryClient);
+    ReflectionTestUtils.setField(releaseMessagePusher, "restTemplate", restTemplate);
+
+    someReleaseMessage = new ReleaseMessage("someAppId+default+application");
+    someReleaseMessage.setId(10);
+  }
+
+  @Test
+  public void testPushDisabled() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(false);
+
+    releaseMessagePusher.onReleaseMessageSaved(new ReleaseMessageSavedEvent(someReleaseMessage));
+
+    verify(discoveryClient, never()).getInstances(anyString());
+  }
+
+  @Test
+  public void testPushWithoutAccessToken() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(false);
+
+    releaseMessagePusher.onReleaseMessageSaved(new ReleaseMessageSavedEvent(someReleaseMessage));
+
+    verify(discoveryClient, never()).getInstances(anyString());
+  }
+
+  @Test
+  public void testPushToNoConfigService() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn("someToken");
+    when(discoveryClient.getInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE)).thenReturn(Collections.emptyList());
+
+    releaseMessagePusher.onReleaseMessageSaved(new ReleaseMessageSavedEvent(someReleaseMessage));
+
+    verify(restTemplate, never()).postForEntity(anyString(), any(), eq(Void.class));
+  }
+
+  @Test
+  public void testPushToAllConfigServices() throws Exception {
+    String someToken = "someToken";
+    ServiceInstance someInstance = mockServiceInstance("http://someHost:8080");
+    ServiceInstance anotherInstance = mockServiceInstance("http://anotherHost:8080");
+
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn(someToken + ",anotherToken");
+    when(discoveryClient.getInstances(ServiceNameConsts.APOLLO_CONFIGSERVICE))
+        .thenReturn(Lists.newArrayList(someInstance, anotherInstance));
+
+    releaseMessagePusher.onReleaseMessageSaved(new ReleaseMessageSavedEvent(someReleaseMessage));
+
+    ArgumentCaptor<HttpEntity> requestCaptor = ArgumentCaptor.forClass(HttpEntity.class);
+    verify(restTemplate, timeout(1000)).postForEntity(eq("http://someHost:8080/release-messages"),
+        requestCaptor.capture(), eq(Void.class));
+    verify(restTemplate, timeout(1000)).postForEntity(eq("http://anotherHost:8080/release-messages"),
+        any(HttpEntity.class), eq(Void.class));
+
+    HttpEntity request = requestCaptor.getValue();
+    ReleaseMessageDTO dto = (ReleaseMessageDTO) request.getBody();
+    assertEquals(someReleaseMessage.getId(), dto.getId());
+    assertEquals(someReleaseMessage.getMessage(), dto.getMessage());
+    assertEquals(someToken, request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+  }
+
+  private ServiceInstance mockServiceInstance(String uri) {
+    ServiceInstance instance = mock(ServiceInstance.class);
+    when(instance.getUri()).thenReturn(URI.create(uri));
+    return instance;
+  }
+}
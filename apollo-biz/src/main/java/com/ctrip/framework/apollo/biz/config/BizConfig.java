@@ -36,7 +36,8 @@ public class BizConfig extends RefreshableConfig {
   private static final int DEFAULT_ITEM_KEY_LENGTH = 128;
   private static final int DEFAULT_ITEM_VALUE_LENGTH = 20000;
   private static final int DEFAULT_APPNAMESPACE_CACHE_REBUILD_INTERVAL = 60; //60s
-  private static final int DEFAULT_GRAY_RELEASE_RULE_SCAN_INTERVAL = 60; //60s
+  //the gray release rules are updated by the release messages, the scan is only a consistency check
+  private static final int DEFAULT_GRAY_RELEASE_RULE_SCAN_INTERVAL = 300; //300s
   private static final int DEFAULT_APPNAMESPACE_CACHE_SCAN_INTERVAL = 1; //1s
   private static final int DEFAULT_ACCESSKEY_CACHE_SCAN_INTERVAL = 1; //1s
   private static final int DEFAULT_ACCESSKEY_CACHE_REBUILD_INTERVAL = 60; //60s
@@ -44,7 +45,18 @@ public class BizConfig extends RefreshableConfig {
   private static final int DEFAULT_RELEASE_MESSAGE_SCAN_INTERVAL_IN_MS = 1000; //1000ms
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH = 100;
   private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH_INTERVAL_IN_MILLI = 100;//100ms
+  private static final int DEFAULT_RELEASE_MESSAGE_NOTIFICATION_WORKERS = 4;
+  private static final int DEFAULT_RELEASE_MESSAGE_PUSH_FALLBACK_SCAN_INTERVAL_IN_MS = 10000; //10s
   private static final int DEFAULT_LONG_POLLING_TIMEOUT = 60; //60s
+  private static final int DEFAULT_WEBSOCKET_IDLE_TIMEOUT = 180; //180s
+  private static final int DEFAULT_WEBSOCKET_SEND_TIMEOUT_IN_MILLI = 5000; //5s
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_MAX_NAMESPACES = 10000;
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_TIMEOUT = 60; //60s
+  private static final int DEFAULT_CONFIG_SERVICE_CACHE_MAX_WEIGHT_IN_MB = 1024; //1GB
+  private static final int DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_APP_QPS = 1000;
+  private static final int DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_IP_QPS = 100;
+  private static final int DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_MAX_CONCURRENT_LOADS = 20;
+  private static final int DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_RETRY_AFTER = 1; //1s
 
   private static final Gson GSON = new Gson();
 
@@ -83,6 +95,20 @@ public class BizConfig extends RefreshableConfig {
     return 1000 * checkInt(timeout, 1, 90, DEFAULT_LONG_POLLING_TIMEOUT);
   }
 
+  /**
+   * the notification websocket is closed if nothing is received within this timeout, java client's heartbeat
+   * interval is 30 seconds, so it must be a few times longer than that
+   */
+  public long websocketIdleTimeoutInMilli() {
+    int timeout = getIntProperty("apollo.websocket.idle.timeout", DEFAULT_WEBSOCKET_IDLE_TIMEOUT);
+    return 1000L * checkInt(timeout, 60, Integer.MAX_VALUE, DEFAULT_WEBSOCKET_IDLE_TIMEOUT);
+  }
+
+  public long websocketSendTimeoutInMilli() {
+    int timeout = getIntProperty("apollo.websocket.send.timeout", DEFAULT_WEBSOCKET_SEND_TIMEOUT_IN_MILLI);
+    return checkInt(timeout, 100, Integer.MAX_VALUE, DEFAULT_WEBSOCKET_SEND_TIMEOUT_IN_MILLI);
+  }
+
   public int itemKeyLengthLimit() {
     int limit = getIntProperty("item.key.length.limit", DEFAULT_ITEM_KEY_LENGTH);
     return checkInt(limit, 5, Integer.MAX_VALUE, DEFAULT_ITEM_KEY_LENGTH);
@@ -179,10 +205,111 @@ public class BizConfig extends RefreshableConfig {
     return checkInt(interval, 10, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_NOTIFICATION_BATCH_INTERVAL_IN_MILLI);
   }
 
+  public int releaseMessageNotificationWorkers() {
+    int workers = getIntProperty("apollo.release-message.notification.workers", DEFAULT_RELEASE_MESSAGE_NOTIFICATION_WORKERS);
+    return checkInt(workers, 1, 64, DEFAULT_RELEASE_MESSAGE_NOTIFICATION_WORKERS);
+  }
+
+  /**
+   * pushing release messages also requires admin service access control to be enabled with access tokens configured
+   */
+  public boolean isReleaseMessagePushEnabled() {
+    return getBooleanProperty("apollo.release-message.push.enabled", false);
+  }
+
+  /**
+   * when release messages are pushed by admin service, the database is only scanned with this interval to pick up
+   * the messages whose push is lost
+   */
+  public int releaseMessagePushFallbackScanIntervalInMilli() {
+    int interval = getIntProperty("apollo.release-message.push.fallback-scan.interval",
+        DEFAULT_RELEASE_MESSAGE_PUSH_FALLBACK_SCAN_INTERVAL_IN_MS);
+    return checkInt(interval, 100, Integer.MAX_VALUE, DEFAULT_RELEASE_MESSAGE_PUSH_FALLBACK_SCAN_INTERVAL_IN_MS);
+  }
+
   public boolean isConfigServiceCacheEnabled() {
     return getBooleanProperty("config-service.cache.enabled", false);
   }
 
+  /**
+   * the max namespaces loaded into the config service cache on startup, the most recently released ones first, 0 means
+   * no warm-up
+   */
+  public int configServiceCacheWarmUpMaxNamespaces() {
+    int maxNamespaces = getIntProperty("config-service.cache.warm-up.max-namespaces",
+        DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_MAX_NAMESPACES);
+    return checkInt(maxNamespaces, 0, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_MAX_NAMESPACES);
+  }
+
+  /**
+   * the max seconds the config service is reported out of service because of the cache warm-up
+   */
+  public int configServiceCacheWarmUpTimeout() {
+    int timeout = getIntProperty("config-service.cache.warm-up.timeout", DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_TIMEOUT);
+    return checkInt(timeout, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_CACHE_WARM_UP_TIMEOUT);
+  }
+
+  /**
+   * the max estimated heap in megabytes taken by the releases in the config service cache, the least recently used
+   * releases are evicted beyond it
+   */
+  public int configServiceCacheMaxWeightInMB() {
+    int maxWeight = getIntProperty("config-service.cache.max-weight-in-mb",
+        DEFAULT_CONFIG_SERVICE_CACHE_MAX_WEIGHT_IN_MB);
+    return checkInt(maxWeight, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_CACHE_MAX_WEIGHT_IN_MB);
+  }
+
+  /**
+   * whether to reject the client requests beyond the limits below with 429
+   */
+  public boolean isConfigServiceAdmissionControlEnabled() {
+    return getBooleanProperty("config-service.admission-control.enabled", false);
+  }
+
+  /**
+   * the max requests per second of an app id served by one config service instance
+   */
+  public int configServiceAdmissionControlAppQps() {
+    int qps = getIntProperty("config-service.admission-control.app-qps",
+        DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_APP_QPS);
+    return checkInt(qps, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_APP_QPS);
+  }
+
+  /**
+   * the max requests per second of a client ip served by one config service instance
+   */
+  public int configServiceAdmissionControlIpQps() {
+    int qps = getIntProperty("config-service.admission-control.ip-qps",
+        DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_IP_QPS);
+    return checkInt(qps, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_IP_QPS);
+  }
+
+  /**
+   * the max concurrent database loads of the config service cache misses, read on startup
+   */
+  public int configServiceAdmissionControlMaxConcurrentLoads() {
+    int maxConcurrentLoads = getIntProperty("config-service.admission-control.max-concurrent-loads",
+        DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_MAX_CONCURRENT_LOADS);
+    return checkInt(maxConcurrentLoads, 1, Integer.MAX_VALUE,
+        DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_MAX_CONCURRENT_LOADS);
+  }
+
+  /**
+   * the seconds the rejected clients are told to wait before retrying
+   */
+  public int configServiceAdmissionControlRetryAfter() {
+    int retryAfter = getIntProperty("config-service.admission-control.retry-after",
+        DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_RETRY_AFTER);
+    return checkInt(retryAfter, 1, Integer.MAX_VALUE, DEFAULT_CONFIG_SERVICE_ADMISSION_CONTROL_RETRY_AFTER);
+  }
+
+  /**
+   * whether to answer the clients asking for incremental sync with the changed keys only
+   */
+  public boolean isConfigServiceIncrementalChangeEnabled() {
+    return getBooleanProperty("config-service.incremental.change.enabled", false);
+  }
+
   int checkInt(int value, int min, int max, int defaultValue) {
     if (value >= min && value <= max) {
       return value;
@@ -17,7 +17,13 @@
 package com.ctrip.framework.apollo.biz.grayReleaseRule;
 
 import com.ctrip.framework.apollo.common.dto.GrayReleaseRuleItemDTO;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -31,6 +37,8 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
   private long loadVersion;
   private int branchStatus;
   private Set<GrayReleaseRuleItemDTO> ruleItems;
+  //store lower case clientAppId -> clientIps map, so matching a client doesn't iterate the rule items
+  private Map<String, Set<String>> clientIpsByAppId;
 
   public GrayReleaseRuleCache(long ruleId, String branchName, String namespaceName, long
       releaseId, int branchStatus, long loadVersion, Set<GrayReleaseRuleItemDTO> ruleItems) {
@@ -41,6 +49,7 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
     this.branchStatus = branchStatus;
     this.loadVersion = loadVersion;
     this.ruleItems = ruleItems;
+    this.clientIpsByAppId = indexClientIps(ruleItems);
   }
 
   public long getRuleId() {
@@ -76,12 +85,25 @@ public class GrayReleaseRuleCache implements Comparable<GrayReleaseRuleCache> {
   }
 
   public boolean matches(String clientAppId, String clientIp) {
+    if (clientAppId == null) {
+      return false;
+    }
+    Set<String> clientIps = clientIpsByAppId.get(clientAppId.toLowerCase(Locale.ROOT));
+    return clientIps != null && (clientIps.contains(GrayReleaseRuleItemDTO.ALL_IP) || clientIps.contains(clientIp));
+  }
+
+  private static Map<String, Set<String>> indexClientIps(Set<GrayReleaseRuleItemDTO> ruleItems) {
+    Map<String, Set<String>> clientIpsByAppId = Maps.newHashMap();
     for (GrayReleaseRuleItemDTO ruleItem : ruleItems) {
-      if (ruleItem.matches(clientAppId, clientIp)) {
-        return true;
+      if (ruleItem.getClientAppId() == null || ruleItem.getClientIpList() == null) {
+        continue;
       }
+      clientIpsByAppId.computeIfAbsent(ruleItem.getClientAppId().toLowerCase(Locale.ROOT), key -> Sets.newHashSet())
+          .addAll(ruleItem.getClientIpList());
     }
-    return false;
+    ImmutableMap.Builder<String, Set<String>> builder = ImmutableMap.builder();
+    clientIpsByAppId.forEach((clientAppId, clientIps) -> builder.put(clientAppId, ImmutableSet.copyOf(clientIps)));
+    return builder.build();
   }
 
   @Override
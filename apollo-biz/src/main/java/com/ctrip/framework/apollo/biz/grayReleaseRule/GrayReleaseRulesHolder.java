@@ -19,10 +19,9 @@ package com.ctrip.framework.apollo.biz.grayReleaseRule;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
 import com.ctrip.framework.apollo.biz.config.BizConfig;
@@ -39,21 +38,30 @@ import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 
-import com.google.common.collect.TreeMultimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.CollectionUtils;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Holds the active gray release rules, which are updated incrementally by the release messages, while the periodic
+ * full table scan only serves as a slow consistency check.
+ *
+ * <p>The values of the rule indexes are immutable and replaced as a whole, so the lookups of the client requests never
+ * lock or copy anything.</p>
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 public class GrayReleaseRulesHolder implements ReleaseMessageListener, InitializingBean {
@@ -69,19 +77,17 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
   private int databaseScanInterval;
   private ScheduledExecutorService executorService;
-  //store configAppId+configCluster+configNamespace -> GrayReleaseRuleCache map
-  private Multimap<String, GrayReleaseRuleCache> grayReleaseRuleCache;
-  //store clientAppId+clientNamespace+ip -> ruleId map
-  private Multimap<String, Long> reversedGrayReleaseRuleCache;
+  //store lower case configAppId+configCluster+configNamespace -> GrayReleaseRuleCache list ordered by ruleId map
+  private ConcurrentMap<String, List<GrayReleaseRuleCache>> grayReleaseRuleCache;
+  //store lower case clientAppId+clientNamespace+ip -> ruleId set map
+  private ConcurrentMap<String, Set<Long>> reversedGrayReleaseRuleCache;
   //an auto increment version to indicate the age of rules
   private AtomicLong loadVersion;
 
   public GrayReleaseRulesHolder() {
     loadVersion = new AtomicLong();
-    grayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
-        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
-    reversedGrayReleaseRuleCache = Multimaps.synchronizedSetMultimap(
-        TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, Ordering.natural()));
+    grayReleaseRuleCache = new ConcurrentHashMap<>();
+    reversedGrayReleaseRuleCache = new ConcurrentHashMap<>();
     executorService = Executors.newScheduledThreadPool(1, ApolloThreadFactory
         .create("GrayReleaseRulesHolder", true));
   }
@@ -137,11 +143,10 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
   public Long findReleaseIdFromGrayReleaseRule(String clientAppId, String clientIp, String
       configAppId, String configCluster, String configNamespaceName) {
     String key = assembleGrayReleaseRuleKey(configAppId, configCluster, configNamespaceName);
-    if (!grayReleaseRuleCache.containsKey(key)) {
+    List<GrayReleaseRuleCache> rules = grayReleaseRuleCache.get(key);
+    if (rules == null) {
       return null;
     }
-    //create a new list to avoid ConcurrentModificationException
-    List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
     for (GrayReleaseRuleCache rule : rules) {
       //check branch status
       if (rule.getBranchStatus() != NamespaceBranchStatus.ACTIVE) {
@@ -184,7 +189,11 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     }
   }
 
-  private void mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
+  /**
+   * The rules are merged by the release message thread and the scan thread, the lookups don't wait for the merges as
+   * the indexes are copied on write.
+   */
+  private synchronized void mergeGrayReleaseRules(List<GrayReleaseRule> grayReleaseRules) {
     if (CollectionUtils.isEmpty(grayReleaseRules)) {
       return;
     }
@@ -195,10 +204,8 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
       }
       String key = assembleGrayReleaseRuleKey(grayReleaseRule.getAppId(), grayReleaseRule
           .getClusterName(), grayReleaseRule.getNamespaceName());
-      //create a new list to avoid ConcurrentModificationException
-      List<GrayReleaseRuleCache> rules = Lists.newArrayList(grayReleaseRuleCache.get(key));
       GrayReleaseRuleCache oldRule = null;
-      for (GrayReleaseRuleCache ruleCache : rules) {
+      for (GrayReleaseRuleCache ruleCache : grayReleaseRuleCache.getOrDefault(key, ImmutableList.of())) {
         if (ruleCache.getBranchName().equals(grayReleaseRule.getBranchName())) {
           oldRule = ruleCache;
           break;
@@ -210,7 +217,6 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
         continue;
       }
 
-      //use id comparison to avoid synchronization
       if (oldRule == null || grayReleaseRule.getId() > oldRule.getRuleId()) {
         addCache(key, transformRuleToRuleCache(grayReleaseRule));
         if (oldRule != null) {
@@ -232,20 +238,34 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
     if (ruleCache.getBranchStatus() == NamespaceBranchStatus.ACTIVE) {
       for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
         for (String clientIp : ruleItemDTO.getClientIpList()) {
-          reversedGrayReleaseRuleCache.put(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-              .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
+          reversedGrayReleaseRuleCache.compute(assembleReversedGrayReleaseRuleKey(ruleItemDTO
+              .getClientAppId(), ruleCache.getNamespaceName(), clientIp), (reversedKey, ruleIds) ->
+              ruleIds == null ? ImmutableSet.of(ruleCache.getRuleId()) :
+                  ImmutableSet.<Long>builder().addAll(ruleIds).add(ruleCache.getRuleId()).build());
         }
       }
     }
-    grayReleaseRuleCache.put(key, ruleCache);
+    grayReleaseRuleCache.compute(key, (ruleKey, rules) -> {
+      List<GrayReleaseRuleCache> merged = rules == null ? Lists.newArrayList() : Lists.newArrayList(rules);
+      merged.add(ruleCache);
+      Collections.sort(merged);
+      return ImmutableList.copyOf(merged);
+    });
   }
 
   private void removeCache(String key, GrayReleaseRuleCache ruleCache) {
-    grayReleaseRuleCache.remove(key, ruleCache);
+    grayReleaseRuleCache.computeIfPresent(key, (ruleKey, rules) -> {
+      List<GrayReleaseRuleCache> remaining = Lists.newArrayList(rules);
+      remaining.remove(ruleCache);
+      return remaining.isEmpty() ? null : ImmutableList.copyOf(remaining);
+    });
     for (GrayReleaseRuleItemDTO ruleItemDTO : ruleCache.getRuleItems()) {
       for (String clientIp : ruleItemDTO.getClientIpList()) {
-        reversedGrayReleaseRuleCache.remove(assembleReversedGrayReleaseRuleKey(ruleItemDTO
-            .getClientAppId(), ruleCache.getNamespaceName(), clientIp), ruleCache.getRuleId());
+        reversedGrayReleaseRuleCache.computeIfPresent(assembleReversedGrayReleaseRuleKey(ruleItemDTO
+            .getClientAppId(), ruleCache.getNamespaceName(), clientIp), (reversedKey, ruleIds) -> {
+          Set<Long> remaining = Sets.difference(ruleIds, ImmutableSet.of(ruleCache.getRuleId())).immutableCopy();
+          return remaining.isEmpty() ? null : remaining;
+        });
       }
     }
   }
@@ -281,12 +301,12 @@ public class GrayReleaseRulesHolder implements ReleaseMessageListener, Initializ
 
   private String assembleGrayReleaseRuleKey(String configAppId, String configCluster, String
       configNamespaceName) {
-    return STRING_JOINER.join(configAppId, configCluster, configNamespaceName);
+    return STRING_JOINER.join(configAppId, configCluster, configNamespaceName).toLowerCase(Locale.ROOT);
   }
 
   private String assembleReversedGrayReleaseRuleKey(String clientAppId, String
       clientNamespaceName, String clientIp) {
-    return STRING_JOINER.join(clientAppId, clientNamespaceName, clientIp);
+    return STRING_JOINER.join(clientAppId, clientNamespaceName, clientIp).toLowerCase(Locale.ROOT);
   }
 
 }
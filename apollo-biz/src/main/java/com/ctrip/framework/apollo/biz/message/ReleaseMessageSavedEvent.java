@@ -0,0 +1,37 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.biz.message;
+
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.google.common.base.Preconditions;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link DatabaseMessageSender} once a release message is saved, listeners interested in the committed
+ * message should use {@link org.springframework.transaction.event.TransactionalEventListener}
+ */
+public class ReleaseMessageSavedEvent extends ApplicationEvent {
+
+  public ReleaseMessageSavedEvent(ReleaseMessage releaseMessage) {
+    super(releaseMessage);
+  }
+
+  public ReleaseMessage getReleaseMessage() {
+    Preconditions.checkState(source != null);
+    return (ReleaseMessage) this.source;
+  }
+}
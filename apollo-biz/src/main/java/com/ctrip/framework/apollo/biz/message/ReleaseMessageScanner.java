@@ -48,6 +48,7 @@ public class ReleaseMessageScanner implements InitializingBean {
   private List<ReleaseMessageListener> listeners;
   private ScheduledExecutorService executorService;
   private long maxIdScanned;
+  private long lastDatabaseScanTime;
 
   public ReleaseMessageScanner() {
     listeners = Lists.newCopyOnWriteArrayList();
@@ -60,6 +61,9 @@ public class ReleaseMessageScanner implements InitializingBean {
     databaseScanInterval = bizConfig.releaseMessageScanIntervalInMilli();
     maxIdScanned = loadLargestMessageId();
     executorService.scheduleWithFixedDelay(() -> {
+      if (!isDatabaseScanDue()) {
+        return;
+      }
       Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "scanMessage");
       try {
         scanMessages();
@@ -84,10 +88,51 @@ public class ReleaseMessageScanner implements InitializingBean {
     }
   }
 
+  /**
+   * Handle the release message pushed by admin service. The push is only treated as a hint, the messages are always
+   * loaded from database, so the pushed id is never trusted to deliver a message or to advance the scanned id.
+   * @param messageId the id of the committed release message
+   */
+  public void onMessagePushed(long messageId) {
+    //run on the scan thread, so pushed and scanned messages are delivered in order
+    executorService.execute(() -> {
+      Transaction transaction = Tracer.newTransaction("Apollo.ReleaseMessageScanner", "pushMessage");
+      try {
+        handlePushedMessage(messageId);
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        logger.error("Handle pushed message failed", ex);
+      } finally {
+        transaction.complete();
+      }
+    });
+  }
+
+  private void handlePushedMessage(long messageId) {
+    if (messageId <= maxIdScanned) {
+      //already scanned
+      return;
+    }
+    scanMessages();
+  }
+
+  /**
+   * When release messages are pushed, the database scan is only a fallback for the lost pushes
+   */
+  private boolean isDatabaseScanDue() {
+    if (!bizConfig.isReleaseMessagePushEnabled()) {
+      return true;
+    }
+    return System.currentTimeMillis() - lastDatabaseScanTime >= bizConfig
+        .releaseMessagePushFallbackScanIntervalInMilli();
+  }
+
   /**
    * Scan messages, continue scanning until there is no more messages
    */
   private void scanMessages() {
+    lastDatabaseScanTime = System.currentTimeMillis();
     boolean hasMoreMessages = true;
     while (hasMoreMessages && !Thread.currentThread().isInterrupted()) {
       hasMoreMessages = scanAndSendMessages();
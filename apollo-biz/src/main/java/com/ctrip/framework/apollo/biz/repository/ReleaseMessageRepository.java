@@ -31,6 +31,8 @@ import java.util.List;
 public interface ReleaseMessageRepository extends PagingAndSortingRepository<ReleaseMessage, Long> {
   List<ReleaseMessage> findFirst500ByIdGreaterThanOrderByIdAsc(Long id);
 
+  List<ReleaseMessage> findFirst500ByIdLessThanOrderByIdDesc(Long id);
+
   ReleaseMessage findTopByOrderByIdDesc();
 
   ReleaseMessage findTopByMessageInOrderByIdDesc(Collection<String> messages);
@@ -24,6 +24,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -47,6 +48,10 @@ public interface ReleaseRepository extends PagingAndSortingRepository<Release, L
 
   List<Release> findByIdIn(Set<Long> releaseIds);
 
+  @Query("select r from Release r where r.id in (select max(latest.id) from Release latest where latest.appId in :appIds"
+      + " and latest.isAbandoned = false and latest.isDeleted = false group by latest.appId, latest.clusterName, latest.namespaceName)")
+  List<Release> findLatestActiveReleasesByAppIds(@Param("appIds") Collection<String> appIds);
+
   @Modifying
   @Query("update Release set isdeleted=1,DataChange_LastModifiedBy = ?4 where appId=?1 and clusterName=?2 and namespaceName = ?3")
   int batchDelete(String appId, String clusterName, String namespaceName, String operator);
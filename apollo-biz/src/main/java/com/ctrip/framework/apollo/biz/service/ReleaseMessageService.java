@@ -45,6 +45,13 @@ public class ReleaseMessageService {
     return releaseMessageRepository.findTopByMessageInOrderByIdDesc(messages);
   }
 
+  /**
+   * @return the first 500 release messages whose id is less than the given id, the latest ones first
+   */
+  public List<ReleaseMessage> findReleaseMessagesBefore(long id) {
+    return releaseMessageRepository.findFirst500ByIdLessThanOrderByIdDesc(id);
+  }
+
   public List<ReleaseMessage> findLatestReleaseMessagesGroupByMessages(Collection<String> messages) {
     if (CollectionUtils.isEmpty(messages)) {
       return Collections.emptyList();
@@ -124,6 +124,16 @@ public class ReleaseService {
                                                                                                             namespaceName);
   }
 
+  /**
+   * @return the latest active releases of all the clusters and namespaces of the apps
+   */
+  public List<Release> findLatestActiveReleases(Collection<String> appIds) {
+    if (CollectionUtils.isEmpty(appIds)) {
+      return Collections.emptyList();
+    }
+    return releaseRepository.findLatestActiveReleasesByAppIds(appIds);
+  }
+
   public List<Release> findAllReleases(String appId, String clusterName, String namespaceName, Pageable page) {
     List<Release> releases = releaseRepository.findByAppIdAndClusterNameAndNamespaceNameOrderByIdDesc(appId,
                                                                                                       clusterName,
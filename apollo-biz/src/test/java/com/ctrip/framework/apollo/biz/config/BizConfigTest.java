@@ -78,6 +78,18 @@ public class BizConfigTest {
     assertEquals(defaultBatch, bizConfig.releaseMessageNotificationBatch());
   }
 
+  @Test
+  public void testReleaseMessageNotificationWorkers() throws Exception {
+    int someWorkers = 8;
+    int defaultWorkers = 4;
+
+    assertEquals(defaultWorkers, bizConfig.releaseMessageNotificationWorkers());
+
+    when(environment.getProperty("apollo.release-message.notification.workers")).thenReturn(String.valueOf(someWorkers));
+
+    assertEquals(someWorkers, bizConfig.releaseMessageNotificationWorkers());
+  }
+
   @Test
   public void testCheckInt() throws Exception {
     int someInvalidValue = 1;
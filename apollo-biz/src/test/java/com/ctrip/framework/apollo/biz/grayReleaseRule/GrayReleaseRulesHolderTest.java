@@ -153,14 +153,79 @@ public class GrayReleaseRulesHolderTest {
         anotherNamespaceName));
   }
 
+  @Test
+  public void testHandleMessageWithMultipleBranches() throws Exception {
+    String someAppId = "someAppId";
+    String someClusterName = "someClusterName";
+    String someNamespaceName = "someNamespaceName";
+
+    Long someReleaseId = 1L;
+    Long anotherReleaseId = 2L;
+
+    String someClientAppId = "clientAppId1";
+    String someClientIp = "1.1.1.1";
+    String anotherClientAppId = "clientAppId2";
+    String anotherClientIp = "2.2.2.2";
+
+    GrayReleaseRule someRule = assembleGrayReleaseRule(someAppId, someClusterName, someNamespaceName,
+        "someBranch", Lists.newArrayList(assembleRuleItem(someClientAppId, Sets.newHashSet(someClientIp)),
+            assembleRuleItem(someClientAppId.toUpperCase(), Sets.newHashSet(anotherClientIp))), someReleaseId,
+        NamespaceBranchStatus.ACTIVE);
+    GrayReleaseRule anotherRule = assembleGrayReleaseRule(someAppId, someClusterName, someNamespaceName,
+        "anotherBranch", Lists.newArrayList(assembleRuleItem(anotherClientAppId, Sets.newHashSet(
+            GrayReleaseRuleItemDTO.ALL_IP))), anotherReleaseId, NamespaceBranchStatus.ACTIVE);
+
+    when(bizConfig.grayReleaseRuleScanInterval()).thenReturn(30);
+    when(grayReleaseRuleRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(Lists
+        .newArrayList(someRule, anotherRule));
+
+    grayReleaseRulesHolder.afterPropertiesSet();
+
+    //the ips of the rule items of the same client app are merged
+    assertEquals(someReleaseId, grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule
+        (someClientAppId, someClientIp, someAppId, someClusterName, someNamespaceName));
+    assertEquals(someReleaseId, grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule
+        (someClientAppId, anotherClientIp, someAppId, someClusterName, someNamespaceName));
+    assertEquals(anotherReleaseId, grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule
+        (anotherClientAppId, someClientIp, someAppId, someClusterName, someNamespaceName));
+    assertTrue(grayReleaseRulesHolder.hasGrayReleaseRule(anotherClientAppId, anotherClientIp,
+        someNamespaceName));
+
+    GrayReleaseRule deletedRule = assembleGrayReleaseRule(someAppId, someClusterName, someNamespaceName,
+        "anotherBranch", Lists.newArrayList(assembleRuleItem(anotherClientAppId, Sets.newHashSet(
+            GrayReleaseRuleItemDTO.ALL_IP))), anotherReleaseId, NamespaceBranchStatus.DELETED);
+
+    when(grayReleaseRuleRepository.findByAppIdAndClusterNameAndNamespaceName(someAppId,
+        someClusterName, someNamespaceName)).thenReturn(Lists.newArrayList(someRule, deletedRule));
+
+    grayReleaseRulesHolder.handleMessage(assembleReleaseMessage(someAppId, someClusterName,
+        someNamespaceName), Topics.APOLLO_RELEASE_TOPIC);
+
+    assertEquals(someReleaseId, grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule
+        (someClientAppId, someClientIp, someAppId, someClusterName, someNamespaceName));
+    assertNull(grayReleaseRulesHolder.findReleaseIdFromGrayReleaseRule
+        (anotherClientAppId, someClientIp, someAppId, someClusterName, someNamespaceName));
+    assertFalse(grayReleaseRulesHolder.hasGrayReleaseRule(anotherClientAppId, anotherClientIp,
+        someNamespaceName));
+    assertTrue(grayReleaseRulesHolder.hasGrayReleaseRule(someClientAppId, anotherClientIp,
+        someNamespaceName));
+  }
+
   private GrayReleaseRule assembleGrayReleaseRule(String appId, String clusterName, String
       namespaceName, List<GrayReleaseRuleItemDTO> ruleItems, long releaseId, int branchStatus) {
+    return assembleGrayReleaseRule(appId, clusterName, namespaceName, "someBranch", ruleItems, releaseId,
+        branchStatus);
+  }
+
+  private GrayReleaseRule assembleGrayReleaseRule(String appId, String clusterName, String
+      namespaceName, String branchName, List<GrayReleaseRuleItemDTO> ruleItems, long releaseId,
+      int branchStatus) {
     GrayReleaseRule rule = new GrayReleaseRule();
     rule.setId(idCounter.incrementAndGet());
     rule.setAppId(appId);
     rule.setClusterName(clusterName);
     rule.setNamespaceName(namespaceName);
-    rule.setBranchName("someBranch");
+    rule.setBranchName(branchName);
     rule.setRules(GSON.toJson(ruleItems));
     rule.setReleaseId(releaseId);
     rule.setBranchStatus(branchStatus);
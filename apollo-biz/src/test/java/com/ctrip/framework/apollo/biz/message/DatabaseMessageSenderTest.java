@@ -23,6 +23,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.springframework.context.ApplicationEventPublisher;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
@@ -34,10 +35,12 @@ public class DatabaseMessageSenderTest extends AbstractUnitTest{
   private DatabaseMessageSender messageSender;
   @Mock
   private ReleaseMessageRepository releaseMessageRepository;
+  @Mock
+  private ApplicationEventPublisher publisher;
 
   @Before
   public void setUp() throws Exception {
-    messageSender = new DatabaseMessageSender(releaseMessageRepository);
+    messageSender = new DatabaseMessageSender(releaseMessageRepository, publisher);
   }
 
   @Test
@@ -54,6 +57,10 @@ public class DatabaseMessageSenderTest extends AbstractUnitTest{
 
     verify(releaseMessageRepository, times(1)).save(captor.capture());
     assertEquals(someMessage, captor.getValue().getMessage());
+
+    ArgumentCaptor<ReleaseMessageSavedEvent> eventCaptor = ArgumentCaptor.forClass(ReleaseMessageSavedEvent.class);
+    verify(publisher, times(1)).publishEvent(eventCaptor.capture());
+    assertEquals(someReleaseMessage, eventCaptor.getValue().getReleaseMessage());
   }
 
   @Test
@@ -64,6 +71,7 @@ public class DatabaseMessageSenderTest extends AbstractUnitTest{
     messageSender.sendMessage(someMessage, someUnsupportedTopic);
 
     verify(releaseMessageRepository, never()).save(any(ReleaseMessage.class));
+    verify(publisher, never()).publishEvent(any(ReleaseMessageSavedEvent.class));
   }
 
   @Test(expected = RuntimeException.class)
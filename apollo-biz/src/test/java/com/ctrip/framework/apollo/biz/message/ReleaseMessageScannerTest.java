@@ -29,9 +29,12 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.when;
 
 /**
@@ -94,6 +97,61 @@ public class ReleaseMessageScannerTest extends AbstractUnitTest {
 
   }
 
+  @Test
+  public void testPushedMessageNotifyMessageListener() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushFallbackScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+
+    BlockingQueue<ReleaseMessage> received = new LinkedBlockingQueue<>();
+    releaseMessageScanner.addMessageListener((message, channel) -> received.add(message));
+
+    String someMessage = "someMessage";
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, someMessage);
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    releaseMessageScanner.onMessagePushed(someReleaseMessage.getId());
+
+    assertEquals(someReleaseMessage, received.poll(5000, TimeUnit.MILLISECONDS));
+
+    //the same message pushed again is ignored
+    releaseMessageScanner.onMessagePushed(someReleaseMessage.getId());
+
+    //the missing message is loaded from database as well
+    ReleaseMessage missingReleaseMessage = assembleReleaseMessage(2, "missingMessage");
+    ReleaseMessage anotherReleaseMessage = assembleReleaseMessage(3, "anotherMessage");
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(1L)).thenReturn(
+        Lists.newArrayList(missingReleaseMessage, anotherReleaseMessage));
+
+    releaseMessageScanner.onMessagePushed(anotherReleaseMessage.getId());
+
+    assertEquals(missingReleaseMessage, received.poll(5000, TimeUnit.MILLISECONDS));
+    assertEquals(anotherReleaseMessage, received.poll(5000, TimeUnit.MILLISECONDS));
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testPushedMessageNotInDatabase() throws Exception {
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+    when(bizConfig.releaseMessagePushFallbackScanIntervalInMilli()).thenReturn(Integer.MAX_VALUE);
+
+    BlockingQueue<ReleaseMessage> received = new LinkedBlockingQueue<>();
+    releaseMessageScanner.addMessageListener((message, channel) -> received.add(message));
+
+    //the pushed id doesn't exist in database, so nothing is delivered and the scanned id is not advanced
+    releaseMessageScanner.onMessagePushed(100);
+
+    assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(1, "someMessage");
+    when(releaseMessageRepository.findFirst500ByIdGreaterThanOrderByIdAsc(0L)).thenReturn(
+        Lists.newArrayList(someReleaseMessage));
+
+    releaseMessageScanner.onMessagePushed(someReleaseMessage.getId());
+
+    assertEquals(someReleaseMessage, received.poll(5000, TimeUnit.MILLISECONDS));
+  }
+
   private ReleaseMessage assembleReleaseMessage(long id, String message) {
     ReleaseMessage releaseMessage = new ReleaseMessage();
     releaseMessage.setId(id);
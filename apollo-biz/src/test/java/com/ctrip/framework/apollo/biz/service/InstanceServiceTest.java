@@ -222,6 +222,40 @@ public class InstanceServiceTest extends AbstractIntegrationTest {
   }
 
 
+  @Test
+  @Rollback
+  public void testBatchSaveAndFindInstanceConfigs() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    long yetAnotherInstanceId = 3;
+    String someConfigAppId = "someConfigAppId";
+    String someConfigClusterName = "someConfigClusterName";
+    String someConfigNamespaceName = "someConfigNamespaceName";
+    String anotherConfigNamespaceName = "anotherConfigNamespaceName";
+    String someReleaseKey = "someReleaseKey";
+    String anotherReleaseKey = "anotherReleaseKey";
+
+    InstanceConfig someInstanceConfig = instanceService.createInstanceConfig(assembleInstanceConfig(someInstanceId,
+        someConfigAppId, someConfigClusterName, someConfigNamespaceName, someReleaseKey));
+    someInstanceConfig.setReleaseKey(anotherReleaseKey);
+
+    instanceService.batchSaveInstanceConfigs(Lists.newArrayList(someInstanceConfig,
+        assembleInstanceConfig(anotherInstanceId, someConfigAppId, someConfigClusterName, someConfigNamespaceName,
+            anotherReleaseKey),
+        assembleInstanceConfig(yetAnotherInstanceId, someConfigAppId, someConfigClusterName,
+            anotherConfigNamespaceName, anotherReleaseKey)));
+
+    List<InstanceConfig> instanceConfigs = instanceService.findInstanceConfigs(someConfigAppId,
+        someConfigNamespaceName, Sets.newHashSet(someInstanceId, anotherInstanceId, yetAnotherInstanceId));
+
+    assertEquals(2, instanceConfigs.size());
+    assertEquals(Sets.newHashSet(someInstanceId, anotherInstanceId),
+        instanceConfigs.stream().map(InstanceConfig::getInstanceId).collect(Collectors.toSet()));
+    instanceConfigs.forEach(instanceConfig -> assertEquals(anotherReleaseKey, instanceConfig.getReleaseKey()));
+    assertEquals(someInstanceConfig.getId(), instanceConfigs.stream()
+        .filter(instanceConfig -> instanceConfig.getInstanceId() == someInstanceId).findFirst().get().getId());
+  }
+
   @Test
   @Rollback
   public void testFindInstanceConfigsByNamespaceWithReleaseKeysNotIn() throws Exception {
@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.config.data.extension.properties;
 
 import com.ctrip.framework.apollo.config.data.extension.enums.ApolloClientMessagingType;
+import java.time.Duration;
 
 /**
  * @author vdisk <vdisk@foxmail.com>
@@ -33,6 +34,12 @@ public class ApolloClientExtensionProperties {
    */
   private ApolloClientMessagingType messagingType = ApolloClientMessagingType.LONG_POLLING;
 
+  /**
+   * heartbeat interval of the websocket messaging type, the connection is reopened if no heartbeat is answered within
+   * 3 intervals
+   */
+  private Duration websocketHeartbeatInterval = Duration.ofSeconds(30);
+
   public Boolean getEnabled() {
     return enabled;
   }
@@ -50,11 +57,20 @@ public class ApolloClientExtensionProperties {
     this.messagingType = messagingType;
   }
 
+  public Duration getWebsocketHeartbeatInterval() {
+    return websocketHeartbeatInterval;
+  }
+
+  public void setWebsocketHeartbeatInterval(Duration websocketHeartbeatInterval) {
+    this.websocketHeartbeatInterval = websocketHeartbeatInterval;
+  }
+
   @Override
   public String toString() {
     return "ApolloClientExtensionProperties{" +
         "enabled=" + enabled +
         ", messagingType=" + messagingType +
+        ", websocketHeartbeatInterval=" + websocketHeartbeatInterval +
         '}';
   }
 }
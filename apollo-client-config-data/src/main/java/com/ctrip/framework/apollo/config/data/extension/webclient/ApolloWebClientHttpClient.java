@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.config.data.extension.webclient;
 
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.http.DefaultHttpClient;
 import com.ctrip.framework.apollo.util.http.HttpClient;
 import com.ctrip.framework.apollo.util.http.HttpRequest;
 import com.ctrip.framework.apollo.util.http.HttpResponse;
@@ -25,6 +26,7 @@ import com.google.gson.Gson;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.Map;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.client.WebClient;
@@ -73,7 +75,9 @@ public class ApolloWebClientHttpClient implements HttpClient {
         return Mono.just(new HttpResponse<T>(HttpStatus.NOT_MODIFIED.value(), null));
       }
       return Mono.error(new ApolloConfigStatusCodeException(clientResponse.rawStatusCode(),
-          String.format("Get operation failed for %s", httpRequest.getUrl())));
+          String.format("Get operation failed for %s", httpRequest.getUrl()),
+          DefaultHttpClient.parseRetryAfterInSecond(
+              clientResponse.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER))));
     }).block();
   }
 
@@ -18,16 +18,22 @@ package com.ctrip.framework.apollo.config.data.extension.websocket;
 
 import com.ctrip.framework.apollo.config.data.extension.initialize.ApolloClientExtensionInitializer;
 import com.ctrip.framework.apollo.config.data.extension.properties.ApolloClientProperties;
+import com.ctrip.framework.apollo.config.data.extension.websocket.injector.ApolloClientWebsocketInjectorCustomizer;
+import com.ctrip.framework.apollo.config.data.util.Slf4jLogMessageFormatter;
+import java.time.Duration;
 import org.apache.commons.logging.Log;
 import org.springframework.boot.ConfigurableBootstrapContext;
 import org.springframework.boot.context.properties.bind.BindHandler;
 import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.util.ClassUtils;
 
 /**
  * @author vdisk <vdisk@foxmail.com>
  */
 public class ApolloClientWebsocketExtensionInitializer implements ApolloClientExtensionInitializer {
 
+  private static final String WEBSOCKET_CONTAINER_PROVIDER_CLASS = "javax.websocket.ContainerProvider";
+
   private final Log log;
 
   private final ConfigurableBootstrapContext bootstrapContext;
@@ -41,6 +47,16 @@ public class ApolloClientWebsocketExtensionInitializer implements ApolloClientEx
   @Override
   public void initialize(ApolloClientProperties apolloClientProperties, Binder binder,
       BindHandler bindHandler) {
-    throw new UnsupportedOperationException("apollo client websocket support is not complete yet.");
+    if (!ClassUtils.isPresent(WEBSOCKET_CONTAINER_PROVIDER_CLASS, null)) {
+      this.log.warn(Slf4jLogMessageFormatter.format(
+          "{} not found, apollo client falls back to long polling, add a websocket client implementation such as org.apache.tomcat.embed:tomcat-embed-websocket to use websocket",
+          WEBSOCKET_CONTAINER_PROVIDER_CLASS));
+      return;
+    }
+    Duration heartbeatInterval = apolloClientProperties.getExtension().getWebsocketHeartbeatInterval();
+    if (heartbeatInterval == null || heartbeatInterval.isNegative() || heartbeatInterval.isZero()) {
+      throw new IllegalArgumentException("Invalid websocket heartbeat interval: " + heartbeatInterval);
+    }
+    ApolloClientWebsocketInjectorCustomizer.enable(heartbeatInterval.toMillis());
   }
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.config.data.extension.websocket;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
+import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.core.utils.StringUtils;
+import com.ctrip.framework.apollo.internals.RemoteConfigLongPollService;
+import com.ctrip.framework.apollo.internals.RemoteConfigRepository;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens to the notifications with the websocket of the config service, the notifications are pushed as soon as the
+ * release messages arrive on one persistent connection.
+ *
+ * <p>The client subscribes with its latest notification ids after connecting, so nothing is missed while
+ * reconnecting, and pings the server periodically, the connection is considered dead if nothing is received within 3
+ * heartbeat intervals. If the config service doesn't support the websocket endpoint, e.g. it's an older version or a
+ * proxy in between doesn't support websocket, the client falls back to long polling for a while and then tries the
+ * websocket again. The other handshake failures, e.g. 401 or 503, are retried with the websocket.</p>
+ */
+public class ApolloWebsocketLongPollService extends RemoteConfigLongPollService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ApolloWebsocketLongPollService.class);
+
+  private static final Joiner.MapJoiner MAP_JOINER = Joiner.on("&").withKeyValueSeparator("=");
+
+  private static final Escaper QUERY_PARAM_ESCAPER = UrlEscapers.urlFormParameterEscaper();
+
+  private static final Gson GSON = new Gson();
+
+  private static final int MISSED_HEARTBEATS_TOLERANCE = 3;
+
+  private static final long WEBSOCKET_RETRY_INTERVAL_IN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  //the handshake responses meaning the websocket endpoint is not supported by the server or a proxy in between
+  private static final Set<Integer> WEBSOCKET_UNSUPPORTED_STATUS_CODES = ImmutableSet.of(400, 404, 405, 426, 501);
+
+  //e.g. "The HTTP response from the server [404] did not permit the HTTP upgrade to WebSocket"
+  private static final Pattern HANDSHAKE_STATUS_CODE_PATTERN = Pattern.compile("\\[(\\d{3})\\]");
+
+  private static final ApolloNotificationWebsocketMessage PING = new ApolloNotificationWebsocketMessage(
+      ApolloNotificationWebsocketMessage.PING, null);
+
+  private final ConfigUtil configUtil;
+
+  private final WebSocketContainer container;
+
+  private final long heartbeatIntervalInMillis;
+
+  private final SchedulePolicy failSchedulePolicyInSecond;
+
+  private volatile Session session;
+
+  private volatile long lastReceivedTimeInMillis;
+
+  private volatile boolean messageReceived;
+
+  public ApolloWebsocketLongPollService(long heartbeatIntervalInMillis) {
+    this(ContainerProvider.getWebSocketContainer(), heartbeatIntervalInMillis);
+  }
+
+  public ApolloWebsocketLongPollService(WebSocketContainer container, long heartbeatIntervalInMillis) {
+    this.configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    this.container = container;
+    this.heartbeatIntervalInMillis = heartbeatIntervalInMillis;
+    this.failSchedulePolicyInSecond = new ExponentialSchedulePolicy(1, 120);
+  }
+
+  @Override
+  public boolean submit(String namespace, RemoteConfigRepository remoteConfigRepository) {
+    boolean added = super.submit(namespace, remoteConfigRepository);
+    if (added) {
+      Session current = this.session;
+      if (current != null) {
+        subscribe(current);
+      }
+    }
+    return added;
+  }
+
+  @Override
+  protected void doLongPollingRefresh(String appId, String cluster, String dataCenter,
+      String secret) {
+    Random random = new Random();
+    while (!isLongPollingStopped() && !Thread.currentThread().isInterrupted()) {
+      String url = null;
+      try {
+        List<ServiceDTO> configServices = getConfigServices();
+        ServiceDTO serviceDto = configServices.get(random.nextInt(configServices.size()));
+        url = assembleWebsocketUrl(serviceDto.getHomepageUrl(), appId, cluster, dataCenter);
+        if (!listen(serviceDto, url, appId, secret)) {
+          onListenFailed(url, new IOException("Websocket closed before receiving any message"));
+        }
+      } catch (DeploymentException ex) {
+        if (isWebsocketUnsupported(ex)) {
+          logger.warn("Websocket is not supported, will fall back to long polling for {} minutes. url: {}, reason: {}",
+              TimeUnit.MILLISECONDS.toMinutes(WEBSOCKET_RETRY_INTERVAL_IN_MILLIS), url,
+              ExceptionUtil.getDetailMessage(ex));
+          Tracer.logEvent("Apollo.ConfigService.WebsocketFallback", url);
+          longPollUntil(appId, cluster, dataCenter, secret,
+              System.currentTimeMillis() + WEBSOCKET_RETRY_INTERVAL_IN_MILLIS);
+          continue;
+        }
+        onListenFailed(url, ex);
+      } catch (Throwable ex) {
+        onListenFailed(url, ex);
+      }
+    }
+  }
+
+  /**
+   * @return true if the server responded the handshake with a status code meaning the websocket endpoint is not
+   * supported, the other failures, e.g. io errors, 401 or 503, are transient or not fixed by long polling
+   */
+  static boolean isWebsocketUnsupported(DeploymentException ex) {
+    return WEBSOCKET_UNSUPPORTED_STATUS_CODES.contains(parseHandshakeStatusCode(ex));
+  }
+
+  /**
+   * @return the status code of the handshake response, -1 if unknown
+   */
+  static int parseHandshakeStatusCode(Throwable ex) {
+    for (Throwable current = ex; current != null; current = current.getCause()) {
+      if (current instanceof IOException || current.getMessage() == null) {
+        continue;
+      }
+      Matcher matcher = HANDSHAKE_STATUS_CODE_PATTERN.matcher(current.getMessage());
+      if (matcher.find()) {
+        return Integer.parseInt(matcher.group(1));
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Connects to the config service and blocks until the connection is closed
+   *
+   * @return true if any message is received, which means the connection is working
+   */
+  private boolean listen(final ServiceDTO serviceDto, String url, String appId, String secret)
+      throws DeploymentException, IOException, InterruptedException {
+    final CountDownLatch closed = new CountDownLatch(1);
+    Endpoint endpoint = new Endpoint() {
+      @Override
+      public void onOpen(Session session, EndpointConfig config) {
+        session.addMessageHandler(String.class,
+            (MessageHandler.Whole<String>) text -> onMessage(serviceDto, text));
+      }
+
+      @Override
+      public void onClose(Session session, CloseReason closeReason) {
+        logger.debug("Websocket closed, url: {}, reason: {}", session.getRequestURI(), closeReason);
+        closed.countDown();
+      }
+
+      @Override
+      public void onError(Session session, Throwable throwable) {
+        logger.debug("Websocket error, url: {}", session.getRequestURI(), throwable);
+      }
+    };
+
+    messageReceived = false;
+    Session current = container.connectToServer(endpoint, assembleClientEndpointConfig(url, appId, secret),
+        URI.create(toWebsocketScheme(url)));
+    logger.debug("Websocket connected: {}", url);
+    lastReceivedTimeInMillis = System.currentTimeMillis();
+    this.session = current;
+    try {
+      subscribe(current);
+      //ping right away, so a working connection is confirmed by the pong
+      send(current, PING);
+      while (!closed.await(heartbeatIntervalInMillis, TimeUnit.MILLISECONDS)) {
+        if (isLongPollingStopped()) {
+          break;
+        }
+        if (System.currentTimeMillis() - lastReceivedTimeInMillis
+            > MISSED_HEARTBEATS_TOLERANCE * heartbeatIntervalInMillis) {
+          logger.warn("No heartbeat received from {}, will reconnect", url);
+          break;
+        }
+        send(current, PING);
+      }
+      return messageReceived;
+    } finally {
+      this.session = null;
+      close(current);
+    }
+  }
+
+  private void onMessage(ServiceDTO serviceDto, String text) {
+    lastReceivedTimeInMillis = System.currentTimeMillis();
+    if (!messageReceived) {
+      messageReceived = true;
+      failSchedulePolicyInSecond.success();
+    }
+    ApolloNotificationWebsocketMessage message;
+    try {
+      message = GSON.fromJson(text, ApolloNotificationWebsocketMessage.class);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+      return;
+    }
+    if (message == null || !ApolloNotificationWebsocketMessage.NOTIFY.equals(message.getType())
+        || message.getNotifications() == null) {
+      return;
+    }
+    logger.debug("Websocket notifications: {}", message.getNotifications());
+    onNotifications(serviceDto, message.getNotifications());
+  }
+
+  private void subscribe(Session current) {
+    List<ApolloConfigNotification> notifications = Lists.newArrayList();
+    for (Map.Entry<String, Long> entry : getNotifications().entrySet()) {
+      notifications.add(new ApolloConfigNotification(entry.getKey(), entry.getValue()));
+    }
+    send(current, new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.SUBSCRIBE,
+        notifications));
+  }
+
+  private void send(Session current, ApolloNotificationWebsocketMessage message) {
+    String text = GSON.toJson(message);
+    //the basic remote doesn't allow concurrent sending
+    synchronized (current) {
+      if (!current.isOpen()) {
+        return;
+      }
+      try {
+        current.getBasicRemote().sendText(text);
+      } catch (IOException | RuntimeException ex) {
+        //the listening loop reconnects after closed
+        logger.debug("Send {} failed", message.getType(), ex);
+        close(current);
+      }
+    }
+  }
+
+  private void onListenFailed(String url, Throwable ex) {
+    Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+    long sleepTimeInSecond = failSchedulePolicyInSecond.fail();
+    logger.warn("Websocket listening failed, will retry in {} seconds. url: {}, reason: {}",
+        sleepTimeInSecond, url, ExceptionUtil.getDetailMessage(ex));
+    try {
+      TimeUnit.SECONDS.sleep(sleepTimeInSecond);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private ClientEndpointConfig assembleClientEndpointConfig(final String url, final String appId,
+      final String secret) {
+    return ClientEndpointConfig.Builder.create()
+        .configurator(new ClientEndpointConfig.Configurator() {
+          @Override
+          public void beforeRequest(Map<String, List<String>> headers) {
+            if (StringUtils.isBlank(secret)) {
+              return;
+            }
+            //signed with the http url as the path and query are the same
+            for (Map.Entry<String, String> header : Signature.buildHttpHeaders(url, appId, secret)
+                .entrySet()) {
+              headers.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+          }
+        }).build();
+  }
+
+  String assembleWebsocketUrl(String uri, String appId, String cluster, String dataCenter) {
+    Map<String, String> queryParams = Maps.newHashMap();
+    queryParams.put("appId", QUERY_PARAM_ESCAPER.escape(appId));
+    queryParams.put("cluster", QUERY_PARAM_ESCAPER.escape(cluster));
+    if (!Strings.isNullOrEmpty(dataCenter)) {
+      queryParams.put("dataCenter", QUERY_PARAM_ESCAPER.escape(dataCenter));
+    }
+    String localIp = configUtil.getLocalIp();
+    if (!Strings.isNullOrEmpty(localIp)) {
+      queryParams.put("ip", QUERY_PARAM_ESCAPER.escape(localIp));
+    }
+
+    if (!uri.endsWith("/")) {
+      uri += "/";
+    }
+    return uri + "notifications/v2/websocket?" + MAP_JOINER.join(queryParams);
+  }
+
+  static String toWebsocketScheme(String url) {
+    if (url.startsWith("https://")) {
+      return "wss://" + url.substring("https://".length());
+    }
+    if (url.startsWith("http://")) {
+      return "ws://" + url.substring("http://".length());
+    }
+    return url;
+  }
+
+  private static void close(Session current) {
+    try {
+      current.close();
+    } catch (IOException | RuntimeException ex) {
+      logger.debug("Close websocket session failed", ex);
+    }
+  }
+}
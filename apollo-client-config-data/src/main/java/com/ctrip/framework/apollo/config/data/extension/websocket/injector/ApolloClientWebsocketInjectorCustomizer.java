@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.config.data.extension.websocket.injector;
+
+import com.ctrip.framework.apollo.config.data.extension.websocket.ApolloWebsocketLongPollService;
+import com.ctrip.framework.apollo.core.spi.Ordered;
+import com.ctrip.framework.apollo.internals.RemoteConfigLongPollService;
+import com.ctrip.framework.apollo.spi.ApolloInjectorCustomizer;
+
+/**
+ * Replaces the long polling with the websocket once enabled
+ */
+public class ApolloClientWebsocketInjectorCustomizer implements ApolloInjectorCustomizer {
+
+  /**
+   * the order of the injector customizer
+   */
+  public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+  private static volatile long HEARTBEAT_INTERVAL_IN_MILLIS = -1;
+
+  private static volatile RemoteConfigLongPollService LONG_POLL_SERVICE;
+
+  /**
+   * enable the websocket messaging, the service is created on first use as it's a singleton of the client
+   *
+   * @param heartbeatIntervalInMillis heartbeat interval of the websocket
+   */
+  public static void enable(long heartbeatIntervalInMillis) {
+    HEARTBEAT_INTERVAL_IN_MILLIS = heartbeatIntervalInMillis;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T getInstance(Class<T> clazz) {
+    if (clazz != RemoteConfigLongPollService.class || HEARTBEAT_INTERVAL_IN_MILLIS <= 0) {
+      return null;
+    }
+    if (LONG_POLL_SERVICE == null) {
+      synchronized (ApolloClientWebsocketInjectorCustomizer.class) {
+        if (LONG_POLL_SERVICE == null) {
+          LONG_POLL_SERVICE = new ApolloWebsocketLongPollService(HEARTBEAT_INTERVAL_IN_MILLIS);
+        }
+      }
+    }
+    return (T) LONG_POLL_SERVICE;
+  }
+
+  @Override
+  public <T> T getInstance(Class<T> clazz, String name) {
+    return null;
+  }
+
+  @Override
+  public int getOrder() {
+    return ORDER;
+  }
+}
@@ -19,6 +19,7 @@ package com.ctrip.framework.apollo.config.data.extension.initialize;
 import com.ctrip.framework.apollo.config.data.extension.enums.ApolloClientMessagingType;
 import com.ctrip.framework.apollo.config.data.extension.properties.ApolloClientProperties;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.junit.Assert;
@@ -46,4 +47,20 @@ public class ApolloClientPropertiesFactoryTest {
     Assert.assertEquals(apolloClientProperties.getExtension().getMessagingType(),
         ApolloClientMessagingType.LONG_POLLING);
   }
+
+  @Test
+  public void testCreateApolloClientPropertiesWithWebsocket() {
+    Map<String, String> map = new LinkedHashMap<>();
+    map.put("apollo.client.extension.enabled", "true");
+    map.put("apollo.client.extension.messaging-type", "websocket");
+    map.put("apollo.client.extension.websocket-heartbeat-interval", "10s");
+    Binder binder = new Binder(new MapConfigurationPropertySource(map));
+    ApolloClientProperties apolloClientProperties = new ApolloClientPropertiesFactory()
+        .createApolloClientProperties(binder, null);
+
+    Assert.assertEquals(ApolloClientMessagingType.WEBSOCKET,
+        apolloClientProperties.getExtension().getMessagingType());
+    Assert.assertEquals(Duration.ofSeconds(10),
+        apolloClientProperties.getExtension().getWebsocketHeartbeatInterval());
+  }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.config.data.extension.websocket;
+
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.core.ApolloClientSystemConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.internals.RemoteConfigRepository;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.MessageHandler;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ApolloWebsocketLongPollServiceTest {
+
+  private static final Gson GSON = new Gson();
+
+  private static final long HEARTBEAT_INTERVAL_IN_MILLIS = 100;
+
+  private static final String SOME_SERVER_URL = "http://someServer";
+
+  private final List<StubConnection> connections = new CopyOnWriteArrayList<>();
+
+  private ServiceDTO someServiceDto;
+
+  private ApolloWebsocketLongPollService longPollService;
+
+  @Before
+  public void setUp() throws Exception {
+    //keeps the config service locator away from the meta server
+    System.setProperty(ApolloClientSystemConsts.APOLLO_CONFIG_SERVICE, SOME_SERVER_URL);
+
+    someServiceDto = new ServiceDTO();
+    someServiceDto.setHomepageUrl(SOME_SERVER_URL);
+
+    WebSocketContainer container = mock(WebSocketContainer.class);
+    when(container.connectToServer(any(Endpoint.class), any(ClientEndpointConfig.class), any(URI.class)))
+        .thenAnswer(invocation -> {
+          StubConnection connection = new StubConnection((Endpoint) invocation.getArguments()[0],
+              (URI) invocation.getArguments()[2]);
+          connection.endpoint.onOpen(connection.session, (ClientEndpointConfig) invocation.getArguments()[1]);
+          connections.add(connection);
+          return connection.session;
+        });
+
+    longPollService = new ApolloWebsocketLongPollService(container, HEARTBEAT_INTERVAL_IN_MILLIS) {
+      @Override
+      protected List<ServiceDTO> getConfigServices() {
+        return Collections.singletonList(someServiceDto);
+      }
+    };
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    ReflectionTestUtils.invokeMethod(longPollService, "stopLongPollingRefresh");
+    for (StubConnection connection : connections) {
+      connection.session.close();
+    }
+    System.clearProperty(ApolloClientSystemConsts.APOLLO_CONFIG_SERVICE);
+  }
+
+  @Test
+  public void testSubscribeOnConnect() throws Exception {
+    String someNamespace = "someNamespace";
+
+    longPollService.submit(someNamespace, mock(RemoteConfigRepository.class));
+
+    StubConnection connection = awaitConnection(0);
+    Assert.assertTrue(connection.uri.toString().startsWith("ws://someServer/notifications/v2/websocket?"));
+    ApolloNotificationWebsocketMessage subscribe = connection.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE);
+    Assert.assertEquals(Collections.singletonMap(someNamespace, -1L), toNotificationIds(subscribe));
+  }
+
+  @Test
+  public void testNotifyRepositories() throws Exception {
+    String someNamespace = "someNamespace";
+    long someNotificationId = 10;
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+
+    longPollService.submit(someNamespace, someRepository);
+    StubConnection connection = awaitConnection(0);
+    connection.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE);
+
+    connection.receive(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.NOTIFY,
+        Lists.newArrayList(new ApolloConfigNotification(someNamespace, someNotificationId))));
+
+    ArgumentCaptor<ApolloNotificationMessages> messagesCaptor = ArgumentCaptor
+        .forClass(ApolloNotificationMessages.class);
+    verify(someRepository, timeout(1000)).onLongPollNotified(eq(someServiceDto), messagesCaptor.capture());
+    //the next subscription starts from the notified id
+    longPollService.submit("anotherNamespace", mock(RemoteConfigRepository.class));
+    ApolloNotificationWebsocketMessage subscribe = connection.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE,
+        2);
+    Assert.assertEquals(someNotificationId, (long) toNotificationIds(subscribe).get(someNamespace));
+  }
+
+  @Test
+  public void testReconnectAfterMissedPongs() throws Exception {
+    String someNamespace = "someNamespace";
+
+    longPollService.submit(someNamespace, mock(RemoteConfigRepository.class));
+    StubConnection connection = awaitConnection(0);
+    connection.awaitSent(ApolloNotificationWebsocketMessage.PING);
+    connection.receive(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.PONG, null));
+
+    //no more pongs from the server
+    StubConnection reconnected = awaitConnection(1);
+
+    Assert.assertFalse(connection.open.get());
+    Assert.assertTrue(connection.sentTypes().size() > 2);
+    ApolloNotificationWebsocketMessage subscribe = reconnected.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE);
+    Assert.assertEquals(Collections.singletonMap(someNamespace, -1L), toNotificationIds(subscribe));
+  }
+
+  @Test
+  public void testResubscribeOnSubmitWhileConnected() throws Exception {
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+
+    longPollService.submit(someNamespace, mock(RemoteConfigRepository.class));
+    StubConnection connection = awaitConnection(0);
+    connection.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE);
+
+    longPollService.submit(anotherNamespace, mock(RemoteConfigRepository.class));
+
+    ApolloNotificationWebsocketMessage subscribe = connection.awaitSent(ApolloNotificationWebsocketMessage.SUBSCRIBE,
+        2);
+    Assert.assertEquals(2, toNotificationIds(subscribe).size());
+    Assert.assertTrue(toNotificationIds(subscribe).containsKey(someNamespace));
+    Assert.assertTrue(toNotificationIds(subscribe).containsKey(anotherNamespace));
+    Assert.assertEquals(1, connections.size());
+  }
+
+
+  @Test
+  public void testWebsocketUnsupported() {
+    Assert.assertTrue(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "The HTTP response from the server [404] did not permit the HTTP upgrade to WebSocket")));
+    Assert.assertTrue(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "The HTTP response from the server [426] did not permit the HTTP upgrade to WebSocket")));
+  }
+
+  @Test
+  public void testWebsocketHandshakeFailedTransiently() {
+    Assert.assertFalse(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "The HTTP response from the server [401] did not permit the HTTP upgrade to WebSocket")));
+    Assert.assertFalse(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "The HTTP response from the server [503] did not permit the HTTP upgrade to WebSocket")));
+    Assert.assertFalse(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "The HTTP request to initiate the WebSocket connection failed", new IOException("[404] connection reset"))));
+    Assert.assertFalse(ApolloWebsocketLongPollService.isWebsocketUnsupported(new DeploymentException(
+        "Handshake failed")));
+  }
+
+  @Test
+  public void testParseHandshakeStatusCodeFromCause() {
+    Assert.assertEquals(404, ApolloWebsocketLongPollService.parseHandshakeStatusCode(new DeploymentException(
+        "Handshake failed", new IllegalStateException("Unexpected response [404]"))));
+  }
+
+  private StubConnection awaitConnection(int index) {
+    //the long polling starts after the initial delay of the client
+    await().atMost(10, TimeUnit.SECONDS).until(() -> connections.size() > index);
+    return connections.get(index);
+  }
+
+  private static Map<String, Long> toNotificationIds(ApolloNotificationWebsocketMessage message) {
+    Map<String, Long> notificationIds = Maps.newHashMap();
+    for (ApolloConfigNotification notification : message.getNotifications()) {
+      notificationIds.put(notification.getNamespaceName(), notification.getNotificationId());
+    }
+    return notificationIds;
+  }
+
+  /**
+   * A websocket connection to the config service, the session records the sent messages and the server side is
+   * driven by the test
+   */
+  private static class StubConnection {
+
+    private final Endpoint endpoint;
+    private final URI uri;
+    private final Session session;
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    private final List<ApolloNotificationWebsocketMessage> sent = new CopyOnWriteArrayList<>();
+    private volatile MessageHandler.Whole<String> messageHandler;
+
+    @SuppressWarnings("unchecked")
+    StubConnection(Endpoint endpoint, URI uri) throws IOException {
+      this.endpoint = endpoint;
+      this.uri = uri;
+      this.session = mock(Session.class);
+      RemoteEndpoint.Basic basicRemote = mock(RemoteEndpoint.Basic.class);
+      doAnswer(invocation -> sent.add(GSON.fromJson((String) invocation.getArguments()[0],
+          ApolloNotificationWebsocketMessage.class))).when(basicRemote).sendText(anyString());
+      doAnswer(invocation -> messageHandler = (MessageHandler.Whole<String>) invocation.getArguments()[1])
+          .when(session).addMessageHandler(eq(String.class), any(MessageHandler.Whole.class));
+      doAnswer(invocation -> {
+        if (open.compareAndSet(true, false)) {
+          endpoint.onClose(session, new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+        }
+        return null;
+      }).when(session).close();
+      when(session.isOpen()).thenAnswer(invocation -> open.get());
+      when(session.getBasicRemote()).thenReturn(basicRemote);
+      when(session.getRequestURI()).thenReturn(uri);
+    }
+
+    void receive(ApolloNotificationWebsocketMessage message) {
+      messageHandler.onMessage(GSON.toJson(message));
+    }
+
+    List<String> sentTypes() {
+      List<String> types = Lists.newArrayList();
+      for (ApolloNotificationWebsocketMessage message : sent) {
+        types.add(message.getType());
+      }
+      return types;
+    }
+
+    ApolloNotificationWebsocketMessage awaitSent(String type) {
+      return awaitSent(type, 1);
+    }
+
+    /**
+     * @return the last sent message of the type, once the type has been sent the given times
+     */
+    ApolloNotificationWebsocketMessage awaitSent(String type, int times) {
+      await().atMost(5, TimeUnit.SECONDS).until(() -> Collections.frequency(sentTypes(), type) >= times);
+      ApolloNotificationWebsocketMessage last = null;
+      for (ApolloNotificationWebsocketMessage message : sent) {
+        if (type.equals(message.getType())) {
+          last = message;
+        }
+      }
+      return last;
+    }
+  }
+}
@@ -19,9 +19,13 @@ package com.ctrip.framework.apollo;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
+import com.ctrip.framework.apollo.internals.BatchConfigManager;
 import com.ctrip.framework.apollo.internals.ConfigManager;
 import com.ctrip.framework.apollo.spi.ConfigFactory;
 import com.ctrip.framework.apollo.spi.ConfigRegistry;
+import com.google.common.collect.Maps;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Entry point for client config use
@@ -77,6 +81,25 @@ public class ConfigService {
     return s_instance.getManager().getConfig(namespace);
   }
 
+  /**
+   * Get the config instances for the namespaces, the ones not loaded yet are loaded concurrently.
+   *
+   * @param namespaces the namespaces of the configs
+   * @return config instances keyed by namespace, in the order of the namespaces
+   */
+  public static Map<String, Config> getConfigs(Collection<String> namespaces) {
+    ConfigManager configManager = s_instance.getManager();
+    if (configManager instanceof BatchConfigManager) {
+      return ((BatchConfigManager) configManager).getConfigs(namespaces);
+    }
+
+    Map<String, Config> configs = Maps.newLinkedHashMap();
+    for (String namespace : namespaces) {
+      configs.put(namespace, configManager.getConfig(namespace));
+    }
+    return configs;
+  }
+
   public static ConfigFile getConfigFile(String namespace, ConfigFileFormat configFileFormat) {
     return s_instance.getManager().getConfigFile(namespace, configFileFormat);
   }
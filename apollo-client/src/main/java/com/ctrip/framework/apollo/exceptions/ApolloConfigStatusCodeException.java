@@ -21,18 +21,36 @@ package com.ctrip.framework.apollo.exceptions;
  */
 public class ApolloConfigStatusCodeException extends RuntimeException{
   private final int m_statusCode;
+  private final long m_retryAfterInSecond;
 
   public ApolloConfigStatusCodeException(int statusCode, String message) {
+    this(statusCode, message, 0);
+  }
+
+  public ApolloConfigStatusCodeException(int statusCode, String message, long retryAfterInSecond) {
     super(String.format("[status code: %d] %s", statusCode, message));
     this.m_statusCode = statusCode;
+    this.m_retryAfterInSecond = retryAfterInSecond;
   }
 
   public ApolloConfigStatusCodeException(int statusCode, Throwable cause) {
+    this(statusCode, cause, 0);
+  }
+
+  public ApolloConfigStatusCodeException(int statusCode, Throwable cause, long retryAfterInSecond) {
     super(cause);
     this.m_statusCode = statusCode;
+    this.m_retryAfterInSecond = retryAfterInSecond;
   }
 
   public int getStatusCode() {
     return m_statusCode;
   }
+
+  /**
+   * @return the seconds the server asks to wait before retrying, 0 if not asked
+   */
+  public long getRetryAfterInSecond() {
+    return m_retryAfterInSecond;
+  }
 }
@@ -37,15 +37,22 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -54,36 +61,48 @@ public abstract class AbstractConfig implements Config {
   private static final Logger logger = LoggerFactory.getLogger(AbstractConfig.class);
 
   private static final ExecutorService m_executorService;
+  private static final int NOTIFY_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+  private static final long NOTIFY_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+
+  //the types of the parsed values kept in a TypedValueSlot
+  private static final int INT = 0;
+  private static final int LONG = 1;
+  private static final int SHORT = 2;
+  private static final int FLOAT = 3;
+  private static final int DOUBLE = 4;
+  private static final int BYTE = 5;
+  private static final int BOOLEAN = 6;
+  private static final int DATE = 7;
+  private static final int DURATION = 8;
+  private static final int TYPES = 9;
+
+  private static final Callable<TypedValueSlot> NEW_TYPED_VALUE_SLOT = new Callable<TypedValueSlot>() {
+    @Override
+    public TypedValueSlot call() {
+      return new TypedValueSlot();
+    }
+  };
 
-  private final List<ConfigChangeListener> m_listeners = Lists.newCopyOnWriteArrayList();
-  private final Map<ConfigChangeListener, Set<String>> m_interestedKeys = Maps.newConcurrentMap();
-  private final Map<ConfigChangeListener, Set<String>> m_interestedKeyPrefixes = Maps.newConcurrentMap();
+  private final ConfigChangeListenerIndex m_listenerIndex = new ConfigChangeListenerIndex();
+  //notify each listener in order of the changes
+  private final ConcurrentMap<ConfigChangeListener, Executor> m_listenerExecutors = Maps.newConcurrentMap();
   private final ConfigUtil m_configUtil;
-  private volatile Cache<String, Integer> m_integerCache;
-  private volatile Cache<String, Long> m_longCache;
-  private volatile Cache<String, Short> m_shortCache;
-  private volatile Cache<String, Float> m_floatCache;
-  private volatile Cache<String, Double> m_doubleCache;
-  private volatile Cache<String, Byte> m_byteCache;
-  private volatile Cache<String, Boolean> m_booleanCache;
-  private volatile Cache<String, Date> m_dateCache;
-  private volatile Cache<String, Long> m_durationCache;
-  private final Map<String, Cache<String, String[]>> m_arrayCache;
-  private final List<Cache> allCaches;
-  private final AtomicLong m_configVersion; //indicate config version
+  //the parsed values of the current config, replaced as a whole when the config changes
+  private volatile Cache<String, TypedValueSlot> m_typedValueCache;
 
   protected PropertiesFactory propertiesFactory;
 
   static {
-    m_executorService = Executors.newCachedThreadPool(ApolloThreadFactory
-        .create("Config", true));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(NOTIFY_THREADS, NOTIFY_THREADS,
+        NOTIFY_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        ApolloThreadFactory.create("Config", true));
+    executor.allowCoreThreadTimeOut(true);
+    m_executorService = executor;
   }
 
   public AbstractConfig() {
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
-    m_configVersion = new AtomicLong();
-    m_arrayCache = Maps.newConcurrentMap();
-    allCaches = Lists.newArrayList();
+    m_typedValueCache = newTypedValueCache();
     propertiesFactory = ApolloInjector.getInstance(PropertiesFactory.class);
   }
 
@@ -99,36 +118,22 @@ public abstract class AbstractConfig implements Config {
 
   @Override
   public void addChangeListener(ConfigChangeListener listener, Set<String> interestedKeys, Set<String> interestedKeyPrefixes) {
-    if (!m_listeners.contains(listener)) {
-      m_listeners.add(listener);
-      if (interestedKeys != null && !interestedKeys.isEmpty()) {
-        m_interestedKeys.put(listener, Sets.newHashSet(interestedKeys));
-      }
-      if (interestedKeyPrefixes != null && !interestedKeyPrefixes.isEmpty()) {
-        m_interestedKeyPrefixes.put(listener, Sets.newHashSet(interestedKeyPrefixes));
-      }
-    }
+    //the executor is put ahead so that it's there once the listener could be matched
+    m_listenerExecutors.putIfAbsent(listener, MoreExecutors.newSequentialExecutor(m_executorService));
+    m_listenerIndex.add(listener, interestedKeys, interestedKeyPrefixes);
   }
 
   @Override
   public boolean removeChangeListener(ConfigChangeListener listener) {
-    m_interestedKeys.remove(listener);
-    m_interestedKeyPrefixes.remove(listener);
-    return m_listeners.remove(listener);
+    boolean removed = m_listenerIndex.remove(listener);
+    m_listenerExecutors.remove(listener);
+    return removed;
   }
 
   @Override
   public Integer getIntProperty(String key, Integer defaultValue) {
     try {
-      if (m_integerCache == null) {
-        synchronized (this) {
-          if (m_integerCache == null) {
-            m_integerCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_INT_FUNCTION, m_integerCache, defaultValue);
+      return getValueFromCache(key, INT, Functions.TO_INT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getIntProperty for %s failed, return default value %d", key,
@@ -140,15 +145,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Long getLongProperty(String key, Long defaultValue) {
     try {
-      if (m_longCache == null) {
-        synchronized (this) {
-          if (m_longCache == null) {
-            m_longCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_LONG_FUNCTION, m_longCache, defaultValue);
+      return getValueFromCache(key, LONG, Functions.TO_LONG_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getLongProperty for %s failed, return default value %d", key,
@@ -160,15 +157,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Short getShortProperty(String key, Short defaultValue) {
     try {
-      if (m_shortCache == null) {
-        synchronized (this) {
-          if (m_shortCache == null) {
-            m_shortCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_SHORT_FUNCTION, m_shortCache, defaultValue);
+      return getValueFromCache(key, SHORT, Functions.TO_SHORT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getShortProperty for %s failed, return default value %d", key,
@@ -180,15 +169,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Float getFloatProperty(String key, Float defaultValue) {
     try {
-      if (m_floatCache == null) {
-        synchronized (this) {
-          if (m_floatCache == null) {
-            m_floatCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_FLOAT_FUNCTION, m_floatCache, defaultValue);
+      return getValueFromCache(key, FLOAT, Functions.TO_FLOAT_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getFloatProperty for %s failed, return default value %f", key,
@@ -200,15 +181,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Double getDoubleProperty(String key, Double defaultValue) {
     try {
-      if (m_doubleCache == null) {
-        synchronized (this) {
-          if (m_doubleCache == null) {
-            m_doubleCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DOUBLE_FUNCTION, m_doubleCache, defaultValue);
+      return getValueFromCache(key, DOUBLE, Functions.TO_DOUBLE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDoubleProperty for %s failed, return default value %f", key,
@@ -220,15 +193,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Byte getByteProperty(String key, Byte defaultValue) {
     try {
-      if (m_byteCache == null) {
-        synchronized (this) {
-          if (m_byteCache == null) {
-            m_byteCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_BYTE_FUNCTION, m_byteCache, defaultValue);
+      return getValueFromCache(key, BYTE, Functions.TO_BYTE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getByteProperty for %s failed, return default value %d", key,
@@ -240,15 +205,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Boolean getBooleanProperty(String key, Boolean defaultValue) {
     try {
-      if (m_booleanCache == null) {
-        synchronized (this) {
-          if (m_booleanCache == null) {
-            m_booleanCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_BOOLEAN_FUNCTION, m_booleanCache, defaultValue);
+      return getValueFromCache(key, BOOLEAN, Functions.TO_BOOLEAN_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getBooleanProperty for %s failed, return default value %b", key,
@@ -260,27 +217,20 @@ public abstract class AbstractConfig implements Config {
   @Override
   public String[] getArrayProperty(String key, final String delimiter, String[] defaultValue) {
     try {
-      if (!m_arrayCache.containsKey(delimiter)) {
-        synchronized (this) {
-          if (!m_arrayCache.containsKey(delimiter)) {
-            m_arrayCache.put(delimiter, this.<String[]>newCache());
-          }
-        }
-      }
-
-      Cache<String, String[]> cache = m_arrayCache.get(delimiter);
-      String[] result = cache.getIfPresent(key);
+      Map<String, String[]> arrays = typedValueSlotOf(key).arrays();
+      String[] result = arrays.get(delimiter);
 
       if (result != null) {
         return result;
       }
 
-      return getValueAndStoreToCache(key, new Function<String, String[]>() {
-        @Override
-        public String[] apply(String input) {
-          return input.split(delimiter);
-        }
-      }, cache, defaultValue);
+      String value = getProperty(key, null);
+
+      if (value != null) {
+        result = value.split(delimiter);
+        arrays.put(delimiter, result);
+        return result;
+      }
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getArrayProperty for %s failed, return default value", key), ex));
@@ -308,15 +258,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public Date getDateProperty(String key, Date defaultValue) {
     try {
-      if (m_dateCache == null) {
-        synchronized (this) {
-          if (m_dateCache == null) {
-            m_dateCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DATE_FUNCTION, m_dateCache, defaultValue);
+      return getValueFromCache(key, DATE, Functions.TO_DATE_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDateProperty for %s failed, return default value %s", key,
@@ -363,15 +305,7 @@ public abstract class AbstractConfig implements Config {
   @Override
   public long getDurationProperty(String key, long defaultValue) {
     try {
-      if (m_durationCache == null) {
-        synchronized (this) {
-          if (m_durationCache == null) {
-            m_durationCache = newCache();
-          }
-        }
-      }
-
-      return getValueFromCache(key, Functions.TO_DURATION_FUNCTION, m_durationCache, defaultValue);
+      return getValueFromCache(key, DURATION, Functions.TO_DURATION_FUNCTION, defaultValue);
     } catch (Throwable ex) {
       Tracer.logError(new ApolloConfigException(
           String.format("getDurationProperty for %s failed, return default value %d", key,
@@ -398,29 +332,23 @@ public abstract class AbstractConfig implements Config {
     return defaultValue;
   }
 
-  private <T> T getValueFromCache(String key, Function<String, T> parser, Cache<String, T> cache, T defaultValue) {
-    T result = cache.getIfPresent(key);
+  private <T> T getValueFromCache(String key, int type, Function<String, T> parser, T defaultValue)
+      throws ExecutionException {
+    //the slot is of the config the value is read from, so a value parsed during a change is dropped with the slot
+    TypedValueSlot slot = typedValueSlotOf(key);
+    T result = slot.get(type);
 
     if (result != null) {
       return result;
     }
 
-    return getValueAndStoreToCache(key, parser, cache, defaultValue);
-  }
-
-  private <T> T getValueAndStoreToCache(String key, Function<String, T> parser, Cache<String, T> cache, T defaultValue) {
-    long currentConfigVersion = m_configVersion.get();
     String value = getProperty(key, null);
 
     if (value != null) {
-      T result = parser.apply(value);
+      result = parser.apply(value);
 
       if (result != null) {
-        synchronized (this) {
-          if (m_configVersion.get() == currentConfigVersion) {
-            cache.put(key, result);
-          }
-        }
+        slot.set(type, result);
         return result;
       }
     }
@@ -428,42 +356,35 @@ public abstract class AbstractConfig implements Config {
     return defaultValue;
   }
 
-  private <T> Cache<String, T> newCache() {
-    Cache<String, T> cache = CacheBuilder.newBuilder()
+  private TypedValueSlot typedValueSlotOf(String key) throws ExecutionException {
+    return m_typedValueCache.get(key, NEW_TYPED_VALUE_SLOT);
+  }
+
+  private Cache<String, TypedValueSlot> newTypedValueCache() {
+    return CacheBuilder.newBuilder()
         .maximumSize(m_configUtil.getMaxConfigCacheSize())
         .expireAfterAccess(m_configUtil.getConfigCacheExpireTime(), m_configUtil.getConfigCacheExpireTimeUnit())
         .build();
-    allCaches.add(cache);
-    return cache;
   }
 
   /**
    * Clear config cache
    */
   protected void clearConfigCache() {
-    synchronized (this) {
-      for (Cache c : allCaches) {
-        if (c != null) {
-          c.invalidateAll();
-        }
-      }
-      m_configVersion.incrementAndGet();
-    }
+    m_typedValueCache = newTypedValueCache();
   }
 
   /**
    * @param changes map's key is config property's key
    */
   protected void fireConfigChange(String namespace, Map<String, ConfigChange> changes) {
-    final Set<String> changedKeys = changes.keySet();
-    final List<ConfigChangeListener> listeners = this.findMatchedConfigChangeListeners(changedKeys);
+    final Map<ConfigChangeListener, Set<String>> listeners = m_listenerIndex.match(changes.keySet());
 
     // notify those listeners
-    for (ConfigChangeListener listener : listeners) {
-      Set<String> interestedChangedKeys = resolveInterestedChangedKeys(listener, changedKeys);
+    for (Map.Entry<ConfigChangeListener, Set<String>> listener : listeners.entrySet()) {
       InterestedConfigChangeEvent interestedConfigChangeEvent = new InterestedConfigChangeEvent(
-          namespace, changes, interestedChangedKeys);
-      this.notifyAsync(listener, interestedConfigChangeEvent);
+          namespace, changes, listener.getValue());
+      this.notifyAsync(listener.getKey(), interestedConfigChangeEvent);
     }
   }
 
@@ -471,8 +392,7 @@ public abstract class AbstractConfig implements Config {
    * Fire the listeners by event.
    */
   protected void fireConfigChange(final ConfigChangeEvent changeEvent) {
-    final List<ConfigChangeListener> listeners = this
-        .findMatchedConfigChangeListeners(changeEvent.changedKeys());
+    final Set<ConfigChangeListener> listeners = m_listenerIndex.match(changeEvent.changedKeys()).keySet();
 
     // notify those listeners
     for (ConfigChangeListener listener : listeners) {
@@ -480,19 +400,13 @@ public abstract class AbstractConfig implements Config {
     }
   }
 
-  private List<ConfigChangeListener> findMatchedConfigChangeListeners(Set<String> changedKeys) {
-    final List<ConfigChangeListener> configChangeListeners = new ArrayList<>();
-    for (ConfigChangeListener configChangeListener : this.m_listeners) {
-      // check whether the listener is interested in this change event
-      if (this.isConfigChangeListenerInterested(configChangeListener, changedKeys)) {
-        configChangeListeners.add(configChangeListener);
-      }
-    }
-    return configChangeListeners;
-  }
-
   private void notifyAsync(final ConfigChangeListener listener, final ConfigChangeEvent changeEvent) {
-    m_executorService.submit(new Runnable() {
+    Executor executor = m_listenerExecutors.get(listener);
+    if (executor == null) {
+      //removed in the meantime
+      executor = m_executorService;
+    }
+    executor.execute(new Runnable() {
       @Override
       public void run() {
         String listenerName = listener.getClass().getName();
@@ -511,62 +425,6 @@ public abstract class AbstractConfig implements Config {
     });
   }
 
-  private boolean isConfigChangeListenerInterested(ConfigChangeListener configChangeListener, Set<String> changedKeys) {
-    Set<String> interestedKeys = m_interestedKeys.get(configChangeListener);
-    Set<String> interestedKeyPrefixes = m_interestedKeyPrefixes.get(configChangeListener);
-
-    if ((interestedKeys == null || interestedKeys.isEmpty())
-        && (interestedKeyPrefixes == null || interestedKeyPrefixes.isEmpty())) {
-      return true; // no interested keys means interested in all keys
-    }
-
-    if (interestedKeys != null) {
-      for (String interestedKey : interestedKeys) {
-        if (changedKeys.contains(interestedKey)) {
-          return true;
-        }
-      }
-    }
-
-    if (interestedKeyPrefixes != null) {
-      for (String prefix : interestedKeyPrefixes) {
-        for (final String changedKey : changedKeys) {
-          if (changedKey.startsWith(prefix)) {
-            return true;
-          }
-        }
-      }
-    }
-
-    return false;
-  }
-
-  private Set<String> resolveInterestedChangedKeys(ConfigChangeListener configChangeListener, Set<String> changedKeys) {
-    Set<String> interestedChangedKeys = new HashSet<>();
-
-    if (this.m_interestedKeys.containsKey(configChangeListener)) {
-      Set<String> interestedKeys = this.m_interestedKeys.get(configChangeListener);
-      for (String interestedKey : interestedKeys) {
-        if (changedKeys.contains(interestedKey)) {
-          interestedChangedKeys.add(interestedKey);
-        }
-      }
-    }
-
-    if (this.m_interestedKeyPrefixes.containsKey(configChangeListener)) {
-      Set<String> interestedKeyPrefixes = this.m_interestedKeyPrefixes.get(configChangeListener);
-      for (String interestedKeyPrefix : interestedKeyPrefixes) {
-        for (String changedKey : changedKeys) {
-          if (changedKey.startsWith(interestedKeyPrefix)) {
-            interestedChangedKeys.add(changedKey);
-          }
-        }
-      }
-    }
-
-    return Collections.unmodifiableSet(interestedChangedKeys);
-  }
-
   List<ConfigChange> calcPropertyChanges(String namespace, Properties previous,
                                          Properties current) {
     if (previous == null) {
@@ -608,4 +466,32 @@ public abstract class AbstractConfig implements Config {
 
     return changes;
   }
+
+  /**
+   * The parsed values of one key, one value per type and one array per delimiter
+   */
+  private static class TypedValueSlot {
+    private final AtomicReferenceArray<Object> m_values = new AtomicReferenceArray<>(TYPES);
+    private volatile Map<String, String[]> m_arrays;
+
+    @SuppressWarnings("unchecked")
+    <T> T get(int type) {
+      return (T) m_values.get(type);
+    }
+
+    void set(int type, Object value) {
+      m_values.set(type, value);
+    }
+
+    Map<String, String[]> arrays() {
+      if (m_arrays == null) {
+        synchronized (this) {
+          if (m_arrays == null) {
+            m_arrays = Maps.newConcurrentMap();
+          }
+        }
+      }
+      return m_arrays;
+    }
+  }
 }
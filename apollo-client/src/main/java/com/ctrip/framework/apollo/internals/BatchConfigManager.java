@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.ctrip.framework.apollo.Config;
+
+/**
+ * The config manager which could load the configs of several namespaces at once, the custom config managers only
+ * implementing {@link ConfigManager} get them loaded one by one.
+ */
+public interface BatchConfigManager extends ConfigManager {
+  /**
+   * Get the config instances for the namespaces specified, the namespaces not loaded yet are loaded concurrently.
+   * @param namespaces the namespaces
+   * @return the config instances keyed by namespace, in the order of the namespaces specified
+   */
+  Map<String, Config> getConfigs(Collection<String> namespaces);
+}
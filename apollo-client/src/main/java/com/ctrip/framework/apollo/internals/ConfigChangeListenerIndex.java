@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the config change listeners by their interested keys and key prefixes, so the listeners of a change are
+ * found by looking up the changed keys instead of checking every listener against every changed key.
+ *
+ * <p>The index is rebuilt on registration, which is rare, and read without locking when the changes are fired.</p>
+ */
+class ConfigChangeListenerIndex {
+
+  private static final Comparator<Registration> REGISTRATION_ORDER = new Comparator<Registration>() {
+    @Override
+    public int compare(Registration o1, Registration o2) {
+      return o1.m_order < o2.m_order ? -1 : (o1.m_order == o2.m_order ? 0 : 1);
+    }
+  };
+
+  //guarded by this
+  private final Map<ConfigChangeListener, Registration> m_registrations = Maps.newLinkedHashMap();
+  //guarded by this
+  private long m_nextOrder;
+  private volatile Index m_index = new Index(Collections.<Registration>emptyList());
+
+  /**
+   * @return false if the listener is already registered
+   */
+  synchronized boolean add(ConfigChangeListener listener, Set<String> interestedKeys,
+      Set<String> interestedKeyPrefixes) {
+    if (m_registrations.containsKey(listener)) {
+      return false;
+    }
+    m_registrations.put(listener, new Registration(listener, m_nextOrder++, interestedKeys, interestedKeyPrefixes));
+    m_index = new Index(m_registrations.values());
+    return true;
+  }
+
+  /**
+   * @return false if the listener is not registered
+   */
+  synchronized boolean remove(ConfigChangeListener listener) {
+    if (m_registrations.remove(listener) == null) {
+      return false;
+    }
+    m_index = new Index(m_registrations.values());
+    return true;
+  }
+
+  /**
+   * @return the listeners interested in the changed keys in the registration order, with the interested changed keys
+   * of each listener, which is empty for the listeners interested in all keys
+   */
+  Map<ConfigChangeListener, Set<String>> match(Set<String> changedKeys) {
+    Index index = m_index;
+
+    Map<Registration, Set<String>> interestedChangedKeys = Maps.newHashMap();
+    for (String changedKey : changedKeys) {
+      List<Registration> keyListeners = index.m_keyListeners.get(changedKey);
+      if (keyListeners != null) {
+        for (Registration registration : keyListeners) {
+          addInterestedChangedKey(interestedChangedKeys, registration, changedKey);
+        }
+      }
+
+      PrefixNode node = index.m_prefixRoot;
+      for (int i = 0; node != null; i++) {
+        for (Registration registration : node.m_listeners) {
+          addInterestedChangedKey(interestedChangedKeys, registration, changedKey);
+        }
+        node = i < changedKey.length() ? node.m_children.get(changedKey.charAt(i)) : null;
+      }
+    }
+
+    List<Registration> matched = Lists.newArrayList(index.m_allKeysListeners);
+    matched.addAll(interestedChangedKeys.keySet());
+    Collections.sort(matched, REGISTRATION_ORDER);
+
+    Map<ConfigChangeListener, Set<String>> result = new LinkedHashMap<>();
+    for (Registration registration : matched) {
+      Set<String> keys = interestedChangedKeys.get(registration);
+      result.put(registration.m_listener,
+          keys == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(keys));
+    }
+    return result;
+  }
+
+  private void addInterestedChangedKey(Map<Registration, Set<String>> interestedChangedKeys,
+      Registration registration, String changedKey) {
+    Set<String> keys = interestedChangedKeys.get(registration);
+    if (keys == null) {
+      keys = Sets.newHashSet();
+      interestedChangedKeys.put(registration, keys);
+    }
+    keys.add(changedKey);
+  }
+
+  private static class Registration {
+    private final ConfigChangeListener m_listener;
+    private final long m_order;
+    private final Set<String> m_interestedKeys;
+    private final Set<String> m_interestedKeyPrefixes;
+
+    private Registration(ConfigChangeListener listener, long order, Set<String> interestedKeys,
+        Set<String> interestedKeyPrefixes) {
+      m_listener = listener;
+      m_order = order;
+      m_interestedKeys = interestedKeys == null ? Collections.<String>emptySet() : Sets.newHashSet(interestedKeys);
+      m_interestedKeyPrefixes = interestedKeyPrefixes == null ? Collections.<String>emptySet()
+          : Sets.newHashSet(interestedKeyPrefixes);
+    }
+
+    private boolean isInterestedInAllKeys() {
+      // no interested keys means interested in all keys
+      return m_interestedKeys.isEmpty() && m_interestedKeyPrefixes.isEmpty();
+    }
+  }
+
+  private static class Index {
+    private final List<Registration> m_allKeysListeners = Lists.newArrayList();
+    private final Map<String, List<Registration>> m_keyListeners = Maps.newHashMap();
+    private final PrefixNode m_prefixRoot = new PrefixNode();
+
+    private Index(Iterable<Registration> registrations) {
+      for (Registration registration : registrations) {
+        if (registration.isInterestedInAllKeys()) {
+          m_allKeysListeners.add(registration);
+          continue;
+        }
+        for (String interestedKey : registration.m_interestedKeys) {
+          List<Registration> keyListeners = m_keyListeners.get(interestedKey);
+          if (keyListeners == null) {
+            keyListeners = Lists.newArrayList();
+            m_keyListeners.put(interestedKey, keyListeners);
+          }
+          keyListeners.add(registration);
+        }
+        for (String interestedKeyPrefix : registration.m_interestedKeyPrefixes) {
+          m_prefixRoot.nodeOf(interestedKeyPrefix).m_listeners.add(registration);
+        }
+      }
+    }
+  }
+
+  /**
+   * A node of the prefix trie, with the listeners of the prefix ending at this node
+   */
+  private static class PrefixNode {
+    private final Map<Character, PrefixNode> m_children = Maps.newHashMap();
+    private final List<Registration> m_listeners = Lists.newArrayList();
+
+    private PrefixNode nodeOf(String prefix) {
+      PrefixNode node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        PrefixNode child = node.m_children.get(prefix.charAt(i));
+        if (child == null) {
+          child = new PrefixNode();
+          node.m_children.put(prefix.charAt(i), child);
+        }
+        node = child;
+      }
+      return node;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.ctrip.framework.apollo.enums.ConfigSourceType;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +50,8 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
   private final String m_namespace;
   private final Properties m_resourceProperties;
   private final AtomicReference<Properties> m_configProperties;
+  private volatile Map<String, String> m_propertySnapshot;
+  private volatile Set<String> m_propertyNames = Collections.emptySet();
   private final ConfigRepository m_configRepository;
   private final RateLimiter m_warnLogRateLimiter;
 
@@ -65,6 +68,7 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
     m_resourceProperties = loadFromResource(m_namespace);
     m_configRepository = configRepository;
     m_configProperties = new AtomicReference<>();
+    m_propertySnapshot = buildPropertySnapshot(null);
     m_warnLogRateLimiter = RateLimiter.create(0.017); // 1 warning log output per minute
     initialize();
   }
@@ -85,26 +89,13 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
 
   @Override
   public String getProperty(String key, String defaultValue) {
-    // step 1: check system properties, i.e. -Dkey=value
+    // step 1: check system properties, i.e. -Dkey=value, which could be set at any time so it's read every time
     String value = System.getProperty(key);
 
-    // step 2: check local cached properties file
-    if (value == null && m_configProperties.get() != null) {
-      value = m_configProperties.get().getProperty(key);
-    }
-
-    /**
-     * step 3: check env variable, i.e. PATH=...
-     * normally system environment variables are in UPPERCASE, however there might be exceptions.
-     * so the caller should provide the key in the right case
-     */
+    // step 2: check local cached properties file, env variables and properties file from classpath, which are merged
+    // into the snapshot so no lock is taken
     if (value == null) {
-      value = System.getenv(key);
-    }
-
-    // step 4: check properties file from classpath
-    if (value == null && m_resourceProperties != null) {
-      value = m_resourceProperties.getProperty(key);
+      value = m_propertySnapshot.get(key);
     }
 
     if (value == null && m_configProperties.get() == null && m_warnLogRateLimiter.tryAcquire()) {
@@ -116,14 +107,43 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
     return value == null ? defaultValue : value;
   }
 
-  @Override
-  public Set<String> getPropertyNames() {
-    Properties properties = m_configProperties.get();
-    if (properties == null) {
-      return Collections.emptySet();
+  /**
+   * Merge the local cached properties, the env variables and the properties file from classpath into an immutable map,
+   * so the reads don't contend on the synchronized Properties. The env variables don't change during the life of the
+   * process, normally they are in UPPERCASE, however there might be exceptions, so the caller should provide the key
+   * in the right case.
+   */
+  private Map<String, String> buildPropertySnapshot(Properties configProperties) {
+    Map<String, String> snapshot = new HashMap<>();
+    // the ones with lower priority go first, so they are overridden
+    if (m_resourceProperties != null) {
+      putStringProperties(snapshot, m_resourceProperties);
+    }
+    snapshot.putAll(System.getenv());
+    if (configProperties != null) {
+      putStringProperties(snapshot, configProperties);
+    }
+
+    return ImmutableMap.copyOf(snapshot);
+  }
+
+  private void putStringProperties(Map<String, String> target, Properties properties) {
+    //the properties could be modified by other threads while iterating
+    synchronized (properties) {
+      for (Map.Entry<Object, Object> e : properties.entrySet()) {
+        Object k = e.getKey();
+        Object v = e.getValue();
+        if (k instanceof String && v instanceof String) {
+          target.put((String) k, (String) v);
+        }
+      }
     }
+  }
 
-    return stringPropertyNames(properties);
+  @Override
+  public Set<String> getPropertyNames() {
+    //built once per config change, as it's iterated repeatedly by the spring binders
+    return m_propertyNames;
   }
 
   @Override
@@ -134,13 +154,7 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
   private Set<String> stringPropertyNames(Properties properties) {
     //jdk9以下版本Properties#enumerateStringProperties方法存在性能问题，keys() + get(k) 重复迭代, jdk9之后改为entrySet遍历.
     Map<String, String> h = new LinkedHashMap<>();
-    for (Map.Entry<Object, Object> e : properties.entrySet()) {
-      Object k = e.getKey();
-      Object v = e.getValue();
-      if (k instanceof String && v instanceof String) {
-        h.put((String) k, (String) v);
-      }
-    }
+    putStringProperties(h, properties);
     return h.keySet();
   }
 
@@ -168,6 +182,9 @@ public class DefaultConfig extends AbstractConfig implements RepositoryChangeLis
   }
 
   private void updateConfig(Properties newConfigProperties, ConfigSourceType sourceType) {
+    m_propertySnapshot = buildPropertySnapshot(newConfigProperties);
+    m_propertyNames = newConfigProperties == null ? Collections.<String>emptySet()
+        : Collections.unmodifiableSet(stringPropertyNames(newConfigProperties));
     m_configProperties.set(newConfigProperties);
     m_sourceType = sourceType;
   }
@@ -16,27 +16,53 @@
  */
 package com.ctrip.framework.apollo.internals;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
 
 import com.ctrip.framework.apollo.Config;
 import com.ctrip.framework.apollo.ConfigFile;
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.core.utils.DeferredLoggerFactory;
 import com.ctrip.framework.apollo.spi.ConfigFactory;
 import com.ctrip.framework.apollo.spi.ConfigFactoryManager;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
  */
-public class DefaultConfigManager implements ConfigManager {
+public class DefaultConfigManager implements BatchConfigManager {
+  private static final Logger logger = DeferredLoggerFactory.getLogger(DefaultConfigManager.class);
+  private static final int MAX_PRELOAD_THREADS = 8;
+  private static final Joiner.MapJoiner TIMING_JOINER = Joiner.on(", ").withKeyValueSeparator("=");
+
   private ConfigFactoryManager m_factoryManager;
+  private RemoteConfigBatchLoader m_batchLoader;
 
   private Map<String, Config> m_configs = Maps.newConcurrentMap();
   private Map<String, ConfigFile> m_configFiles = Maps.newConcurrentMap();
+  //per namespace locks, so loading one namespace doesn't block the others
+  private ConcurrentMap<String, Object> m_configLocks = Maps.newConcurrentMap();
+  private ConcurrentMap<String, Object> m_configFileLocks = Maps.newConcurrentMap();
 
   public DefaultConfigManager() {
     m_factoryManager = ApolloInjector.getInstance(ConfigFactoryManager.class);
+    m_batchLoader = ApolloInjector.getInstance(RemoteConfigBatchLoader.class);
   }
 
   @Override
@@ -44,7 +70,7 @@ public class DefaultConfigManager implements ConfigManager {
     Config config = m_configs.get(namespace);
 
     if (config == null) {
-      synchronized (this) {
+      synchronized (lockFor(m_configLocks, namespace)) {
         config = m_configs.get(namespace);
 
         if (config == null) {
@@ -59,13 +85,38 @@ public class DefaultConfigManager implements ConfigManager {
     return config;
   }
 
+  @Override
+  public Map<String, Config> getConfigs(Collection<String> namespaces) {
+    Set<String> toLoad = Sets.newLinkedHashSet();
+    for (String namespace : namespaces) {
+      if (!m_configs.containsKey(namespace)) {
+        toLoad.add(namespace);
+      }
+    }
+
+    if (toLoad.size() > 1) {
+      m_batchLoader.prefetch(toLoad);
+      preload(toLoad);
+    }
+
+    try {
+      Map<String, Config> configs = Maps.newLinkedHashMap();
+      for (String namespace : namespaces) {
+        configs.put(namespace, getConfig(namespace));
+      }
+      return configs;
+    } finally {
+      m_batchLoader.discardPrefetched(toLoad);
+    }
+  }
+
   @Override
   public ConfigFile getConfigFile(String namespace, ConfigFileFormat configFileFormat) {
     String namespaceFileName = String.format("%s.%s", namespace, configFileFormat.getValue());
     ConfigFile configFile = m_configFiles.get(namespaceFileName);
 
     if (configFile == null) {
-      synchronized (this) {
+      synchronized (lockFor(m_configFileLocks, namespaceFileName)) {
         configFile = m_configFiles.get(namespaceFileName);
 
         if (configFile == null) {
@@ -79,4 +130,56 @@ public class DefaultConfigManager implements ConfigManager {
 
     return configFile;
   }
+
+  /**
+   * Load the namespaces concurrently, the failed ones are left to be loaded by {@link #getConfig(String)}
+   */
+  private void preload(Set<String> namespaces) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ExecutorService executorService = Executors.newFixedThreadPool(Math.min(namespaces.size(), MAX_PRELOAD_THREADS),
+        ApolloThreadFactory.create("ConfigPreload", true));
+    Map<String, Future<Long>> futures = Maps.newLinkedHashMap();
+    try {
+      for (final String namespace : namespaces) {
+        futures.put(namespace, executorService.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            Stopwatch namespaceStopwatch = Stopwatch.createStarted();
+            getConfig(namespace);
+            return namespaceStopwatch.elapsed(TimeUnit.MILLISECONDS);
+          }
+        }));
+      }
+
+      Map<String, String> timings = Maps.newLinkedHashMap();
+      for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+        try {
+          timings.put(entry.getKey(), entry.getValue().get() + "ms");
+        } catch (ExecutionException ex) {
+          timings.put(entry.getKey(), "failed");
+          logger.warn("Preload config for namespace {} failed, will load it on demand", entry.getKey(),
+              ex.getCause());
+          Tracer.logError(ex.getCause());
+        }
+      }
+      logger.info("Preloaded {} namespaces in {}ms: {}", namespaces.size(),
+          stopwatch.elapsed(TimeUnit.MILLISECONDS), TIMING_JOINER.join(timings));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private static Object lockFor(ConcurrentMap<String, Object> locks, String key) {
+    Object lock = locks.get(key);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = locks.putIfAbsent(key, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
 }
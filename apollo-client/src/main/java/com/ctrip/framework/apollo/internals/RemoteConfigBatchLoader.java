@@ -0,0 +1,298 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.signature.Signature;
+import com.ctrip.framework.apollo.core.utils.DeferredLoggerFactory;
+import com.ctrip.framework.apollo.core.utils.StringUtils;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.ctrip.framework.apollo.tracer.spi.Transaction;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.ExceptionUtil;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+
+/**
+ * Loads the configs of many namespaces with one batch config query, instead of one query per namespace.
+ *
+ * <p>On startup, the configs are prefetched before the namespaces are created, and then taken by the
+ * {@link RemoteConfigRepository} of each namespace as its first config. After being notified of many namespaces at
+ * once, the changed configs are loaded and handed to the repositories directly.</p>
+ */
+public class RemoteConfigBatchLoader {
+  private static final Logger logger = DeferredLoggerFactory.getLogger(RemoteConfigBatchLoader.class);
+  private static final Joiner.MapJoiner MAP_JOINER = Joiner.on("&").withKeyValueSeparator("=");
+  private static final Escaper pathEscaper = UrlEscapers.urlPathSegmentEscaper();
+  private static final Escaper queryParamEscaper = UrlEscapers.urlFormParameterEscaper();
+  private static final String NO_RELEASE_KEY = "-1";
+  //same as the limit of the config service
+  private static final int MAX_BATCH_NAMESPACES = 500;
+  //the request line must be within the max http header size of the config service, which is 8KB by default
+  private static final int MAX_QUERY_LENGTH = 4096;
+  private static final Gson GSON = new Gson();
+
+  private final ConfigUtil m_configUtil;
+  private final HttpClient m_httpClient;
+  private volatile ConfigServiceLocator m_serviceLocator;
+  private final ConcurrentMap<String, ApolloConfig> m_prefetchedConfigs;
+  private final Type m_responseType;
+
+  public RemoteConfigBatchLoader() {
+    m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    m_httpClient = ApolloInjector.getInstance(HttpClient.class);
+    m_prefetchedConfigs = Maps.newConcurrentMap();
+    m_responseType = new TypeToken<List<ApolloConfig>>() {
+    }.getType();
+  }
+
+  /**
+   * Prefetch the configs of the namespaces not loaded yet, the failure is logged and left to the repositories to load
+   * the configs one by one.
+   */
+  public void prefetch(Collection<String> namespaces) {
+    if (!m_configUtil.isBatchQueryEnabled() || m_configUtil.isInLocalMode() || namespaces.size() < 2) {
+      return;
+    }
+
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    for (String namespace : namespaces) {
+      releaseKeys.put(namespace, NO_RELEASE_KEY);
+    }
+
+    try {
+      m_prefetchedConfigs.putAll(load(releaseKeys, null, null));
+    } catch (Throwable ex) {
+      logger.warn("Prefetch configs for namespaces {} failed, will load them one by one, reason: {}", namespaces,
+          ExceptionUtil.getDetailMessage(ex));
+    }
+  }
+
+  /**
+   * @return the prefetched config of the namespace, which is returned only once, or null if there is none
+   */
+  public ApolloConfig takePrefetched(String namespace) {
+    return m_prefetchedConfigs.remove(namespace);
+  }
+
+  /**
+   * Discard the prefetched configs not taken, so they are not taken later when they might be stale
+   */
+  public void discardPrefetched(Collection<String> namespaces) {
+    for (String namespace : namespaces) {
+      m_prefetchedConfigs.remove(namespace);
+    }
+  }
+
+  /**
+   * The namespaces are split into several batch config queries if there are too many of them for one request.
+   *
+   * @param releaseKeys the client side release keys keyed by namespace, null if the namespace is not loaded yet
+   * @param remoteMessages the notification messages keyed by namespace, null if there is none
+   * @param preferredService the config service to query first, e.g. the one which notified the client
+   * @return the configs changed since the client side release keys, keyed by namespace, the namespaces of the failed
+   * batch config queries are left out as well
+   * @throws ApolloConfigException if all the batch config queries failed
+   */
+  public Map<String, ApolloConfig> load(Map<String, String> releaseKeys,
+                                        Map<String, ApolloNotificationMessages> remoteMessages,
+                                        ServiceDTO preferredService) {
+    String appId = m_configUtil.getAppId();
+    String cluster = m_configUtil.getCluster();
+
+    List<ServiceDTO> configServices = Lists.newLinkedList(getServiceLocator().getConfigServices());
+    if (configServices.isEmpty()) {
+      throw new ApolloConfigException("No available config service");
+    }
+    Collections.shuffle(configServices);
+    if (preferredService != null) {
+      configServices.add(0, preferredService);
+    }
+
+    Map<String, ApolloConfig> configs = Maps.newHashMap();
+    boolean loaded = false;
+    ApolloConfigException exception = null;
+    for (Map<String, String> batch : splitBatches(releaseKeys, remoteMessages)) {
+      try {
+        configs.putAll(loadBatch(appId, cluster, configServices, batch, mergeMessages(batch, remoteMessages)));
+        loaded = true;
+      } catch (ApolloConfigException ex) {
+        logger.warn("Load configs for namespaces {} failed, reason: {}", batch.keySet(),
+            ExceptionUtil.getDetailMessage(ex));
+        exception = ex;
+      }
+    }
+
+    if (!loaded && exception != null) {
+      throw exception;
+    }
+    return configs;
+  }
+
+  private Map<String, ApolloConfig> loadBatch(String appId, String cluster, List<ServiceDTO> configServices,
+                                              Map<String, String> releaseKeys,
+                                              ApolloNotificationMessages remoteMessages) {
+    String secret = m_configUtil.getAccessKeySecret();
+    String queryString = assembleQueryString(m_configUtil.getDataCenter(), releaseKeys, remoteMessages);
+
+    Throwable exception = null;
+    String url = null;
+    for (ServiceDTO configService : configServices) {
+      url = assembleQueryConfigsUrl(configService.getHomepageUrl(), appId, cluster, queryString);
+
+      logger.debug("Loading configs from {}", url);
+
+      HttpRequest request = new HttpRequest(url);
+      if (!StringUtils.isBlank(secret)) {
+        request.setHeaders(Signature.buildHttpHeaders(url, appId, secret));
+      }
+
+      Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "queryConfigs");
+      transaction.addData("Url", url);
+      try {
+        HttpResponse<List<ApolloConfig>> response = m_httpClient.doGet(request, m_responseType);
+        transaction.addData("StatusCode", response.getStatusCode());
+        transaction.setStatus(Transaction.SUCCESS);
+
+        Map<String, ApolloConfig> configs = Maps.newHashMap();
+        if (response.getBody() != null) {
+          for (ApolloConfig config : response.getBody()) {
+            configs.put(config.getNamespaceName(), config);
+          }
+        }
+        return configs;
+      } catch (Throwable ex) {
+        Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
+        transaction.setStatus(ex);
+        exception = ex;
+      } finally {
+        transaction.complete();
+      }
+    }
+
+    throw new ApolloConfigException(String.format(
+        "Load Apollo Configs failed - appId: %s, cluster: %s, namespaces: %s, url: %s", appId, cluster,
+        releaseKeys.keySet(), url), exception);
+  }
+
+  /**
+   * Split the namespaces into batches within the limits of the namespaces and the query length, a namespace whose
+   * query is too long by itself is queried alone.
+   */
+  List<Map<String, String>> splitBatches(Map<String, String> releaseKeys,
+                                         Map<String, ApolloNotificationMessages> remoteMessages) {
+    String dataCenter = m_configUtil.getDataCenter();
+    List<Map<String, String>> batches = Lists.newArrayList();
+    Map<String, String> batch = Maps.newLinkedHashMap();
+    for (Map.Entry<String, String> entry : releaseKeys.entrySet()) {
+      batch.put(entry.getKey(), entry.getValue());
+      if (batch.size() == 1) {
+        continue;
+      }
+      if (batch.size() > MAX_BATCH_NAMESPACES || assembleQueryString(dataCenter, batch,
+          mergeMessages(batch, remoteMessages)).length() > MAX_QUERY_LENGTH) {
+        batch.remove(entry.getKey());
+        batches.add(batch);
+        batch = Maps.newLinkedHashMap();
+        batch.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  private ApolloNotificationMessages mergeMessages(Map<String, String> releaseKeys,
+                                                   Map<String, ApolloNotificationMessages> remoteMessages) {
+    if (remoteMessages == null) {
+      return null;
+    }
+    ApolloNotificationMessages merged = new ApolloNotificationMessages();
+    for (String namespace : releaseKeys.keySet()) {
+      ApolloNotificationMessages messages = remoteMessages.get(namespace);
+      if (messages != null) {
+        merged.mergeFrom(messages);
+      }
+    }
+    return merged.isEmpty() ? null : merged;
+  }
+
+  /**
+   * The service locator is resolved on first use, as it starts to locate the config services once created
+   */
+  private ConfigServiceLocator getServiceLocator() {
+    if (m_serviceLocator == null) {
+      m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
+    }
+    return m_serviceLocator;
+  }
+
+  String assembleQueryString(String dataCenter, Map<String, String> releaseKeys,
+                             ApolloNotificationMessages remoteMessages) {
+    Map<String, String> releaseKeysToQuery = Maps.newLinkedHashMap();
+    for (Map.Entry<String, String> entry : releaseKeys.entrySet()) {
+      releaseKeysToQuery.put(entry.getKey(), entry.getValue() == null ? NO_RELEASE_KEY : entry.getValue());
+    }
+
+    Map<String, String> queryParams = Maps.newLinkedHashMap();
+    queryParams.put("releaseKeys", queryParamEscaper.escape(GSON.toJson(releaseKeysToQuery)));
+
+    if (!Strings.isNullOrEmpty(dataCenter)) {
+      queryParams.put("dataCenter", queryParamEscaper.escape(dataCenter));
+    }
+
+    String localIp = m_configUtil.getLocalIp();
+    if (!Strings.isNullOrEmpty(localIp)) {
+      queryParams.put("ip", queryParamEscaper.escape(localIp));
+    }
+
+    if (remoteMessages != null) {
+      queryParams.put("messages", queryParamEscaper.escape(GSON.toJson(remoteMessages)));
+    }
+
+    return MAP_JOINER.join(queryParams);
+  }
+
+  String assembleQueryConfigsUrl(String uri, String appId, String cluster, String queryString) {
+    if (!uri.endsWith("/")) {
+      uri += "/";
+    }
+    return String.format("%sconfigs/%s/%s?%s", uri, pathEscaper.escape(appId), pathEscaper.escape(cluster),
+        queryString);
+  }
+}
@@ -18,16 +18,19 @@ package com.ctrip.framework.apollo.internals;
 
 import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigMultiplexedNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigSubscription;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
 import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
-import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.core.utils.StringUtils;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 import com.ctrip.framework.apollo.util.ConfigUtil;
@@ -38,6 +41,8 @@ import com.ctrip.framework.apollo.util.http.HttpClient;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -48,6 +53,7 @@ import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.gson.Gson;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -72,17 +78,19 @@ public class RemoteConfigLongPollService {
   private static final int LONG_POLLING_READ_TIMEOUT = 90 * 1000;
   private final ExecutorService m_longPollingService;
   private final AtomicBoolean m_longPollingStopped;
-  private SchedulePolicy m_longPollFailSchedulePolicyInSecond;
+  private ExponentialSchedulePolicy m_longPollFailSchedulePolicyInSecond;
   private RateLimiter m_longPollRateLimiter;
   private final AtomicBoolean m_longPollStarted;
   private final Multimap<String, RemoteConfigRepository> m_longPollNamespaces;
   private final ConcurrentMap<String, Long> m_notifications;
   private final Map<String, ApolloNotificationMessages> m_remoteNotificationMessages;//namespaceName -> watchedKey -> notificationId
   private Type m_responseType;
+  private Type m_multiplexedResponseType;
   private static final Gson GSON = new Gson();
   private ConfigUtil m_configUtil;
   private HttpClient m_httpClient;
   private ConfigServiceLocator m_serviceLocator;
+  private RemoteConfigBatchLoader m_batchLoader;
 
   /**
    * Constructor.
@@ -99,9 +107,12 @@ public class RemoteConfigLongPollService {
     m_remoteNotificationMessages = Maps.newConcurrentMap();
     m_responseType = new TypeToken<List<ApolloConfigNotification>>() {
     }.getType();
+    m_multiplexedResponseType = new TypeToken<List<ApolloConfigMultiplexedNotification>>() {
+    }.getType();
     m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
     m_httpClient = ApolloInjector.getInstance(HttpClient.class);
     m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
+    m_batchLoader = ApolloInjector.getInstance(RemoteConfigBatchLoader.class);
     m_longPollRateLimiter = RateLimiter.create(m_configUtil.getLongPollQPS());
   }
 
@@ -152,10 +163,30 @@ public class RemoteConfigLongPollService {
     this.m_longPollingStopped.compareAndSet(false, true);
   }
 
-  private void doLongPollingRefresh(String appId, String cluster, String dataCenter, String secret) {
+  /**
+   * @return true if the long polling is stopped, the subclasses should stop listening to the notifications then
+   */
+  protected boolean isLongPollingStopped() {
+    return m_longPollingStopped.get();
+  }
+
+  /**
+   * Listens to the notifications of the submitted namespaces until stopped, which is done on the dedicated long
+   * polling thread
+   */
+  protected void doLongPollingRefresh(String appId, String cluster, String dataCenter, String secret) {
+    longPollUntil(appId, cluster, dataCenter, secret, Long.MAX_VALUE);
+  }
+
+  /**
+   * Long polls the notifications until stopped or the given time is reached
+   */
+  protected void longPollUntil(String appId, String cluster, String dataCenter, String secret,
+      long untilTimeInMillis) {
     final Random random = new Random();
     ServiceDTO lastServiceDto = null;
-    while (!m_longPollingStopped.get() && !Thread.currentThread().isInterrupted()) {
+    while (!m_longPollingStopped.get() && !Thread.currentThread().isInterrupted()
+        && System.currentTimeMillis() < untilTimeInMillis) {
       if (!m_longPollRateLimiter.tryAcquire(5, TimeUnit.SECONDS)) {
         //wait at most 5 seconds
         try {
@@ -171,9 +202,14 @@ public class RemoteConfigLongPollService {
           lastServiceDto = configServices.get(random.nextInt(configServices.size()));
         }
 
-        url =
-            assembleLongPollRefreshUrl(lastServiceDto.getHomepageUrl(), appId, cluster, dataCenter,
-                m_notifications);
+        boolean multiplexed = m_configUtil.isLongPollMultiplexEnabled();
+        if (multiplexed) {
+          url = assembleMultiplexedLongPollRefreshUrl(lastServiceDto.getHomepageUrl(), appId, cluster,
+              dataCenter, m_notifications);
+        } else {
+          url = assembleLongPollRefreshUrl(lastServiceDto.getHomepageUrl(), appId, cluster, dataCenter,
+              m_notifications);
+        }
 
         logger.debug("Long polling from {}", url);
 
@@ -186,15 +222,18 @@ public class RemoteConfigLongPollService {
 
         transaction.addData("Url", url);
 
-        final HttpResponse<List<ApolloConfigNotification>> response =
-            m_httpClient.doGet(request, m_responseType);
+        final HttpResponse<List<ApolloConfigNotification>> response;
+        Map<String, ApolloConfig> notifiedConfigs = Maps.newHashMap();
+        if (multiplexed) {
+          response = doMultiplexedLongPoll(request, notifiedConfigs);
+        } else {
+          response = m_httpClient.doGet(request, m_responseType);
+        }
 
         logger.debug("Long polling response: {}, url: {}", response.getStatusCode(), url);
         if (response.getStatusCode() == 200 && response.getBody() != null) {
-          updateNotifications(response.getBody());
-          updateRemoteNotifications(response.getBody());
           transaction.addData("Result", response.getBody().toString());
-          notify(lastServiceDto, response.getBody());
+          onNotifications(lastServiceDto, response.getBody(), notifiedConfigs);
         }
 
         //try to load balance
@@ -209,7 +248,10 @@ public class RemoteConfigLongPollService {
         lastServiceDto = null;
         Tracer.logEvent("ApolloConfigException", ExceptionUtil.getDetailMessage(ex));
         transaction.setStatus(ex);
-        long sleepTimeInSecond = m_longPollFailSchedulePolicyInSecond.fail();
+        //the config service may be shedding load
+        long retryAfterInSecond = ex instanceof ApolloConfigStatusCodeException ?
+            ((ApolloConfigStatusCodeException) ex).getRetryAfterInSecond() : 0;
+        long sleepTimeInSecond = m_longPollFailSchedulePolicyInSecond.fail(retryAfterInSecond);
         logger.warn(
             "Long polling failed, will retry in {} seconds. appId: {}, cluster: {}, namespaces: {}, long polling url: {}, reason: {}",
             sleepTimeInSecond, appId, cluster, assembleNamespaces(), url, ExceptionUtil.getDetailMessage(ex));
@@ -224,10 +266,65 @@ public class RemoteConfigLongPollService {
     }
   }
 
-  private void notify(ServiceDTO lastServiceDto, List<ApolloConfigNotification> notifications) {
+  /**
+   * Long polls with the multiplexed notification endpoint
+   *
+   * @param notifiedConfigs the configs carried by the notifications, keyed by the namespace name
+   * @return the notifications
+   */
+  private HttpResponse<List<ApolloConfigNotification>> doMultiplexedLongPoll(HttpRequest request,
+      Map<String, ApolloConfig> notifiedConfigs) {
+    HttpResponse<List<ApolloConfigMultiplexedNotification>> response =
+        m_httpClient.doGet(request, m_multiplexedResponseType);
+    if (response.getStatusCode() != 200 || response.getBody() == null) {
+      return new HttpResponse<>(response.getStatusCode(), null);
+    }
+
+    List<ApolloConfigNotification> notifications = Lists.newArrayListWithCapacity(response.getBody().size());
+    for (ApolloConfigMultiplexedNotification multiplexedNotification : response.getBody()) {
+      ApolloConfigNotification notification = multiplexedNotification.getNotification();
+      if (notification == null) {
+        continue;
+      }
+      notifications.add(notification);
+      if (multiplexedNotification.getConfig() != null) {
+        notifiedConfigs.put(notification.getNamespaceName(), multiplexedNotification.getConfig());
+      }
+    }
+    return new HttpResponse<>(response.getStatusCode(), notifications);
+  }
+
+  /**
+   * Records the latest notification ids and notifies the repositories of the changed namespaces
+   *
+   * @param serviceDto the config service which sent the notifications
+   */
+  protected void onNotifications(ServiceDTO serviceDto, List<ApolloConfigNotification> notifications) {
+    onNotifications(serviceDto, notifications, Collections.<String, ApolloConfig>emptyMap());
+  }
+
+  private void onNotifications(ServiceDTO serviceDto, List<ApolloConfigNotification> notifications,
+                               Map<String, ApolloConfig> notifiedConfigs) {
+    updateNotifications(notifications);
+    updateRemoteNotifications(notifications);
+    notify(serviceDto, notifications, notifiedConfigs);
+  }
+
+  /**
+   * @return a snapshot of the latest notification ids, keyed by the namespace name
+   */
+  protected Map<String, Long> getNotifications() {
+    return ImmutableMap.copyOf(m_notifications);
+  }
+
+  private void notify(ServiceDTO lastServiceDto, List<ApolloConfigNotification> notifications,
+                      Map<String, ApolloConfig> notifiedConfigs) {
     if (notifications == null || notifications.isEmpty()) {
       return;
     }
+    if (notifiedConfigs.isEmpty() && notifications.size() > 1 && m_configUtil.isBatchQueryEnabled()) {
+      notifiedConfigs = loadNotifiedConfigs(lastServiceDto, notifications);
+    }
     for (ApolloConfigNotification notification : notifications) {
       String namespaceName = notification.getNamespaceName();
       //create a new list to avoid ConcurrentModificationException
@@ -235,10 +332,23 @@ public class RemoteConfigLongPollService {
           Lists.newArrayList(m_longPollNamespaces.get(namespaceName));
       ApolloNotificationMessages originalMessages = m_remoteNotificationMessages.get(namespaceName);
       ApolloNotificationMessages remoteMessages = originalMessages == null ? null : originalMessages.clone();
+      //the notified config is loaded with the namespace name of the notification, so it's only for the exact match
+      ApolloConfig notifiedConfig = notifiedConfigs.get(namespaceName);
+      for (RemoteConfigRepository remoteConfigRepository : toBeNotified) {
+        try {
+          if (notifiedConfig != null) {
+            remoteConfigRepository.onLongPollNotified(lastServiceDto, remoteMessages, notifiedConfig);
+          } else {
+            remoteConfigRepository.onLongPollNotified(lastServiceDto, remoteMessages);
+          }
+        } catch (Throwable ex) {
+          Tracer.logError(ex);
+        }
+      }
       //since .properties are filtered out by default, so we need to check if there is any listener for it
-      toBeNotified.addAll(m_longPollNamespaces
+      List<RemoteConfigRepository> toBeNotifiedWithPropertiesSuffix = Lists.newArrayList(m_longPollNamespaces
           .get(String.format("%s.%s", namespaceName, ConfigFileFormat.Properties.getValue())));
-      for (RemoteConfigRepository remoteConfigRepository : toBeNotified) {
+      for (RemoteConfigRepository remoteConfigRepository : toBeNotifiedWithPropertiesSuffix) {
         try {
           remoteConfigRepository.onLongPollNotified(lastServiceDto, remoteMessages);
         } catch (Throwable ex) {
@@ -248,6 +358,43 @@ public class RemoteConfigLongPollService {
     }
   }
 
+  /**
+   * Load the configs of the notified namespaces with one batch config query, the namespaces left out, e.g. the ones
+   * already up to date, are notified to load the config by themselves
+   *
+   * @return the changed configs keyed by the namespace name, empty if the batch config query failed
+   */
+  private Map<String, ApolloConfig> loadNotifiedConfigs(ServiceDTO lastServiceDto,
+                                                        List<ApolloConfigNotification> notifications) {
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    Map<String, ApolloNotificationMessages> remoteMessages = Maps.newHashMap();
+    for (ApolloConfigNotification notification : notifications) {
+      String namespaceName = notification.getNamespaceName();
+      RemoteConfigRepository remoteConfigRepository =
+          Iterables.getFirst(Lists.newArrayList(m_longPollNamespaces.get(namespaceName)), null);
+      if (remoteConfigRepository == null) {
+        continue;
+      }
+      releaseKeys.put(namespaceName, remoteConfigRepository.getReleaseKey());
+      ApolloNotificationMessages messages = m_remoteNotificationMessages.get(namespaceName);
+      if (messages != null) {
+        remoteMessages.put(namespaceName, messages);
+      }
+    }
+
+    if (releaseKeys.size() < 2) {
+      return Collections.emptyMap();
+    }
+
+    try {
+      return m_batchLoader.load(releaseKeys, remoteMessages, lastServiceDto);
+    } catch (Throwable ex) {
+      logger.warn("Load notified configs of namespaces {} failed, will load them one by one, reason: {}",
+          releaseKeys.keySet(), ExceptionUtil.getDetailMessage(ex));
+      return Collections.emptyMap();
+    }
+  }
+
   private void updateNotifications(List<ApolloConfigNotification> deltaNotifications) {
     for (ApolloConfigNotification notification : deltaNotifications) {
       if (Strings.isNullOrEmpty(notification.getNamespaceName())) {
@@ -315,6 +462,45 @@ public class RemoteConfigLongPollService {
     return uri + "notifications/v2?" + params;
   }
 
+  String assembleMultiplexedLongPollRefreshUrl(String uri, String appId, String cluster, String dataCenter,
+                                               Map<String, Long> notificationsMap) {
+    Map<String, String> queryParams = Maps.newHashMap();
+    queryParams.put("appId", queryParamEscaper.escape(appId));
+    queryParams.put("subscriptions",
+        queryParamEscaper.escape(assembleSubscriptions(appId, cluster, notificationsMap)));
+
+    if (!Strings.isNullOrEmpty(dataCenter)) {
+      queryParams.put("dataCenter", queryParamEscaper.escape(dataCenter));
+    }
+    String localIp = m_configUtil.getLocalIp();
+    if (!Strings.isNullOrEmpty(localIp)) {
+      queryParams.put("ip", queryParamEscaper.escape(localIp));
+    }
+
+    String params = MAP_JOINER.join(queryParams);
+    if (!uri.endsWith("/")) {
+      uri += "/";
+    }
+
+    return uri + "notifications/v2/multiplexed?" + params;
+  }
+
+  String assembleSubscriptions(String appId, String cluster, Map<String, Long> notificationsMap) {
+    List<ApolloConfigSubscription> subscriptions = Lists.newArrayList();
+    for (Map.Entry<String, Long> entry : notificationsMap.entrySet()) {
+      ApolloConfigSubscription subscription =
+          new ApolloConfigSubscription(appId, cluster, entry.getKey(), entry.getValue());
+      //the config service carries the config only if it's different from the client side one
+      RemoteConfigRepository remoteConfigRepository =
+          Iterables.getFirst(Lists.newArrayList(m_longPollNamespaces.get(entry.getKey())), null);
+      if (remoteConfigRepository != null) {
+        subscription.setReleaseKey(remoteConfigRepository.getReleaseKey());
+      }
+      subscriptions.add(subscription);
+    }
+    return GSON.toJson(subscriptions);
+  }
+
   String assembleNotifications(Map<String, Long> notificationsMap) {
     List<ApolloConfigNotification> notifications = Lists.newArrayList();
     for (Map.Entry<String, Long> entry : notificationsMap.entrySet()) {
@@ -324,7 +510,7 @@ public class RemoteConfigLongPollService {
     return GSON.toJson(notifications);
   }
 
-  private List<ServiceDTO> getConfigServices() {
+  protected List<ServiceDTO> getConfigServices() {
     List<ServiceDTO> services = m_serviceLocator.getConfigServices();
     if (services.size() == 0) {
       throw new ApolloConfigException("No available config service");
@@ -21,9 +21,10 @@ import com.ctrip.framework.apollo.build.ApolloInjector;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
 import com.ctrip.framework.apollo.core.schedule.ExponentialSchedulePolicy;
-import com.ctrip.framework.apollo.core.schedule.SchedulePolicy;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.core.utils.DeferredLoggerFactory;
@@ -49,6 +50,7 @@ import com.google.gson.Gson;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -71,6 +73,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
   private final HttpClient m_httpClient;
   private final ConfigUtil m_configUtil;
   private final RemoteConfigLongPollService remoteConfigLongPollService;
+  private final RemoteConfigBatchLoader m_batchLoader;
   private volatile AtomicReference<ApolloConfig> m_configCache;
   private final String m_namespace;
   private final static ScheduledExecutorService m_executorService;
@@ -78,7 +81,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
   private final AtomicReference<ApolloNotificationMessages> m_remoteMessages;
   private final RateLimiter m_loadConfigRateLimiter;
   private final AtomicBoolean m_configNeedForceRefresh;
-  private final SchedulePolicy m_loadConfigFailSchedulePolicy;
+  private final ExponentialSchedulePolicy m_loadConfigFailSchedulePolicy;
   private static final Gson GSON = new Gson();
 
   static {
@@ -98,6 +101,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     m_httpClient = ApolloInjector.getInstance(HttpClient.class);
     m_serviceLocator = ApolloInjector.getInstance(ConfigServiceLocator.class);
     remoteConfigLongPollService = ApolloInjector.getInstance(RemoteConfigLongPollService.class);
+    m_batchLoader = ApolloInjector.getInstance(RemoteConfigBatchLoader.class);
     m_longPollServiceDto = new AtomicReference<>();
     m_remoteMessages = new AtomicReference<>();
     m_loadConfigRateLimiter = RateLimiter.create(m_configUtil.getLoadConfigQPS());
@@ -179,6 +183,15 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
   }
 
   private ApolloConfig loadApolloConfig() {
+    if (m_configCache.get() == null) {
+      //the config might be prefetched together with other namespaces on startup
+      ApolloConfig prefetched = m_batchLoader.takePrefetched(m_namespace);
+      if (prefetched != null) {
+        logger.debug("Loaded prefetched config for {}", m_namespace);
+        m_configNeedForceRefresh.set(false);
+        return prefetched;
+      }
+    }
     if (!m_loadConfigRateLimiter.tryAcquire(5, TimeUnit.SECONDS)) {
       //wait at most 5 seconds
       try {
@@ -196,6 +209,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     Throwable exception = null;
 
     List<ServiceDTO> configServices = getConfigServices();
+    ApolloConfig previousConfig = m_configCache.get();
     String url = null;
     retryLoopLabel:
     for (int i = 0; i < maxRetries; i++) {
@@ -220,7 +234,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
         }
 
         url = assembleQueryConfigUrl(configService.getHomepageUrl(), appId, cluster, m_namespace,
-                dataCenter, m_remoteMessages.get(), m_configCache.get());
+                dataCenter, m_remoteMessages.get(), previousConfig);
 
         logger.debug("Loading config from {}", url);
 
@@ -232,6 +246,7 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
         Transaction transaction = Tracer.newTransaction("Apollo.ConfigService", "queryConfig");
         transaction.addData("Url", url);
+        long retryAfterInSecond = 0;
         try {
 
           HttpResponse<ApolloConfig> response = m_httpClient.doGet(request, ApolloConfig.class);
@@ -250,9 +265,14 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
           logger.debug("Loaded config for {}: {}", m_namespace, result);
 
+          if (result != null && ConfigSyncType.INCREMENTAL_SYNC.getValue().equals(result.getConfigSyncType())) {
+            result = mergeConfigurationChanges(previousConfig, result);
+          }
+
           return result;
         } catch (ApolloConfigStatusCodeException ex) {
           ApolloConfigStatusCodeException statusCodeException = ex;
+          retryAfterInSecond = ex.getRetryAfterInSecond();
           //config not found
           if (ex.getStatusCode() == 404) {
             String message = String.format(
@@ -277,8 +297,11 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
         }
 
         // if force refresh, do normal sleep, if normal config load, do exponential sleep
-        onErrorSleepTime = m_configNeedForceRefresh.get() ? m_configUtil.getOnErrorRetryInterval() :
-            m_loadConfigFailSchedulePolicy.fail();
+        // either way no shorter than the config service asks for when it is shedding load
+        long retryAfter = m_configUtil.getOnErrorRetryIntervalTimeUnit().convert(retryAfterInSecond, TimeUnit.SECONDS);
+        onErrorSleepTime = m_configNeedForceRefresh.get() ?
+            Math.max(m_configUtil.getOnErrorRetryInterval(), retryAfter) :
+            m_loadConfigFailSchedulePolicy.fail(retryAfter);
       }
 
     }
@@ -299,6 +322,9 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
 
     if (previousConfig != null) {
       queryParams.put("releaseKey", queryParamEscaper.escape(previousConfig.getReleaseKey()));
+      if (m_configUtil.isIncrementalSyncEnabled()) {
+        queryParams.put("incremental", "true");
+      }
     }
 
     if (!Strings.isNullOrEmpty(dataCenter)) {
@@ -325,6 +351,35 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     return uri + pathExpanded;
   }
 
+  /**
+   * Apply the changes of an incremental response on the previous configurations
+   */
+  ApolloConfig mergeConfigurationChanges(ApolloConfig previousConfig, ApolloConfig incrementalConfig) {
+    if (previousConfig == null) {
+      throw new ApolloConfigException(String.format(
+          "Incremental config for namespace %s is received without previous config", m_namespace));
+    }
+
+    Map<String, String> configurations = Maps.newLinkedHashMap(previousConfig.getConfigurations());
+    if (incrementalConfig.getConfigurationChanges() != null) {
+      for (ConfigurationChange change : incrementalConfig.getConfigurationChanges()) {
+        switch (change.getConfigurationChangeType()) {
+          case ADDED:
+          case MODIFIED:
+            configurations.put(change.getKey(), change.getNewValue());
+            break;
+          case DELETED:
+            configurations.remove(change.getKey());
+            break;
+        }
+      }
+    }
+
+    incrementalConfig.setConfigurations(configurations);
+    incrementalConfig.setConfigurationChanges(null);
+    return incrementalConfig;
+  }
+
   private void scheduleLongPollingRefresh() {
     remoteConfigLongPollService.submit(m_namespace, this);
   }
@@ -341,6 +396,46 @@ public class RemoteConfigRepository extends AbstractConfigRepository {
     });
   }
 
+  /**
+   * Same as {@link #onLongPollNotified(ServiceDTO, ApolloNotificationMessages)}, but the config carried by the
+   * multiplexed long polling notification is applied directly instead of querying the config service again
+   *
+   * @param config the latest config, null if the notification doesn't carry it
+   */
+  public void onLongPollNotified(ServiceDTO longPollNotifiedServiceDto, ApolloNotificationMessages remoteMessages,
+                                 final ApolloConfig config) {
+    if (config == null) {
+      onLongPollNotified(longPollNotifiedServiceDto, remoteMessages);
+      return;
+    }
+    m_remoteMessages.set(remoteMessages);
+    m_executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        applyNotifiedConfig(config);
+      }
+    });
+  }
+
+  private synchronized void applyNotifiedConfig(ApolloConfig config) {
+    ApolloConfig previous = m_configCache.get();
+    if (previous != null && Objects.equals(previous.getReleaseKey(), config.getReleaseKey())) {
+      return;
+    }
+    logger.debug("Remote Config refreshed by long polling notification!");
+    m_configCache.set(config);
+    this.fireRepositoryChange(m_namespace, this.getConfig());
+    Tracer.logEvent(String.format("Apollo.Client.Configs.%s", config.getNamespaceName()), config.getReleaseKey());
+  }
+
+  /**
+   * @return the release key of the current config, null if the config is not loaded yet
+   */
+  String getReleaseKey() {
+    ApolloConfig current = m_configCache.get();
+    return current == null ? null : current.getReleaseKey();
+  }
+
   private List<ServiceDTO> getConfigServices() {
     List<ServiceDTO> services = m_serviceLocator.getConfigServices();
     if (services.size() == 0) {
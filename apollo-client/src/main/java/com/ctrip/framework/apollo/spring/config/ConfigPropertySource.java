@@ -31,17 +31,27 @@ import com.ctrip.framework.apollo.Config;
 public class ConfigPropertySource extends EnumerablePropertySource<Config> {
   private static final String[] EMPTY_ARRAY = new String[0];
 
+  private volatile PropertyNames cachedPropertyNames = new PropertyNames(null, EMPTY_ARRAY);
+
   ConfigPropertySource(String name, Config source) {
     super(name, source);
   }
 
+  /**
+   * The array is reused as long as the config returns the same name set, i.e. until the next config change for
+   * {@link com.ctrip.framework.apollo.internals.DefaultConfig}, so it should not be modified by the callers.
+   */
   @Override
   public String[] getPropertyNames() {
     Set<String> propertyNames = this.source.getPropertyNames();
-    if (propertyNames.isEmpty()) {
-      return EMPTY_ARRAY;
+    PropertyNames cached = this.cachedPropertyNames;
+    if (cached.nameSet == propertyNames) {
+      return cached.names;
     }
-    return propertyNames.toArray(new String[propertyNames.size()]);
+
+    String[] names = propertyNames.isEmpty() ? EMPTY_ARRAY : propertyNames.toArray(new String[propertyNames.size()]);
+    this.cachedPropertyNames = new PropertyNames(propertyNames, names);
+    return names;
   }
 
   @Override
@@ -52,4 +62,14 @@ public class ConfigPropertySource extends EnumerablePropertySource<Config> {
   public void addChangeListener(ConfigChangeListener listener) {
     this.source.addChangeListener(listener);
   }
+
+  private static class PropertyNames {
+    private final Set<String> nameSet;
+    private final String[] names;
+
+    private PropertyNames(Set<String> nameSet, String[] names) {
+      this.nameSet = nameSet;
+      this.names = names;
+    }
+  }
 }
@@ -29,6 +29,7 @@ import com.ctrip.framework.apollo.ConfigService;
 
 import com.google.common.collect.Sets;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
@@ -82,6 +83,9 @@ public class PropertySourcesProcessor implements BeanFactoryPostProcessor, Envir
     }
     CompositePropertySource composite = new CompositePropertySource(PropertySourcesConstants.APOLLO_PROPERTY_SOURCE_NAME);
 
+    //load all the namespaces at once, so they are fetched concurrently
+    Map<String, Config> configs = ConfigService.getConfigs(Sets.newLinkedHashSet(NAMESPACE_NAMES.values()));
+
     //sort by order asc
     ImmutableSortedSet<Integer> orders = ImmutableSortedSet.copyOf(NAMESPACE_NAMES.keySet());
     Iterator<Integer> iterator = orders.iterator();
@@ -89,7 +93,7 @@ public class PropertySourcesProcessor implements BeanFactoryPostProcessor, Envir
     while (iterator.hasNext()) {
       int order = iterator.next();
       for (String namespace : NAMESPACE_NAMES.get(order)) {
-        Config config = ConfigService.getConfig(namespace);
+        Config config = configs.get(namespace);
 
         composite.addPropertySource(configPropertySourceFactory.getConfigPropertySource(namespace, config));
       }
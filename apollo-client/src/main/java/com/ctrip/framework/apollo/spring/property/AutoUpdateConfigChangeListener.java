@@ -19,10 +19,13 @@ package com.ctrip.framework.apollo.spring.property;
 import com.ctrip.framework.apollo.ConfigChangeListener;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.ctrip.framework.apollo.spring.util.SpringInjector;
+import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Type;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,23 +65,36 @@ public class AutoUpdateConfigChangeListener implements ConfigChangeListener{
     if (CollectionUtils.isEmpty(keys)) {
       return;
     }
+    // 1. collect the relevant spring values, a field or method referring to several changed keys is updated once
+    Map<InjectionTarget, SpringValue> targetValues = Maps.newLinkedHashMap();
     for (String key : keys) {
-      // 1. check whether the changed key is relevant
-      Collection<SpringValue> targetValues = springValueRegistry.get(beanFactory, key);
-      if (targetValues == null || targetValues.isEmpty()) {
+      Collection<SpringValue> keyValues = springValueRegistry.get(beanFactory, key);
+      if (keyValues == null) {
         continue;
       }
-
-      // 2. update the value
-      for (SpringValue val : targetValues) {
-        updateSpringValue(val);
+      for (SpringValue val : keyValues) {
+        Object bean = val.getBean();
+        if (bean == null) {
+          continue;
+        }
+        InjectionTarget target = new InjectionTarget(bean,
+            val.isField() ? val.getField() : val.getMethodParameter().getMethod());
+        if (!targetValues.containsKey(target)) {
+          targetValues.put(target, val);
+        }
       }
     }
+
+    // 2. update the values, the placeholders shared by the values are resolved once
+    Map<String, String> resolvedPlaceholders = Maps.newHashMap();
+    for (SpringValue val : targetValues.values()) {
+      updateSpringValue(val, resolvedPlaceholders);
+    }
   }
 
-  private void updateSpringValue(SpringValue springValue) {
+  private void updateSpringValue(SpringValue springValue, Map<String, String> resolvedPlaceholders) {
     try {
-      Object value = resolvePropertyValue(springValue);
+      Object value = resolvePropertyValue(springValue, resolvedPlaceholders);
       springValue.update(value);
 
       logger.info("Auto update apollo changed value successfully, new value: {}, {}", value,
@@ -92,10 +108,15 @@ public class AutoUpdateConfigChangeListener implements ConfigChangeListener{
    * Logic transplanted from DefaultListableBeanFactory
    * @see org.springframework.beans.factory.support.DefaultListableBeanFactory#doResolveDependency(org.springframework.beans.factory.config.DependencyDescriptor, java.lang.String, java.util.Set, org.springframework.beans.TypeConverter)
    */
-  private Object resolvePropertyValue(SpringValue springValue) {
+  private Object resolvePropertyValue(SpringValue springValue, Map<String, String> resolvedPlaceholders) {
+    String strVal = resolvedPlaceholders.get(springValue.getPlaceholder());
+    if (strVal == null) {
+      strVal = beanFactory.resolveEmbeddedValue(springValue.getPlaceholder());
+      resolvedPlaceholders.put(springValue.getPlaceholder(), strVal);
+    }
+
     // value will never be null, as @Value and @ApolloJsonValue will not allow that
-    Object value = placeholderHelper
-        .resolvePropertyValue(beanFactory, springValue.getBeanName(), springValue.getPlaceholder());
+    Object value = placeholderHelper.evaluatePropertyValue(beanFactory, springValue, strVal);
 
     if (springValue.isJson()) {
       value = parseJsonValue((String)value, springValue.getGenericType());
@@ -135,4 +156,34 @@ public class AutoUpdateConfigChangeListener implements ConfigChangeListener{
 
     return true;
   }
+
+  /**
+   * The field or method of a bean instance, the beans are compared by identity
+   */
+  private static class InjectionTarget {
+    private final Object bean;
+    private final Member member;
+
+    InjectionTarget(Object bean, Member member) {
+      this.bean = bean;
+      this.member = member;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof InjectionTarget)) {
+        return false;
+      }
+      InjectionTarget that = (InjectionTarget) o;
+      return bean == that.bean && member.equals(that.member);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(bean) + member.hashCode();
+    }
+  }
 }
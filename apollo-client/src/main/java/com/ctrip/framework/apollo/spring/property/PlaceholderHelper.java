@@ -22,6 +22,7 @@ import java.util.Set;
 import java.util.Stack;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanExpressionContext;
+import org.springframework.beans.factory.config.BeanExpressionResolver;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.config.Scope;
 import org.springframework.util.StringUtils;
@@ -48,6 +49,16 @@ public class PlaceholderHelper {
     // resolve string value
     String strVal = beanFactory.resolveEmbeddedValue(placeholder);
 
+    return evaluatePropertyValue(beanFactory, beanName, strVal);
+  }
+
+  /**
+   * Evaluate the expressions in the string value a placeholder is resolved to, e.g.
+   * <br />
+   * <br />
+   * "#{systemProperties.myProp}" -> "the actual system property value"
+   */
+  public Object evaluatePropertyValue(ConfigurableBeanFactory beanFactory, String beanName, String strVal) {
     BeanDefinition bd = (beanFactory.containsBean(beanName) ? beanFactory
         .getMergedBeanDefinition(beanName) : null);
 
@@ -55,15 +66,41 @@ public class PlaceholderHelper {
     return evaluateBeanDefinitionString(beanFactory, strVal, bd);
   }
 
+  /**
+   * Same as {@link #evaluatePropertyValue(ConfigurableBeanFactory, String, String)}, but the expression context is
+   * cached in the spring value and only rebuilt when the bean definition of the spring value changes
+   */
+  public Object evaluatePropertyValue(ConfigurableBeanFactory beanFactory, SpringValue springValue, String strVal) {
+    BeanExpressionResolver resolver = beanFactory.getBeanExpressionResolver();
+    if (resolver == null) {
+      return strVal;
+    }
+    BeanDefinition bd = (beanFactory.containsBean(springValue.getBeanName()) ? beanFactory
+        .getMergedBeanDefinition(springValue.getBeanName()) : null);
+    BeanExpressionContext context = springValue.getExpressionContext(bd);
+    if (context == null) {
+      context = createBeanExpressionContext(beanFactory, bd);
+      springValue.setExpressionContext(bd, context);
+    }
+
+    // resolve expressions like "#{systemProperties.myProp}"
+    return resolver.evaluate(strVal, context);
+  }
+
   private Object evaluateBeanDefinitionString(ConfigurableBeanFactory beanFactory, String value,
       BeanDefinition beanDefinition) {
     if (beanFactory.getBeanExpressionResolver() == null) {
       return value;
     }
+    return beanFactory.getBeanExpressionResolver()
+        .evaluate(value, createBeanExpressionContext(beanFactory, beanDefinition));
+  }
+
+  private BeanExpressionContext createBeanExpressionContext(ConfigurableBeanFactory beanFactory,
+      BeanDefinition beanDefinition) {
     Scope scope = (beanDefinition != null ? beanFactory
         .getRegisteredScope(beanDefinition.getScope()) : null);
-    return beanFactory.getBeanExpressionResolver()
-        .evaluate(value, new BeanExpressionContext(beanFactory, scope));
+    return new BeanExpressionContext(beanFactory, scope);
   }
 
   /**
@@ -21,6 +21,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Objects;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanExpressionContext;
 import org.springframework.core.MethodParameter;
 
 /**
@@ -40,6 +43,7 @@ public class SpringValue {
   private Class<?> targetType;
   private Type genericType;
   private boolean isJson;
+  private volatile CachedExpressionContext expressionContext;
 
   public SpringValue(String key, String placeholder, Object bean, String beanName, Field field, boolean isJson) {
     this.beanRef = new WeakReference<>(bean);
@@ -128,8 +132,27 @@ public class SpringValue {
     return isJson;
   }
 
-  boolean isTargetBeanValid() {
-    return beanRef.get() != null;
+  /**
+   * @return the bean, null if it's collected
+   */
+  Object getBean() {
+    return beanRef.get();
+  }
+
+  /**
+   * @return the expression context built for the given bean definition, null if it's not built yet or the bean
+   * definition has changed since
+   */
+  BeanExpressionContext getExpressionContext(BeanDefinition beanDefinition) {
+    CachedExpressionContext cached = this.expressionContext;
+    if (cached == null || !cached.isBuiltFor(beanDefinition)) {
+      return null;
+    }
+    return cached.context;
+  }
+
+  void setExpressionContext(BeanDefinition beanDefinition, BeanExpressionContext context) {
+    this.expressionContext = new CachedExpressionContext(beanDefinition, context);
   }
 
   @Override
@@ -145,4 +168,26 @@ public class SpringValue {
     return String.format("key: %s, beanName: %s, method: %s.%s", key, beanName, bean.getClass().getName(),
         methodParameter.getMethod().getName());
   }
+
+  /**
+   * The expression context and the bean definition, including its scope, it's built for
+   */
+  private static class CachedExpressionContext {
+    private final BeanDefinition beanDefinition;
+    private final String scope;
+    private final BeanExpressionContext context;
+
+    CachedExpressionContext(BeanDefinition beanDefinition, BeanExpressionContext context) {
+      this.beanDefinition = beanDefinition;
+      this.scope = beanDefinition != null ? beanDefinition.getScope() : null;
+      this.context = context;
+    }
+
+    boolean isBuiltFor(BeanDefinition beanDefinition) {
+      if (this.beanDefinition != beanDefinition) {
+        return false;
+      }
+      return beanDefinition == null || Objects.equals(scope, beanDefinition.getScope());
+    }
+  }
 }
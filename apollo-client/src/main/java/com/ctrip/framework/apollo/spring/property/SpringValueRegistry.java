@@ -16,78 +16,91 @@
  */
 package com.ctrip.framework.apollo.spring.property;
 
-import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
-import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.collect.Multimaps;
 import org.springframework.beans.factory.BeanFactory;
 
+/**
+ * The spring values of the beans by their placeholder keys.
+ *
+ * <p>The beans are weakly referenced, once a bean is collected its spring values are removed the next time the
+ * registry is accessed.</p>
+ */
 public class SpringValueRegistry {
-  private static final long CLEAN_INTERVAL_IN_SECONDS = 5;
-  private final Map<BeanFactory, Multimap<String, SpringValue>> registry = Maps.newConcurrentMap();
-  private final AtomicBoolean initialized = new AtomicBoolean(false);
+  private final Map<BeanFactory, ConcurrentMap<String, Set<SpringValue>>> registry = Maps.newConcurrentMap();
+  private final ReferenceQueue<Object> collectedBeans = new ReferenceQueue<>();
+  // keeps the references reachable until their beans are collected
+  private final Set<SpringValueReference> references = Sets.newConcurrentHashSet();
   private final Object LOCK = new Object();
 
   public void register(BeanFactory beanFactory, String key, SpringValue springValue) {
+    expungeCollectedSpringValues();
+
     if (!registry.containsKey(beanFactory)) {
       synchronized (LOCK) {
         if (!registry.containsKey(beanFactory)) {
-          registry.put(beanFactory, Multimaps.synchronizedListMultimap(LinkedListMultimap.<String, SpringValue>create()));
+          registry.put(beanFactory, Maps.<String, Set<SpringValue>>newConcurrentMap());
         }
       }
     }
 
-    registry.get(beanFactory).put(key, springValue);
+    ConcurrentMap<String, Set<SpringValue>> beanFactorySpringValues = registry.get(beanFactory);
+    Set<SpringValue> springValues = beanFactorySpringValues.get(key);
+    if (springValues == null) {
+      Set<SpringValue> newSpringValues = Sets.newConcurrentHashSet();
+      springValues = beanFactorySpringValues.putIfAbsent(key, newSpringValues);
+      if (springValues == null) {
+        springValues = newSpringValues;
+      }
+    }
 
-    // lazy initialize
-    if (initialized.compareAndSet(false, true)) {
-      initialize();
+    Object bean = springValue.getBean();
+    if (bean == null) {
+      return;
     }
+    springValues.add(springValue);
+    references.add(new SpringValueReference(bean, collectedBeans, springValues, springValue));
   }
 
+  /**
+   * @return the spring values of the key, null if there is none
+   */
   public Collection<SpringValue> get(BeanFactory beanFactory, String key) {
-    Multimap<String, SpringValue> beanFactorySpringValues = registry.get(beanFactory);
+    expungeCollectedSpringValues();
+
+    Map<String, Set<SpringValue>> beanFactorySpringValues = registry.get(beanFactory);
     if (beanFactorySpringValues == null) {
       return null;
     }
     return beanFactorySpringValues.get(key);
   }
 
-  private void initialize() {
-    Executors.newSingleThreadScheduledExecutor(ApolloThreadFactory.create("SpringValueRegistry", true)).scheduleAtFixedRate(
-        new Runnable() {
-          @Override
-          public void run() {
-            try {
-              scanAndClean();
-            } catch (Throwable ex) {
-              ex.printStackTrace();
-            }
-          }
-        }, CLEAN_INTERVAL_IN_SECONDS, CLEAN_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+  private void expungeCollectedSpringValues() {
+    Reference<?> reference;
+    while ((reference = collectedBeans.poll()) != null) {
+      SpringValueReference springValueReference = (SpringValueReference) reference;
+      springValueReference.springValues.remove(springValueReference.springValue);
+      references.remove(springValueReference);
+    }
   }
 
-  private void scanAndClean() {
-    Iterator<Multimap<String, SpringValue>> iterator = registry.values().iterator();
-    while (!Thread.currentThread().isInterrupted() && iterator.hasNext()) {
-      Multimap<String, SpringValue> springValues = iterator.next();
-      Iterator<Entry<String, SpringValue>> springValueIterator = springValues.entries().iterator();
-      while (springValueIterator.hasNext()) {
-        Entry<String, SpringValue> springValue = springValueIterator.next();
-        if (!springValue.getValue().isTargetBeanValid()) {
-          // clear unused spring values
-          springValueIterator.remove();
-        }
-      }
+  private static class SpringValueReference extends WeakReference<Object> {
+    private final Set<SpringValue> springValues;
+    private final SpringValue springValue;
+
+    private SpringValueReference(Object bean, ReferenceQueue<Object> queue, Set<SpringValue> springValues,
+        SpringValue springValue) {
+      super(bean, queue);
+      this.springValues = springValues;
+      this.springValue = springValue;
     }
   }
 }
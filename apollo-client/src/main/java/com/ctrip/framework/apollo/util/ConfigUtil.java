@@ -56,6 +56,10 @@ public class ConfigUtil {
   private boolean autoUpdateInjectedSpringProperties = true;
   private final RateLimiter warnLogRateLimiter;
   private boolean propertiesOrdered = false;
+  private boolean incrementalSyncEnabled = false;
+  private boolean longPollMultiplexEnabled = false;
+  private boolean pooledHttpClientEnabled = false;
+  private boolean batchQueryEnabled = false;
 
   public ConfigUtil() {
     warnLogRateLimiter = RateLimiter.create(0.017); // 1 warning log output per minute
@@ -68,6 +72,10 @@ public class ConfigUtil {
     initLongPollingInitialDelayInMills();
     initAutoUpdateInjectedSpringProperties();
     initPropertiesOrdered();
+    initIncrementalSyncEnabled();
+    initLongPollMultiplexEnabled();
+    initPooledHttpClientEnabled();
+    initBatchQueryEnabled();
   }
 
   /**
@@ -394,4 +402,88 @@ public class ConfigUtil {
   public boolean isPropertiesOrderEnabled() {
     return propertiesOrdered;
   }
+
+  private void initIncrementalSyncEnabled() {
+    String enableIncrementalSync = System.getProperty(ApolloClientSystemConsts.APOLLO_INCREMENTAL_SYNC_ENABLE);
+
+    if (Strings.isNullOrEmpty(enableIncrementalSync)) {
+      enableIncrementalSync = Foundation.app()
+          .getProperty(ApolloClientSystemConsts.APOLLO_INCREMENTAL_SYNC_ENABLE, "false");
+    }
+
+    if (!Strings.isNullOrEmpty(enableIncrementalSync)) {
+      incrementalSyncEnabled = Boolean.parseBoolean(enableIncrementalSync.trim());
+    }
+  }
+
+  /**
+   * @return whether to ask the config service for the changed configurations only, when the config service doesn't
+   * support it, the full configurations are returned as usual
+   */
+  public boolean isIncrementalSyncEnabled() {
+    return incrementalSyncEnabled;
+  }
+
+  private void initLongPollMultiplexEnabled() {
+    String enableLongPollMultiplex = System.getProperty(ApolloClientSystemConsts.APOLLO_LONG_POLL_MULTIPLEX_ENABLE);
+
+    if (Strings.isNullOrEmpty(enableLongPollMultiplex)) {
+      enableLongPollMultiplex = Foundation.app()
+          .getProperty(ApolloClientSystemConsts.APOLLO_LONG_POLL_MULTIPLEX_ENABLE, "false");
+    }
+
+    if (!Strings.isNullOrEmpty(enableLongPollMultiplex)) {
+      longPollMultiplexEnabled = Boolean.parseBoolean(enableLongPollMultiplex.trim());
+    }
+  }
+
+  /**
+   * @return whether to long poll with the multiplexed notification endpoint, which returns the changed configs
+   * together with the notifications, so the namespaces don't need to query the config service after being notified
+   */
+  public boolean isLongPollMultiplexEnabled() {
+    return longPollMultiplexEnabled;
+  }
+
+  private void initPooledHttpClientEnabled() {
+    String enablePooledHttpClient = System.getProperty(ApolloClientSystemConsts.APOLLO_HTTP_CLIENT_POOLED_ENABLE);
+
+    if (Strings.isNullOrEmpty(enablePooledHttpClient)) {
+      enablePooledHttpClient = Foundation.app()
+          .getProperty(ApolloClientSystemConsts.APOLLO_HTTP_CLIENT_POOLED_ENABLE, "false");
+    }
+
+    if (!Strings.isNullOrEmpty(enablePooledHttpClient)) {
+      pooledHttpClientEnabled = Boolean.parseBoolean(enablePooledHttpClient.trim());
+    }
+  }
+
+  /**
+   * @return whether to use {@link com.ctrip.framework.apollo.util.http.PooledHttpClient} instead of the default http
+   * client
+   */
+  public boolean isPooledHttpClientEnabled() {
+    return pooledHttpClientEnabled;
+  }
+
+  private void initBatchQueryEnabled() {
+    String enableBatchQuery = System.getProperty(ApolloClientSystemConsts.APOLLO_CONFIG_BATCH_QUERY_ENABLE);
+
+    if (Strings.isNullOrEmpty(enableBatchQuery)) {
+      enableBatchQuery = Foundation.app()
+          .getProperty(ApolloClientSystemConsts.APOLLO_CONFIG_BATCH_QUERY_ENABLE, "false");
+    }
+
+    if (!Strings.isNullOrEmpty(enableBatchQuery)) {
+      batchQueryEnabled = Boolean.parseBoolean(enableBatchQuery.trim());
+    }
+  }
+
+  /**
+   * @return whether to load the namespaces with one batch config query on startup and after being notified of many
+   * namespaces at once
+   */
+  public boolean isBatchQueryEnabled() {
+    return batchQueryEnabled;
+  }
 }
@@ -31,6 +31,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Jason Song(song_s@ctrip.com)
@@ -95,6 +96,8 @@ public class DefaultHttpClient implements HttpClient {
       HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
 
       conn.setRequestMethod("GET");
+      //the config service compresses the large configs once and serves them to all the clients
+      conn.setRequestProperty("Accept-Encoding", "gzip");
 
       Map<String, String> headers = httpRequest.getHeaders();
       if (headers != null && headers.size() > 0) {
@@ -122,7 +125,12 @@ public class DefaultHttpClient implements HttpClient {
       String response;
 
       try {
-        isr = new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8);
+        InputStream inputStream = conn.getInputStream();
+        //304 has no body to decode
+        if (statusCode == 200 && "gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+          inputStream = new GZIPInputStream(inputStream);
+        }
+        isr = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
         response = CharStreams.toString(isr);
       } catch (IOException ex) {
         /**
@@ -146,7 +154,8 @@ public class DefaultHttpClient implements HttpClient {
           throw ex;
         }
         // for status codes like 404, IOException is expected when calling conn.getInputStream()
-        throw new ApolloConfigStatusCodeException(statusCode, ex);
+        throw new ApolloConfigStatusCodeException(statusCode, ex,
+            parseRetryAfterInSecond(conn.getHeaderField("Retry-After")));
       }
 
       if (statusCode == 200) {
@@ -182,4 +191,18 @@ public class DefaultHttpClient implements HttpClient {
         String.format("Get operation failed for %s", httpRequest.getUrl()));
   }
 
+  /**
+   * @return the seconds in the Retry-After header, 0 if absent or given as a http date
+   */
+  public static long parseRetryAfterInSecond(String retryAfter) {
+    if (retryAfter == null) {
+      return 0;
+    }
+    try {
+      return Math.max(Long.parseLong(retryAfter.trim()), 0);
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import com.ctrip.framework.apollo.build.ApolloInjector;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Http client which bounds the concurrent connections.
+ *
+ * <p>Compared to {@link DefaultHttpClient}, it decodes the json response directly from the connection instead of
+ * reading it into a string first. The connections are reused by the keep-alive cache of
+ * {@link HttpURLConnection}, so the response is always drained before the connection is released, the idle
+ * connections kept per server are controlled by the {@code http.maxConnections} system property.</p>
+ */
+public class PooledHttpClient implements HttpClient {
+  private static final int DEFAULT_MAX_CONNECTIONS = 16;
+  private static final Gson GSON = new Gson();
+  private final ConfigUtil m_configUtil;
+  private final int m_maxConnections;
+  private final Semaphore m_connectionPermits;
+
+  /**
+   * Constructor.
+   */
+  public PooledHttpClient() {
+    this(DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * @param maxConnections the max connections in use at the same time, including the long polling one
+   */
+  public PooledHttpClient(int maxConnections) {
+    m_configUtil = ApolloInjector.getInstance(ConfigUtil.class);
+    m_maxConnections = maxConnections;
+    m_connectionPermits = new Semaphore(maxConnections, true);
+  }
+
+  @Override
+  public <T> HttpResponse<T> doGet(HttpRequest httpRequest, final Class<T> responseType) {
+    return doGetWithPooledConnection(httpRequest, responseType);
+  }
+
+  @Override
+  public <T> HttpResponse<T> doGet(HttpRequest httpRequest, final Type responseType) {
+    return doGetWithPooledConnection(httpRequest, responseType);
+  }
+
+  /**
+   * @return the connections in use
+   */
+  public int getActiveConnections() {
+    return m_maxConnections - m_connectionPermits.availablePermits();
+  }
+
+  private <T> HttpResponse<T> doGetWithPooledConnection(HttpRequest httpRequest, Type responseType) {
+    int connectTimeout = httpRequest.getConnectTimeout();
+    if (connectTimeout < 0) {
+      connectTimeout = m_configUtil.getConnectTimeout();
+    }
+
+    boolean acquired;
+    try {
+      //waiting for a connection counts as connecting
+      acquired = m_connectionPermits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new ApolloConfigException("Interrupted while waiting for an available connection", ex);
+    }
+    if (!acquired) {
+      throw new ApolloConfigException(String.format(
+          "No available connection within %d ms, max connections: %d", connectTimeout, m_maxConnections));
+    }
+
+    try {
+      return doGetWithConnection(httpRequest, connectTimeout, responseType);
+    } finally {
+      m_connectionPermits.release();
+    }
+  }
+
+  private <T> HttpResponse<T> doGetWithConnection(HttpRequest httpRequest, int connectTimeout,
+                                                  Type responseType) {
+    InputStream inputStream = null;
+    InputStream bodyStream = null;
+    int statusCode;
+    try {
+      HttpURLConnection conn = (HttpURLConnection) new URL(httpRequest.getUrl()).openConnection();
+
+      conn.setRequestMethod("GET");
+      conn.setRequestProperty("Accept-Encoding", "gzip");
+
+      Map<String, String> headers = httpRequest.getHeaders();
+      if (headers != null && headers.size() > 0) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+          conn.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+      }
+
+      int readTimeout = httpRequest.getReadTimeout();
+      if (readTimeout < 0) {
+        readTimeout = m_configUtil.getReadTimeout();
+      }
+
+      conn.setConnectTimeout(connectTimeout);
+      conn.setReadTimeout(readTimeout);
+
+      conn.connect();
+
+      statusCode = conn.getResponseCode();
+
+      try {
+        inputStream = conn.getInputStream();
+      } catch (IOException ex) {
+        //same as DefaultHttpClient, drain the error stream so that the connection could be reused
+        drainQuietly(conn.getErrorStream());
+
+        // 200 and 304 should not trigger IOException, thus we must throw the original exception out
+        if (statusCode == 200 || statusCode == 304) {
+          throw ex;
+        }
+        // for status codes like 404, IOException is expected when calling conn.getInputStream()
+        throw new ApolloConfigStatusCodeException(statusCode, ex,
+            DefaultHttpClient.parseRetryAfterInSecond(conn.getHeaderField("Retry-After")));
+      }
+
+      if (statusCode == 200) {
+        bodyStream = "gzip".equalsIgnoreCase(conn.getContentEncoding()) ? new GZIPInputStream(inputStream)
+            : inputStream;
+        T body = GSON.fromJson(new InputStreamReader(bodyStream, StandardCharsets.UTF_8), responseType);
+        return new HttpResponse<>(statusCode, body);
+      }
+
+      if (statusCode == 304) {
+        return new HttpResponse<>(statusCode, null);
+      }
+    } catch (ApolloConfigStatusCodeException ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new ApolloConfigException("Could not complete get operation", ex);
+    } finally {
+      //the decoder may stop before the end of the body, e.g. the gzip trailer
+      drainQuietly(inputStream);
+      closeQuietly(bodyStream);
+    }
+
+    throw new ApolloConfigStatusCodeException(statusCode,
+        String.format("Get operation failed for %s", httpRequest.getUrl()));
+  }
+
+  private void drainQuietly(InputStream inputStream) {
+    if (inputStream == null) {
+      return;
+    }
+    try {
+      ByteStreams.exhaust(inputStream);
+    } catch (IOException ex) {
+      //ignore
+    }
+    closeQuietly(inputStream);
+  }
+
+  private void closeQuietly(InputStream inputStream) {
+    if (inputStream == null) {
+      return;
+    }
+    try {
+      inputStream.close();
+    } catch (IOException ex) {
+      //ignore
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -27,10 +28,13 @@ import com.ctrip.framework.apollo.enums.PropertyChangeType;
 import com.ctrip.framework.apollo.model.ConfigChange;
 import com.ctrip.framework.apollo.model.ConfigChangeEvent;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -163,6 +167,35 @@ public class AbstractConfigTest {
     verify(configChangeListener2, times(1)).onChange(Matchers.<ConfigChangeEvent>any());
   }
 
+  @Test
+  public void testFireConfigChange_notify_in_order() throws Exception {
+    AbstractConfig abstractConfig = new ErrorConfig();
+    final String namespace = "app-namespace-2";
+    final String key = "great-key";
+    final int events = 20;
+
+    final List<String> receivedValues = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch allReceived = new CountDownLatch(events);
+    abstractConfig.addChangeListener(new ConfigChangeListener() {
+      @Override
+      public void onChange(ConfigChangeEvent changeEvent) {
+        receivedValues.add(changeEvent.getChange(key).getNewValue());
+        allReceived.countDown();
+      }
+    });
+
+    List<String> firedValues = new ArrayList<>();
+    for (int i = 0; i < events; i++) {
+      String value = "value-" + i;
+      firedValues.add(value);
+      abstractConfig.fireConfigChange(namespace, Collections.singletonMap(key,
+          new ConfigChange(namespace, key, null, value, PropertyChangeType.MODIFIED)));
+    }
+
+    assertTrue(allReceived.await(1, TimeUnit.SECONDS));
+    assertEquals(firedValues, receivedValues);
+  }
+
   /**
    * Only for current test usage.
    *
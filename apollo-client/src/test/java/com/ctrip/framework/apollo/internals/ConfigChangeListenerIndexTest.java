@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.ctrip.framework.apollo.ConfigChangeListener;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigChangeListenerIndexTest {
+
+  private ConfigChangeListenerIndex listenerIndex;
+
+  @Before
+  public void setUp() throws Exception {
+    listenerIndex = new ConfigChangeListenerIndex();
+  }
+
+  @Test
+  public void testMatch() throws Exception {
+    ConfigChangeListener allKeysListener = mock(ConfigChangeListener.class);
+    ConfigChangeListener keyListener = mock(ConfigChangeListener.class);
+    ConfigChangeListener prefixListener = mock(ConfigChangeListener.class);
+    ConfigChangeListener keyAndPrefixListener = mock(ConfigChangeListener.class);
+    ConfigChangeListener notMatchedListener = mock(ConfigChangeListener.class);
+
+    listenerIndex.add(keyAndPrefixListener, Sets.newHashSet("a.b"), Sets.newHashSet("c."));
+    listenerIndex.add(allKeysListener, null, Collections.<String>emptySet());
+    listenerIndex.add(keyListener, Sets.newHashSet("a.b", "a.c"), null);
+    listenerIndex.add(prefixListener, null, Sets.newHashSet("a.", "a.b"));
+    listenerIndex.add(notMatchedListener, Sets.newHashSet("a"), Sets.newHashSet("b.", "a.b.c"));
+
+    Map<ConfigChangeListener, Set<String>> result = listenerIndex.match(Sets.newHashSet("a.b", "c.d", "e"));
+
+    assertEquals(Lists.newArrayList(keyAndPrefixListener, allKeysListener, keyListener, prefixListener),
+        Lists.newArrayList(result.keySet()));
+    assertEquals(Sets.newHashSet("a.b", "c.d"), result.get(keyAndPrefixListener));
+    assertEquals(Collections.emptySet(), result.get(allKeysListener));
+    assertEquals(Sets.newHashSet("a.b"), result.get(keyListener));
+    assertEquals(Sets.newHashSet("a.b"), result.get(prefixListener));
+  }
+
+  @Test
+  public void testMatchWithEmptyPrefix() throws Exception {
+    ConfigChangeListener someListener = mock(ConfigChangeListener.class);
+
+    listenerIndex.add(someListener, Sets.newHashSet("a"), Sets.newHashSet(""));
+
+    Map<ConfigChangeListener, Set<String>> result = listenerIndex.match(Sets.newHashSet("b", "c"));
+
+    assertEquals(Sets.newHashSet("b", "c"), result.get(someListener));
+  }
+
+  @Test
+  public void testAddAndRemove() throws Exception {
+    ConfigChangeListener someListener = mock(ConfigChangeListener.class);
+
+    assertTrue(listenerIndex.add(someListener, Sets.newHashSet("a"), null));
+    assertFalse(listenerIndex.add(someListener, Sets.newHashSet("b"), null));
+
+    assertTrue(listenerIndex.match(Sets.newHashSet("b")).isEmpty());
+    assertEquals(Sets.newHashSet("a"), listenerIndex.match(Sets.newHashSet("a")).get(someListener));
+
+    assertTrue(listenerIndex.remove(someListener));
+    assertFalse(listenerIndex.remove(someListener));
+
+    assertTrue(listenerIndex.match(Sets.newHashSet("a")).isEmpty());
+  }
+}
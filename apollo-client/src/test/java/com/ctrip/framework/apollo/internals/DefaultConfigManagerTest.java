@@ -18,12 +18,22 @@ package com.ctrip.framework.apollo.internals;
 
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -108,6 +118,95 @@ public class DefaultConfigManagerTest {
 
   }
 
+  @Test
+  public void testGetConfigs() throws Exception {
+    String someNamespace = "someName";
+    String anotherNamespace = "anotherName";
+    String someKey = "someKey";
+    Config someConfig = defaultConfigManager.getConfig(someNamespace);
+
+    Map<String, Config> configs =
+        defaultConfigManager.getConfigs(Lists.newArrayList(anotherNamespace, someNamespace));
+
+    assertEquals(Lists.newArrayList(anotherNamespace, someNamespace), Lists.newArrayList(configs.keySet()));
+    assertSame(someConfig, configs.get(someNamespace));
+    assertSame(defaultConfigManager.getConfig(anotherNamespace), configs.get(anotherNamespace));
+    assertEquals(anotherNamespace + ":" + someKey, configs.get(anotherNamespace).getProperty(someKey, null));
+  }
+
+  @Test
+  public void testGetConfigsLoadsNamespacesConcurrently() throws Exception {
+    final List<String> namespaces = Lists.newArrayList("someName", "anotherName", "yetAnotherName");
+    final CountDownLatch allCreating = new CountDownLatch(namespaces.size());
+    final AtomicBoolean concurrent = new AtomicBoolean(true);
+    final ConfigFactory mockFactory = new MockConfigFactoryManager().getFactory(null);
+    MockInjector.setInstance(ConfigFactoryManager.class, new ConfigFactoryManager() {
+      @Override
+      public ConfigFactory getFactory(String namespace) {
+        return new ConfigFactory() {
+          @Override
+          public Config create(String namespace) {
+            allCreating.countDown();
+            try {
+              if (!allCreating.await(5, TimeUnit.SECONDS)) {
+                concurrent.set(false);
+              }
+            } catch (InterruptedException ex) {
+              concurrent.set(false);
+            }
+            return mockFactory.create(namespace);
+          }
+
+          @Override
+          public ConfigFile createConfigFile(String namespace, ConfigFileFormat configFileFormat) {
+            return mockFactory.createConfigFile(namespace, configFileFormat);
+          }
+        };
+      }
+    });
+    defaultConfigManager = new DefaultConfigManager();
+
+    Map<String, Config> configs = defaultConfigManager.getConfigs(namespaces);
+
+    assertTrue(concurrent.get());
+    assertEquals(namespaces.size(), configs.size());
+  }
+
+  @Test
+  public void testGetConfigsRetriesFailedNamespace() throws Exception {
+    final String someNamespace = "someName";
+    String anotherNamespace = "anotherName";
+    final AtomicInteger someNamespaceAttempts = new AtomicInteger();
+    final ConfigFactory mockFactory = new MockConfigFactoryManager().getFactory(null);
+    MockInjector.setInstance(ConfigFactoryManager.class, new ConfigFactoryManager() {
+      @Override
+      public ConfigFactory getFactory(String namespace) {
+        return new ConfigFactory() {
+          @Override
+          public Config create(String namespace) {
+            if (someNamespace.equals(namespace) && someNamespaceAttempts.incrementAndGet() == 1) {
+              throw new IllegalStateException("some failure");
+            }
+            return mockFactory.create(namespace);
+          }
+
+          @Override
+          public ConfigFile createConfigFile(String namespace, ConfigFileFormat configFileFormat) {
+            return mockFactory.createConfigFile(namespace, configFileFormat);
+          }
+        };
+      }
+    });
+    defaultConfigManager = new DefaultConfigManager();
+
+    Map<String, Config> configs =
+        defaultConfigManager.getConfigs(Lists.newArrayList(someNamespace, anotherNamespace));
+
+    assertEquals(2, someNamespaceAttempts.get());
+    assertNotNull(configs.get(someNamespace));
+    assertNotNull(configs.get(anotherNamespace));
+  }
+
   public static class MockConfigFactoryManager implements ConfigFactoryManager {
 
     @Override
@@ -20,8 +20,11 @@ import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -161,6 +164,58 @@ public class DefaultConfigTest {
     assertEquals(someSourceType, defaultConfig.getSourceType());
   }
 
+  @Test
+  public void testGetPropertyWithSystemPropertySetLater() throws Exception {
+    String someKey = "someKeySetLater";
+    String someLocalFileValue = "local-file-value";
+    String someSystemPropertyValue = "system-property-value";
+
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someLocalFileValue);
+    when(configRepository.getConfig()).thenReturn(someProperties);
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    assertEquals(someLocalFileValue, defaultConfig.getProperty(someKey, null));
+
+    try {
+      System.setProperty(someKey, someSystemPropertyValue);
+
+      assertEquals(someSystemPropertyValue, defaultConfig.getProperty(someKey, null));
+    } finally {
+      System.clearProperty(someKey);
+    }
+  }
+
+  @Test
+  public void testGetPropertyWithEnvVariable() throws Exception {
+    String someEnvKey = null;
+    for (String key : System.getenv().keySet()) {
+      if (System.getProperty(key) == null) {
+        someEnvKey = key;
+        break;
+      }
+    }
+    assumeTrue(someEnvKey != null);
+    String someEnvValue = System.getenv(someEnvKey);
+    String someLocalFileValue = "local-file-value";
+
+    when(configRepository.getConfig()).thenReturn(new Properties());
+
+    DefaultConfig defaultConfig =
+        new DefaultConfig(someNamespace, configRepository);
+
+    assertEquals(someEnvValue, defaultConfig.getProperty(someEnvKey, null));
+
+    Properties newProperties = new Properties();
+    newProperties.setProperty(someEnvKey, someLocalFileValue);
+
+    defaultConfig.onRepositoryChange(someNamespace, newProperties);
+
+    assertEquals(someLocalFileValue, defaultConfig.getProperty(someEnvKey, null));
+  }
+
   @Test
   public void testGetIntProperty() throws Exception {
     String someStringKey = "someStringKey";
@@ -192,18 +247,42 @@ public class DefaultConfigTest {
     Integer someDefaultValue = -1;
 
     //set up config repo
-    someProperties = mock(Properties.class);
-    when(someProperties.getProperty(someKey)).thenReturn(String.valueOf(someValue));
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, String.valueOf(someValue));
     when(configRepository.getConfig()).thenReturn(someProperties);
 
     DefaultConfig defaultConfig =
-        new DefaultConfig(someNamespace, configRepository);
+        spy(new DefaultConfig(someNamespace, configRepository));
 
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
 
-    verify(someProperties, times(1)).getProperty(someKey);
+    verify(defaultConfig, times(1)).getProperty(someKey, null);
+  }
+
+  @Test
+  public void testGetPropertyOfDifferentTypesMultipleTimesWithCache() throws Exception {
+    String someKey = "someKey";
+    String someValue = "2";
+    String someDelimiter = ",";
+
+    //set up config repo
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someValue);
+    when(configRepository.getConfig()).thenReturn(someProperties);
+
+    DefaultConfig defaultConfig =
+        spy(new DefaultConfig(someNamespace, configRepository));
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals(Integer.valueOf(2), defaultConfig.getIntProperty(someKey, -1));
+      assertEquals(Long.valueOf(2), defaultConfig.getLongProperty(someKey, -1L));
+      assertEquals(Short.valueOf((short) 2), defaultConfig.getShortProperty(someKey, (short) -1));
+      assertArrayEquals(new String[]{someValue}, defaultConfig.getArrayProperty(someKey, someDelimiter, null));
+    }
+
+    verify(defaultConfig, times(4)).getProperty(someKey, null);
   }
 
   @Test
@@ -245,27 +324,27 @@ public class DefaultConfigTest {
     MockInjector.setInstance(ConfigUtil.class, new MockConfigUtilWithSmallCache());
 
     //set up config repo
-    someProperties = mock(Properties.class);
-    when(someProperties.getProperty(someKey)).thenReturn(String.valueOf(someValue));
-    when(someProperties.getProperty(anotherKey)).thenReturn(String.valueOf(anotherValue));
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, String.valueOf(someValue));
+    someProperties.setProperty(anotherKey, String.valueOf(anotherValue));
     when(configRepository.getConfig()).thenReturn(someProperties);
 
     DefaultConfig defaultConfig =
-        new DefaultConfig(someNamespace, configRepository);
+        spy(new DefaultConfig(someNamespace, configRepository));
 
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
 
-    verify(someProperties, times(1)).getProperty(someKey);
+    verify(defaultConfig, times(1)).getProperty(someKey, null);
 
     assertEquals(anotherValue, defaultConfig.getIntProperty(anotherKey, someDefaultValue));
     assertEquals(anotherValue, defaultConfig.getIntProperty(anotherKey, someDefaultValue));
 
-    verify(someProperties, times(1)).getProperty(anotherKey);
+    verify(defaultConfig, times(1)).getProperty(anotherKey, null);
 
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
 
-    verify(someProperties, times(2)).getProperty(someKey);
+    verify(defaultConfig, times(2)).getProperty(someKey, null);
   }
 
   @Test
@@ -278,17 +357,17 @@ public class DefaultConfigTest {
     MockInjector.setInstance(ConfigUtil.class, new MockConfigUtilWithShortExpireTime());
 
     //set up config repo
-    someProperties = mock(Properties.class);
-    when(someProperties.getProperty(someKey)).thenReturn(String.valueOf(someValue));
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, String.valueOf(someValue));
     when(configRepository.getConfig()).thenReturn(someProperties);
 
     final DefaultConfig defaultConfig =
-        new DefaultConfig(someNamespace, configRepository);
+        spy(new DefaultConfig(someNamespace, configRepository));
 
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
     assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
 
-    verify(someProperties, times(1)).getProperty(someKey);
+    verify(defaultConfig, times(1)).getProperty(someKey, null);
 
     await().atMost(500, TimeUnit.MILLISECONDS).untilAsserted(new ThrowingRunnable() {
       @Override
@@ -296,7 +375,7 @@ public class DefaultConfigTest {
         assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
         assertEquals(someValue, defaultConfig.getIntProperty(someKey, someDefaultValue));
 
-        verify(someProperties, times(2)).getProperty(someKey);
+        verify(defaultConfig, times(2)).getProperty(someKey, null);
       }
     });
   }
@@ -475,24 +554,24 @@ public class DefaultConfigTest {
     String[] someDefaultValue = new String[]{"1", "2"};
 
     //set up config repo
-    someProperties = mock(Properties.class);
-    when(someProperties.getProperty(someKey)).thenReturn(someValue);
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, someValue);
     when(configRepository.getConfig()).thenReturn(someProperties);
 
     DefaultConfig defaultConfig =
-        new DefaultConfig(someNamespace, configRepository);
+        spy(new DefaultConfig(someNamespace, configRepository));
 
     assertArrayEquals(values, defaultConfig.getArrayProperty(someKey, someDelimiter, someDefaultValue));
     assertArrayEquals(values, defaultConfig.getArrayProperty(someKey, someDelimiter, someDefaultValue));
 
-    verify(someProperties, times(1)).getProperty(someKey);
+    verify(defaultConfig, times(1)).getProperty(someKey, null);
 
     assertArrayEquals(someDefaultValue, defaultConfig.getArrayProperty(someKey, someInvalidDelimiter,
         someDefaultValue));
     assertArrayEquals(someDefaultValue, defaultConfig.getArrayProperty(someKey, someInvalidDelimiter,
         someDefaultValue));
 
-    verify(someProperties, times(3)).getProperty(someKey);
+    verify(defaultConfig, times(3)).getProperty(someKey, null);
   }
 
   @Test
@@ -843,6 +922,33 @@ public class DefaultConfigTest {
     assertEquals(someProperties.stringPropertyNames(), propertyNames);
   }
 
+  @Test
+  public void testGetPropertyNamesAfterPropertyChanges() {
+    String someKey = "someKey";
+    String anotherKey = "anotherKey";
+
+    //set up config repo
+    someProperties = new Properties();
+    someProperties.setProperty(someKey, "someValue");
+
+    when(configRepository.getConfig()).thenReturn(someProperties);
+
+    DefaultConfig defaultConfig = new DefaultConfig(someNamespace, configRepository);
+
+    Set<String> propertyNames = defaultConfig.getPropertyNames();
+
+    assertEquals(Sets.newHashSet(someKey), propertyNames);
+    assertSame(propertyNames, defaultConfig.getPropertyNames());
+
+    Properties anotherProperties = new Properties();
+    anotherProperties.setProperty(someKey, "someValue");
+    anotherProperties.setProperty(anotherKey, "anotherValue");
+
+    defaultConfig.onRepositoryChange(someNamespace, anotherProperties);
+
+    assertEquals(Sets.newHashSet(someKey, anotherKey), defaultConfig.getPropertyNames());
+  }
+
   @Test
   public void testGetPropertyNamesWithOrderedProperties() {
     String someKeyPrefix = "someKey";
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.internals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.ctrip.framework.apollo.util.http.HttpClient;
+import com.ctrip.framework.apollo.util.http.HttpRequest;
+import com.ctrip.framework.apollo.util.http.HttpResponse;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.net.UrlEscapers;
+import com.google.gson.Gson;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RemoteConfigBatchLoaderTest {
+  @Mock
+  private HttpClient httpClient;
+  @Mock
+  private ConfigServiceLocator configServiceLocator;
+  @Mock
+  private HttpResponse<List<ApolloConfig>> someResponse;
+  private MockConfigUtil configUtil;
+  private RemoteConfigBatchLoader batchLoader;
+
+  private static String someServerUrl;
+  private static String someAppId;
+  private static String someCluster;
+
+  @Before
+  public void setUp() throws Exception {
+    someServerUrl = "http://someServer";
+    someAppId = "someAppId";
+    someCluster = "someCluster";
+
+    ServiceDTO serviceDTO = mock(ServiceDTO.class);
+    when(serviceDTO.getHomepageUrl()).thenReturn(someServerUrl);
+    when(configServiceLocator.getConfigServices()).thenReturn(Lists.newArrayList(serviceDTO));
+    MockInjector.setInstance(ConfigServiceLocator.class, configServiceLocator);
+    MockInjector.setInstance(HttpClient.class, httpClient);
+    configUtil = new MockConfigUtil();
+    MockInjector.setInstance(ConfigUtil.class, configUtil);
+
+    batchLoader = new RemoteConfigBatchLoader();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockInjector.reset();
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+    String someReleaseKey = "someReleaseKey";
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "anotherReleaseKey");
+    ApolloNotificationMessages someMessages = new ApolloNotificationMessages();
+    someMessages.put("someKey", 1);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(Lists.newArrayList(someConfig));
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class))).thenReturn((HttpResponse) someResponse);
+
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    releaseKeys.put(someNamespace, someReleaseKey);
+    releaseKeys.put(anotherNamespace, null);
+
+    Map<String, ApolloConfig> result = batchLoader.load(releaseKeys,
+        ImmutableMap.of(someNamespace, someMessages), null);
+
+    assertEquals(ImmutableMap.of(someNamespace, someConfig), result);
+
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient).doGet(requestCaptor.capture(), any(Type.class));
+    String url = requestCaptor.getValue().getUrl();
+    Map<String, String> expectedReleaseKeys = ImmutableMap.of(someNamespace, someReleaseKey, anotherNamespace, "-1");
+    assertTrue(url.startsWith(someServerUrl + "/configs/" + someAppId + "/" + someCluster + "?"));
+    assertTrue(url.contains("releaseKeys=" + escape(new Gson().toJson(expectedReleaseKeys))));
+    assertTrue(url.contains("messages=" + escape(new Gson().toJson(someMessages))));
+  }
+
+  @Test
+  public void testLoadManyNamespacesInBatches() throws Exception {
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    Map<String, ApolloNotificationMessages> remoteMessages = Maps.newHashMap();
+    for (int i = 0; i < 300; i++) {
+      String namespace = "someNamespace" + i;
+      releaseKeys.put(namespace, "someReleaseKey" + i);
+      ApolloNotificationMessages messages = new ApolloNotificationMessages();
+      messages.put(String.format("%s+%s+%s", someAppId, someCluster, namespace), i);
+      remoteMessages.put(namespace, messages);
+    }
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class))).thenAnswer(new Answer<HttpResponse>() {
+      @Override
+      public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        HttpRequest request = (HttpRequest) invocation.getArguments()[0];
+        //the first namespace of each batch is changed
+        String namespace = request.getUrl().replaceAll(".*%22(someNamespace\\d+)%22.*", "$1");
+        when(someResponse.getBody()).thenReturn(
+            Lists.newArrayList(new ApolloConfig(someAppId, someCluster, namespace, "anotherReleaseKey")));
+        return someResponse;
+      }
+    });
+
+    Map<String, ApolloConfig> result = batchLoader.load(releaseKeys, remoteMessages, null);
+
+    ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient, atLeast(2)).doGet(requestCaptor.capture(), any(Type.class));
+    List<HttpRequest> requests = requestCaptor.getAllValues();
+    assertEquals(requests.size(), result.size());
+
+    int queried = 0;
+    for (HttpRequest request : requests) {
+      String query = request.getUrl().substring(request.getUrl().indexOf('?') + 1);
+      assertTrue(query.length() <= 4096);
+      for (String namespace : releaseKeys.keySet()) {
+        if (query.contains(escape("\"" + namespace + "\""))) {
+          queried++;
+          //only the messages of the namespaces in the batch are sent
+          assertTrue(query.contains(escape("+" + namespace + "\"")));
+        }
+      }
+    }
+    //each namespace is queried exactly once
+    assertEquals(releaseKeys.size(), queried);
+  }
+
+  @Test
+  public void testSplitBatchesWithinNamespaceCount() throws Exception {
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    for (int i = 0; i < 1001; i++) {
+      releaseKeys.put(String.valueOf(i), null);
+    }
+
+    List<Map<String, String>> batches = batchLoader.splitBatches(releaseKeys, null);
+
+    assertTrue(batches.size() >= 3);
+    Map<String, String> merged = Maps.newLinkedHashMap();
+    for (Map<String, String> batch : batches) {
+      assertTrue(batch.size() <= 500);
+      merged.putAll(batch);
+    }
+    assertEquals(releaseKeys, merged);
+  }
+
+  @Test
+  public void testLoadPartiallyFailed() throws Exception {
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    for (int i = 0; i < 300; i++) {
+      releaseKeys.put("someNamespace" + i, "someReleaseKey" + i);
+    }
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, "someNamespace0", "anotherReleaseKey");
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(Lists.newArrayList(someConfig));
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class))).thenReturn((HttpResponse) someResponse)
+        .thenThrow(new ApolloConfigStatusCodeException(500, "some error"));
+
+    Map<String, ApolloConfig> result = batchLoader.load(releaseKeys, null, null);
+
+    //the namespaces of the failed batches are left to be loaded one by one
+    assertEquals(ImmutableMap.of("someNamespace0", someConfig), result);
+  }
+
+  @Test(expected = ApolloConfigException.class)
+  public void testLoadFailed() throws Exception {
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class)))
+        .thenThrow(new ApolloConfigStatusCodeException(404, "some error"));
+
+    batchLoader.load(ImmutableMap.of("someNamespace", "someReleaseKey"), null, null);
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "someReleaseKey");
+    configUtil.setBatchQueryEnabled(true);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(Lists.newArrayList(someConfig));
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class))).thenReturn((HttpResponse) someResponse);
+
+    batchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+
+    assertNull(batchLoader.takePrefetched(anotherNamespace));
+    assertSame(someConfig, batchLoader.takePrefetched(someNamespace));
+    //taken only once
+    assertNull(batchLoader.takePrefetched(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchDiscarded() throws Exception {
+    String someNamespace = "someNamespace";
+    String anotherNamespace = "anotherNamespace";
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, someNamespace, "someReleaseKey");
+    configUtil.setBatchQueryEnabled(true);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(Lists.newArrayList(someConfig));
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class))).thenReturn((HttpResponse) someResponse);
+
+    batchLoader.prefetch(Lists.newArrayList(someNamespace, anotherNamespace));
+    batchLoader.discardPrefetched(Lists.newArrayList(someNamespace));
+
+    assertNull(batchLoader.takePrefetched(someNamespace));
+  }
+
+  @Test
+  public void testPrefetchDisabled() throws Exception {
+    batchLoader.prefetch(Lists.newArrayList("someNamespace", "anotherNamespace"));
+
+    verify(httpClient, never()).doGet(any(HttpRequest.class), any(Type.class));
+  }
+
+  @Test
+  public void testPrefetchFailed() throws Exception {
+    configUtil.setBatchQueryEnabled(true);
+    when(httpClient.doGet(any(HttpRequest.class), any(Type.class)))
+        .thenThrow(new ApolloConfigStatusCodeException(500, "some error"));
+
+    batchLoader.prefetch(Lists.newArrayList("someNamespace", "anotherNamespace"));
+
+    assertNull(batchLoader.takePrefetched("someNamespace"));
+  }
+
+  private String escape(String value) {
+    return UrlEscapers.urlFormParameterEscaper().escape(value);
+  }
+
+  public static class MockConfigUtil extends ConfigUtil {
+    private boolean batchQueryEnabled;
+
+    public void setBatchQueryEnabled(boolean batchQueryEnabled) {
+      this.batchQueryEnabled = batchQueryEnabled;
+    }
+
+    @Override
+    public boolean isBatchQueryEnabled() {
+      return batchQueryEnabled;
+    }
+
+    @Override
+    public String getAppId() {
+      return someAppId;
+    }
+
+    @Override
+    public String getCluster() {
+      return someCluster;
+    }
+
+    @Override
+    public String getAccessKeySecret() {
+      return null;
+    }
+
+    @Override
+    public String getDataCenter() {
+      return null;
+    }
+
+    @Override
+    public boolean isInLocalMode() {
+      return false;
+    }
+  }
+}
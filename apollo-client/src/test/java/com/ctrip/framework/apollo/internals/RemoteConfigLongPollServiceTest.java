@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -29,6 +30,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
@@ -39,6 +41,7 @@ import com.ctrip.framework.apollo.util.http.HttpResponse;
 import com.ctrip.framework.apollo.util.http.HttpClient;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.net.HttpHeaders;
 import com.google.common.util.concurrent.SettableFuture;
 import java.lang.reflect.Type;
@@ -409,6 +412,81 @@ public class RemoteConfigLongPollServiceTest {
     assertEquals(anotherNotificationId, anotherResult.get(anotherKey).longValue());
   }
 
+  @Test
+  public void testSubmitLongPollMultipleNamespacesWithBatchQuery() throws Exception {
+    RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
+    RemoteConfigRepository anotherRepository = mock(RemoteConfigRepository.class);
+    final String someNamespace = "someNamespace";
+    final String anotherNamespace = "anotherNamespace";
+    String someReleaseKey = "someReleaseKey";
+    ApolloConfig someConfig = mock(ApolloConfig.class);
+
+    MockConfigUtil configUtil = new MockConfigUtil();
+    configUtil.setBatchQueryEnabled(true);
+    MockInjector.setInstance(ConfigUtil.class, configUtil);
+    RemoteConfigBatchLoader batchLoader = mock(RemoteConfigBatchLoader.class);
+    MockInjector.setInstance(RemoteConfigBatchLoader.class, batchLoader);
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+
+    when(someRepository.getReleaseKey()).thenReturn(someReleaseKey);
+    Map<String, String> releaseKeys = Maps.newLinkedHashMap();
+    releaseKeys.put(someNamespace, someReleaseKey);
+    releaseKeys.put(anotherNamespace, null);
+    when(batchLoader.load(eq(releaseKeys), anyMapOf(String.class, ApolloNotificationMessages.class),
+        any(ServiceDTO.class)))
+        .thenReturn(ImmutableMap.of(someNamespace, someConfig));
+
+    final ApolloConfigNotification someNotification = new ApolloConfigNotification(someNamespace, 1);
+    final ApolloConfigNotification anotherNotification = new ApolloConfigNotification(anotherNamespace, 2);
+
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
+    when(pollResponse.getBody()).thenReturn(Lists.newArrayList(someNotification, anotherNotification));
+
+    doAnswer(new Answer<HttpResponse<List<ApolloConfigNotification>>>() {
+      @Override
+      public HttpResponse<List<ApolloConfigNotification>> answer(InvocationOnMock invocation)
+          throws Throwable {
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+        }
+
+        return pollResponse;
+      }
+    }).when(httpClient).doGet(any(HttpRequest.class), eq(responseType));
+
+    final SettableFuture<Boolean> someRepositoryNotified = SettableFuture.create();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        someRepositoryNotified.set(true);
+        return null;
+      }
+    }).when(someRepository).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class),
+        any(ApolloConfig.class));
+    final SettableFuture<Boolean> anotherRepositoryNotified = SettableFuture.create();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        anotherRepositoryNotified.set(true);
+        return null;
+      }
+    }).when(anotherRepository).onLongPollNotified(any(ServiceDTO.class), any(ApolloNotificationMessages.class));
+
+    remoteConfigLongPollService.submit(someNamespace, someRepository);
+    remoteConfigLongPollService.submit(anotherNamespace, anotherRepository);
+
+    someRepositoryNotified.get(5000, TimeUnit.MILLISECONDS);
+    anotherRepositoryNotified.get(5000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    verify(someRepository, times(1)).onLongPollNotified(any(ServiceDTO.class),
+        any(ApolloNotificationMessages.class), eq(someConfig));
+    verify(someRepository, never()).onLongPollNotified(any(ServiceDTO.class),
+        any(ApolloNotificationMessages.class));
+  }
+
   @Test
   public void testSubmitLongPollNamespaceWithMessagesUpdated() throws Exception {
     RemoteConfigRepository someRepository = mock(RemoteConfigRepository.class);
@@ -540,6 +618,17 @@ public class RemoteConfigLongPollServiceTest {
   }
 
   public static class MockConfigUtil extends ConfigUtil {
+    private boolean batchQueryEnabled;
+
+    public void setBatchQueryEnabled(boolean batchQueryEnabled) {
+      this.batchQueryEnabled = batchQueryEnabled;
+    }
+
+    @Override
+    public boolean isBatchQueryEnabled() {
+      return batchQueryEnabled;
+    }
+
     @Override
     public String getAppId() {
       return someAppId;
@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.internals;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
@@ -25,6 +26,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -32,9 +34,13 @@ import static org.mockito.Mockito.when;
 
 import com.ctrip.framework.apollo.build.MockInjector;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigMultiplexedNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
 import com.ctrip.framework.apollo.core.dto.ServiceDTO;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 import com.ctrip.framework.apollo.core.signature.Signature;
 import com.ctrip.framework.apollo.enums.ConfigSourceType;
 import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
@@ -185,6 +191,27 @@ public class RemoteConfigRepositoryTest {
     assertArrayEquals(expectedArrays, actualArrays);
   }
 
+  @Test
+  public void testLoadConfigWithPrefetchedConfig() throws Exception {
+    String someKey = "someKey";
+    String someValue = "someValue";
+    Map<String, String> configurations = Maps.newHashMap();
+    configurations.put(someKey, someValue);
+    ApolloConfig somePrefetchedConfig = assembleApolloConfig(configurations);
+
+    RemoteConfigBatchLoader batchLoader = mock(RemoteConfigBatchLoader.class);
+    when(batchLoader.takePrefetched(someNamespace)).thenReturn(somePrefetchedConfig);
+    MockInjector.setInstance(RemoteConfigBatchLoader.class, batchLoader);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+
+    Properties config = remoteConfigRepository.getConfig();
+
+    assertEquals(configurations, config);
+    verify(httpClient, never()).doGet(any(HttpRequest.class), eq(ApolloConfig.class));
+    remoteConfigLongPollService.stopLongPollingRefresh();
+  }
+
   @Test
   public void testLoadConfigWithAccessKeySecret() throws Exception {
     someSecret = "someSecret";
@@ -327,6 +354,113 @@ public class RemoteConfigRepositoryTest {
     assertTrue(request.getUrl().contains("messages=%7B%22details%22%3A%7B%22someKey%22%3A1%7D%7D"));
   }
 
+  @Test
+  public void testLoadConfigIncrementally() throws Exception {
+    MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil() {
+      @Override
+      public boolean isIncrementalSyncEnabled() {
+        return true;
+      }
+    });
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue", "anotherKey", "anotherValue",
+        "deletedKey", "deletedValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+
+    ApolloConfig incrementalApolloConfig = new ApolloConfig(someApolloConfig.getAppId(),
+        someApolloConfig.getCluster(), someNamespace, "2");
+    incrementalApolloConfig.setConfigSyncType(ConfigSyncType.INCREMENTAL_SYNC.getValue());
+    incrementalApolloConfig.setConfigurationChanges(Lists.newArrayList(
+        new ConfigurationChange("someKey", "newValue", ConfigurationChangeType.MODIFIED),
+        new ConfigurationChange("addedKey", "addedValue", ConfigurationChangeType.ADDED),
+        new ConfigurationChange("deletedKey", null, ConfigurationChangeType.DELETED)));
+    when(someResponse.getBody()).thenReturn(incrementalApolloConfig);
+
+    remoteConfigRepository.sync();
+
+    Properties config = remoteConfigRepository.getConfig();
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    assertEquals(ImmutableMap.of("someKey", "newValue", "anotherKey", "anotherValue", "addedKey", "addedValue"),
+        config);
+
+    final ArgumentCaptor<HttpRequest> httpRequestArgumentCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient, times(2)).doGet(httpRequestArgumentCaptor.capture(), eq(ApolloConfig.class));
+
+    assertFalse(httpRequestArgumentCaptor.getAllValues().get(0).getUrl().contains("incremental=true"));
+    assertTrue(httpRequestArgumentCaptor.getAllValues().get(1).getUrl().contains("releaseKey=1"));
+    assertTrue(httpRequestArgumentCaptor.getAllValues().get(1).getUrl().contains("incremental=true"));
+  }
+
+  @Test
+  public void testLongPollingRefreshWithMultiplexedNotification() throws Exception {
+    MockInjector.setInstance(ConfigUtil.class, new MockConfigUtil() {
+      @Override
+      public boolean isLongPollMultiplexEnabled() {
+        return true;
+      }
+    });
+    remoteConfigLongPollService = new RemoteConfigLongPollService();
+    MockInjector.setInstance(RemoteConfigLongPollService.class, remoteConfigLongPollService);
+
+    Map<String, String> configurations = ImmutableMap.of("someKey", "someValue");
+    ApolloConfig someApolloConfig = assembleApolloConfig(configurations);
+
+    when(someResponse.getStatusCode()).thenReturn(200);
+    when(someResponse.getBody()).thenReturn(someApolloConfig);
+
+    final SettableFuture<Boolean> longPollFinished = SettableFuture.create();
+    RepositoryChangeListener someListener = mock(RepositoryChangeListener.class);
+    doAnswer(new Answer<Void>() {
+
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        longPollFinished.set(true);
+        return null;
+      }
+
+    }).when(someListener).onRepositoryChange(any(String.class), any(Properties.class));
+
+    Map<String, String> newConfigurations = ImmutableMap.of("someKey", "anotherValue");
+    ApolloConfig newApolloConfig = new ApolloConfig(someApolloConfig.getAppId(), someApolloConfig.getCluster(),
+        someNamespace, "2");
+    newApolloConfig.setConfigurations(newConfigurations);
+
+    ApolloConfigMultiplexedNotification someNotification = new ApolloConfigMultiplexedNotification(someAppId,
+        someCluster, new ApolloConfigNotification(someNamespace, 1));
+    someNotification.setConfig(newApolloConfig);
+
+    RemoteConfigRepository remoteConfigRepository = new RemoteConfigRepository(someNamespace);
+    remoteConfigRepository.addChangeListener(someListener);
+    final ArgumentCaptor<Properties> captor = ArgumentCaptor.forClass(Properties.class);
+
+    when(pollResponse.getStatusCode()).thenReturn(HttpServletResponse.SC_OK);
+    when((Object) pollResponse.getBody()).thenReturn(Lists.newArrayList(someNotification));
+
+    longPollFinished.get(30_000, TimeUnit.MILLISECONDS);
+
+    remoteConfigLongPollService.stopLongPollingRefresh();
+
+    verify(someListener, times(1)).onRepositoryChange(eq(someNamespace), captor.capture());
+    assertEquals(newConfigurations, captor.getValue());
+
+    //the config is carried by the notification, so it's not queried again
+    verify(httpClient, times(1)).doGet(any(HttpRequest.class), eq(ApolloConfig.class));
+
+    final ArgumentCaptor<HttpRequest> pollRequestArgumentCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(httpClient, atLeast(1)).doGet(pollRequestArgumentCaptor.capture(), any(Type.class));
+
+    String pollUrl = pollRequestArgumentCaptor.getAllValues().get(0).getUrl();
+    assertTrue(pollUrl.contains(someServerUrl + "/notifications/v2/multiplexed?"));
+    assertTrue(pollUrl.contains("subscriptions="));
+    assertTrue(pollUrl.contains("%22releaseKey%22%3A%221%22"));
+  }
+
   @Test
   public void testAssembleQueryConfigUrl() throws Exception {
     Gson gson = new Gson();
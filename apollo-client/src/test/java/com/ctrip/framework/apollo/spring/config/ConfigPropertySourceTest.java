@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.spring.config;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
@@ -69,6 +70,25 @@ public class ConfigPropertySourceTest {
     assertArrayEquals(somePropertyNames.toArray(), result);
   }
 
+  @Test
+  public void testGetPropertyNamesWithCache() throws Exception {
+    Set<String> somePropertyNames = Sets.newHashSet("somePropertyName");
+    Set<String> anotherPropertyNames = Sets.newHashSet("somePropertyName", "anotherPropertyName");
+
+    when(someConfig.getPropertyNames()).thenReturn(somePropertyNames);
+
+    String[] result = configPropertySource.getPropertyNames();
+
+    assertSame(result, configPropertySource.getPropertyNames());
+
+    when(someConfig.getPropertyNames()).thenReturn(anotherPropertyNames);
+
+    String[] anotherResult = configPropertySource.getPropertyNames();
+
+    assertArrayEquals(anotherPropertyNames.toArray(), anotherResult);
+    assertSame(anotherResult, configPropertySource.getPropertyNames());
+  }
+
   @Test
   public void testGetEmptyPropertyNames() throws Exception {
     when(someConfig.getPropertyNames()).thenReturn(Sets.<String>newHashSet());
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.spring.property;
+
+import static org.junit.Assert.assertEquals;
+
+import com.ctrip.framework.apollo.enums.PropertyChangeType;
+import com.ctrip.framework.apollo.model.ConfigChange;
+import com.ctrip.framework.apollo.model.ConfigChangeEvent;
+import com.ctrip.framework.apollo.spring.util.SpringInjector;
+import com.google.common.collect.Maps;
+import java.lang.reflect.Method;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.StringValueResolver;
+
+public class AutoUpdateConfigChangeListenerTest {
+  private static final String SOME_NAMESPACE = "someNamespace";
+  private static final String SOME_KEY = "someKey";
+  private static final String ANOTHER_KEY = "anotherKey";
+  private static final String SOME_PLACEHOLDER = "${someKey}-${anotherKey}";
+
+  private DefaultListableBeanFactory beanFactory;
+  private SpringValueRegistry springValueRegistry;
+  private AutoUpdateConfigChangeListener autoUpdateConfigChangeListener;
+
+  @Before
+  public void setUp() throws Exception {
+    beanFactory = new DefaultListableBeanFactory();
+    beanFactory.addEmbeddedValueResolver(new StringValueResolver() {
+      @Override
+      public String resolveStringValue(String strVal) {
+        return strVal.replace("${someKey}", "someValue").replace("${anotherKey}", "anotherValue");
+      }
+    });
+    springValueRegistry = SpringInjector.getInstance(SpringValueRegistry.class);
+    autoUpdateConfigChangeListener = new AutoUpdateConfigChangeListener(new StandardEnvironment(), beanFactory);
+  }
+
+  @Test
+  public void testUpdateOncePerInjectionTarget() throws Exception {
+    SomeBean someBean = new SomeBean();
+    Method someMethod = SomeBean.class.getDeclaredMethod("setSomeValue", String.class);
+
+    //the spring value processors register one spring value per key
+    springValueRegistry.register(beanFactory, SOME_KEY,
+        new SpringValue(SOME_KEY, SOME_PLACEHOLDER, someBean, "someBean", someMethod, false));
+    springValueRegistry.register(beanFactory, ANOTHER_KEY,
+        new SpringValue(ANOTHER_KEY, SOME_PLACEHOLDER, someBean, "someBean", someMethod, false));
+
+    autoUpdateConfigChangeListener.onChange(assembleChangeEvent(SOME_KEY, ANOTHER_KEY));
+
+    assertEquals(1, someBean.updateTimes);
+    assertEquals("someValue-anotherValue", someBean.someValue);
+  }
+
+  @Test
+  public void testUpdateEachBeanOfSameMethod() throws Exception {
+    SomeBean someBean = new SomeBean();
+    SomeBean anotherBean = new SomeBean();
+    Method someMethod = SomeBean.class.getDeclaredMethod("setSomeValue", String.class);
+
+    springValueRegistry.register(beanFactory, SOME_KEY,
+        new SpringValue(SOME_KEY, SOME_PLACEHOLDER, someBean, "someBean", someMethod, false));
+    springValueRegistry.register(beanFactory, SOME_KEY,
+        new SpringValue(SOME_KEY, SOME_PLACEHOLDER, anotherBean, "anotherBean", someMethod, false));
+
+    autoUpdateConfigChangeListener.onChange(assembleChangeEvent(SOME_KEY));
+
+    assertEquals(1, someBean.updateTimes);
+    assertEquals(1, anotherBean.updateTimes);
+  }
+
+  private ConfigChangeEvent assembleChangeEvent(String... keys) {
+    Map<String, ConfigChange> changes = Maps.newHashMap();
+    for (String key : keys) {
+      changes.put(key, new ConfigChange(SOME_NAMESPACE, key, "oldValue", "newValue", PropertyChangeType.MODIFIED));
+    }
+    return new ConfigChangeEvent(SOME_NAMESPACE, changes);
+  }
+
+  public static class SomeBean {
+    private String someValue;
+    private int updateTimes;
+
+    public void setSomeValue(String someValue) {
+      this.someValue = someValue;
+      updateTimes++;
+    }
+  }
+}
@@ -17,11 +17,25 @@
 package com.ctrip.framework.apollo.spring.property;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Sets;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanExpressionContext;
+import org.springframework.beans.factory.config.BeanExpressionResolver;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
 
 public class PlaceholderHelperTest {
 
@@ -93,7 +107,63 @@ public class PlaceholderHelperTest {
     assertTrue(placeholderHelper.extractPlaceholderKeys("some.key:100").isEmpty());
   }
 
+  @Test
+  public void testEvaluatePropertyValueWithCachedExpressionContext() throws Exception {
+    String someBeanName = "someBean";
+    String someValue = "#{'some value'}";
+    RootBeanDefinition someBeanDefinition = new RootBeanDefinition();
+    someBeanDefinition.setScope(BeanDefinition.SCOPE_SINGLETON);
+    ConfigurableBeanFactory beanFactory = mock(ConfigurableBeanFactory.class);
+    BeanExpressionResolver expressionResolver = mock(BeanExpressionResolver.class);
+    when(beanFactory.getBeanExpressionResolver()).thenReturn(expressionResolver);
+    when(beanFactory.containsBean(someBeanName)).thenReturn(true);
+    when(beanFactory.getMergedBeanDefinition(someBeanName)).thenReturn(someBeanDefinition);
+    when(expressionResolver.evaluate(anyString(), any(BeanExpressionContext.class))).thenReturn("some value");
+    SpringValue springValue = new SpringValue("some.key", "${some.key}", new SomeBean(), someBeanName,
+        SomeBean.class.getDeclaredField("someField"), false);
+
+    assertEquals("some value", placeholderHelper.evaluatePropertyValue(beanFactory, springValue, someValue));
+    assertEquals("some value", placeholderHelper.evaluatePropertyValue(beanFactory, springValue, someValue));
+
+    ArgumentCaptor<BeanExpressionContext> contextCaptor = ArgumentCaptor.forClass(BeanExpressionContext.class);
+    verify(expressionResolver, times(2)).evaluate(any(String.class), contextCaptor.capture());
+    assertSame(contextCaptor.getAllValues().get(0), contextCaptor.getAllValues().get(1));
+    verify(beanFactory, times(1)).getRegisteredScope(anyString());
+  }
+
+  @Test
+  public void testEvaluatePropertyValueAfterBeanDefinitionChanged() throws Exception {
+    String someBeanName = "someBean";
+    String someValue = "#{'some value'}";
+    RootBeanDefinition someBeanDefinition = new RootBeanDefinition();
+    RootBeanDefinition anotherBeanDefinition = new RootBeanDefinition();
+    ConfigurableBeanFactory beanFactory = mock(ConfigurableBeanFactory.class);
+    BeanExpressionResolver expressionResolver = mock(BeanExpressionResolver.class);
+    when(beanFactory.getBeanExpressionResolver()).thenReturn(expressionResolver);
+    when(beanFactory.containsBean(someBeanName)).thenReturn(true);
+    when(beanFactory.getMergedBeanDefinition(someBeanName)).thenReturn(someBeanDefinition)
+        .thenReturn(anotherBeanDefinition);
+    SpringValue springValue = new SpringValue("some.key", "${some.key}", new SomeBean(), someBeanName,
+        SomeBean.class.getDeclaredField("someField"), false);
+
+    placeholderHelper.evaluatePropertyValue(beanFactory, springValue, someValue);
+    //re-registered
+    placeholderHelper.evaluatePropertyValue(beanFactory, springValue, someValue);
+    //scope changed
+    anotherBeanDefinition.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+    placeholderHelper.evaluatePropertyValue(beanFactory, springValue, someValue);
+
+    ArgumentCaptor<BeanExpressionContext> contextCaptor = ArgumentCaptor.forClass(BeanExpressionContext.class);
+    verify(expressionResolver, times(3)).evaluate(any(String.class), contextCaptor.capture());
+    assertNotSame(contextCaptor.getAllValues().get(0), contextCaptor.getAllValues().get(1));
+    assertNotSame(contextCaptor.getAllValues().get(1), contextCaptor.getAllValues().get(2));
+  }
+
   private void check(String propertyString, String... expectedPlaceholders) {
     assertEquals(Sets.newHashSet(expectedPlaceholders), placeholderHelper.extractPlaceholderKeys(propertyString));
   }
+
+  private static class SomeBean {
+    private String someField;
+  }
 }
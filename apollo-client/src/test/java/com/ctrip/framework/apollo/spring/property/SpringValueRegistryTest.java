@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.spring.property;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.Sets;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanFactory;
+
+public class SpringValueRegistryTest {
+
+  private SpringValueRegistry springValueRegistry;
+  private BeanFactory someBeanFactory;
+  private Field someField;
+
+  @Before
+  public void setUp() throws Exception {
+    springValueRegistry = new SpringValueRegistry();
+    someBeanFactory = mock(BeanFactory.class);
+    someField = SomeBean.class.getDeclaredField("someValue");
+  }
+
+  @Test
+  public void testRegisterAndGet() throws Exception {
+    String someKey = "someKey";
+    String anotherKey = "anotherKey";
+    SomeBean someBean = new SomeBean();
+    SpringValue someSpringValue = new SpringValue(someKey, "${someKey}", someBean, "someBean", someField, false);
+    SpringValue anotherSpringValue = new SpringValue(anotherKey, "${anotherKey}", someBean, "someBean", someField,
+        false);
+
+    springValueRegistry.register(someBeanFactory, someKey, someSpringValue);
+    springValueRegistry.register(someBeanFactory, someKey, someSpringValue);
+    springValueRegistry.register(someBeanFactory, anotherKey, anotherSpringValue);
+
+    assertEquals(Sets.newHashSet(someSpringValue), Sets.newHashSet(springValueRegistry.get(someBeanFactory, someKey)));
+    assertEquals(1, springValueRegistry.get(someBeanFactory, someKey).size());
+    assertEquals(Sets.newHashSet(anotherSpringValue),
+        Sets.newHashSet(springValueRegistry.get(someBeanFactory, anotherKey)));
+    assertNull(springValueRegistry.get(someBeanFactory, "yetAnotherKey"));
+    assertNull(springValueRegistry.get(mock(BeanFactory.class), someKey));
+  }
+
+  @Test
+  public void testGetWithBeanCollected() throws Exception {
+    final String someKey = "someKey";
+    SomeBean someBean = new SomeBean();
+    SomeBean anotherBean = new SomeBean();
+    SpringValue anotherSpringValue = new SpringValue(someKey, "${someKey}", anotherBean, "anotherBean", someField,
+        false);
+
+    springValueRegistry.register(someBeanFactory, someKey,
+        new SpringValue(someKey, "${someKey}", someBean, "someBean", someField, false));
+    springValueRegistry.register(someBeanFactory, someKey, anotherSpringValue);
+
+    assertEquals(2, springValueRegistry.get(someBeanFactory, someKey).size());
+
+    someBean = null;
+
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        System.gc();
+        return springValueRegistry.get(someBeanFactory, someKey).size() == 1;
+      }
+    });
+
+    Collection<SpringValue> springValues = springValueRegistry.get(someBeanFactory, someKey);
+    assertTrue(springValues.contains(anotherSpringValue));
+    //keep another bean reachable till the end
+    assertEquals(anotherBean, anotherSpringValue.getBean());
+  }
+
+  private static class SomeBean {
+    private String someValue;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultHttpClientTest {
+  private Server server;
+  private String serverUrl;
+  private DefaultHttpClient httpClient;
+  private ApolloConfig someApolloConfig;
+  private volatile String lastAcceptEncoding;
+
+  @Before
+  public void setUp() throws Exception {
+    MockInjector.setInstance(ConfigUtil.class, new ConfigUtil());
+
+    someApolloConfig = new ApolloConfig("someAppId", "someCluster", "someNamespace", "someReleaseKey");
+    someApolloConfig.setConfigurations(ImmutableMap.of("someKey", "someValue"));
+
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+          HttpServletResponse response) throws IOException {
+        lastAcceptEncoding = request.getHeader("Accept-Encoding");
+        handleRequest(target, response);
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    serverUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+    httpClient = new DefaultHttpClient();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockInjector.reset();
+    server.stop();
+  }
+
+  @Test
+  public void testDoGet() throws Exception {
+    HttpResponse<ApolloConfig> response = httpClient.doGet(new HttpRequest(serverUrl + "/plain"), ApolloConfig.class);
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(someApolloConfig.getReleaseKey(), response.getBody().getReleaseKey());
+    assertEquals(someApolloConfig.getConfigurations(), response.getBody().getConfigurations());
+    assertEquals("gzip", lastAcceptEncoding);
+  }
+
+  @Test
+  public void testDoGetWithGzipResponse() throws Exception {
+    HttpResponse<ApolloConfig> response = httpClient.doGet(new HttpRequest(serverUrl + "/gzip"), ApolloConfig.class);
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(someApolloConfig.getConfigurations(), response.getBody().getConfigurations());
+  }
+
+  @Test
+  public void testDoGetWithNotModifiedGzipResponse() throws Exception {
+    HttpResponse<ApolloConfig> response = httpClient.doGet(new HttpRequest(serverUrl + "/notModified"),
+        ApolloConfig.class);
+
+    assertEquals(304, response.getStatusCode());
+    assertNull(response.getBody());
+  }
+
+  @Test(expected = ApolloConfigStatusCodeException.class)
+  public void testDoGetWithError() throws Exception {
+    httpClient.doGet(new HttpRequest(serverUrl + "/notFound"), ApolloConfig.class);
+  }
+
+  @Test
+  public void testDoGetWithTooManyRequests() throws Exception {
+    try {
+      httpClient.doGet(new HttpRequest(serverUrl + "/tooManyRequests"), ApolloConfig.class);
+      fail();
+    } catch (ApolloConfigStatusCodeException ex) {
+      assertEquals(429, ex.getStatusCode());
+      assertEquals(3, ex.getRetryAfterInSecond());
+    }
+  }
+
+  private void handleRequest(String target, HttpServletResponse response) throws IOException {
+    byte[] body = new Gson().toJson(someApolloConfig).getBytes(StandardCharsets.UTF_8);
+    switch (target) {
+      case "/plain":
+        response.setContentType("application/json;charset=UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getOutputStream().write(body);
+        break;
+      case "/gzip":
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Content-Encoding", "gzip");
+        response.setStatus(HttpServletResponse.SC_OK);
+        OutputStream outputStream = new GZIPOutputStream(response.getOutputStream());
+        outputStream.write(body);
+        outputStream.close();
+        break;
+      case "/notModified":
+        //the headers of the gzip encoded representation are kept on 304
+        response.setHeader("Content-Encoding", "gzip");
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        break;
+      case "/tooManyRequests":
+        response.setHeader("Retry-After", "3");
+        response.sendError(429);
+        break;
+      default:
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+}
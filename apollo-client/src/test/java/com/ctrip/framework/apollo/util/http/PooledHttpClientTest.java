@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.util.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.ctrip.framework.apollo.build.MockInjector;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigException;
+import com.ctrip.framework.apollo.exceptions.ApolloConfigStatusCodeException;
+import com.ctrip.framework.apollo.util.ConfigUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledHttpClientTest {
+  private Server server;
+  private String serverUrl;
+  private PooledHttpClient httpClient;
+  private ApolloConfig someApolloConfig;
+  private AtomicInteger concurrentRequests;
+  private AtomicInteger maxConcurrentRequests;
+  private volatile CountDownLatch requestLatch;
+  private volatile String lastAcceptEncoding;
+
+  @Before
+  public void setUp() throws Exception {
+    MockInjector.setInstance(ConfigUtil.class, new ConfigUtil());
+
+    someApolloConfig = new ApolloConfig("someAppId", "someCluster", "someNamespace", "someReleaseKey");
+    someApolloConfig.setConfigurations(ImmutableMap.of("someKey", "someValue"));
+    concurrentRequests = new AtomicInteger();
+    maxConcurrentRequests = new AtomicInteger();
+
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+          HttpServletResponse response) throws IOException, ServletException {
+        int concurrent = concurrentRequests.incrementAndGet();
+        maxConcurrentRequests.set(Math.max(maxConcurrentRequests.get(), concurrent));
+        try {
+          lastAcceptEncoding = request.getHeader("Accept-Encoding");
+          if (requestLatch != null) {
+            requestLatch.await(5, TimeUnit.SECONDS);
+          }
+          handleRequest(target, response);
+        } catch (InterruptedException ex) {
+          throw new ServletException(ex);
+        } finally {
+          concurrentRequests.decrementAndGet();
+          baseRequest.setHandled(true);
+        }
+      }
+    });
+    server.start();
+    serverUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+    httpClient = new PooledHttpClient(2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockInjector.reset();
+    server.stop();
+  }
+
+  @Test
+  public void testDoGet() throws Exception {
+    HttpResponse<ApolloConfig> response = httpClient.doGet(new HttpRequest(serverUrl + "/plain"), ApolloConfig.class);
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(someApolloConfig.getReleaseKey(), response.getBody().getReleaseKey());
+    assertEquals(someApolloConfig.getConfigurations(), response.getBody().getConfigurations());
+    assertEquals("gzip", lastAcceptEncoding);
+  }
+
+  @Test
+  public void testDoGetWithGzipResponse() throws Exception {
+    HttpResponse<ApolloConfig> response = httpClient.doGet(new HttpRequest(serverUrl + "/gzip"), ApolloConfig.class);
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals(someApolloConfig.getConfigurations(), response.getBody().getConfigurations());
+  }
+
+  @Test
+  public void testDoGetWith304() throws Exception {
+    HttpResponse<ApolloConfig> response =
+        httpClient.doGet(new HttpRequest(serverUrl + "/notModified"), ApolloConfig.class);
+
+    assertEquals(304, response.getStatusCode());
+    assertNull(response.getBody());
+  }
+
+  @Test
+  public void testDoGetWith404() throws Exception {
+    try {
+      httpClient.doGet(new HttpRequest(serverUrl + "/notFound"), ApolloConfig.class);
+      fail();
+    } catch (ApolloConfigStatusCodeException ex) {
+      assertEquals(404, ex.getStatusCode());
+    }
+    assertEquals(0, httpClient.getActiveConnections());
+  }
+
+  @Test
+  public void testDoGetWithBoundedConnections() throws Exception {
+    requestLatch = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(5);
+    try {
+      List<Future<HttpResponse<ApolloConfig>>> futures = Lists.newArrayList();
+      for (int i = 0; i < 5; i++) {
+        futures.add(executorService.submit(new Callable<HttpResponse<ApolloConfig>>() {
+          @Override
+          public HttpResponse<ApolloConfig> call() throws Exception {
+            HttpRequest request = new HttpRequest(serverUrl + "/gzip");
+            request.setConnectTimeout(5000);
+            return httpClient.doGet(request, ApolloConfig.class);
+          }
+        }));
+      }
+
+      TimeUnit.MILLISECONDS.sleep(200);
+      assertEquals(2, httpClient.getActiveConnections());
+      requestLatch.countDown();
+
+      for (Future<HttpResponse<ApolloConfig>> future : futures) {
+        HttpResponse<ApolloConfig> response = future.get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode());
+        assertEquals(someApolloConfig.getConfigurations(), response.getBody().getConfigurations());
+      }
+      assertEquals(2, maxConcurrentRequests.get());
+      assertEquals(0, httpClient.getActiveConnections());
+    } finally {
+      requestLatch.countDown();
+      executorService.shutdown();
+    }
+  }
+
+  @Test(expected = ApolloConfigException.class)
+  public void testDoGetWithoutAvailableConnection() throws Exception {
+    requestLatch = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(2);
+    try {
+      for (int i = 0; i < 2; i++) {
+        executorService.submit(new Callable<HttpResponse<ApolloConfig>>() {
+          @Override
+          public HttpResponse<ApolloConfig> call() throws Exception {
+            return httpClient.doGet(new HttpRequest(serverUrl + "/plain"), ApolloConfig.class);
+          }
+        });
+      }
+      TimeUnit.MILLISECONDS.sleep(200);
+
+      HttpRequest request = new HttpRequest(serverUrl + "/plain");
+      request.setConnectTimeout(100);
+      httpClient.doGet(request, ApolloConfig.class);
+    } finally {
+      requestLatch.countDown();
+      executorService.shutdown();
+    }
+  }
+
+  private void handleRequest(String target, HttpServletResponse response) throws IOException {
+    byte[] body = new Gson().toJson(someApolloConfig).getBytes(StandardCharsets.UTF_8);
+    switch (target) {
+      case "/plain":
+        response.setContentType("application/json;charset=UTF-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getOutputStream().write(body);
+        break;
+      case "/gzip":
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Content-Encoding", "gzip");
+        response.setStatus(HttpServletResponse.SC_OK);
+        OutputStream outputStream = new GZIPOutputStream(response.getOutputStream());
+        outputStream.write(body);
+        outputStream.close();
+        break;
+      case "/notModified":
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        break;
+      default:
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.ctrip.framework.apollo.common.controller;
 
 import com.ctrip.framework.apollo.common.exception.AbstractApolloHttpException;
 import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.common.exception.TooManyRequestsException;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
@@ -50,6 +51,7 @@ import static org.slf4j.event.Level.WARN;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.FORBIDDEN;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
 
 @ControllerAdvice
 public class GlobalDefaultExceptionHandler {
@@ -89,6 +91,16 @@ public class GlobalDefaultExceptionHandler {
     return handleError(request, ex.getHttpStatus(), ex);
   }
 
+  @ExceptionHandler(TooManyRequestsException.class)
+  public ResponseEntity<Map<String, Object>> tooManyRequests(HttpServletRequest request,
+                                                             TooManyRequestsException ex) {
+    ResponseEntity<Map<String, Object>> response = handleError(request, TOO_MANY_REQUESTS, ex, WARN);
+    HttpHeaders headers = new HttpHeaders();
+    headers.putAll(response.getHeaders());
+    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterInSecond()));
+    return new ResponseEntity<>(response.getBody(), headers, response.getStatusCode());
+  }
+
   @ExceptionHandler(MethodArgumentNotValidException.class)
   public ResponseEntity<Map<String, Object>> handleMethodArgumentNotValidException(
       HttpServletRequest request, MethodArgumentNotValidException ex
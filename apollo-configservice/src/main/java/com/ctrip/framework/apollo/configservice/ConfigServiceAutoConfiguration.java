@@ -19,18 +19,24 @@ package com.ctrip.framework.apollo.configservice;
 import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.configservice.controller.ConfigController;
 import com.ctrip.framework.apollo.configservice.controller.ConfigFileController;
+import com.ctrip.framework.apollo.configservice.controller.MultiplexedNotificationController;
 import com.ctrip.framework.apollo.configservice.controller.NotificationController;
 import com.ctrip.framework.apollo.configservice.controller.NotificationControllerV2;
+import com.ctrip.framework.apollo.configservice.controller.NotificationWebsocketEndpoint;
+import com.ctrip.framework.apollo.configservice.filter.AdmissionControlFilter;
 import com.ctrip.framework.apollo.configservice.filter.ClientAuthenticationFilter;
 import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.DefaultConfigService;
 import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
 
 /**
@@ -58,6 +64,18 @@ public class ConfigServiceAutoConfiguration {
     return new DefaultConfigService();
   }
 
+  /**
+   * The config service bean is declared as the interface, so its metrics are bound explicitly
+   */
+  @Bean
+  public MeterBinder configServiceMeterBinder(ConfigService configService) {
+    return registry -> {
+      if (configService instanceof MeterBinder) {
+        ((MeterBinder) configService).bindTo(registry);
+      }
+    };
+  }
+
   @Bean
   public static NoOpPasswordEncoder passwordEncoder() {
     return (NoOpPasswordEncoder) NoOpPasswordEncoder.getInstance();
@@ -75,25 +93,48 @@ public class ConfigServiceAutoConfiguration {
     return filterRegistrationBean;
   }
 
+  @Bean
+  public FilterRegistrationBean admissionControlFilter(AccessKeyUtil accessKeyUtil) {
+    FilterRegistrationBean filterRegistrationBean = new FilterRegistrationBean();
+
+    filterRegistrationBean.setFilter(new AdmissionControlFilter(bizConfig, accessKeyUtil));
+    filterRegistrationBean.addUrlPatterns("/configs/*");
+    filterRegistrationBean.addUrlPatterns("/configfiles/*");
+    filterRegistrationBean.addUrlPatterns("/notifications/v2/*");
+    //shed the load before the signatures are checked
+    filterRegistrationBean.setOrder(Ordered.LOWEST_PRECEDENCE - 1);
+
+    return filterRegistrationBean;
+  }
+
   @Configuration
   static class MessageScannerConfiguration {
     private final NotificationController notificationController;
+    private final ConfigController configController;
     private final ConfigFileController configFileController;
     private final NotificationControllerV2 notificationControllerV2;
+    private final MultiplexedNotificationController multiplexedNotificationController;
+    private final NotificationWebsocketEndpoint notificationWebsocketEndpoint;
     private final GrayReleaseRulesHolder grayReleaseRulesHolder;
     private final ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
     private final ConfigService configService;
 
     public MessageScannerConfiguration(
         final NotificationController notificationController,
+        final ConfigController configController,
         final ConfigFileController configFileController,
         final NotificationControllerV2 notificationControllerV2,
+        final MultiplexedNotificationController multiplexedNotificationController,
+        final NotificationWebsocketEndpoint notificationWebsocketEndpoint,
         final GrayReleaseRulesHolder grayReleaseRulesHolder,
         final ReleaseMessageServiceWithCache releaseMessageServiceWithCache,
         final ConfigService configService) {
       this.notificationController = notificationController;
+      this.configController = configController;
       this.configFileController = configFileController;
       this.notificationControllerV2 = notificationControllerV2;
+      this.multiplexedNotificationController = multiplexedNotificationController;
+      this.notificationWebsocketEndpoint = notificationWebsocketEndpoint;
       this.grayReleaseRulesHolder = grayReleaseRulesHolder;
       this.releaseMessageServiceWithCache = releaseMessageServiceWithCache;
       this.configService = configService;
@@ -108,9 +149,12 @@ public class ConfigServiceAutoConfiguration {
       releaseMessageScanner.addMessageListener(grayReleaseRulesHolder);
       //2. handle server cache
       releaseMessageScanner.addMessageListener(configService);
+      releaseMessageScanner.addMessageListener(configController);
       releaseMessageScanner.addMessageListener(configFileController);
       //3. notify clients
       releaseMessageScanner.addMessageListener(notificationControllerV2);
+      releaseMessageScanner.addMessageListener(multiplexedNotificationController);
+      releaseMessageScanner.addMessageListener(notificationWebsocketEndpoint);
       releaseMessageScanner.addMessageListener(notificationController);
       return releaseMessageScanner;
     }
@@ -17,6 +17,7 @@
 package com.ctrip.framework.apollo.configservice;
 
 import com.ctrip.framework.apollo.biz.service.AppService;
+import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.data.domain.PageRequest;
@@ -26,14 +27,20 @@ import org.springframework.stereotype.Component;
 public class ConfigServiceHealthIndicator implements HealthIndicator {
 
   private final AppService appService;
+  private final ConfigService configService;
 
-  public ConfigServiceHealthIndicator(final AppService appService) {
+  public ConfigServiceHealthIndicator(final AppService appService, final ConfigService configService) {
     this.appService = appService;
+    this.configService = configService;
   }
 
   @Override
   public Health health() {
     check();
+    //don't take the clients until the config cache is warmed up
+    if (!configService.isReady()) {
+      return Health.outOfService().withDetail("configCache", "warming up").build();
+    }
     return Health.up().build();
   }
 
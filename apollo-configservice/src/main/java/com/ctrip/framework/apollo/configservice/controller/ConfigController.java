@@ -16,22 +16,47 @@
  */
 package com.ctrip.framework.apollo.configservice.controller;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
+import com.ctrip.framework.apollo.configservice.util.ConfigResponseUtil;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -40,11 +65,19 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -52,50 +85,231 @@ import java.util.stream.Collectors;
  */
 @RestController
 @RequestMapping("/configs")
-public class ConfigController {
+public class ConfigController implements ReleaseMessageListener, MeterBinder {
+  private static final Logger logger = LoggerFactory.getLogger(ConfigController.class);
   private static final Splitter X_FORWARDED_FOR_SPLITTER = Splitter.on(",").omitEmptyStrings()
       .trimResults();
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final Splitter RELEASE_KEY_SPLITTER = Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private static final long MAX_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
+  private static final long EXPIRE_AFTER_ACCESS = 30;
+  private static final int MAX_BATCH_NAMESPACES = 500;
+  private static final long MAX_INCREMENTAL_FALLBACK_CACHE_SIZE = 10000;
   private final ConfigService configService;
   private final AppNamespaceServiceWithCache appNamespaceService;
   private final NamespaceUtil namespaceUtil;
   private final InstanceConfigAuditUtil instanceConfigAuditUtil;
+  private final ReleaseService releaseService;
+  private final BizConfig bizConfig;
   private final Gson gson;
+  private final Cache<String, ConfigResponse> responseCache;
+  private final Cache<String, Boolean> incrementalFallbackCache;
+  private final ConcurrentMap<String, Set<String>> watchedKeys2CacheKey = new ConcurrentHashMap<>();
+  private final HttpHeaders jsonResponseHeaders;
+  private final HttpHeaders gzipJsonResponseHeaders;
 
   private static final Type configurationTypeReference = new TypeToken<Map<String, String>>() {
       }.getType();
+  private static final Type releaseKeysTypeReference = new TypeToken<LinkedHashMap<String, String>>() {
+      }.getType();
 
   public ConfigController(
       final ConfigService configService,
       final AppNamespaceServiceWithCache appNamespaceService,
       final NamespaceUtil namespaceUtil,
       final InstanceConfigAuditUtil instanceConfigAuditUtil,
+      final ReleaseService releaseService,
+      final BizConfig bizConfig,
       final Gson gson) {
     this.configService = configService;
     this.appNamespaceService = appNamespaceService;
     this.namespaceUtil = namespaceUtil;
     this.instanceConfigAuditUtil = instanceConfigAuditUtil;
+    this.releaseService = releaseService;
+    this.bizConfig = bizConfig;
     this.gson = gson;
+    this.responseCache = CacheBuilder.newBuilder()
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS, TimeUnit.MINUTES)
+        .weigher((Weigher<String, ConfigResponse>) (key, value) -> value.weight())
+        .maximumWeight(MAX_CACHE_SIZE)
+        .recordStats()
+        .removalListener(notification -> {
+          ConfigResponse removed = notification.getValue();
+          //a replaced response has the same watched keys as the new one
+          if (removed == null || notification.getCause() == RemovalCause.REPLACED) {
+            return;
+          }
+          for (String watchedKey : removed.watchedKeys) {
+            watchedKeys2CacheKey.computeIfPresent(watchedKey, (key, cacheKeys) -> {
+              cacheKeys.remove(notification.getKey());
+              return cacheKeys.isEmpty() ? null : cacheKeys;
+            });
+          }
+        })
+        .build();
+    //the cache keys contain the release ids, so the entries are never stale
+    this.incrementalFallbackCache = CacheBuilder.newBuilder()
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS, TimeUnit.MINUTES)
+        .maximumSize(MAX_INCREMENTAL_FALLBACK_CACHE_SIZE)
+        .build();
+    jsonResponseHeaders = new HttpHeaders();
+    jsonResponseHeaders.add(HttpHeaders.CONTENT_TYPE, "application/json;charset=UTF-8");
+    jsonResponseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    gzipJsonResponseHeaders = ConfigResponseUtil.gzipHeaders(jsonResponseHeaders);
   }
 
+  /**
+   * Same as {@link #queryConfig}, but writes the response body encoded when the releases were first loaded, so the
+   * clients fetching the same releases don't pay the json parsing and serialization again.
+   *
+   * <p>When incremental is requested and enabled, only the changes since the client side release key are returned,
+   * the full configurations are returned if the client side releases are unknown.</p>
+   *
+   * <p>The response carries the merged release key as the ETag, so requests with a matching If-None-Match header are
+   * answered with 304 as well.</p>
+   */
   @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
-  public ApolloConfig queryConfig(@PathVariable String appId, @PathVariable String clusterName,
-                                  @PathVariable String namespace,
-                                  @RequestParam(value = "dataCenter", required = false) String dataCenter,
-                                  @RequestParam(value = "releaseKey", defaultValue = "-1") String clientSideReleaseKey,
-                                  @RequestParam(value = "ip", required = false) String clientIp,
-                                  @RequestParam(value = "messages", required = false) String messagesAsString,
+  public ResponseEntity<byte[]> queryConfigAsResponse(@PathVariable String appId, @PathVariable String clusterName,
+                                                      @PathVariable String namespace,
+                                                      @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                                      @RequestParam(value = "releaseKey", defaultValue = "-1") String clientSideReleaseKey,
+                                                      @RequestParam(value = "ip", required = false) String clientIp,
+                                                      @RequestParam(value = "messages", required = false) String messagesAsString,
+                                                      @RequestParam(value = "incremental", defaultValue = "false") boolean incremental,
+                                                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    ConfigResponse configResponse = doQueryConfig(appId, clusterName, namespace, dataCenter, clientSideReleaseKey,
+        clientIp, messagesAsString, incremental, request, response);
+
+    if (configResponse == null) {
+      //404 or 304 is already sent
+      return null;
+    }
+
+    if (configResponse.gzipBody != null && ConfigResponseUtil.acceptsGzip(request)) {
+      return new ResponseEntity<>(configResponse.gzipBody, configResponse.gzipHeaders, HttpStatus.OK);
+    }
+    return new ResponseEntity<>(configResponse.body, configResponse.headers, HttpStatus.OK);
+  }
+
+  /**
+   * Queries the configs of many namespaces of the same app and cluster at once.
+   *
+   * @param releaseKeysAsString the client side release keys keyed by namespace in json format, the release key of a
+   *                            namespace not loaded yet should be -1
+   * @return the configs whose releases differ from the client side release keys, the namespaces not found or not
+   * modified are left out
+   */
+  @GetMapping(value = "/{appId}/{clusterName}")
+  public ResponseEntity<byte[]> queryConfigs(@PathVariable String appId, @PathVariable String clusterName,
+                                             @RequestParam(value = "releaseKeys") String releaseKeysAsString,
+                                             @RequestParam(value = "dataCenter", required = false) String dataCenter,
+                                             @RequestParam(value = "ip", required = false) String clientIp,
+                                             @RequestParam(value = "messages", required = false) String messagesAsString,
+                                             HttpServletRequest request) throws IOException {
+    Map<String, String> clientSideReleaseKeys = null;
+    try {
+      clientSideReleaseKeys = gson.fromJson(releaseKeysAsString, releaseKeysTypeReference);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    if (CollectionUtils.isEmpty(clientSideReleaseKeys) || clientSideReleaseKeys.size() > MAX_BATCH_NAMESPACES) {
+      throw new BadRequestException("Invalid format of releaseKeys: " + releaseKeysAsString);
+    }
+
+    if (Strings.isNullOrEmpty(clientIp)) {
+      clientIp = tryToGetClientIp(request);
+    }
+    ApolloNotificationMessages clientMessages = transformMessages(messagesAsString);
+
+    //concatenate the pre-serialized bodies instead of serializing the configs again
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write('[');
+    boolean first = true;
+    for (Map.Entry<String, String> entry : clientSideReleaseKeys.entrySet()) {
+      String clientSideReleaseKey = entry.getValue() == null ? "-1" : entry.getValue();
+      ConfigResponse configResponse = loadConfigResponse(appId, clusterName, entry.getKey(), dataCenter,
+          clientSideReleaseKey, clientIp, clientMessages, false, null);
+      if (configResponse == null) {
+        continue;
+      }
+      if (!first) {
+        body.write(',');
+      }
+      body.write(configResponse.body);
+      first = false;
+    }
+    body.write(']');
+
+    byte[] bodyBytes = body.toByteArray();
+    if (ConfigResponseUtil.acceptsGzip(request)) {
+      byte[] gzipBody = ConfigResponseUtil.gzip(bodyBytes);
+      if (gzipBody != null) {
+        return new ResponseEntity<>(gzipBody, gzipJsonResponseHeaders, HttpStatus.OK);
+      }
+    }
+    return new ResponseEntity<>(bodyBytes, jsonResponseHeaders, HttpStatus.OK);
+  }
+
+  /**
+   * @return a copy of the config of the releases, whose configurations are unmodifiable and shared by the clients
+   * loading the same releases, or null if 404 or 304 is sent
+   */
+  public ApolloConfig queryConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                  String clientSideReleaseKey, String clientIp, String messagesAsString,
                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
-    String originalNamespace = namespace;
-    //strip out .properties suffix
-    namespace = namespaceUtil.filterNamespaceName(namespace);
-    //fix the character case issue, such as FX.apollo <-> fx.apollo
-    namespace = namespaceUtil.normalizeNamespace(appId, namespace);
+    ConfigResponse configResponse = doQueryConfig(appId, clusterName, namespace, dataCenter, clientSideReleaseKey,
+        clientIp, messagesAsString, false, request, response);
+    return configResponse == null ? null : copyOf(configResponse.apolloConfig);
+  }
 
+  private static ApolloConfig copyOf(ApolloConfig apolloConfig) {
+    ApolloConfig copy = new ApolloConfig(apolloConfig.getAppId(), apolloConfig.getCluster(),
+        apolloConfig.getNamespaceName(), apolloConfig.getReleaseKey());
+    copy.setConfigurations(apolloConfig.getConfigurations());
+    copy.setConfigSyncType(apolloConfig.getConfigSyncType());
+    copy.setConfigurationChanges(apolloConfig.getConfigurationChanges());
+    return copy;
+  }
+
+  private ConfigResponse doQueryConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                       String clientSideReleaseKey, String clientIp, String messagesAsString,
+                                       boolean incremental, HttpServletRequest request,
+                                       HttpServletResponse response) throws IOException {
     if (Strings.isNullOrEmpty(clientIp)) {
       clientIp = tryToGetClientIp(request);
     }
 
-    ApolloNotificationMessages clientMessages = transformMessages(messagesAsString);
+    return loadConfigResponse(appId, clusterName, namespace, dataCenter, clientSideReleaseKey, clientIp,
+        transformMessages(messagesAsString), incremental, response);
+  }
+
+  /**
+   * Loads the config outside of a config query request, e.g. the payload of a multiplexed long polling notification.
+   *
+   * @return the config of the releases, which is shared and must not be modified, or null if the config is not found
+   * or is the same as the client side release key
+   */
+  public ApolloConfig loadConfig(String appId, String clusterName, String namespace, String dataCenter,
+                                 String clientSideReleaseKey, String clientIp,
+                                 ApolloNotificationMessages clientMessages) throws IOException {
+    ConfigResponse configResponse = loadConfigResponse(appId, clusterName, namespace, dataCenter,
+        clientSideReleaseKey, clientIp, clientMessages, false, null);
+    return configResponse == null ? null : configResponse.apolloConfig;
+  }
+
+  /**
+   * @param response the response to send 404 or 304 to, null if there is no such response
+   */
+  private ConfigResponse loadConfigResponse(String appId, String clusterName, String namespace, String dataCenter,
+                                            String clientSideReleaseKey, String clientIp,
+                                            ApolloNotificationMessages clientMessages, boolean incremental,
+                                            HttpServletResponse response) throws IOException {
+    String originalNamespace = namespace;
+    //strip out .properties suffix
+    namespace = namespaceUtil.filterNamespaceName(namespace);
+    //fix the character case issue, such as FX.apollo <-> fx.apollo
+    namespace = namespaceUtil.normalizeNamespace(appId, namespace);
 
     List<Release> releases = Lists.newLinkedList();
 
@@ -121,10 +335,12 @@ public class ConfigController {
     }
 
     if (releases.isEmpty()) {
-      response.sendError(HttpServletResponse.SC_NOT_FOUND,
-          String.format(
-              "Could not load configurations with appId: %s, clusterName: %s, namespace: %s",
-              appId, clusterName, originalNamespace));
+      if (response != null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            String.format(
+                "Could not load configurations with appId: %s, clusterName: %s, namespace: %s",
+                appId, clusterName, originalNamespace));
+      }
       Tracer.logEvent("Apollo.Config.NotFound",
           assembleKey(appId, clusterName, originalNamespace, dataCenter));
       return null;
@@ -137,19 +353,167 @@ public class ConfigController {
 
     if (mergedReleaseKey.equals(clientSideReleaseKey)) {
       // Client side configuration is the same with server side, return 304
-      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      if (response != null) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      }
       Tracer.logEvent("Apollo.Config.NotModified",
           assembleKey(appId, appClusterNameLoaded, originalNamespace, dataCenter));
       return null;
     }
 
-    ApolloConfig apolloConfig = new ApolloConfig(appId, appClusterNameLoaded, originalNamespace,
-        mergedReleaseKey);
-    apolloConfig.setConfigurations(mergeReleaseConfigurations(releases));
+    //releases are immutable, so the response of the same releases never changes
+    List<Object> keyParts = Lists.newArrayList(appId, appClusterNameLoaded, originalNamespace);
+    for (Release release : releases) {
+      keyParts.add(release.getId());
+    }
+    String cacheKey = STRING_JOINER.join(keyParts);
+
+    ConfigResponse configResponse = responseCache.getIfPresent(cacheKey);
+    if (configResponse == null) {
+      ApolloConfig apolloConfig = new ApolloConfig(appId, appClusterNameLoaded, originalNamespace, mergedReleaseKey);
+      apolloConfig.setConfigurations(Collections.unmodifiableMap(mergeReleaseConfigurations(releases)));
+
+      Set<String> watchedKeys = releases.stream().map(release -> String.join(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR,
+          release.getAppId(), release.getClusterName(), release.getNamespaceName())).collect(Collectors.toSet());
+
+      configResponse = cacheConfigResponse(cacheKey, newConfigResponse(apolloConfig, watchedKeys));
+    }
+
+    if (incremental && !"-1".equals(clientSideReleaseKey) && bizConfig.isConfigServiceIncrementalChangeEnabled()) {
+      configResponse = loadIncrementalConfigResponse(cacheKey, clientSideReleaseKey, releases, configResponse);
+    }
 
     Tracer.logEvent("Apollo.Config.Found", assembleKey(appId, appClusterNameLoaded,
         originalNamespace, dataCenter));
-    return apolloConfig;
+    return configResponse;
+  }
+
+  /**
+   * @return the changes since the client side releases, or the full response if the client side releases are unknown
+   * or the changes are not smaller than the full configurations
+   */
+  private ConfigResponse loadIncrementalConfigResponse(String cacheKey, String clientSideReleaseKey,
+                                                       List<Release> releases, ConfigResponse fullResponse) {
+    String incrementalCacheKey = STRING_JOINER.join(cacheKey, ConfigSyncType.INCREMENTAL_SYNC.getValue(),
+        clientSideReleaseKey);
+    ConfigResponse configResponse = responseCache.getIfPresent(incrementalCacheKey);
+    if (configResponse != null) {
+      return configResponse;
+    }
+    //the client side releases falling back to the full response are remembered, so they are not looked up again and
+    //again, the full response is not cached under the client side release key as the key is sent by the client
+    if (incrementalFallbackCache.getIfPresent(incrementalCacheKey) != null) {
+      return fullResponse;
+    }
+
+    ApolloConfig fullConfig = fullResponse.apolloConfig;
+    Map<String, String> clientSideConfigurations = loadClientSideConfigurations(clientSideReleaseKey, releases);
+    if (clientSideConfigurations == null) {
+      Tracer.logEvent("Apollo.Config.Incremental.BaseNotFound", clientSideReleaseKey);
+      incrementalFallbackCache.put(incrementalCacheKey, Boolean.TRUE);
+      return fullResponse;
+    }
+
+    List<ConfigurationChange> changes = calcConfigurationChanges(clientSideConfigurations,
+        fullConfig.getConfigurations());
+    if (changes.size() >= fullConfig.getConfigurations().size()) {
+      incrementalFallbackCache.put(incrementalCacheKey, Boolean.TRUE);
+      return fullResponse;
+    }
+
+    ApolloConfig incrementalConfig = new ApolloConfig(fullConfig.getAppId(), fullConfig.getCluster(),
+        fullConfig.getNamespaceName(), fullConfig.getReleaseKey());
+    incrementalConfig.setConfigSyncType(ConfigSyncType.INCREMENTAL_SYNC.getValue());
+    incrementalConfig.setConfigurationChanges(Collections.unmodifiableList(changes));
+
+    return cacheConfigResponse(incrementalCacheKey, newConfigResponse(incrementalConfig, fullResponse.watchedKeys));
+  }
+
+  /**
+   * @return the merged configurations of the client side releases, or null if they are not found or don't match the
+   * current releases one by one
+   */
+  private Map<String, String> loadClientSideConfigurations(String clientSideReleaseKey, List<Release> releases) {
+    List<String> clientSideReleaseKeys = RELEASE_KEY_SPLITTER.splitToList(clientSideReleaseKey);
+    if (clientSideReleaseKeys.size() != releases.size()) {
+      return null;
+    }
+
+    Map<String, Release> clientSideReleases = Maps.newHashMap();
+    for (Release release : releaseService.findByReleaseKeys(Sets.newHashSet(clientSideReleaseKeys))) {
+      clientSideReleases.put(release.getReleaseKey(), release);
+    }
+
+    List<Release> orderedClientSideReleases = Lists.newArrayListWithCapacity(releases.size());
+    for (int i = 0; i < releases.size(); i++) {
+      Release clientSideRelease = clientSideReleases.get(clientSideReleaseKeys.get(i));
+      Release release = releases.get(i);
+      //the client side release must be an earlier release of the same namespace
+      if (clientSideRelease == null || !Objects.equals(clientSideRelease.getAppId(), release.getAppId())
+          || !Objects.equals(clientSideRelease.getNamespaceName(), release.getNamespaceName())) {
+        return null;
+      }
+      orderedClientSideReleases.add(clientSideRelease);
+    }
+
+    return mergeReleaseConfigurations(orderedClientSideReleases);
+  }
+
+  List<ConfigurationChange> calcConfigurationChanges(Map<String, String> previous, Map<String, String> current) {
+    List<ConfigurationChange> changes = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : current.entrySet()) {
+      if (!previous.containsKey(entry.getKey())) {
+        changes.add(new ConfigurationChange(entry.getKey(), entry.getValue(), ConfigurationChangeType.ADDED));
+      } else if (!Objects.equals(previous.get(entry.getKey()), entry.getValue())) {
+        changes.add(new ConfigurationChange(entry.getKey(), entry.getValue(), ConfigurationChangeType.MODIFIED));
+      }
+    }
+    for (String key : previous.keySet()) {
+      if (!current.containsKey(key)) {
+        changes.add(new ConfigurationChange(key, null, ConfigurationChangeType.DELETED));
+      }
+    }
+    return changes;
+  }
+
+  private ConfigResponse newConfigResponse(ApolloConfig apolloConfig, Set<String> watchedKeys) {
+    return new ConfigResponse(apolloConfig, gson.toJson(apolloConfig).getBytes(StandardCharsets.UTF_8), watchedKeys,
+        jsonResponseHeaders, gzipJsonResponseHeaders);
+  }
+
+  private ConfigResponse cacheConfigResponse(String cacheKey, ConfigResponse configResponse) {
+    //concurrent misses of the same key build the same response, so just keep the last one
+    responseCache.put(cacheKey, configResponse);
+    for (String watchedKey : configResponse.watchedKeys) {
+      watchedKeys2CacheKey.computeIfAbsent(watchedKey, key -> ConcurrentHashMap.newKeySet()).add(cacheKey);
+    }
+    logger.debug("added config response cache for key: {}", cacheKey);
+
+    return configResponse;
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    String content = message.getMessage();
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    //the watched releases are replaced, so the responses of them won't be hit any more
+    Set<String> cacheKeys = watchedKeys2CacheKey.get(content);
+    if (cacheKeys == null) {
+      return;
+    }
+
+    for (String cacheKey : Lists.newArrayList(cacheKeys)) {
+      logger.debug("invalidate config response cache key: {}", cacheKey);
+      responseCache.invalidate(cacheKey);
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    GuavaCacheMetrics.monitor(registry, responseCache, "apollo.config.response.cache");
   }
 
   private boolean namespaceBelongsToAppId(String appId, String namespaceName) {
@@ -241,4 +605,28 @@ public class ConfigController {
 
     return notificationMessages;
   }
+
+  private static class ConfigResponse {
+    private final ApolloConfig apolloConfig;
+    private final byte[] body;
+    private final byte[] gzipBody;
+    private final Set<String> watchedKeys;
+    private final HttpHeaders headers;
+    private final HttpHeaders gzipHeaders;
+
+    ConfigResponse(ApolloConfig apolloConfig, byte[] body, Set<String> watchedKeys, HttpHeaders jsonHeaders,
+                   HttpHeaders gzipJsonHeaders) {
+      this.apolloConfig = apolloConfig;
+      this.body = body;
+      this.gzipBody = ConfigResponseUtil.gzip(body);
+      this.watchedKeys = watchedKeys;
+      String eTag = ConfigResponseUtil.toETag(apolloConfig.getReleaseKey());
+      this.headers = ConfigResponseUtil.withETag(jsonHeaders, eTag);
+      this.gzipHeaders = ConfigResponseUtil.withETag(gzipJsonHeaders, eTag);
+    }
+
+    int weight() {
+      return body.length + (gzipBody == null ? 0 : gzipBody.length);
+    }
+  }
 }
@@ -20,6 +20,7 @@ import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.grayReleaseRule.GrayReleaseRulesHolder;
 import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
 import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.configservice.util.ConfigResponseUtil;
 import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
@@ -31,11 +32,9 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.Weigher;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,10 +50,12 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -71,12 +72,9 @@ public class ConfigFileController implements ReleaseMessageListener {
   private static final long EXPIRE_AFTER_WRITE = 30;
   private final HttpHeaders propertiesResponseHeaders;
   private final HttpHeaders jsonResponseHeaders;
-  private final ResponseEntity<String> NOT_FOUND_RESPONSE;
-  private Cache<String, String> localCache;
-  private final Multimap<String, String>
-      watchedKeys2CacheKey = Multimaps.synchronizedSetMultimap(HashMultimap.create());
-  private final Multimap<String, String>
-      cacheKey2WatchedKeys = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+  private final ResponseEntity<byte[]> NOT_FOUND_RESPONSE;
+  private Cache<String, ConfigFileResponse> localCache;
+  private final ConcurrentMap<String, Set<String>> watchedKeys2CacheKey = new ConcurrentHashMap<>();
   private static final Gson GSON = new Gson();
 
   private final ConfigController configController;
@@ -91,27 +89,30 @@ public class ConfigFileController implements ReleaseMessageListener {
       final GrayReleaseRulesHolder grayReleaseRulesHolder) {
     localCache = CacheBuilder.newBuilder()
         .expireAfterWrite(EXPIRE_AFTER_WRITE, TimeUnit.MINUTES)
-        .weigher((Weigher<String, String>) (key, value) -> value == null ? 0 : value.length())
+        .weigher((Weigher<String, ConfigFileResponse>) (key, value) -> value == null ? 0 : value.weight())
         .maximumWeight(MAX_CACHE_SIZE)
         .removalListener(notification -> {
-          String cacheKey = notification.getKey();
-          logger.debug("removing cache key: {}", cacheKey);
-          if (!cacheKey2WatchedKeys.containsKey(cacheKey)) {
+          ConfigFileResponse removed = notification.getValue();
+          //a replaced response has the same watched keys as the new one
+          if (removed == null || notification.getCause() == RemovalCause.REPLACED) {
             return;
           }
-          //create a new list to avoid ConcurrentModificationException
-          List<String> watchedKeys = new ArrayList<>(cacheKey2WatchedKeys.get(cacheKey));
-          for (String watchedKey : watchedKeys) {
-            watchedKeys2CacheKey.remove(watchedKey, cacheKey);
+          String cacheKey = notification.getKey();
+          for (String watchedKey : removed.watchedKeys) {
+            watchedKeys2CacheKey.computeIfPresent(watchedKey, (key, cacheKeys) -> {
+              cacheKeys.remove(cacheKey);
+              return cacheKeys.isEmpty() ? null : cacheKeys;
+            });
           }
-          cacheKey2WatchedKeys.removeAll(cacheKey);
           logger.debug("removed cache key: {}", cacheKey);
         })
         .build();
     propertiesResponseHeaders = new HttpHeaders();
     propertiesResponseHeaders.add("Content-Type", "text/plain;charset=UTF-8");
+    propertiesResponseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
     jsonResponseHeaders = new HttpHeaders();
     jsonResponseHeaders.add("Content-Type", "application/json;charset=UTF-8");
+    jsonResponseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
     NOT_FOUND_RESPONSE = new ResponseEntity<>(HttpStatus.NOT_FOUND);
     this.configController = configController;
     this.namespaceUtil = namespaceUtil;
@@ -119,8 +120,12 @@ public class ConfigFileController implements ReleaseMessageListener {
     this.grayReleaseRulesHolder = grayReleaseRulesHolder;
   }
 
+  /**
+   * The response is gzip compressed if accepted, and carries the release key as the ETag, so requests with a matching
+   * If-None-Match header are answered with 304.
+   */
   @GetMapping(value = "/{appId}/{clusterName}/{namespace:.+}")
-  public ResponseEntity<String> queryConfigAsProperties(@PathVariable String appId,
+  public ResponseEntity<byte[]> queryConfigAsProperties(@PathVariable String appId,
                                                         @PathVariable String clusterName,
                                                         @PathVariable String namespace,
                                                         @RequestParam(value = "dataCenter", required = false) String dataCenter,
@@ -129,7 +134,7 @@ public class ConfigFileController implements ReleaseMessageListener {
                                                         HttpServletResponse response)
       throws IOException {
 
-    String result =
+    ConfigFileResponse result =
         queryConfig(ConfigFileOutputFormat.PROPERTIES, appId, clusterName, namespace, dataCenter,
             clientIp, request, response);
 
@@ -137,11 +142,11 @@ public class ConfigFileController implements ReleaseMessageListener {
       return NOT_FOUND_RESPONSE;
     }
 
-    return new ResponseEntity<>(result, propertiesResponseHeaders, HttpStatus.OK);
+    return result.toResponseEntity(request);
   }
 
   @GetMapping(value = "/json/{appId}/{clusterName}/{namespace:.+}")
-  public ResponseEntity<String> queryConfigAsJson(@PathVariable String appId,
+  public ResponseEntity<byte[]> queryConfigAsJson(@PathVariable String appId,
                                                   @PathVariable String clusterName,
                                                   @PathVariable String namespace,
                                                   @RequestParam(value = "dataCenter", required = false) String dataCenter,
@@ -149,7 +154,7 @@ public class ConfigFileController implements ReleaseMessageListener {
                                                   HttpServletRequest request,
                                                   HttpServletResponse response) throws IOException {
 
-    String result =
+    ConfigFileResponse result =
         queryConfig(ConfigFileOutputFormat.JSON, appId, clusterName, namespace, dataCenter,
             clientIp, request, response);
 
@@ -157,10 +162,10 @@ public class ConfigFileController implements ReleaseMessageListener {
       return NOT_FOUND_RESPONSE;
     }
 
-    return new ResponseEntity<>(result, jsonResponseHeaders, HttpStatus.OK);
+    return result.toResponseEntity(request);
   }
 
-  String queryConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
+  ConfigFileResponse queryConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
                      String namespace, String dataCenter, String clientIp,
                      HttpServletRequest request,
                      HttpServletResponse response) throws IOException {
@@ -173,62 +178,51 @@ public class ConfigFileController implements ReleaseMessageListener {
       clientIp = tryToGetClientIp(request);
     }
 
-    //1. check whether this client has gray release rules
-    boolean hasGrayReleaseRule = grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp,
-        namespace);
+    //1. the clients with gray release rules might load gray releases, so their config files are keyed by the releases
+    if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
+      return queryGrayConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp, request, response);
+    }
 
+    //2. the other clients share the config file of the namespace, which is served without loading the releases
     String cacheKey = assembleCacheKey(outputFormat, appId, clusterName, namespace, dataCenter);
+    ConfigFileResponse result = localCache.getIfPresent(cacheKey);
 
-    //2. try to load gray release and return
-    if (hasGrayReleaseRule) {
-      Tracer.logEvent("ConfigFile.Cache.GrayRelease", cacheKey);
-      return loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-          request, response);
+    if (result != null) {
+      Tracer.logEvent("ConfigFile.Cache.Hit", cacheKey);
+      return result;
     }
 
-    //3. if not gray release, check weather cache exists, if exists, return
-    String result = localCache.getIfPresent(cacheKey);
-
-    //4. if not exists, load from ConfigController
-    if (Strings.isNullOrEmpty(result)) {
-      Tracer.logEvent("ConfigFile.Cache.Miss", cacheKey);
-      result = loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-          request, response);
-
-      if (result == null) {
-        return null;
-      }
-      //5. Double check if this client needs to load gray release, if yes, load from db again
-      //This step is mainly to avoid cache pollution
-      if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
-        Tracer.logEvent("ConfigFile.Cache.GrayReleaseConflict", cacheKey);
-        return loadConfig(outputFormat, appId, clusterName, namespace, dataCenter, clientIp,
-            request, response);
-      }
-
-      localCache.put(cacheKey, result);
-      logger.debug("adding cache for key: {}", cacheKey);
+    //3. if not exists, load from ConfigController
+    Tracer.logEvent("ConfigFile.Cache.Miss", cacheKey);
+    ApolloConfig apolloConfig = configController.queryConfig(appId, clusterName, namespace,
+        dataCenter, "-1", clientIp, null, request, response);
 
-      Set<String> watchedKeys =
-          watchKeysUtil.assembleAllWatchKeys(appId, clusterName, namespace, dataCenter);
+    if (apolloConfig == null || apolloConfig.getConfigurations() == null) {
+      return null;
+    }
 
-      for (String watchedKey : watchedKeys) {
-        watchedKeys2CacheKey.put(watchedKey, cacheKey);
-      }
+    Set<String> watchedKeys = watchKeysUtil.assembleAllWatchKeys(appId, clusterName, namespace, dataCenter);
+    result = encodeConfig(outputFormat, apolloConfig, watchedKeys);
 
-      cacheKey2WatchedKeys.putAll(cacheKey, watchedKeys);
-      logger.debug("added cache for key: {}", cacheKey);
-    } else {
-      Tracer.logEvent("ConfigFile.Cache.Hit", cacheKey);
+    //4. double check if this client needs to load gray release, so the gray release doesn't pollute the cache
+    if (grayReleaseRulesHolder.hasGrayReleaseRule(appId, clientIp, namespace)) {
+      Tracer.logEvent("ConfigFile.Cache.GrayReleaseConflict", cacheKey);
+      return result;
     }
 
+    cacheConfigFile(cacheKey, result);
+
     return result;
   }
 
-  private String loadConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
-                            String namespace, String dataCenter, String clientIp,
-                            HttpServletRequest request,
-                            HttpServletResponse response) throws IOException {
+  /**
+   * The releases of the gray clients are loaded on every request, the config file of the same releases is shared by
+   * the clients in the same gray release.
+   */
+  private ConfigFileResponse queryGrayConfig(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
+                                             String namespace, String dataCenter, String clientIp,
+                                             HttpServletRequest request,
+                                             HttpServletResponse response) throws IOException {
     ApolloConfig apolloConfig = configController.queryConfig(appId, clusterName, namespace,
         dataCenter, "-1", clientIp, null, request, response);
 
@@ -236,20 +230,50 @@ public class ConfigFileController implements ReleaseMessageListener {
       return null;
     }
 
+    String cacheKey = assembleCacheKey(outputFormat, apolloConfig);
+    Tracer.logEvent("ConfigFile.Cache.GrayRelease", cacheKey);
+    ConfigFileResponse result = localCache.getIfPresent(cacheKey);
+
+    if (result != null) {
+      return result;
+    }
+
+    Set<String> watchedKeys = watchKeysUtil.assembleAllWatchKeys(appId, clusterName, namespace, dataCenter);
+    result = encodeConfig(outputFormat, apolloConfig, watchedKeys);
+    cacheConfigFile(cacheKey, result);
+
+    return result;
+  }
+
+  private void cacheConfigFile(String cacheKey, ConfigFileResponse configFile) {
+    //concurrent misses of the same key build the same config file, so just keep the last one
+    localCache.put(cacheKey, configFile);
+    for (String watchedKey : configFile.watchedKeys) {
+      watchedKeys2CacheKey.computeIfAbsent(watchedKey, key -> ConcurrentHashMap.newKeySet()).add(cacheKey);
+    }
+    logger.debug("added cache for key: {}", cacheKey);
+  }
+
+  private ConfigFileResponse encodeConfig(ConfigFileOutputFormat outputFormat, ApolloConfig apolloConfig,
+                                          Set<String> watchedKeys) throws IOException {
     String result = null;
+    HttpHeaders headers = null;
 
     switch (outputFormat) {
       case PROPERTIES:
         Properties properties = new Properties();
         properties.putAll(apolloConfig.getConfigurations());
         result = PropertiesUtil.toString(properties);
+        headers = propertiesResponseHeaders;
         break;
       case JSON:
         result = GSON.toJson(apolloConfig.getConfigurations());
+        headers = jsonResponseHeaders;
         break;
     }
 
-    return result;
+    return new ConfigFileResponse(result.getBytes(StandardCharsets.UTF_8), headers,
+        ConfigResponseUtil.toETag(apolloConfig.getReleaseKey()), watchedKeys);
   }
 
   String assembleCacheKey(ConfigFileOutputFormat outputFormat, String appId, String clusterName,
@@ -263,6 +287,15 @@ public class ConfigFileController implements ReleaseMessageListener {
     return STRING_JOINER.join(keyParts);
   }
 
+  /**
+   * The merged release key identifies the releases loaded, including the gray releases, so the clients in the same gray
+   * release share the cache entry as well.
+   */
+  String assembleCacheKey(ConfigFileOutputFormat outputFormat, ApolloConfig apolloConfig) {
+    return STRING_JOINER.join(outputFormat.getValue(), apolloConfig.getAppId(), apolloConfig.getCluster(),
+        apolloConfig.getNamespaceName(), apolloConfig.getReleaseKey());
+  }
+
   @Override
   public void handleMessage(ReleaseMessage message, String channel) {
     logger.info("message received - channel: {}, message: {}", channel, message);
@@ -272,14 +305,13 @@ public class ConfigFileController implements ReleaseMessageListener {
       return;
     }
 
-    if (!watchedKeys2CacheKey.containsKey(content)) {
+    //the watched releases are replaced, so the config files of them won't be hit any more
+    Set<String> cacheKeys = watchedKeys2CacheKey.get(content);
+    if (cacheKeys == null) {
       return;
     }
 
-    //create a new list to avoid ConcurrentModificationException
-    List<String> cacheKeys = new ArrayList<>(watchedKeys2CacheKey.get(content));
-
-    for (String cacheKey : cacheKeys) {
+    for (String cacheKey : Lists.newArrayList(cacheKeys)) {
       logger.debug("invalidate cache key: {}", cacheKey);
       localCache.invalidate(cacheKey);
     }
@@ -306,4 +338,34 @@ public class ConfigFileController implements ReleaseMessageListener {
     }
     return request.getRemoteAddr();
   }
+
+  /**
+   * The encoded config file, which is cached and shared by the clients loading the same releases
+   */
+  static class ConfigFileResponse {
+    private final byte[] body;
+    private final byte[] gzipBody;
+    private final HttpHeaders headers;
+    private final HttpHeaders gzipHeaders;
+    private final Set<String> watchedKeys;
+
+    ConfigFileResponse(byte[] body, HttpHeaders headers, String eTag, Set<String> watchedKeys) {
+      this.body = body;
+      this.watchedKeys = watchedKeys;
+      this.gzipBody = ConfigResponseUtil.gzip(body);
+      this.headers = ConfigResponseUtil.withETag(headers, eTag);
+      this.gzipHeaders = gzipBody == null ? null : ConfigResponseUtil.gzipHeaders(this.headers);
+    }
+
+    ResponseEntity<byte[]> toResponseEntity(HttpServletRequest request) {
+      if (gzipBody != null && ConfigResponseUtil.acceptsGzip(request)) {
+        return new ResponseEntity<>(gzipBody, gzipHeaders, HttpStatus.OK);
+      }
+      return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    int weight() {
+      return body.length + (gzipBody == null ? 0 : gzipBody.length);
+    }
+  }
 }
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutScheduler;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultRegistry;
+import com.ctrip.framework.apollo.configservice.wrapper.MultiplexedDeferredResultWrapper;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigMultiplexedNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigSubscription;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Strings;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.CollectionUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long polling of the namespaces of many appIds and clusters with a single request, the request is completed with
+ * the changed configs as well, so the client doesn't need to query them after being notified.
+ */
+@RestController
+@RequestMapping("/notifications/v2/multiplexed")
+public class MultiplexedNotificationController implements ReleaseMessageListener, MeterBinder {
+  private static final Logger logger = LoggerFactory.getLogger(MultiplexedNotificationController.class);
+  private static final String FAN_OUT_SOURCE = "MultiplexedLongPolling";
+  private static final int CONFIG_LOADER_QUEUE_SIZE = 10000;
+  private static final Type subscriptionsTypeReference =
+      new TypeToken<List<ApolloConfigSubscription>>() {
+      }.getType();
+  private final DeferredResultRegistry<MultiplexedDeferredResultWrapper> deferredResults =
+      new DeferredResultRegistry<>("apollo.notification.multiplexed.deferred.results");
+
+  private final WatchKeysUtil watchKeysUtil;
+  private final ReleaseMessageServiceWithCache releaseMessageService;
+  private final EntityManagerUtil entityManagerUtil;
+  private final AccessKeyUtil accessKeyUtil;
+  private final NamespaceUtil namespaceUtil;
+  private final ConfigController configController;
+  private final Gson gson;
+  private final BizConfig bizConfig;
+  private final NotificationFanOutScheduler notificationFanOutScheduler;
+  private final ThreadPoolExecutor configLoader;
+
+  public MultiplexedNotificationController(
+      final WatchKeysUtil watchKeysUtil,
+      final ReleaseMessageServiceWithCache releaseMessageService,
+      final EntityManagerUtil entityManagerUtil,
+      final AccessKeyUtil accessKeyUtil,
+      final NamespaceUtil namespaceUtil,
+      final ConfigController configController,
+      final Gson gson,
+      final BizConfig bizConfig,
+      final NotificationFanOutScheduler notificationFanOutScheduler) {
+    this.watchKeysUtil = watchKeysUtil;
+    this.releaseMessageService = releaseMessageService;
+    this.entityManagerUtil = entityManagerUtil;
+    this.accessKeyUtil = accessKeyUtil;
+    this.namespaceUtil = namespaceUtil;
+    this.configController = configController;
+    this.gson = gson;
+    this.bizConfig = bizConfig;
+    this.notificationFanOutScheduler = notificationFanOutScheduler;
+    int loaderSize = bizConfig.releaseMessageNotificationWorkers();
+    //configs are loaded off the release message scanner and the request threads
+    this.configLoader = new ThreadPoolExecutor(loaderSize, loaderSize, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(CONFIG_LOADER_QUEUE_SIZE),
+        ApolloThreadFactory.create("MultiplexedNotificationConfigLoader", true));
+  }
+
+  @GetMapping
+  public DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> pollNotification(
+      @RequestParam(value = "appId") String appId,
+      @RequestParam(value = "subscriptions") String subscriptionsAsString,
+      @RequestParam(value = "dataCenter", required = false) String dataCenter,
+      @RequestParam(value = "ip", required = false) String clientIp) {
+    List<ApolloConfigSubscription> subscriptions = null;
+
+    try {
+      subscriptions = gson.fromJson(subscriptionsAsString, subscriptionsTypeReference);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    if (CollectionUtils.isEmpty(subscriptions)) {
+      throw new BadRequestException("Invalid format of subscriptions: " + subscriptionsAsString);
+    }
+
+    checkAccessKeys(appId, subscriptions);
+
+    Multimap<ApolloConfigSubscription, String> subscriptionToWatchedKeys =
+        assembleWatchedKeys(filterSubscriptions(subscriptions), dataCenter);
+
+    if (subscriptionToWatchedKeys.isEmpty()) {
+      throw new BadRequestException("Invalid format of subscriptions: " + subscriptionsAsString);
+    }
+
+    Multimap<String, ApolloConfigSubscription> watchedKeyToSubscriptions =
+        Multimaps.invertFrom(subscriptionToWatchedKeys, LinkedHashMultimap.create());
+
+    MultiplexedDeferredResultWrapper deferredResultWrapper = new MultiplexedDeferredResultWrapper(
+        bizConfig.longPollingTimeoutInMilli(), watchedKeyToSubscriptions, dataCenter, clientIp);
+    Set<String> watchedKeys = Sets.newHashSet(subscriptionToWatchedKeys.values());
+
+    //register before the check, same as NotificationControllerV2, so no release is missed in between
+    deferredResultWrapper
+        .onTimeout(() -> logWatchedKeys(watchedKeys, "Apollo.LongPoll.Multiplexed.TimeOutKeys"));
+
+    deferredResultWrapper.onCompletion(() -> {
+      for (String key : watchedKeys) {
+        deferredResults.unregister(key, deferredResultWrapper);
+      }
+      logWatchedKeys(watchedKeys, "Apollo.LongPoll.Multiplexed.CompletedKeys");
+    });
+
+    for (String key : watchedKeys) {
+      deferredResults.register(key, deferredResultWrapper);
+    }
+
+    logWatchedKeys(watchedKeys, "Apollo.LongPoll.Multiplexed.RegisteredKeys");
+    logger.debug("Multiplexed listening {} from appId: {}, datacenter: {}", watchedKeys, appId, dataCenter);
+
+    List<ReleaseMessage> latestReleaseMessages =
+        releaseMessageService.findLatestReleaseMessagesGroupByMessages(watchedKeys);
+
+    //don't hold the db connection during long polling, see NotificationControllerV2
+    entityManagerUtil.closeEntityManager();
+
+    Map<ApolloConfigSubscription, ApolloConfigNotification> changes =
+        findChanges(subscriptionToWatchedKeys, latestReleaseMessages);
+
+    if (!changes.isEmpty() && deferredResultWrapper.tryStartCompleting()) {
+      loadConfigsAndComplete(deferredResultWrapper, changes);
+    }
+
+    return deferredResultWrapper.getResult();
+  }
+
+  /**
+   * The request is authenticated with the access key of the appId only, so the other appIds with access keys are not
+   * allowed to be watched
+   */
+  private void checkAccessKeys(String appId, List<ApolloConfigSubscription> subscriptions) {
+    Set<String> checkedAppIds = Sets.newHashSet(appId);
+    for (ApolloConfigSubscription subscription : subscriptions) {
+      String subscriptionAppId = subscription.getAppId();
+      if (Strings.isNullOrEmpty(subscriptionAppId) || !checkedAppIds.add(subscriptionAppId)) {
+        continue;
+      }
+      if (!CollectionUtils.isEmpty(accessKeyUtil.findAvailableSecret(subscriptionAppId))) {
+        throw new BadRequestException(String.format(
+            "appId %s is protected by access key and could not be watched by appId %s", subscriptionAppId, appId));
+      }
+    }
+  }
+
+  /**
+   * Strips out the .properties suffix and fixes the character case issue of the namespaces, the subscriptions keep the
+   * client side namespace names as they are used as keys in client side
+   *
+   * @return the subscriptions and their normalized namespaces grouped by appId and cluster
+   */
+  private Map<String, Map<String, ApolloConfigSubscription>> filterSubscriptions(
+      List<ApolloConfigSubscription> subscriptions) {
+    Map<String, Map<String, ApolloConfigSubscription>> filteredSubscriptions = Maps.newLinkedHashMap();
+    for (ApolloConfigSubscription subscription : subscriptions) {
+      if (Strings.isNullOrEmpty(subscription.getAppId()) || Strings.isNullOrEmpty(subscription.getCluster())
+          || Strings.isNullOrEmpty(subscription.getNamespaceName())) {
+        continue;
+      }
+      String originalNamespace = namespaceUtil.filterNamespaceName(subscription.getNamespaceName());
+      String normalizedNamespace = namespaceUtil.normalizeNamespace(subscription.getAppId(), originalNamespace);
+
+      Map<String, ApolloConfigSubscription> appClusterSubscriptions = filteredSubscriptions.computeIfAbsent(
+          subscription.getAppId() + ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR + subscription.getCluster(),
+          key -> Maps.newLinkedHashMap());
+
+      //same as NotificationControllerV2, let the one with the smaller notification id have the chance to update
+      ApolloConfigSubscription existing = appClusterSubscriptions.get(normalizedNamespace);
+      if (existing != null && existing.getNotificationId() < subscription.getNotificationId()) {
+        continue;
+      }
+      appClusterSubscriptions.put(normalizedNamespace, subscription);
+    }
+    return filteredSubscriptions;
+  }
+
+  private Multimap<ApolloConfigSubscription, String> assembleWatchedKeys(
+      Map<String, Map<String, ApolloConfigSubscription>> filteredSubscriptions, String dataCenter) {
+    Multimap<ApolloConfigSubscription, String> subscriptionToWatchedKeys = LinkedHashMultimap.create();
+    for (Map<String, ApolloConfigSubscription> appClusterSubscriptions : filteredSubscriptions.values()) {
+      ApolloConfigSubscription any = appClusterSubscriptions.values().iterator().next();
+      Multimap<String, String> watchedKeysMap = watchKeysUtil.assembleAllWatchKeys(any.getAppId(),
+          any.getCluster(), appClusterSubscriptions.keySet(), dataCenter);
+      for (Map.Entry<String, ApolloConfigSubscription> entry : appClusterSubscriptions.entrySet()) {
+        subscriptionToWatchedKeys.putAll(entry.getValue(), watchedKeysMap.get(entry.getKey()));
+      }
+    }
+    return subscriptionToWatchedKeys;
+  }
+
+  private Map<ApolloConfigSubscription, ApolloConfigNotification> findChanges(
+      Multimap<ApolloConfigSubscription, String> subscriptionToWatchedKeys,
+      List<ReleaseMessage> latestReleaseMessages) {
+    Map<ApolloConfigSubscription, ApolloConfigNotification> changes = Maps.newLinkedHashMap();
+    if (CollectionUtils.isEmpty(latestReleaseMessages)) {
+      return changes;
+    }
+    Map<String, Long> latestNotifications = Maps.newHashMap();
+    for (ReleaseMessage releaseMessage : latestReleaseMessages) {
+      latestNotifications.put(releaseMessage.getMessage(), releaseMessage.getId());
+    }
+
+    for (Map.Entry<ApolloConfigSubscription, Collection<String>> entry : subscriptionToWatchedKeys.asMap().entrySet()) {
+      ApolloConfigSubscription subscription = entry.getKey();
+      long latestId = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
+      for (String watchedKey : entry.getValue()) {
+        latestId = Math.max(latestId,
+            latestNotifications.getOrDefault(watchedKey, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER));
+      }
+      if (latestId > subscription.getNotificationId()) {
+        ApolloConfigNotification notification =
+            new ApolloConfigNotification(subscription.getNamespaceName(), latestId);
+        entry.getValue().stream().filter(latestNotifications::containsKey).forEach(watchedKey ->
+            notification.addMessage(watchedKey, latestNotifications.get(watchedKey)));
+        changes.put(subscription, notification);
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * When too many requests are waiting for their configs, the request is completed without configs immediately, then
+   * the client queries them by itself
+   */
+  private void loadConfigsAndComplete(MultiplexedDeferredResultWrapper deferredResultWrapper,
+                                      Map<ApolloConfigSubscription, ApolloConfigNotification> changes) {
+    try {
+      configLoader.execute(() -> complete(deferredResultWrapper, changes, true));
+    } catch (RejectedExecutionException ex) {
+      Tracer.logEvent("Apollo.LongPoll.Multiplexed.ConfigLoaderRejected", deferredResultWrapper.getClientIp());
+      complete(deferredResultWrapper, changes, false);
+    }
+  }
+
+  /**
+   * Completes the request with the changed configs, the config of a notification is left empty if it fails to load or
+   * isn't loaded, then the client queries it by itself
+   */
+  private void complete(MultiplexedDeferredResultWrapper deferredResultWrapper,
+                        Map<ApolloConfigSubscription, ApolloConfigNotification> changes, boolean loadConfigs) {
+    List<ApolloConfigMultiplexedNotification> notifications = Lists.newArrayListWithCapacity(changes.size());
+    for (Map.Entry<ApolloConfigSubscription, ApolloConfigNotification> change : changes.entrySet()) {
+      ApolloConfigSubscription subscription = change.getKey();
+      ApolloConfigMultiplexedNotification notification = new ApolloConfigMultiplexedNotification(
+          subscription.getAppId(), subscription.getCluster(), change.getValue());
+      if (!loadConfigs) {
+        notifications.add(notification);
+        continue;
+      }
+      try {
+        notification.setConfig(configController.loadConfig(subscription.getAppId(), subscription.getCluster(),
+            subscription.getNamespaceName(), deferredResultWrapper.getDataCenter(),
+            Strings.isNullOrEmpty(subscription.getReleaseKey()) ? "-1" : subscription.getReleaseKey(),
+            deferredResultWrapper.getClientIp(), change.getValue().getMessages()));
+      } catch (Throwable ex) {
+        logger.warn("Load config for multiplexed notification {} failed", notification, ex);
+        Tracer.logError(ex);
+      }
+      notifications.add(notification);
+    }
+    deferredResultWrapper.setResult(notifications);
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    logger.info("message received - channel: {}, message: {}", channel, message);
+
+    String content = message.getMessage();
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    List<MultiplexedDeferredResultWrapper> results = deferredResults.get(content);
+    if (results.isEmpty()) {
+      return;
+    }
+
+    notificationFanOutScheduler.dispatch(FAN_OUT_SOURCE, content, results, result -> {
+      if (!result.tryStartCompleting()) {
+        return;
+      }
+      Map<ApolloConfigSubscription, ApolloConfigNotification> changes = Maps.newLinkedHashMap();
+      for (ApolloConfigSubscription subscription : result.getSubscriptions(content)) {
+        ApolloConfigNotification notification =
+            new ApolloConfigNotification(subscription.getNamespaceName(), message.getId());
+        notification.addMessage(content, message.getId());
+        changes.put(subscription, notification);
+      }
+      loadConfigsAndComplete(result, changes);
+    });
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    deferredResults.bindTo(registry);
+    Gauge.builder("apollo.notification.multiplexed.config.loader.queue.size", configLoader,
+        executor -> executor.getQueue().size())
+        .description("multiplexed long polling requests waiting for their configs to be loaded")
+        .register(registry);
+  }
+
+  private void logWatchedKeys(Set<String> watchedKeys, String eventName) {
+    for (String watchedKey : watchedKeys) {
+      Tracer.logEvent(eventName, watchedKey);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageListener;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutScheduler;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultRegistry;
+import com.ctrip.framework.apollo.configservice.wrapper.WebsocketSubscriber;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+import org.springframework.web.context.ServletContextAware;
+
+import javax.servlet.ServletContext;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The websocket version of {@link NotificationControllerV2}, the client keeps one connection and the notifications
+ * are pushed as soon as the release messages arrive, instead of being polled again and again.
+ *
+ * <p>The client subscribes with its latest notification ids, so the notifications missed while reconnecting are
+ * pushed right after subscribing. The endpoint is under /notifications/v2, so it's protected by the same client
+ * authentication.</p>
+ */
+@Component
+public class NotificationWebsocketEndpoint extends Endpoint implements ReleaseMessageListener, MeterBinder,
+    ServletContextAware, SmartInitializingSingleton {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationWebsocketEndpoint.class);
+  private static final String FAN_OUT_SOURCE = "Websocket";
+  public static final String PATH = "/notifications/v2/websocket";
+  private static final String SUBSCRIBER = WebsocketSubscriber.class.getName();
+  //tomcat's timeout of the blocking send, or the fan-out would be blocked by a stuck connection
+  private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+  private static final ApolloNotificationWebsocketMessage PONG =
+      new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.PONG, null);
+
+  private final DeferredResultRegistry<WebsocketSubscriber> subscribers =
+      new DeferredResultRegistry<>("apollo.notification.websocket.subscribers");
+
+  private final WatchKeysUtil watchKeysUtil;
+  private final ReleaseMessageServiceWithCache releaseMessageService;
+  private final NamespaceUtil namespaceUtil;
+  private final Gson gson;
+  private final BizConfig bizConfig;
+  private final NotificationFanOutScheduler notificationFanOutScheduler;
+  private ServletContext servletContext;
+
+  public NotificationWebsocketEndpoint(
+      final WatchKeysUtil watchKeysUtil,
+      final ReleaseMessageServiceWithCache releaseMessageService,
+      final NamespaceUtil namespaceUtil,
+      final Gson gson,
+      final BizConfig bizConfig,
+      final NotificationFanOutScheduler notificationFanOutScheduler) {
+    this.watchKeysUtil = watchKeysUtil;
+    this.releaseMessageService = releaseMessageService;
+    this.namespaceUtil = namespaceUtil;
+    this.gson = gson;
+    this.bizConfig = bizConfig;
+    this.notificationFanOutScheduler = notificationFanOutScheduler;
+  }
+
+  @Override
+  public void setServletContext(ServletContext servletContext) {
+    this.servletContext = servletContext;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    ServerContainer serverContainer = servletContext == null ? null :
+        (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+    if (serverContainer == null) {
+      logger.warn("No websocket container found, {} is disabled and clients will fall back to long polling", PATH);
+      return;
+    }
+    ServerEndpointConfig config = ServerEndpointConfig.Builder.create(NotificationWebsocketEndpoint.class, PATH)
+        .configurator(new ServerEndpointConfig.Configurator() {
+          @Override
+          public <T> T getEndpointInstance(Class<T> endpointClass) {
+            return endpointClass.cast(NotificationWebsocketEndpoint.this);
+          }
+        }).build();
+    try {
+      serverContainer.addEndpoint(config);
+    } catch (DeploymentException ex) {
+      throw new IllegalStateException("Failed to register websocket endpoint " + PATH, ex);
+    }
+  }
+
+  @Override
+  public void onOpen(Session session, EndpointConfig config) {
+    Map<String, List<String>> parameters = session.getRequestParameterMap();
+    String appId = getParameter(parameters, "appId");
+    String cluster = getParameter(parameters, "cluster");
+    if (Strings.isNullOrEmpty(appId) || Strings.isNullOrEmpty(cluster)) {
+      WebsocketSubscriber.close(session,
+          new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "appId and cluster are required"));
+      return;
+    }
+
+    WebsocketSubscriber subscriber =
+        new WebsocketSubscriber(session, appId, cluster, getParameter(parameters, "dataCenter"));
+    session.setMaxIdleTimeout(bizConfig.websocketIdleTimeoutInMilli());
+    session.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, bizConfig.websocketSendTimeoutInMilli());
+    session.getUserProperties().put(SUBSCRIBER, subscriber);
+    session.addMessageHandler(String.class, (MessageHandler.Whole<String>) message -> onMessage(subscriber, message));
+  }
+
+  @Override
+  public void onClose(Session session, CloseReason closeReason) {
+    WebsocketSubscriber subscriber = (WebsocketSubscriber) session.getUserProperties().get(SUBSCRIBER);
+    if (subscriber == null) {
+      return;
+    }
+    synchronized (subscriber) {
+      for (String key : subscriber.close()) {
+        subscribers.unregister(key, subscriber);
+      }
+    }
+    logger.debug("{} closed, reason: {}", subscriber, closeReason);
+  }
+
+  @Override
+  public void onError(Session session, Throwable throwable) {
+    logger.debug("Websocket session {} failed", session.getId(), throwable);
+    Tracer.logEvent("Apollo.Websocket.Error", String.valueOf(throwable));
+  }
+
+  void onMessage(WebsocketSubscriber subscriber, String text) {
+    ApolloNotificationWebsocketMessage message = null;
+    try {
+      message = gson.fromJson(text, ApolloNotificationWebsocketMessage.class);
+    } catch (Throwable ex) {
+      Tracer.logError(ex);
+    }
+
+    if (message == null || message.getType() == null) {
+      logger.debug("Invalid message from {}: {}", subscriber, text);
+      return;
+    }
+
+    switch (message.getType()) {
+      case ApolloNotificationWebsocketMessage.PING:
+        subscriber.send(PONG);
+        break;
+      case ApolloNotificationWebsocketMessage.SUBSCRIBE:
+        subscribe(subscriber, message.getNotifications());
+        break;
+      default:
+        logger.debug("Unknown message type from {}: {}", subscriber, message.getType());
+    }
+  }
+
+  private void subscribe(WebsocketSubscriber subscriber, List<ApolloConfigNotification> notifications) {
+    Map<String, ApolloConfigNotification> filteredNotifications = CollectionUtils.isEmpty(notifications) ?
+        null : filterNotifications(subscriber.getAppId(), notifications);
+    if (CollectionUtils.isEmpty(filteredNotifications)) {
+      logger.debug("Invalid format of notifications from {}: {}", subscriber, notifications);
+      return;
+    }
+
+    Multimap<String, String> watchedKeysMap = watchKeysUtil.assembleAllWatchKeys(subscriber.getAppId(),
+        subscriber.getCluster(), filteredNotifications.keySet(), subscriber.getDataCenter());
+    SetMultimap<String, String> watchedKeyToNamespaces = HashMultimap.create();
+    for (Map.Entry<String, ApolloConfigNotification> entry : filteredNotifications.entrySet()) {
+      for (String watchedKey : watchedKeysMap.get(entry.getKey())) {
+        watchedKeyToNamespaces.put(watchedKey, entry.getValue().getNamespaceName());
+      }
+    }
+
+    //register before the check, so the release messages arriving in between are not missed
+    synchronized (subscriber) {
+      Set<String> previousKeys = subscriber.getWatchedKeys();
+      if (!subscriber.watch(watchedKeyToNamespaces)) {
+        return;
+      }
+      Set<String> currentKeys = subscriber.getWatchedKeys();
+      for (String key : currentKeys) {
+        subscribers.register(key, subscriber);
+      }
+      for (String key : Sets.difference(previousKeys, currentKeys)) {
+        subscribers.unregister(key, subscriber);
+      }
+    }
+    logger.debug("Listening {} from {}", watchedKeysMap.values(), subscriber);
+
+    List<ReleaseMessage> latestReleaseMessages =
+        releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(watchedKeysMap.values()));
+    List<ApolloConfigNotification> newNotifications =
+        getNewNotifications(filteredNotifications, watchedKeysMap, latestReleaseMessages);
+    if (!newNotifications.isEmpty()) {
+      subscriber.send(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.NOTIFY,
+          newNotifications));
+    }
+  }
+
+  private Map<String, ApolloConfigNotification> filterNotifications(String appId,
+                                                                    List<ApolloConfigNotification> notifications) {
+    Map<String, ApolloConfigNotification> filteredNotifications = Maps.newHashMap();
+    for (ApolloConfigNotification notification : notifications) {
+      if (notification == null || Strings.isNullOrEmpty(notification.getNamespaceName())) {
+        continue;
+      }
+      //strip out .properties suffix
+      String originalNamespace = namespaceUtil.filterNamespaceName(notification.getNamespaceName());
+      notification.setNamespaceName(originalNamespace);
+      //fix the character case issue, such as FX.apollo <-> fx.apollo
+      String normalizedNamespace = namespaceUtil.normalizeNamespace(appId, originalNamespace);
+
+      //same as the long polling, keep the smaller notification id of the namespaces with character case issue
+      if (filteredNotifications.containsKey(normalizedNamespace) &&
+          filteredNotifications.get(normalizedNamespace).getNotificationId() < notification.getNotificationId()) {
+        continue;
+      }
+
+      filteredNotifications.put(normalizedNamespace, notification);
+    }
+    return filteredNotifications;
+  }
+
+  /**
+   * @return the notifications newer than the client side ones, with the client side namespace names
+   */
+  private List<ApolloConfigNotification> getNewNotifications(
+      Map<String, ApolloConfigNotification> clientSideNotifications, Multimap<String, String> watchedKeysMap,
+      List<ReleaseMessage> latestReleaseMessages) {
+    List<ApolloConfigNotification> newNotifications = Lists.newArrayList();
+    if (CollectionUtils.isEmpty(latestReleaseMessages)) {
+      return newNotifications;
+    }
+    Map<String, Long> latestNotifications = Maps.newHashMap();
+    for (ReleaseMessage releaseMessage : latestReleaseMessages) {
+      latestNotifications.put(releaseMessage.getMessage(), releaseMessage.getId());
+    }
+
+    for (Map.Entry<String, ApolloConfigNotification> entry : clientSideNotifications.entrySet()) {
+      long latestId = ConfigConsts.NOTIFICATION_ID_PLACEHOLDER;
+      for (String watchedKey : watchedKeysMap.get(entry.getKey())) {
+        latestId = Math.max(latestId,
+            latestNotifications.getOrDefault(watchedKey, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER));
+      }
+      if (latestId > entry.getValue().getNotificationId()) {
+        ApolloConfigNotification notification =
+            new ApolloConfigNotification(entry.getValue().getNamespaceName(), latestId);
+        for (String watchedKey : watchedKeysMap.get(entry.getKey())) {
+          if (latestNotifications.containsKey(watchedKey)) {
+            notification.addMessage(watchedKey, latestNotifications.get(watchedKey));
+          }
+        }
+        newNotifications.add(notification);
+      }
+    }
+    return newNotifications;
+  }
+
+  @Override
+  public void handleMessage(ReleaseMessage message, String channel) {
+    String content = message.getMessage();
+    if (!Topics.APOLLO_RELEASE_TOPIC.equals(channel) || Strings.isNullOrEmpty(content)) {
+      return;
+    }
+
+    List<WebsocketSubscriber> targets = subscribers.get(content);
+    if (targets.isEmpty()) {
+      return;
+    }
+
+    notificationFanOutScheduler.dispatch(FAN_OUT_SOURCE, content, targets,
+        subscriber -> subscriber.notify(content, message.getId()));
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    subscribers.bindTo(registry);
+  }
+
+  private static String getParameter(Map<String, List<String>> parameters, String name) {
+    List<String> values = parameters.get(name);
+    return CollectionUtils.isEmpty(values) ? null : values.get(0);
+  }
+}
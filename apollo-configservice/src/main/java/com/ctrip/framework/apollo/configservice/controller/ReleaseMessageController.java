@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.common.dto.ReleaseMessageDTO;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receives the release messages pushed by admin service. A pushed message is only a hint to scan the ReleaseMessage
+ * table right away, the table is still the source of truth for {@link ReleaseMessageScanner}
+ */
+@RestController
+@RequestMapping("/release-messages")
+public class ReleaseMessageController {
+  private static final Logger logger = LoggerFactory.getLogger(ReleaseMessageController.class);
+  private static final Splitter ACCESS_TOKEN_SPLITTER = Splitter.on(",").omitEmptyStrings()
+      .trimResults();
+
+  private final ReleaseMessageScanner releaseMessageScanner;
+  private final BizConfig bizConfig;
+
+  public ReleaseMessageController(
+      final ReleaseMessageScanner releaseMessageScanner,
+      final BizConfig bizConfig) {
+    this.releaseMessageScanner = releaseMessageScanner;
+    this.bizConfig = bizConfig;
+  }
+
+  @PostMapping
+  public ResponseEntity<Void> push(@RequestBody ReleaseMessageDTO dto,
+      @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String token) {
+    if (!checkAccessToken(token)) {
+      logger.warn("Invalid access token: {} for pushed release message", token);
+      return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+    }
+
+    if (dto.getId() <= 0 || Strings.isNullOrEmpty(dto.getMessage())) {
+      throw new BadRequestException("Invalid release message: " + dto);
+    }
+
+    if (!bizConfig.isReleaseMessagePushEnabled()) {
+      //the message would be picked up by the database scan
+      return new ResponseEntity<>(HttpStatus.ACCEPTED);
+    }
+
+    Tracer.logEvent("Apollo.ReleaseMessage.Pushed", String.valueOf(dto.getId()));
+
+    releaseMessageScanner.onMessagePushed(dto.getId());
+
+    return new ResponseEntity<>(HttpStatus.ACCEPTED);
+  }
+
+  /**
+   * Unlike admin service, pushing is always rejected if access control is not enabled or access tokens are not
+   * configured, as config service is usually exposed to the clients
+   */
+  private boolean checkAccessToken(String token) {
+    if (!bizConfig.isAdminServiceAccessControlEnabled()) {
+      return false;
+    }
+
+    String accessTokens = bizConfig.getAdminServiceAccessTokens();
+    if (Strings.isNullOrEmpty(accessTokens)) {
+      return false;
+    }
+
+    return !Strings.isNullOrEmpty(token) && ACCESS_TOKEN_SPLITTER.splitToList(accessTokens).contains(token);
+  }
+}
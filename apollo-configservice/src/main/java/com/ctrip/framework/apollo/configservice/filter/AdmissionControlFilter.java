@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import com.ctrip.framework.apollo.core.utils.StringUtils;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.HttpHeaders;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Rejects the client requests beyond the per app id and per client ip rates with 429 and a Retry-After header, so a
+ * misbehaving app can't take all the threads and database connections of the config service.
+ *
+ * <p>The rates are token buckets of one config service instance. The client ip is the remote address of the request,
+ * the forwarded headers should be trusted by the server when the config service is behind a proxy.</p>
+ */
+public class AdmissionControlFilter implements Filter {
+
+  private static final long LIMITER_EXPIRED_AFTER_ACCESS_IN_MINUTES = 10;
+  private static final long MAX_LIMITERS = 100000;
+  private static final String TRACER_EVENT_REJECTED = "Apollo.AdmissionControl.Rejected";
+
+  private final BizConfig bizConfig;
+  private final AccessKeyUtil accessKeyUtil;
+  private final Cache<String, TokenBucket> appLimiters = newLimiterCache();
+  private final Cache<String, TokenBucket> ipLimiters = newLimiterCache();
+
+  public AdmissionControlFilter(BizConfig bizConfig, AccessKeyUtil accessKeyUtil) {
+    this.bizConfig = bizConfig;
+    this.accessKeyUtil = accessKeyUtil;
+  }
+
+  private static Cache<String, TokenBucket> newLimiterCache() {
+    return CacheBuilder.newBuilder()
+        .expireAfterAccess(LIMITER_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
+        .maximumSize(MAX_LIMITERS)
+        .build();
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    //nothing
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) req;
+    HttpServletResponse response = (HttpServletResponse) resp;
+
+    if (!bizConfig.isConfigServiceAdmissionControlEnabled()) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    String clientIp = request.getRemoteAddr();
+    if (!StringUtils.isBlank(clientIp)
+        && !tryAcquire(ipLimiters, clientIp, bizConfig.configServiceAdmissionControlIpQps())) {
+      reject(response, "ip:" + clientIp);
+      return;
+    }
+
+    String appId = accessKeyUtil.extractAppIdFromRequest(request);
+    if (!StringUtils.isBlank(appId)
+        && !tryAcquire(appLimiters, appId, bizConfig.configServiceAdmissionControlAppQps())) {
+      reject(response, "app:" + appId);
+      return;
+    }
+
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {
+    //nothing
+  }
+
+  private boolean tryAcquire(Cache<String, TokenBucket> limiters, String key, int qps) {
+    long now = System.nanoTime();
+    return limiters.asMap().computeIfAbsent(key, k -> new TokenBucket(qps, now)).tryAcquire(qps, now);
+  }
+
+  private void reject(HttpServletResponse response, String key) throws IOException {
+    Tracer.logEvent(TRACER_EVENT_REJECTED, key);
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(bizConfig.configServiceAdmissionControlRetryAfter()));
+    response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "TooManyRequests");
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+/**
+ * A token bucket holding up to one second of tokens. It is full when created, so the first burst of a client, e.g.
+ * loading all its namespaces on startup, is admitted.
+ *
+ * <p>The rate is passed on each acquisition as it is refreshable.</p>
+ */
+final class TokenBucket {
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+  private double tokens;
+  private long lastRefillNanos;
+
+  TokenBucket(int permitsPerSecond, long nowNanos) {
+    this.tokens = permitsPerSecond;
+    this.lastRefillNanos = nowNanos;
+  }
+
+  synchronized boolean tryAcquire(int permitsPerSecond, long nowNanos) {
+    long elapsedNanos = Math.max(nowNanos - lastRefillNanos, 0);
+    tokens = Math.min(permitsPerSecond, tokens + elapsedNanos * permitsPerSecond / NANOS_PER_SECOND);
+    lastRefillNanos = nowNanos;
+
+    if (tokens < 1) {
+      return false;
+    }
+    tokens -= 1;
+    return true;
+  }
+}
@@ -39,4 +39,11 @@ public interface ConfigService extends ReleaseMessageListener {
    */
   Release loadConfig(String clientAppId, String clientIp, String configAppId, String
       configClusterName, String configNamespace, String dataCenter, ApolloNotificationMessages clientMessages);
+
+  /**
+   * @return whether the service is ready to serve the clients, e.g. the cache is warmed up
+   */
+  default boolean isReady() {
+    return true;
+  }
 }
@@ -18,46 +18,96 @@ package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.common.exception.TooManyRequestsException;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 import com.ctrip.framework.apollo.tracer.spi.Transaction;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.CollectionUtils;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.PostConstruct;
 
 /**
  * config service with guava cache
  *
+ * <p>On startup, the latest releases of the most recently released namespaces are loaded into the cache in batches,
+ * and the service is not ready until the warm-up is finished or timed out, so the restarted nodes don't take the
+ * clients before that.</p>
+ *
+ * <p>The loads of the same namespace are coalesced: a reload is issued once for the notification id it is asked for,
+ * and the requests and release messages asking for the same or an older notification id share it. The namespaces not
+ * found are cached in a bounded cache, so the clients asking for them don't hit the database every time.</p>
+ *
+ * <p>When the admission control is enabled, the concurrent database loads of the cache misses are capped, and the
+ * requests not getting a load in time are rejected with 429. The reloads of the release messages and the warm-up are
+ * not capped, as they keep the cache fresh.</p>
+ *
+ * <p>The releases are cached as compact {@link ReleaseSnapshot}s shared by both caches, and the caches are bounded by
+ * the estimated heap the releases take, each with half of the max weight.</p>
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
-public class ConfigServiceWithCache extends AbstractConfigService {
+public class ConfigServiceWithCache extends AbstractConfigService implements InitializingBean, MeterBinder {
   private static final Logger logger = LoggerFactory.getLogger(ConfigServiceWithCache.class);
   private static final long DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES = 60;//1 hour
+  private static final long MISSING_CONFIG_CACHE_SIZE = 10000;
+  private static final long MISSING_CONFIG_EXPIRED_AFTER_WRITE_IN_MINUTES = 5;
   private static final String TRACER_EVENT_CACHE_INVALIDATE = "ConfigCache.Invalidate";
   private static final String TRACER_EVENT_CACHE_LOAD = "ConfigCache.LoadFromDB";
   private static final String TRACER_EVENT_CACHE_LOAD_ID = "ConfigCache.LoadFromDBById";
   private static final String TRACER_EVENT_CACHE_GET = "ConfigCache.Get";
   private static final String TRACER_EVENT_CACHE_GET_ID = "ConfigCache.GetById";
+  private static final String TRACER_EVENT_CACHE_GET_MISSING = "ConfigCache.GetMissing";
+  private static final String TRACER_EVENT_CACHE_LOAD_COALESCED = "ConfigCache.LoadCoalesced";
+  private static final String TRACER_EVENT_CACHE_WARM_UP = "ConfigCache.WarmUp";
+  private static final int WARM_UP_APP_BATCH = 100;
+  private static final long LOAD_PERMIT_TIMEOUT_IN_MILLI = 1000;
+  private static final String TRACER_EVENT_CACHE_LOAD_REJECTED = "ConfigCache.LoadRejected";
   private static final Splitter STRING_SPLITTER =
       Splitter.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).omitEmptyStrings();
 
@@ -67,81 +117,249 @@ public class ConfigServiceWithCache extends AbstractConfigService {
   @Autowired
   private ReleaseMessageService releaseMessageService;
 
-  private LoadingCache<String, ConfigCacheEntry> configCache;
+  @Autowired
+  private BizConfig bizConfig;
+
+  private Cache<String, ConfigCacheEntry> configCache;
 
-  private LoadingCache<Long, Optional<Release>> configIdCache;
+  //the namespaces which have neither releases nor release messages
+  private Cache<String, ConfigCacheEntry> missingConfigCache;
+
+  //store key -> the reload in progress map
+  private final ConcurrentMap<String, Reload> reloads = new ConcurrentHashMap<>();
+
+  private LoadingCache<Long, Optional<ReleaseSnapshot>> configIdCache;
+
+  //store release id -> the snapshot shared by the caches, as long as one of them holds it
+  private final ConcurrentMap<Long, ReleaseSnapshot> releaseSnapshots = CacheBuilder.newBuilder().weakValues()
+      .<Long, ReleaseSnapshot>build().asMap();
 
   private ConfigCacheEntry nullConfigCacheEntry;
 
+  private Semaphore loadPermits;
+  private final AtomicInteger warmedUpNamespaces = new AtomicInteger();
+  private volatile boolean warmUpDone = true;
+  private volatile long warmUpDeadline;
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder coalescedLoads = new LongAdder();
+  private final LongAdder missingHits = new LongAdder();
+  private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+
   public ConfigServiceWithCache() {
     nullConfigCacheEntry = new ConfigCacheEntry(ConfigConsts.NOTIFICATION_ID_PLACEHOLDER, null);
+    Gauge.builder("apollo.config.cache.warm-up.namespaces", warmedUpNamespaces, AtomicInteger::get)
+        .description("namespaces loaded into the cache on startup").register(meterRegistry);
+    Gauge.builder("apollo.config.cache.warm-up.done", this, service -> service.isReady() ? 1 : 0)
+        .description("whether the cache warm-up is finished or timed out").register(meterRegistry);
+    FunctionCounter.builder("apollo.config.cache.loads", loads, LongAdder::sum)
+        .description("namespaces loaded from the database").register(meterRegistry);
+    FunctionCounter.builder("apollo.config.cache.loads.coalesced", coalescedLoads, LongAdder::sum)
+        .description("loads saved by sharing a load in progress or a fresher cache entry").register(meterRegistry);
+    FunctionCounter.builder("apollo.config.cache.missing.hits", missingHits, LongAdder::sum)
+        .description("lookups of the namespaces cached as not found").register(meterRegistry);
+    Gauge.builder("apollo.config.cache.missing.size", this, service -> service.missingConfigCache.size())
+        .description("namespaces cached as not found").register(meterRegistry);
+    Gauge.builder("apollo.config.cache.size", this, service -> service.configCache.size())
+        .description("namespaces in the cache").register(meterRegistry);
+    Gauge.builder("apollo.config.cache.weight", this, ConfigServiceWithCache::configCacheWeight)
+        .description("estimated heap taken by the cached releases").baseUnit("bytes").register(meterRegistry);
+    Gauge.builder("apollo.config.cache.weight.per-namespace", this, service -> {
+      long size = service.configCache.size();
+      return size == 0 ? 0 : (double) service.configCacheWeight() / size;
+    }).description("average estimated heap taken by the release of a namespace").baseUnit("bytes")
+        .register(meterRegistry);
   }
 
   @PostConstruct
   void initialize() {
+    //the weight budget is split between the two caches, so they take no more than the max weight together
+    long maxWeight = bizConfig.configServiceCacheMaxWeightInMB() * 1024L * 1024L / 2;
+    loadPermits = new Semaphore(bizConfig.configServiceAdmissionControlMaxConcurrentLoads());
     configCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
-        .build(new CacheLoader<String, ConfigCacheEntry>() {
-          @Override
-          public ConfigCacheEntry load(String key) throws Exception {
-            List<String> namespaceInfo = STRING_SPLITTER.splitToList(key);
-            if (namespaceInfo.size() != 3) {
-              Tracer.logError(
-                  new IllegalArgumentException(String.format("Invalid cache load key %s", key)));
-              return nullConfigCacheEntry;
-            }
-
-            Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_LOAD, key);
-            try {
-              ReleaseMessage latestReleaseMessage = releaseMessageService.findLatestReleaseMessageForMessages(Lists
-                  .newArrayList(key));
-              Release latestRelease = releaseService.findLatestActiveRelease(namespaceInfo.get(0), namespaceInfo.get(1),
-                  namespaceInfo.get(2));
-
-              transaction.setStatus(Transaction.SUCCESS);
-
-              long notificationId = latestReleaseMessage == null ? ConfigConsts.NOTIFICATION_ID_PLACEHOLDER : latestReleaseMessage
-                  .getId();
-
-              if (notificationId == ConfigConsts.NOTIFICATION_ID_PLACEHOLDER && latestRelease == null) {
-                return nullConfigCacheEntry;
-              }
-
-              return new ConfigCacheEntry(notificationId, latestRelease);
-            } catch (Throwable ex) {
-              transaction.setStatus(ex);
-              throw ex;
-            } finally {
-              transaction.complete();
-            }
-          }
-        });
+        .maximumWeight(maxWeight)
+        .weigher((Weigher<String, ConfigCacheEntry>) (key, entry) -> entry.weight())
+        .build();
+    missingConfigCache = CacheBuilder.newBuilder()
+        .maximumSize(MISSING_CONFIG_CACHE_SIZE)
+        .expireAfterWrite(MISSING_CONFIG_EXPIRED_AFTER_WRITE_IN_MINUTES, TimeUnit.MINUTES)
+        .build();
     configIdCache = CacheBuilder.newBuilder()
         .expireAfterAccess(DEFAULT_EXPIRED_AFTER_ACCESS_IN_MINUTES, TimeUnit.MINUTES)
-        .build(new CacheLoader<Long, Optional<Release>>() {
+        .maximumWeight(maxWeight)
+        .weigher((Weigher<Long, Optional<ReleaseSnapshot>>) (key, snapshot) ->
+            snapshot.map(ReleaseSnapshot::weight).orElse(1))
+        .build(new CacheLoader<Long, Optional<ReleaseSnapshot>>() {
           @Override
-          public Optional<Release> load(Long key) throws Exception {
+          public Optional<ReleaseSnapshot> load(Long key) throws Exception {
+            boolean permitted = acquireLoadPermit(String.valueOf(key));
             Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_LOAD_ID, String.valueOf(key));
             try {
               Release release = releaseService.findActiveOne(key);
 
               transaction.setStatus(Transaction.SUCCESS);
 
-              return Optional.ofNullable(release);
+              return Optional.ofNullable(snapshot(release));
             } catch (Throwable ex) {
               transaction.setStatus(ex);
               throw ex;
             } finally {
               transaction.complete();
+              releaseLoadPermit(permitted);
             }
           }
         });
   }
 
+  /**
+   * @return whether a permit is acquired, no permit is needed when the admission control is disabled
+   * @throws TooManyRequestsException if no permit is available in time
+   */
+  private boolean acquireLoadPermit(String key) {
+    if (!bizConfig.isConfigServiceAdmissionControlEnabled()) {
+      return false;
+    }
+    try {
+      if (loadPermits.tryAcquire(LOAD_PERMIT_TIMEOUT_IN_MILLI, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    Tracer.logEvent(TRACER_EVENT_CACHE_LOAD_REJECTED, key);
+    throw new TooManyRequestsException(String.format("Too many concurrent config loads, rejected %s", key),
+        bizConfig.configServiceAdmissionControlRetryAfter());
+  }
+
+  private void releaseLoadPermit(boolean permitted) {
+    if (permitted) {
+      loadPermits.release();
+    }
+  }
+
+  private ReleaseSnapshot snapshot(Release release) {
+    if (release == null) {
+      return null;
+    }
+    return releaseSnapshots.computeIfAbsent(release.getId(), id -> ReleaseSnapshot.of(release));
+  }
+
+  private long configCacheWeight() {
+    long weight = 0;
+    for (ConfigCacheEntry entry : configCache.asMap().values()) {
+      weight += entry.weight();
+    }
+    return weight;
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    int maxNamespaces = bizConfig.configServiceCacheWarmUpMaxNamespaces();
+    if (maxNamespaces <= 0) {
+      return;
+    }
+    warmUpDone = false;
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(bizConfig.configServiceCacheWarmUpTimeout());
+    warmUpDeadline = deadline;
+
+    ExecutorService executorService = Executors.newSingleThreadExecutor(ApolloThreadFactory
+        .create("ConfigServiceWithCache", true));
+    executorService.submit(() -> {
+      Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_WARM_UP, "warmUp");
+      try {
+        warmUp(maxNamespaces, deadline);
+        transaction.setStatus(Transaction.SUCCESS);
+      } catch (Throwable ex) {
+        transaction.setStatus(ex);
+        logger.error("Warm up config cache failed", ex);
+      } finally {
+        warmUpDone = true;
+        transaction.complete();
+        executorService.shutdown();
+      }
+    });
+  }
+
+  /**
+   * @return whether the cache warm-up is finished or timed out
+   */
+  @Override
+  public boolean isReady() {
+    return warmUpDone || System.currentTimeMillis() >= warmUpDeadline;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    meterRegistry.add(registry);
+  }
+
+  /**
+   * Loads the latest releases of the most recently released namespaces, the namespaces of 100 apps are loaded with one
+   * query.
+   */
+  void warmUp(int maxNamespaces, long deadline) {
+    long maxIdScanned = Long.MAX_VALUE;
+    Set<String> scannedKeys = Sets.newHashSet();
+
+    while (scannedKeys.size() < maxNamespaces && System.currentTimeMillis() < deadline
+        && !Thread.currentThread().isInterrupted()) {
+      List<ReleaseMessage> releaseMessages = releaseMessageService.findReleaseMessagesBefore(maxIdScanned);
+      if (CollectionUtils.isEmpty(releaseMessages)) {
+        break;
+      }
+      maxIdScanned = releaseMessages.get(releaseMessages.size() - 1).getId();
+
+      //the latest message of each namespace comes first
+      Map<String, ReleaseMessage> latestReleaseMessages = Maps.newHashMap();
+      Set<String> appIds = Sets.newLinkedHashSet();
+      for (ReleaseMessage releaseMessage : releaseMessages) {
+        if (scannedKeys.size() >= maxNamespaces) {
+          break;
+        }
+        String key = releaseMessage.getMessage();
+        List<String> namespaceInfo = STRING_SPLITTER.splitToList(Strings.nullToEmpty(key));
+        if (namespaceInfo.size() == 3 && scannedKeys.add(key)) {
+          latestReleaseMessages.put(key, releaseMessage);
+          appIds.add(namespaceInfo.get(0));
+        }
+      }
+
+      for (List<String> appIdBatch : Lists.partition(Lists.newArrayList(appIds), WARM_UP_APP_BATCH)) {
+        if (System.currentTimeMillis() >= deadline) {
+          break;
+        }
+        Map<String, Release> latestReleases = Maps.newHashMap();
+        for (Release release : releaseService.findLatestActiveReleases(appIdBatch)) {
+          latestReleases.put(ReleaseMessageKeyGenerator.generate(release.getAppId(), release.getClusterName(),
+              release.getNamespaceName()), release);
+        }
+        for (Map.Entry<String, ReleaseMessage> entry : latestReleaseMessages.entrySet()) {
+          Release release = latestReleases.get(entry.getKey());
+          //leave the namespaces without releases, e.g. deleted ones, to be loaded on demand
+          if (release == null) {
+            continue;
+          }
+          //the entries loaded or refreshed by the requests and the release messages are newer
+          if (configCache.asMap().putIfAbsent(entry.getKey(),
+              new ConfigCacheEntry(entry.getValue().getId(), snapshot(release))) == null) {
+            warmedUpNamespaces.incrementAndGet();
+          }
+        }
+      }
+      logger.info("Warmed up config cache with {} namespaces", warmedUpNamespaces.get());
+    }
+  }
+
   @Override
   protected Release findActiveOne(long id, ApolloNotificationMessages clientMessages) {
     Tracer.logEvent(TRACER_EVENT_CACHE_GET_ID, String.valueOf(id));
-    return configIdCache.getUnchecked(id).orElse(null);
+    try {
+      return configIdCache.getUnchecked(id).map(ReleaseSnapshot::toRelease).orElse(null);
+    } catch (UncheckedExecutionException ex) {
+      //e.g. the load is rejected by the admission control
+      Throwables.throwIfUnchecked(ex.getCause());
+      throw ex;
+    }
   }
 
   @Override
@@ -151,22 +369,110 @@ public class ConfigServiceWithCache extends AbstractConfigService {
 
     Tracer.logEvent(TRACER_EVENT_CACHE_GET, key);
 
-    ConfigCacheEntry cacheEntry = configCache.getUnchecked(key);
+    ConfigCacheEntry cacheEntry = configCache.getIfPresent(key);
+    if (cacheEntry == null) {
+      cacheEntry = missingConfigCache.getIfPresent(key);
+      if (cacheEntry != null) {
+        missingHits.increment();
+        Tracer.logEvent(TRACER_EVENT_CACHE_GET_MISSING, key);
+      } else {
+        cacheEntry = reload(key, ConfigConsts.NOTIFICATION_ID_PLACEHOLDER, true);
+      }
+    }
 
     //cache is out-dated
     if (clientMessages != null && clientMessages.has(key) &&
         clientMessages.get(key) > cacheEntry.getNotificationId()) {
-      //invalidate the cache and try to load from db again
-      invalidate(key);
-      cacheEntry = configCache.getUnchecked(key);
+      //try to load from db again
+      cacheEntry = reload(key, clientMessages.get(key), true);
     }
 
     return cacheEntry.getRelease();
   }
 
-  private void invalidate(String key) {
-    configCache.invalidate(key);
+  /**
+   * Loads the namespace from the database unless the cache is already as new as the notification id, or a reload for
+   * the same or a newer notification id is in progress, in which case the reload is shared.
+   * @param admissionControlled whether the load needs a load permit
+   */
+  private ConfigCacheEntry reload(String key, long notificationId, boolean admissionControlled) {
+    ConfigCacheEntry cacheEntry = configCache.getIfPresent(key);
+    if (notificationId != ConfigConsts.NOTIFICATION_ID_PLACEHOLDER && cacheEntry != null
+        && cacheEntry.getNotificationId() >= notificationId) {
+      coalescedLoads.increment();
+      return cacheEntry;
+    }
+
+    Reload candidate = new Reload(notificationId);
+    Reload reload = reloads.compute(key, (reloadKey, current) ->
+        current != null && current.notificationId >= notificationId ? current : candidate);
+    if (reload != candidate) {
+      coalescedLoads.increment();
+      Tracer.logEvent(TRACER_EVENT_CACHE_LOAD_COALESCED, key);
+      try {
+        return reload.future.join();
+      } catch (CompletionException ex) {
+        Throwables.throwIfUnchecked(ex.getCause());
+        throw ex;
+      }
+    }
+
     Tracer.logEvent(TRACER_EVENT_CACHE_INVALIDATE, key);
+    try {
+      ConfigCacheEntry loaded = loadConfigCacheEntry(key, admissionControlled);
+      if (loaded == nullConfigCacheEntry) {
+        missingConfigCache.put(key, loaded);
+        configCache.invalidate(key);
+      } else {
+        //a slower reload issued for an older notification id must not overwrite a newer entry
+        loaded = configCache.asMap().merge(key, loaded, (current, fresh) ->
+            fresh.getNotificationId() >= current.getNotificationId() ? fresh : current);
+        missingConfigCache.invalidate(key);
+      }
+      candidate.future.complete(loaded);
+      return loaded;
+    } catch (Throwable ex) {
+      candidate.future.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      reloads.remove(key, candidate);
+    }
+  }
+
+  private ConfigCacheEntry loadConfigCacheEntry(String key, boolean admissionControlled) {
+    List<String> namespaceInfo = STRING_SPLITTER.splitToList(key);
+    if (namespaceInfo.size() != 3) {
+      Tracer.logError(
+          new IllegalArgumentException(String.format("Invalid cache load key %s", key)));
+      return nullConfigCacheEntry;
+    }
+
+    boolean permitted = admissionControlled && acquireLoadPermit(key);
+    loads.increment();
+    Transaction transaction = Tracer.newTransaction(TRACER_EVENT_CACHE_LOAD, key);
+    try {
+      ReleaseMessage latestReleaseMessage = releaseMessageService.findLatestReleaseMessageForMessages(Lists
+          .newArrayList(key));
+      Release latestRelease = releaseService.findLatestActiveRelease(namespaceInfo.get(0), namespaceInfo.get(1),
+          namespaceInfo.get(2));
+
+      transaction.setStatus(Transaction.SUCCESS);
+
+      long notificationId = latestReleaseMessage == null ? ConfigConsts.NOTIFICATION_ID_PLACEHOLDER : latestReleaseMessage
+          .getId();
+
+      if (notificationId == ConfigConsts.NOTIFICATION_ID_PLACEHOLDER && latestRelease == null) {
+        return nullConfigCacheEntry;
+      }
+
+      return new ConfigCacheEntry(notificationId, snapshot(latestRelease));
+    } catch (Throwable ex) {
+      transaction.setStatus(ex);
+      throw ex;
+    } finally {
+      transaction.complete();
+      releaseLoadPermit(permitted);
+    }
   }
 
   @Override
@@ -176,21 +482,37 @@ public class ConfigServiceWithCache extends AbstractConfigService {
       return;
     }
 
+    String key = message.getMessage();
     try {
-      invalidate(message.getMessage());
-
-      //warm up the cache
-      configCache.getUnchecked(message.getMessage());
+      //warm up the cache, the reload is shared with the clients notified by the same message
+      reload(key, message.getId(), false);
     } catch (Throwable ex) {
-      //ignore
+      //the cached entries are out-dated, so they are loaded again by the next request
+      invalidateOutdated(key, message.getId());
+    }
+  }
+
+  private void invalidateOutdated(String key, long notificationId) {
+    Tracer.logEvent(TRACER_EVENT_CACHE_INVALIDATE, key);
+    configCache.asMap().computeIfPresent(key, (cacheKey, cacheEntry) ->
+        cacheEntry.getNotificationId() >= notificationId ? cacheEntry : null);
+    missingConfigCache.invalidate(key);
+  }
+
+  private static class Reload {
+    private final long notificationId;
+    private final CompletableFuture<ConfigCacheEntry> future = new CompletableFuture<>();
+
+    Reload(long notificationId) {
+      this.notificationId = notificationId;
     }
   }
 
   private static class ConfigCacheEntry {
     private final long notificationId;
-    private final Release release;
+    private final ReleaseSnapshot release;
 
-    public ConfigCacheEntry(long notificationId, Release release) {
+    public ConfigCacheEntry(long notificationId, ReleaseSnapshot release) {
       this.notificationId = notificationId;
       this.release = release;
     }
@@ -200,7 +522,11 @@ public class ConfigServiceWithCache extends AbstractConfigService {
     }
 
     public Release getRelease() {
-      return release;
+      return release == null ? null : release.toRelease();
+    }
+
+    int weight() {
+      return release == null ? 1 : release.weight();
     }
   }
 }
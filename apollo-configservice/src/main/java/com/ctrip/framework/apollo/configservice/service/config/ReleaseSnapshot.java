@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.service.config;
+
+import com.ctrip.framework.apollo.biz.entity.Release;
+import com.google.common.base.Strings;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The immutable part of a release the config service serves, kept in the caches instead of the release entity.
+ *
+ * <p>The configurations string is shared by the releases handed out, so it's not decoded or copied per request, and
+ * the app id, cluster name and namespace name are interned, as they are shared by the releases of the same
+ * namespace.</p>
+ */
+final class ReleaseSnapshot {
+  //object headers, references and the release key
+  private static final int ESTIMATED_OVERHEAD_IN_BYTES = 128;
+  private static final Interner<String> NAME_INTERNER = Interners.newWeakInterner();
+
+  private final long id;
+  private final String releaseKey;
+  private final String appId;
+  private final String clusterName;
+  private final String namespaceName;
+  private final String configurations;
+
+  private ReleaseSnapshot(Release release) {
+    this.id = release.getId();
+    this.releaseKey = release.getReleaseKey();
+    this.appId = intern(release.getAppId());
+    this.clusterName = intern(release.getClusterName());
+    this.namespaceName = intern(release.getNamespaceName());
+    this.configurations = Strings.nullToEmpty(release.getConfigurations());
+  }
+
+  static ReleaseSnapshot of(Release release) {
+    return new ReleaseSnapshot(release);
+  }
+
+  private static String intern(String name) {
+    return name == null ? null : NAME_INTERNER.intern(name);
+  }
+
+  long getId() {
+    return id;
+  }
+
+  /**
+   * @return the estimated heap taken by this snapshot
+   */
+  int weight() {
+    //2 bytes per char at most
+    return ESTIMATED_OVERHEAD_IN_BYTES + configurations.length() * 2;
+  }
+
+  /**
+   * @return a detached release with the fields the config service serves, a new one each time as the release is
+   * mutable, while the immutable configurations string is shared
+   */
+  Release toRelease() {
+    Release release = new Release();
+    release.setId(id);
+    release.setReleaseKey(releaseKey);
+    release.setAppId(appId);
+    release.setClusterName(clusterName);
+    release.setNamespaceName(namespaceName);
+    release.setConfigurations(configurations);
+    return release;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers to build the config responses which are encoded once and served to many clients, i.e. the gzip compressed
+ * bodies and the ETags of the releases.
+ */
+public final class ConfigResponseUtil {
+
+  /**
+   * small bodies don't benefit from compression
+   */
+  public static final int GZIP_MIN_SIZE = 1024;
+
+  private static final String GZIP = "gzip";
+  private static final String X_GZIP = "x-gzip";
+  private static final String ANY_ENCODING = "*";
+  private static final Splitter CODINGS_SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+  private static final Splitter PARAMETERS_SPLITTER = Splitter.on(';').trimResults();
+
+  private ConfigResponseUtil() {
+  }
+
+  /**
+   * @return the gzip compressed body, or null if the body is too small to be compressed
+   */
+  public static byte[] gzip(byte[] body) {
+    if (body.length < GZIP_MIN_SIZE) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(body);
+    } catch (IOException ex) {
+      //never happens with in-memory stream
+      Tracer.logError(ex);
+      return null;
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return true if gzip is accepted explicitly or by the * coding, unless its quality value is 0
+   */
+  public static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    if (Strings.isNullOrEmpty(acceptEncoding)) {
+      return false;
+    }
+    boolean anyEncodingAccepted = false;
+    for (String coding : CODINGS_SPLITTER.split(acceptEncoding)) {
+      Iterator<String> parts = PARAMETERS_SPLITTER.split(coding).iterator();
+      String name = parts.next();
+      if (GZIP.equalsIgnoreCase(name) || X_GZIP.equalsIgnoreCase(name)) {
+        return isAcceptable(parts);
+      }
+      if (ANY_ENCODING.equals(name)) {
+        anyEncodingAccepted = isAcceptable(parts);
+      }
+    }
+    return anyEncodingAccepted;
+  }
+
+  /**
+   * @return false if the quality value is 0 or malformed
+   */
+  private static boolean isAcceptable(Iterator<String> parameters) {
+    while (parameters.hasNext()) {
+      String parameter = parameters.next();
+      if (!parameter.regionMatches(true, 0, "q=", 0, 2)) {
+        continue;
+      }
+      try {
+        return Double.parseDouble(parameter.substring(2).trim()) > 0;
+      } catch (NumberFormatException ex) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The gzip and the identity encoding of the same releases are semantically equivalent, so a weak ETag is used.
+   *
+   * @return the ETag of the release key, or null if the release key is unknown
+   */
+  public static String toETag(String releaseKey) {
+    if (Strings.isNullOrEmpty(releaseKey)) {
+      return null;
+    }
+    return "W/\"" + releaseKey + "\"";
+  }
+
+  /**
+   * @return the headers of the response with the ETag, the shared headers are copied so they are not modified
+   */
+  public static HttpHeaders withETag(HttpHeaders headers, String eTag) {
+    if (eTag == null) {
+      return headers;
+    }
+    HttpHeaders result = new HttpHeaders();
+    result.addAll(headers);
+    result.setETag(eTag);
+    return result;
+  }
+
+  /**
+   * @return the headers of the gzip encoded response
+   */
+  public static HttpHeaders gzipHeaders(HttpHeaders headers) {
+    HttpHeaders result = new HttpHeaders();
+    result.addAll(headers);
+    result.add(HttpHeaders.CONTENT_ENCODING, GZIP);
+    return result;
+  }
+}
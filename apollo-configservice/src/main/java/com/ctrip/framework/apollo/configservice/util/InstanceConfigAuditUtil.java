@@ -21,7 +21,9 @@ import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
@@ -30,80 +32,212 @@ import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
 import com.ctrip.framework.apollo.tracer.Tracer;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Records which release each client instance is using.
+ *
+ * <p>Audits are coalesced by (instance, namespace) while waiting, so a client polling the same namespace many times
+ * is written only once with its latest release. The pending audits are flushed periodically in batches, each batch
+ * is handled by the worker owning its keys, which loads the existing instance configs of a namespace in one query and
+ * saves the changed ones in one transaction.</p>
+ *
  * @author Jason Song(song_s@ctrip.com)
  */
 @Service
-public class InstanceConfigAuditUtil implements InitializingBean {
+public class InstanceConfigAuditUtil implements InitializingBean, MeterBinder {
+  private static final Logger logger = LoggerFactory.getLogger(InstanceConfigAuditUtil.class);
   private static final int INSTANCE_CONFIG_AUDIT_MAX_SIZE = 10000;
+  private static final int INSTANCE_CONFIG_AUDIT_BATCH_SIZE = 100;
+  private static final int INSTANCE_CONFIG_AUDIT_WORKERS = 4;
+  private static final int INSTANCE_CONFIG_AUDIT_WORKER_QUEUE_SIZE = 10;
+  private static final long INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI = 100;
   private static final int INSTANCE_CACHE_MAX_SIZE = 50000;
   private static final int INSTANCE_CONFIG_CACHE_MAX_SIZE = 50000;
   private static final long OFFER_TIME_LAST_MODIFIED_TIME_THRESHOLD_IN_MILLI = TimeUnit.MINUTES.toMillis(10);//10 minutes
   private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+  private final ScheduledExecutorService auditFlushService;
   private final ExecutorService auditExecutorService;
+  private final List<BlockingQueue<List<InstanceConfigAuditModel>>> auditBatches;
   private final AtomicBoolean auditStopped;
-  private BlockingQueue<InstanceConfigAuditModel> audits = Queues.newLinkedBlockingQueue
-      (INSTANCE_CONFIG_AUDIT_MAX_SIZE);
+  private final ConcurrentMap<String, InstanceConfigAuditModel> audits = new ConcurrentHashMap<>();
   private Cache<String, Long> instanceCache;
   private Cache<String, String> instanceConfigReleaseKeyCache;
 
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+  private final Timer flushLatency;
+
   private final InstanceService instanceService;
 
   public InstanceConfigAuditUtil(final InstanceService instanceService) {
     this.instanceService = instanceService;
-    auditExecutorService = Executors.newSingleThreadExecutor(
+    auditFlushService = Executors.newSingleThreadScheduledExecutor(
         ApolloThreadFactory.create("InstanceConfigAuditUtil", true));
+    auditExecutorService = Executors.newFixedThreadPool(INSTANCE_CONFIG_AUDIT_WORKERS,
+        ApolloThreadFactory.create("InstanceConfigAuditWorker", true));
+    auditBatches = Lists.newArrayListWithCapacity(INSTANCE_CONFIG_AUDIT_WORKERS);
+    for (int i = 0; i < INSTANCE_CONFIG_AUDIT_WORKERS; i++) {
+      auditBatches.add(Queues.newLinkedBlockingQueue(INSTANCE_CONFIG_AUDIT_WORKER_QUEUE_SIZE));
+    }
     auditStopped = new AtomicBoolean(false);
     instanceCache = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
         .maximumSize(INSTANCE_CACHE_MAX_SIZE).build();
     instanceConfigReleaseKeyCache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.DAYS)
         .maximumSize(INSTANCE_CONFIG_CACHE_MAX_SIZE).build();
+
+    Gauge.builder("apollo.instance.config.audit.pending", audits, Map::size)
+        .description("coalesced audits waiting to be flushed").register(meterRegistry);
+    FunctionCounter.builder("apollo.instance.config.audit.dropped", dropped, LongAdder::sum)
+        .description("audits dropped as too many audits are pending").register(meterRegistry);
+    FunctionCounter.builder("apollo.instance.config.audit.coalesced", coalesced, LongAdder::sum)
+        .description("audits replaced by a later audit of the same instance and namespace").register(meterRegistry);
+    FunctionCounter.builder("apollo.instance.config.audit.written", written, LongAdder::sum)
+        .description("instance configs created or updated").register(meterRegistry);
+    flushLatency = Timer.builder("apollo.instance.config.audit.flush.latency")
+        .description("time to write one batch of audits").register(meterRegistry);
   }
 
   public boolean audit(String appId, String clusterName, String dataCenter, String
       ip, String configAppId, String configClusterName, String configNamespace, String releaseKey) {
-    return this.audits.offer(new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
-        configAppId, configClusterName, configNamespace, releaseKey));
+    InstanceConfigAuditModel auditModel = new InstanceConfigAuditModel(appId, clusterName, dataCenter, ip,
+        configAppId, configClusterName, configNamespace, releaseKey);
+    String auditKey = assembleAuditKey(auditModel);
+
+    //the size check is not atomic with the put, it's ok to exceed the max size a little under concurrency
+    if (audits.size() >= INSTANCE_CONFIG_AUDIT_MAX_SIZE && !audits.containsKey(auditKey)) {
+      dropped.increment();
+      return false;
+    }
+    if (audits.put(auditKey, auditModel) != null) {
+      coalesced.increment();
+    }
+    return true;
   }
 
-  void doAudit(InstanceConfigAuditModel auditModel) {
-    String instanceCacheKey = assembleInstanceKey(auditModel.getAppId(), auditModel
-        .getClusterName(), auditModel.getIp(), auditModel.getDataCenter());
-    Long instanceId = instanceCache.getIfPresent(instanceCacheKey);
-    if (instanceId == null) {
-      instanceId = prepareInstanceId(auditModel);
-      instanceCache.put(instanceCacheKey, instanceId);
+  /**
+   * Move the pending audits to the workers, audits of the same instance and namespace always go to the same worker, so
+   * they are written in order
+   */
+  void flush() throws InterruptedException {
+    List<List<InstanceConfigAuditModel>> batches = Lists.newArrayListWithCapacity(INSTANCE_CONFIG_AUDIT_WORKERS);
+    for (int i = 0; i < INSTANCE_CONFIG_AUDIT_WORKERS; i++) {
+      batches.add(Lists.newArrayList());
     }
 
-    //load instance config release key from cache, and check if release key is the same
-    String instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
-        .getConfigAppId(), auditModel.getConfigNamespace());
-    String cacheReleaseKey = instanceConfigReleaseKeyCache.getIfPresent(instanceConfigCacheKey);
+    Iterator<String> auditKeys = audits.keySet().iterator();
+    while (auditKeys.hasNext()) {
+      String auditKey = auditKeys.next();
+      InstanceConfigAuditModel auditModel = audits.remove(auditKey);
+      if (auditModel == null) {
+        continue;
+      }
+      int worker = Math.floorMod(auditKey.hashCode(), INSTANCE_CONFIG_AUDIT_WORKERS);
+      List<InstanceConfigAuditModel> batch = batches.get(worker);
+      batch.add(auditModel);
+      if (batch.size() >= INSTANCE_CONFIG_AUDIT_BATCH_SIZE) {
+        //block when the worker falls behind, the audits keep coalescing in the meantime
+        auditBatches.get(worker).put(batch);
+        batches.set(worker, Lists.newArrayList());
+      }
+    }
 
-    //if release key is the same, then skip audit
-    if (cacheReleaseKey != null && Objects.equals(cacheReleaseKey, auditModel.getReleaseKey())) {
-      return;
+    for (int i = 0; i < INSTANCE_CONFIG_AUDIT_WORKERS; i++) {
+      if (!batches.get(i).isEmpty()) {
+        auditBatches.get(i).put(batches.get(i));
+      }
     }
+  }
+
+  void doAudit(List<InstanceConfigAuditModel> auditModels) {
+    long start = System.nanoTime();
+
+    //configAppId+configNamespace -> instanceId -> audit
+    Map<String, Map<Long, InstanceConfigAuditModel>> auditsByNamespace = Maps.newHashMap();
+    for (InstanceConfigAuditModel auditModel : auditModels) {
+      String instanceCacheKey = assembleInstanceKey(auditModel.getAppId(), auditModel
+          .getClusterName(), auditModel.getIp(), auditModel.getDataCenter());
+      Long instanceId = instanceCache.getIfPresent(instanceCacheKey);
+      if (instanceId == null) {
+        instanceId = prepareInstanceId(auditModel);
+        instanceCache.put(instanceCacheKey, instanceId);
+      }
+
+      //load instance config release key from cache, and check if release key is the same
+      String instanceConfigCacheKey = assembleInstanceConfigKey(instanceId, auditModel
+          .getConfigAppId(), auditModel.getConfigNamespace());
+      String cacheReleaseKey = instanceConfigReleaseKeyCache.getIfPresent(instanceConfigCacheKey);
+
+      //if release key is the same, then skip audit
+      if (cacheReleaseKey != null && Objects.equals(cacheReleaseKey, auditModel.getReleaseKey())) {
+        continue;
+      }
 
-    instanceConfigReleaseKeyCache.put(instanceConfigCacheKey, auditModel.getReleaseKey());
+      instanceConfigReleaseKeyCache.put(instanceConfigCacheKey, auditModel.getReleaseKey());
+
+      auditsByNamespace.computeIfAbsent(STRING_JOINER.join(auditModel.getConfigAppId(),
+          auditModel.getConfigNamespace()), key -> Maps.newHashMap()).put(instanceId, auditModel);
+    }
 
     //if release key is not the same or cannot find in cache, then do audit
-    InstanceConfig instanceConfig = instanceService.findInstanceConfig(instanceId, auditModel
-        .getConfigAppId(), auditModel.getConfigNamespace());
+    List<InstanceConfig> instanceConfigs = Lists.newArrayList();
+    for (Map<Long, InstanceConfigAuditModel> namespaceAudits : auditsByNamespace.values()) {
+      InstanceConfigAuditModel someAuditModel = namespaceAudits.values().iterator().next();
+      Map<Long, InstanceConfig> existedInstanceConfigs = Maps.newHashMap();
+      for (InstanceConfig instanceConfig : instanceService.findInstanceConfigs(someAuditModel.getConfigAppId(),
+          someAuditModel.getConfigNamespace(), namespaceAudits.keySet())) {
+        existedInstanceConfigs.put(instanceConfig.getInstanceId(), instanceConfig);
+      }
 
+      for (Map.Entry<Long, InstanceConfigAuditModel> entry : namespaceAudits.entrySet()) {
+        InstanceConfig instanceConfig = prepareInstanceConfig(entry.getKey(), entry.getValue(),
+            existedInstanceConfigs.get(entry.getKey()));
+        if (instanceConfig != null) {
+          instanceConfigs.add(instanceConfig);
+        }
+      }
+    }
+
+    if (!instanceConfigs.isEmpty()) {
+      saveInstanceConfigs(instanceConfigs);
+    }
+
+    flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the instance config to save, or null if there is no need to write
+   */
+  private InstanceConfig prepareInstanceConfig(long instanceId, InstanceConfigAuditModel auditModel,
+                                               InstanceConfig instanceConfig) {
     if (instanceConfig != null) {
       if (!Objects.equals(instanceConfig.getReleaseKey(), auditModel.getReleaseKey())) {
         instanceConfig.setConfigClusterName(auditModel.getConfigClusterName());
@@ -112,13 +246,12 @@ public class InstanceConfigAuditUtil implements InitializingBean {
       } else if (offerTimeAndLastModifiedTimeCloseEnough(auditModel.getOfferTime(),
           instanceConfig.getDataChangeLastModifiedTime())) {
         //when releaseKey is the same, optimize to reduce writes if the record was updated not long ago
-        return;
+        return null;
       }
       //we need to update no matter the release key is the same or not, to ensure the
       //last modified time is updated each day
       instanceConfig.setDataChangeLastModifiedTime(auditModel.getOfferTime());
-      instanceService.updateInstanceConfig(instanceConfig);
-      return;
+      return instanceConfig;
     }
 
     instanceConfig = new InstanceConfig();
@@ -129,11 +262,40 @@ public class InstanceConfigAuditUtil implements InitializingBean {
     instanceConfig.setReleaseKey(auditModel.getReleaseKey());
     instanceConfig.setReleaseDeliveryTime(auditModel.getOfferTime());
     instanceConfig.setDataChangeCreatedTime(auditModel.getOfferTime());
+    return instanceConfig;
+  }
+
+  private void saveInstanceConfigs(List<InstanceConfig> instanceConfigs) {
+    //the ids assigned by the batch save are kept after it's rolled back, so the new ones are recorded beforehand
+    Set<InstanceConfig> newInstanceConfigs = Sets.newIdentityHashSet();
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      if (instanceConfig.getId() == 0) {
+        newInstanceConfigs.add(instanceConfig);
+      }
+    }
 
     try {
-      instanceService.createInstanceConfig(instanceConfig);
+      instanceService.batchSaveInstanceConfigs(instanceConfigs);
+      written.add(instanceConfigs.size());
+      return;
     } catch (DataIntegrityViolationException ex) {
-      //concurrent insertion, safe to ignore
+      //concurrent insertion by other config service instances, save one by one to skip the conflicts
+      logger.debug("Batch save instance configs failed, fallback to save one by one", ex);
+    }
+
+    for (InstanceConfig instanceConfig : instanceConfigs) {
+      try {
+        if (newInstanceConfigs.contains(instanceConfig)) {
+          instanceService.createInstanceConfig(instanceConfig);
+        } else {
+          instanceService.updateInstanceConfig(instanceConfig);
+        }
+        written.increment();
+      } catch (DataIntegrityViolationException | IllegalArgumentException ex) {
+        //concurrent insertion or deletion, audit it again next time
+        instanceConfigReleaseKeyCache.invalidate(assembleInstanceConfigKey(instanceConfig.getInstanceId(),
+            instanceConfig.getConfigAppId(), instanceConfig.getConfigNamespaceName()));
+      }
     }
   }
 
@@ -166,16 +328,36 @@ public class InstanceConfigAuditUtil implements InitializingBean {
 
   @Override
   public void afterPropertiesSet() throws Exception {
-    auditExecutorService.submit(() -> {
-      while (!auditStopped.get() && !Thread.currentThread().isInterrupted()) {
-        try {
-          InstanceConfigAuditModel model = audits.take();
-          doAudit(model);
-        } catch (Throwable ex) {
-          Tracer.logError(ex);
-        }
+    auditFlushService.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (Throwable ex) {
+        Tracer.logError(ex);
       }
-    });
+    }, INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI, INSTANCE_CONFIG_AUDIT_FLUSH_INTERVAL_IN_MILLI,
+        TimeUnit.MILLISECONDS);
+
+    for (BlockingQueue<List<InstanceConfigAuditModel>> batches : auditBatches) {
+      auditExecutorService.submit(() -> {
+        while (!auditStopped.get() && !Thread.currentThread().isInterrupted()) {
+          try {
+            doAudit(batches.take());
+          } catch (Throwable ex) {
+            Tracer.logError(ex);
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    meterRegistry.add(registry);
+  }
+
+  private String assembleAuditKey(InstanceConfigAuditModel auditModel) {
+    return STRING_JOINER.join(assembleInstanceKey(auditModel.getAppId(), auditModel.getClusterName(),
+        auditModel.getIp(), auditModel.getDataCenter()), auditModel.getConfigAppId(), auditModel.getConfigNamespace());
   }
 
   private String assembleInstanceKey(String appId, String cluster, String ip, String datacenter) {
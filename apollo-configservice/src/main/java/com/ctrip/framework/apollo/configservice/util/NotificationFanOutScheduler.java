@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.base.Joiner;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Notifies the long polling clients of a release message.
+ *
+ * <p>Fan-outs no larger than {@link BizConfig#releaseMessageNotificationBatch()} are completed on the calling thread.
+ * Larger ones are split into batches which are executed by a worker pool, each key is paced by
+ * {@link BizConfig#releaseMessageNotificationBatchIntervalInMilli()} between its batches, and the fan-out with
+ * the fewest remaining clients always goes first, so a release of a hot public namespace never delays the
+ * notification of unrelated namespaces.</p>
+ *
+ * <p>A key of a source has at most one pending fan-out, a new release message of the key replaces the clients and
+ * the notifier of the pending fan-out, which keeps its pace, so back-to-back releases don't speed up the notification
+ * of the key.</p>
+ */
+@Component
+public class NotificationFanOutScheduler implements MeterBinder {
+  private static final Logger logger = LoggerFactory.getLogger(NotificationFanOutScheduler.class);
+  private static final Joiner STRING_JOINER = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR);
+
+  private final BizConfig bizConfig;
+  private final ThreadPoolExecutor workers;
+  private final ScheduledExecutorService pacer;
+  private final ConcurrentMap<String, FanOut<?>> pendingFanOutsByKey = new ConcurrentHashMap<>();
+  private final AtomicLong fanOutSequence = new AtomicLong();
+  private final AtomicInteger pendingFanOuts = new AtomicInteger();
+  private final AtomicLong pendingTargets = new AtomicLong();
+
+  private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
+  private final Timer notifyLatency;
+
+  public NotificationFanOutScheduler(final BizConfig bizConfig) {
+    this.bizConfig = bizConfig;
+    int workerSize = bizConfig.releaseMessageNotificationWorkers();
+    //tasks are ordered by the remaining clients of their fan-out, so only FanOut could be executed
+    workers = new ThreadPoolExecutor(workerSize, workerSize, 0L, TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<>(), ApolloThreadFactory.create("NotificationFanOutScheduler", true));
+    pacer = new ScheduledThreadPoolExecutor(1, ApolloThreadFactory.create("NotificationFanOutPacer", true));
+
+    Gauge.builder("apollo.notification.fanout.pending", pendingFanOuts, AtomicInteger::get)
+        .description("fan-outs waiting for or being executed by the workers").register(meterRegistry);
+    Gauge.builder("apollo.notification.fanout.pending.clients", pendingTargets, AtomicLong::get)
+        .description("clients waiting to be notified").register(meterRegistry);
+    Gauge.builder("apollo.notification.fanout.queue.size", workers, executor -> executor.getQueue().size())
+        .description("fan-out batches ready to run").register(meterRegistry);
+    notifyLatency = Timer.builder("apollo.notification.fanout.latency")
+        .description("time from receiving the release message to the last client notified")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @param source the kind of the clients, e.g. the long polling requests or the websocket sessions, the clients of a
+   *               key are replaced by the ones of the same source only
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void dispatch(String source, String key, List<T> targets, Consumer<T> notifier) {
+    if (targets.isEmpty()) {
+      return;
+    }
+
+    String pendingKey = STRING_JOINER.join(source, key);
+    FanOut<T> existing = (FanOut<T>) pendingFanOutsByKey.get(pendingKey);
+    if (existing != null && existing.replace(targets, notifier)) {
+      logger.debug("Replace pending notification of key {} with {} clients", key, targets.size());
+      return;
+    }
+
+    FanOut<T> fanOut = new FanOut<>(pendingKey, targets, notifier);
+
+    if (targets.size() <= bizConfig.releaseMessageNotificationBatch()) {
+      logger.debug("Notify {} clients for key {}", targets.size(), key);
+      fanOut.notifyBatch(targets.size());
+      return;
+    }
+
+    logger.debug("Async notify {} clients for key {} with batch {}", targets.size(), key,
+        bizConfig.releaseMessageNotificationBatch());
+    pendingFanOuts.incrementAndGet();
+    pendingTargets.addAndGet(targets.size());
+    //the release messages are dispatched by the release message scanner thread one by one
+    pendingFanOutsByKey.put(pendingKey, fanOut);
+    fanOut.submit();
+  }
+
+  public int pendingFanOuts() {
+    return pendingFanOuts.get();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    meterRegistry.add(registry);
+  }
+
+  private class FanOut<T> implements Runnable, Comparable<FanOut<?>> {
+    private final String key;
+    private final long sequence;
+    private final long startNanos;
+    private List<T> targets;
+    private Consumer<T> notifier;
+    private int offset;
+    private boolean completed;
+    //the remaining clients when submitted, so the order in the queue doesn't change by a replacement
+    private volatile int priority;
+
+    FanOut(String key, List<T> targets, Consumer<T> notifier) {
+      this.key = key;
+      this.targets = targets;
+      this.notifier = notifier;
+      this.sequence = fanOutSequence.getAndIncrement();
+      this.startNanos = System.nanoTime();
+    }
+
+    void submit() {
+      priority = remaining();
+      workers.execute(this);
+    }
+
+    /**
+     * @return false if the fan-out is already completed
+     */
+    synchronized boolean replace(List<T> targets, Consumer<T> notifier) {
+      if (completed) {
+        return false;
+      }
+      pendingTargets.addAndGet(targets.size() - remaining());
+      this.targets = targets;
+      this.notifier = notifier;
+      this.offset = 0;
+      return true;
+    }
+
+    @Override
+    public void run() {
+      int notified = notifyBatch(bizConfig.releaseMessageNotificationBatch());
+      pendingTargets.addAndGet(-notified);
+
+      synchronized (this) {
+        if (remaining() > 0) {
+          pacer.schedule(this::submit, bizConfig.releaseMessageNotificationBatchIntervalInMilli(),
+              TimeUnit.MILLISECONDS);
+          return;
+        }
+        completed = true;
+      }
+
+      pendingFanOutsByKey.remove(key, this);
+      pendingFanOuts.decrementAndGet();
+      logger.debug("Async notification completed for key {}", key);
+    }
+
+    int notifyBatch(int batch) {
+      List<T> batchTargets;
+      Consumer<T> batchNotifier;
+      synchronized (this) {
+        int end = Math.min(offset + batch, targets.size());
+        batchTargets = targets.subList(offset, end);
+        batchNotifier = notifier;
+        offset = end;
+      }
+      for (T target : batchTargets) {
+        try {
+          batchNotifier.accept(target);
+        } catch (Throwable ex) {
+          logger.error("Notify {} for key {} failed", target, key, ex);
+          Tracer.logError(ex);
+        }
+      }
+      if (remaining() == 0) {
+        notifyLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      }
+      return batchTargets.size();
+    }
+
+    synchronized int remaining() {
+      return targets.size() - offset;
+    }
+
+    @Override
+    public int compareTo(FanOut<?> other) {
+      int result = Integer.compare(priority, other.priority);
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watch key to long polling request index used by the notification controllers.
+ *
+ * <p>Keys are case insensitive, they are lower-cased once when entering the registry and then spread to independent
+ * segments, so register, unregister and notify on different keys never contend with each other.</p>
+ */
+public class DeferredResultRegistry<T> implements MeterBinder {
+  private static final int DEFAULT_SEGMENTS = 64;
+
+  private final ConcurrentMap<String, Set<T>>[] segments;
+  private final int segmentMask;
+  private final String metricPrefix;
+
+  private final LongAdder registrations = new LongAdder();
+  private final LongAdder registered = new LongAdder();
+  private final LongAdder unregistered = new LongAdder();
+  private final LongAdder lookups = new LongAdder();
+
+  public DeferredResultRegistry(String metricPrefix) {
+    this(metricPrefix, DEFAULT_SEGMENTS);
+  }
+
+  @SuppressWarnings("unchecked")
+  public DeferredResultRegistry(String metricPrefix, int segments) {
+    Preconditions.checkArgument(segments > 0 && (segments & (segments - 1)) == 0,
+        "segments must be a power of 2");
+    this.metricPrefix = metricPrefix;
+    this.segments = new ConcurrentMap[segments];
+    for (int i = 0; i < segments; i++) {
+      this.segments[i] = new ConcurrentHashMap<>();
+    }
+    this.segmentMask = segments - 1;
+  }
+
+  /**
+   * @return true if the value is newly registered for the key
+   */
+  public boolean register(String key, T value) {
+    String normalizedKey = normalize(key);
+    boolean[] added = new boolean[1];
+    segmentFor(normalizedKey).compute(normalizedKey, (k, values) -> {
+      if (values == null) {
+        values = ConcurrentHashMap.newKeySet();
+      }
+      added[0] = values.add(value);
+      return values;
+    });
+    if (added[0]) {
+      registrations.increment();
+      registered.increment();
+    }
+    return added[0];
+  }
+
+  /**
+   * @return true if the value was registered for the key
+   */
+  public boolean unregister(String key, T value) {
+    String normalizedKey = normalize(key);
+    boolean[] removed = new boolean[1];
+    //drop the value set together with its last value, so empty keys don't pile up after mass timeouts
+    segmentFor(normalizedKey).computeIfPresent(normalizedKey, (k, values) -> {
+      removed[0] = values.remove(value);
+      return values.isEmpty() ? null : values;
+    });
+    if (removed[0]) {
+      registrations.decrement();
+      unregistered.increment();
+    }
+    return removed[0];
+  }
+
+  /**
+   * @return a snapshot of the values registered for the key, never null
+   */
+  public List<T> get(String key) {
+    lookups.increment();
+    String normalizedKey = normalize(key);
+    Set<T> values = segmentFor(normalizedKey).get(normalizedKey);
+    if (values == null) {
+      return Collections.emptyList();
+    }
+    return Lists.newArrayList(values);
+  }
+
+  public boolean containsKey(String key) {
+    String normalizedKey = normalize(key);
+    return segmentFor(normalizedKey).containsKey(normalizedKey);
+  }
+
+  /**
+   * @return the number of (key, value) registrations
+   */
+  public long size() {
+    return registrations.sum();
+  }
+
+  public long keySize() {
+    long keys = 0;
+    for (ConcurrentMap<String, Set<T>> segment : segments) {
+      keys += segment.size();
+    }
+    return keys;
+  }
+
+  /**
+   * The key count of the most crowded segment, a high value compared to keySize / segments means the watch keys are
+   * not spread well and the registrations of that segment are contending with each other
+   */
+  public long maxSegmentKeySize() {
+    long max = 0;
+    for (ConcurrentMap<String, Set<T>> segment : segments) {
+      max = Math.max(max, segment.size());
+    }
+    return max;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder(metricPrefix + ".registrations", this, DeferredResultRegistry::size)
+        .description("registered (watch key, long polling request) pairs").register(registry);
+    Gauge.builder(metricPrefix + ".keys", this, DeferredResultRegistry::keySize)
+        .description("watch keys with at least one long polling request").register(registry);
+    Gauge.builder(metricPrefix + ".segment.keys.max", this, DeferredResultRegistry::maxSegmentKeySize)
+        .description("watch keys held by the most crowded segment").register(registry);
+    FunctionCounter.builder(metricPrefix + ".registered", registered, LongAdder::sum).register(registry);
+    FunctionCounter.builder(metricPrefix + ".unregistered", unregistered, LongAdder::sum).register(registry);
+    FunctionCounter.builder(metricPrefix + ".lookups", lookups, LongAdder::sum).register(registry);
+  }
+
+  private ConcurrentMap<String, Set<T>> segmentFor(String normalizedKey) {
+    int hash = normalizedKey.hashCode();
+    //spread the higher bits as the segment count is small
+    hash ^= (hash >>> 16);
+    return segments[hash & segmentMask];
+  }
+
+  private static String normalize(String key) {
+    return key.toLowerCase();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigMultiplexedNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigSubscription;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A multiplexed long polling request, which watches the namespaces of many appIds and clusters and is completed with
+ * the changed configs.
+ */
+public class MultiplexedDeferredResultWrapper {
+  private static final ResponseEntity<List<ApolloConfigMultiplexedNotification>>
+      NOT_MODIFIED_RESPONSE_LIST = new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+
+  private final Multimap<String, ApolloConfigSubscription> watchedKeyToSubscriptions;
+  private final String dataCenter;
+  private final String clientIp;
+  private final AtomicBoolean completing = new AtomicBoolean();
+  private final DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> result;
+
+  /**
+   * @param watchedKeyToSubscriptions the subscriptions of each watched key, the subscription has the original namespace
+   * name of the client side
+   */
+  public MultiplexedDeferredResultWrapper(long timeoutInMilli,
+                                          Multimap<String, ApolloConfigSubscription> watchedKeyToSubscriptions,
+                                          String dataCenter, String clientIp) {
+    ImmutableListMultimap.Builder<String, ApolloConfigSubscription> builder = ImmutableListMultimap.builder();
+    //watched keys are case insensitive, same as the registry
+    for (Map.Entry<String, ApolloConfigSubscription> entry : watchedKeyToSubscriptions.entries()) {
+      builder.put(entry.getKey().toLowerCase(), entry.getValue());
+    }
+    this.watchedKeyToSubscriptions = builder.build();
+    this.dataCenter = dataCenter;
+    this.clientIp = clientIp;
+    this.result = new DeferredResult<>(timeoutInMilli, NOT_MODIFIED_RESPONSE_LIST);
+  }
+
+  public Collection<ApolloConfigSubscription> getSubscriptions(String watchedKey) {
+    return watchedKeyToSubscriptions.get(watchedKey.toLowerCase());
+  }
+
+  public String getDataCenter() {
+    return dataCenter;
+  }
+
+  public String getClientIp() {
+    return clientIp;
+  }
+
+  /**
+   * Only the first change is completed with its configs, the changes happened in the meantime are returned when the
+   * client polls again as the client side notification ids are still behind.
+   *
+   * @return true if the caller should load the configs and complete the request
+   */
+  public boolean tryStartCompleting() {
+    return !result.isSetOrExpired() && completing.compareAndSet(false, true);
+  }
+
+  public void onTimeout(Runnable timeoutCallback) {
+    result.onTimeout(timeoutCallback);
+  }
+
+  public void onCompletion(Runnable completionCallback) {
+    result.onCompletion(completionCallback);
+  }
+
+  public void setResult(List<ApolloConfigMultiplexedNotification> notifications) {
+    result.setResult(new ResponseEntity<>(notifications, HttpStatus.OK));
+  }
+
+  public DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> getResult() {
+    return result;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A client connected to the notification websocket, which watches the namespaces of one appId and cluster until the
+ * connection is closed.
+ */
+public class WebsocketSubscriber {
+  private static final Logger logger = LoggerFactory.getLogger(WebsocketSubscriber.class);
+  private static final Gson GSON = new Gson();
+
+  private final Session session;
+  private final String appId;
+  private final String cluster;
+  private final String dataCenter;
+  private volatile SetMultimap<String, String> watchedKeyToNamespaces = ImmutableSetMultimap.of();
+  private boolean closed;
+
+  public WebsocketSubscriber(Session session, String appId, String cluster, String dataCenter) {
+    this.session = session;
+    this.appId = appId;
+    this.cluster = cluster;
+    this.dataCenter = dataCenter;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public String getCluster() {
+    return cluster;
+  }
+
+  public String getDataCenter() {
+    return dataCenter;
+  }
+
+  public Set<String> getWatchedKeys() {
+    return watchedKeyToNamespaces.keySet();
+  }
+
+  /**
+   * Replaces the watched keys, the caller should hold the lock of this subscriber so the registry is updated in the
+   * same order
+   *
+   * @param watchedKeyToNamespaces the client side namespace names of each watched key
+   * @return false if the subscriber is already closed and should not be registered
+   */
+  public boolean watch(SetMultimap<String, String> watchedKeyToNamespaces) {
+    if (closed) {
+      return false;
+    }
+    ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+    //watched keys are case insensitive, same as the registry
+    for (Map.Entry<String, String> entry : watchedKeyToNamespaces.entries()) {
+      builder.put(entry.getKey().toLowerCase(), entry.getValue());
+    }
+    this.watchedKeyToNamespaces = builder.build();
+    return true;
+  }
+
+  /**
+   * Marks the subscriber closed, the caller should hold the lock of this subscriber
+   *
+   * @return the keys to unregister
+   */
+  public Set<String> close() {
+    closed = true;
+    return watchedKeyToNamespaces.keySet();
+  }
+
+  /**
+   * Pushes the release message to the namespaces watching it
+   */
+  public void notify(String watchedKey, long notificationId) {
+    Collection<String> namespaces = watchedKeyToNamespaces.get(watchedKey.toLowerCase());
+    if (namespaces.isEmpty()) {
+      return;
+    }
+    List<ApolloConfigNotification> notifications = Lists.newArrayListWithCapacity(namespaces.size());
+    for (String namespace : namespaces) {
+      ApolloConfigNotification notification = new ApolloConfigNotification(namespace, notificationId);
+      notification.addMessage(watchedKey, notificationId);
+      notifications.add(notification);
+    }
+    send(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.NOTIFY, notifications));
+  }
+
+  /**
+   * Sends the message and closes the connection if it could not be delivered, the client will resume from its latest
+   * notification ids after reconnecting
+   */
+  public void send(ApolloNotificationWebsocketMessage message) {
+    String text = GSON.toJson(message);
+    //the basic remote doesn't allow concurrent sending
+    synchronized (session) {
+      if (!session.isOpen()) {
+        return;
+      }
+      try {
+        session.getBasicRemote().sendText(text);
+      } catch (IOException | RuntimeException ex) {
+        logger.debug("Send {} to {} failed", message.getType(), this, ex);
+        close(session, new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "Send failed"));
+      }
+    }
+  }
+
+  public static void close(Session session, CloseReason reason) {
+    try {
+      session.close(reason);
+    } catch (IOException | RuntimeException ex) {
+      logger.debug("Close websocket session {} failed", session.getId(), ex);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "WebsocketSubscriber{" +
+        "appId='" + appId + '\'' +
+        ", cluster='" + cluster + '\'' +
+        ", dataCenter='" + dataCenter + '\'' +
+        ", session=" + session.getId() +
+        '}';
+  }
+}
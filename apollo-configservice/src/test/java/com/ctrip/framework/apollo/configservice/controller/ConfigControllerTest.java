@@ -16,8 +16,13 @@
  */
 package com.ctrip.framework.apollo.configservice.controller;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.common.entity.AppNamespace;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
 import com.ctrip.framework.apollo.configservice.service.AppNamespaceServiceWithCache;
 import com.ctrip.framework.apollo.configservice.service.config.ConfigService;
 import com.ctrip.framework.apollo.configservice.util.InstanceConfigAuditUtil;
@@ -25,9 +30,16 @@ import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
 import com.ctrip.framework.apollo.core.ConfigConsts;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.ctrip.framework.apollo.core.dto.ConfigurationChange;
+import com.ctrip.framework.apollo.core.enums.ConfigSyncType;
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import org.junit.Before;
@@ -35,13 +47,25 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -73,13 +97,17 @@ public class ConfigControllerTest {
   @Mock
   private InstanceConfigAuditUtil instanceConfigAuditUtil;
   @Mock
+  private ReleaseService releaseService;
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
   private HttpServletRequest someRequest;
   private Gson gson = new Gson();
 
   @Before
   public void setUp() throws Exception {
     configController = spy(new ConfigController(
-        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, gson
+        configService, appNamespaceService, namespaceUtil, instanceConfigAuditUtil, releaseService, bizConfig, gson
     ));
 
     someAppId = "1";
@@ -441,6 +469,264 @@ public class ConfigControllerTest {
     assertEquals("foo", result.getConfigurations().get("apollo.public.bar"));
   }
 
+  @Test
+  public void testQueryConfigReusesResponseOfSameReleases() throws Exception {
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getId()).thenReturn(1L);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ApolloConfig result = configController.queryConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, someRequest, someResponse);
+    ApolloConfig anotherResult = configController.queryConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, someRequest, someResponse);
+
+    //the cached config is shared, the callers get their own copies
+    assertNotSame(result, anotherResult);
+    assertSame(result.getConfigurations(), anotherResult.getConfigurations());
+    verify(configController, times(1)).mergeReleaseConfigurations(anyList());
+
+    result.setReleaseKey("someModifiedReleaseKey");
+    ApolloConfig cachedResult = configController.queryConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, someRequest, someResponse);
+    assertEquals(someServerSideReleaseKey, cachedResult.getReleaseKey());
+    verify(instanceConfigAuditUtil, times(3)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideReleaseKey);
+
+    ReleaseMessage someMessage = new ReleaseMessage(
+        Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).join(someAppId, someClusterName, defaultNamespaceName));
+    configController.handleMessage(someMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    ApolloConfig yetAnotherResult = configController.queryConfig(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, someRequest, someResponse);
+
+    assertNotSame(result.getConfigurations(), yetAnotherResult.getConfigurations());
+    assertEquals(result.getConfigurations(), yetAnotherResult.getConfigurations());
+    verify(configController, times(2)).mergeReleaseConfigurations(anyList());
+  }
+
+  @Test
+  public void testQueryConfigAsResponse() throws Exception {
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    String someLargeConfiguration = gson.toJson(ImmutableMap.of("someKey", Strings.repeat("someValue", 200)));
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRelease.getConfigurations()).thenReturn(someLargeConfiguration);
+
+    ResponseEntity<byte[]> plainResponse = configController.queryConfigAsResponse(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+    ResponseEntity<byte[]> gzipResponse = configController.queryConfigAsResponse(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, "-1", someClientIp, someMessagesAsString, false, someRequest, someResponse);
+
+    ApolloConfig plainResult = gson.fromJson(new String(plainResponse.getBody(), StandardCharsets.UTF_8),
+        ApolloConfig.class);
+    assertNull(plainResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(someServerSideReleaseKey, plainResult.getReleaseKey());
+    assertEquals(Strings.repeat("someValue", 200), plainResult.getConfigurations().get("someKey"));
+
+    assertEquals("gzip", gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertTrue(gzipResponse.getBody().length < plainResponse.getBody().length);
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipResponse.getBody()))) {
+      assertArrayEquals(plainResponse.getBody(), ByteStreams.toByteArray(in));
+    }
+
+    //both encodings are tagged with the release key
+    assertEquals("W/\"" + someServerSideReleaseKey + "\"", plainResponse.getHeaders().getETag());
+    assertEquals(plainResponse.getHeaders().getETag(), gzipResponse.getHeaders().getETag());
+  }
+
+  @Test
+  public void testQueryConfigs() throws Exception {
+    String someServerSideReleaseKey = "2";
+    String someAppOwnNamespaceName = "someAppOwn";
+    String someAppOwnReleaseKey = "3";
+    String someMissingNamespaceName = "someMissing";
+    Release someAppOwnRelease = mock(Release.class);
+    AppNamespace someAppOwnNamespace = assembleAppNamespace(someAppId, someAppOwnNamespaceName, false);
+
+    when(namespaceUtil.filterNamespaceName(someAppOwnNamespaceName)).thenReturn(someAppOwnNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someAppOwnNamespaceName)).thenReturn(someAppOwnNamespaceName);
+    when(namespaceUtil.filterNamespaceName(someMissingNamespaceName)).thenReturn(someMissingNamespaceName);
+    when(namespaceUtil.normalizeNamespace(someAppId, someMissingNamespaceName)).thenReturn(someMissingNamespaceName);
+    when(appNamespaceService.findByAppIdAndNamespace(someAppId, someAppOwnNamespaceName))
+        .thenReturn(someAppOwnNamespace);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, someAppOwnNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someAppOwnRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someAppOwnRelease.getReleaseKey()).thenReturn(someAppOwnReleaseKey);
+
+    Map<String, String> releaseKeys = ImmutableMap.of(defaultNamespaceName, "1",
+        someAppOwnNamespaceName, someAppOwnReleaseKey, someMissingNamespaceName, "-1");
+    ResponseEntity<byte[]> response = configController.queryConfigs(someAppId, someClusterName,
+        gson.toJson(releaseKeys), someDataCenter, someClientIp, someMessagesAsString, someRequest);
+
+    ApolloConfig[] result = gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8),
+        ApolloConfig[].class);
+    assertEquals(1, result.length);
+    assertEquals(defaultNamespaceName, result[0].getNamespaceName());
+    assertEquals(someServerSideReleaseKey, result[0].getReleaseKey());
+    assertEquals("foo", result[0].getConfigurations().get("apollo.bar"));
+    verify(instanceConfigAuditUtil, times(1)).audit(someAppId, someClusterName, someDataCenter,
+        someClientIp, someAppId, someClusterName, defaultNamespaceName, someServerSideReleaseKey);
+  }
+
+  @Test
+  public void testQueryConfigsWithNothingChanged() throws Exception {
+    String someServerSideReleaseKey = "2";
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+
+    ResponseEntity<byte[]> response = configController.queryConfigs(someAppId, someClusterName,
+        gson.toJson(ImmutableMap.of(defaultNamespaceName, someServerSideReleaseKey)), someDataCenter,
+        someClientIp, someMessagesAsString, someRequest);
+
+    assertEquals("[]", new String(response.getBody(), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testQueryConfigsWithInvalidReleaseKeys() throws Exception {
+    configController.queryConfigs(someAppId, someClusterName, "invalid", someDataCenter, someClientIp,
+        someMessagesAsString, someRequest);
+  }
+
+  @Test
+  public void testQueryConfigIncremental() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    Release someClientSideRelease = new Release();
+    someClientSideRelease.setAppId(someAppId);
+    someClientSideRelease.setNamespaceName(defaultNamespaceName);
+    someClientSideRelease.setReleaseKey(someClientSideReleaseKey);
+    someClientSideRelease.setConfigurations(gson.toJson(ImmutableMap.of("apollo.bar", "foo", "apollo.foo", "bar",
+        "apollo.deleted", "deleted", "apollo.modified", "old")));
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(someRelease.getConfigurations()).thenReturn(gson.toJson(ImmutableMap.of("apollo.bar", "foo",
+        "apollo.foo", "bar", "apollo.modified", "new", "apollo.added", "added")));
+    when(releaseService.findByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey)))
+        .thenReturn(Lists.newArrayList(someClientSideRelease));
+    when(bizConfig.isConfigServiceIncrementalChangeEnabled()).thenReturn(true);
+
+    ResponseEntity<byte[]> response = configController.queryConfigAsResponse(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey, someClientIp, someMessagesAsString, true,
+        someRequest, someResponse);
+    configController.queryConfigAsResponse(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), ApolloConfig.class);
+    Map<String, ConfigurationChange> changes = result.getConfigurationChanges().stream()
+        .collect(Collectors.toMap(ConfigurationChange::getKey, Function.identity()));
+
+    assertEquals(someServerSideReleaseKey, result.getReleaseKey());
+    assertEquals(ConfigSyncType.INCREMENTAL_SYNC.getValue(), result.getConfigSyncType());
+    assertNull(result.getConfigurations());
+    assertEquals(3, changes.size());
+    assertEquals(ConfigurationChangeType.ADDED, changes.get("apollo.added").getConfigurationChangeType());
+    assertEquals("added", changes.get("apollo.added").getNewValue());
+    assertEquals(ConfigurationChangeType.MODIFIED, changes.get("apollo.modified").getConfigurationChangeType());
+    assertEquals("new", changes.get("apollo.modified").getNewValue());
+    assertEquals(ConfigurationChangeType.DELETED, changes.get("apollo.deleted").getConfigurationChangeType());
+    assertNull(changes.get("apollo.deleted").getNewValue());
+    verify(releaseService, times(1)).findByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testQueryConfigIncrementalWithUnknownClientSideRelease() throws Exception {
+    String someClientSideReleaseKey = "1";
+    String someServerSideReleaseKey = "2";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn(someServerSideReleaseKey);
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(bizConfig.isConfigServiceIncrementalChangeEnabled()).thenReturn(true);
+
+    ResponseEntity<byte[]> response = configController.queryConfigAsResponse(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey, someClientIp, someMessagesAsString, true,
+        someRequest, someResponse);
+    configController.queryConfigAsResponse(someAppId, someClusterName, defaultNamespaceName, someDataCenter,
+        someClientSideReleaseKey, someClientIp, someMessagesAsString, true, someRequest, someResponse);
+
+    ApolloConfig result = gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), ApolloConfig.class);
+
+    assertNull(result.getConfigSyncType());
+    assertNull(result.getConfigurationChanges());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    verify(releaseService, times(1)).findByReleaseKeys(Sets.newHashSet(someClientSideReleaseKey));
+  }
+
+  @Test
+  public void testQueryConfigIncrementalWithManyUnknownClientSideReleases() throws Exception {
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+    Cache<String, ?> responseCache = (Cache<String, ?>) ReflectionTestUtils.getField(configController,
+        "responseCache");
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn("someServerSideReleaseKey");
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+    when(bizConfig.isConfigServiceIncrementalChangeEnabled()).thenReturn(true);
+
+    ResponseEntity<byte[]> response = null;
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 2; j++) {
+        ResponseEntity<byte[]> anotherResponse = configController.queryConfigAsResponse(someAppId, someClusterName,
+            defaultNamespaceName, someDataCenter, "someUnknownReleaseKey" + i, someClientIp, someMessagesAsString,
+            true, someRequest, someResponse);
+        if (response != null) {
+          //the full response is shared
+          assertSame(response.getBody(), anotherResponse.getBody());
+        }
+        response = anotherResponse;
+      }
+    }
+
+    //only the full response is cached
+    assertEquals(1, responseCache.size());
+    verify(releaseService, times(10)).findByReleaseKeys(anySet());
+  }
+
+  @Test
+  public void testQueryConfigIncrementalDisabled() throws Exception {
+    String someClientSideReleaseKey = "1";
+    HttpServletResponse someResponse = mock(HttpServletResponse.class);
+
+    when(configService.loadConfig(someAppId, someClientIp, someAppId, someClusterName, defaultNamespaceName,
+        someDataCenter, someNotificationMessages)).thenReturn(someRelease);
+    when(someRelease.getReleaseKey()).thenReturn("2");
+    when(someRelease.getNamespaceName()).thenReturn(defaultNamespaceName);
+
+    ResponseEntity<byte[]> response = configController.queryConfigAsResponse(someAppId, someClusterName,
+        defaultNamespaceName, someDataCenter, someClientSideReleaseKey, someClientIp, someMessagesAsString, true,
+        someRequest, someResponse);
+
+    ApolloConfig result = gson.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), ApolloConfig.class);
+
+    assertNull(result.getConfigSyncType());
+    assertEquals("foo", result.getConfigurations().get("apollo.bar"));
+    verify(releaseService, never()).findByReleaseKeys(anySet());
+  }
+
   @Test
   public void testTransformMessages() throws Exception {
     String someKey = "someKey";
@@ -24,14 +24,18 @@ import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
 import com.ctrip.framework.apollo.core.dto.ApolloConfig;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Before;
@@ -39,14 +43,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -70,38 +77,37 @@ public class ConfigFileControllerTest {
   private String someNamespace;
   private String someDataCenter;
   private String someClientIp;
+  private String someReleaseKey;
   @Mock
   private HttpServletResponse someResponse;
   @Mock
   private HttpServletRequest someRequest;
-  Multimap<String, String> watchedKeys2CacheKey;
-  Multimap<String, String> cacheKey2WatchedKeys;
+  ConcurrentMap<String, Set<String>> watchedKeys2CacheKey;
+  Cache<String, ConfigFileController.ConfigFileResponse> localCache;
 
   private static final Gson GSON = new Gson();
 
   @Before
   public void setUp() throws Exception {
-    configFileController = new ConfigFileController(
-        configController, namespaceUtil, watchKeysUtil, grayReleaseRulesHolder
-    );
+    configFileController = new ConfigFileController(configController, namespaceUtil, watchKeysUtil,
+        grayReleaseRulesHolder);
 
     someAppId = "someAppId";
     someClusterName = "someClusterName";
     someNamespace = "someNamespace";
     someDataCenter = "someDataCenter";
     someClientIp = "10.1.1.1";
+    someReleaseKey = "someReleaseKey";
 
     when(namespaceUtil.filterNamespaceName(someNamespace)).thenReturn(someNamespace);
     when(namespaceUtil.normalizeNamespace(someAppId, someNamespace)).thenReturn(someNamespace);
-    when(grayReleaseRulesHolder.hasGrayReleaseRule(anyString(), anyString(), anyString()))
-        .thenReturn(false);
 
     watchedKeys2CacheKey =
-        (Multimap<String, String>) ReflectionTestUtils
+        (ConcurrentMap<String, Set<String>>) ReflectionTestUtils
             .getField(configFileController, "watchedKeys2CacheKey");
-    cacheKey2WatchedKeys =
-        (Multimap<String, String>) ReflectionTestUtils
-            .getField(configFileController, "cacheKey2WatchedKeys");
+    localCache =
+        (Cache<String, ConfigFileController.ConfigFileResponse>) ReflectionTestUtils
+            .getField(configFileController, "localCache");
   }
 
   @Test
@@ -115,14 +121,11 @@ public class ConfigFileControllerTest {
     String anotherWatchKey = "anotherWatchKey";
     Set<String> watchKeys = Sets.newHashSet(someWatchKey, anotherWatchKey);
 
-    String cacheKey =
-        configFileController
-            .assembleCacheKey(ConfigFileController.ConfigFileOutputFormat.PROPERTIES, someAppId, someClusterName, someNamespace, someDataCenter);
+    ApolloConfig someApolloConfig = assembleApolloConfig(someReleaseKey,
+        ImmutableMap.of(someKey, someValue, anotherKey, anotherValue));
+    String cacheKey = configFileController.assembleCacheKey(ConfigFileController.ConfigFileOutputFormat.PROPERTIES,
+        someAppId, someClusterName, someNamespace, someDataCenter);
 
-    Map<String, String> configurations =
-        ImmutableMap.of(someKey, someValue, anotherKey, anotherValue);
-    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
-    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
     when(configController
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse)).thenReturn(someApolloConfig);
@@ -130,32 +133,34 @@ public class ConfigFileControllerTest {
         .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
         .thenReturn(watchKeys);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
     assertEquals(2, watchedKeys2CacheKey.size());
-    assertEquals(2, cacheKey2WatchedKeys.size());
-    assertTrue(watchedKeys2CacheKey.containsEntry(someWatchKey, cacheKey));
-    assertTrue(watchedKeys2CacheKey.containsEntry(anotherWatchKey, cacheKey));
-    assertTrue(cacheKey2WatchedKeys.containsEntry(cacheKey, someWatchKey));
-    assertTrue(cacheKey2WatchedKeys.containsEntry(cacheKey, anotherWatchKey));
+    assertEquals(Sets.newHashSet(cacheKey), watchedKeys2CacheKey.get(someWatchKey));
+    assertEquals(Sets.newHashSet(cacheKey), watchedKeys2CacheKey.get(anotherWatchKey));
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertTrue(response.getBody().contains(String.format("%s=%s", someKey, someValue)));
-    assertTrue(response.getBody().contains(String.format("%s=%s", anotherKey, anotherValue)));
+    String body = new String(response.getBody(), StandardCharsets.UTF_8);
+    assertTrue(body.contains(String.format("%s=%s", someKey, someValue)));
+    assertTrue(body.contains(String.format("%s=%s", anotherKey, anotherValue)));
 
-    ResponseEntity<String> anotherResponse =
+    ResponseEntity<byte[]> anotherResponse =
         configFileController
             .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
     assertEquals(response, anotherResponse);
+    //the encoded config file is reused without loading the releases again
+    assertSame(response.getBody(), anotherResponse.getBody());
 
     verify(configController, times(1))
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse);
+    verify(watchKeysUtil, times(1))
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter);
   }
 
   @Test
@@ -170,60 +175,171 @@ public class ConfigFileControllerTest {
 
     Map<String, String> configurations =
         ImmutableMap.of(someKey, someValue);
-    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
+    ApolloConfig someApolloConfig = assembleApolloConfig(someReleaseKey, configurations);
     when(configController
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse)).thenReturn(someApolloConfig);
-    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
     when(watchKeysUtil
         .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
         .thenReturn(watchKeys);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
     assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertEquals(configurations, GSON.fromJson(response.getBody(), responseType));
+    assertEquals(configurations, GSON.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), responseType));
+  }
+
+  @Test
+  public void testQueryConfigAsPropertiesWithGzip() throws Exception {
+    Map<String, String> configurations = Maps.newHashMap();
+    for (int i = 0; i < 100; i++) {
+      configurations.put("someKey" + i, "someValue" + i);
+    }
+    ApolloConfig someApolloConfig = assembleApolloConfig(someReleaseKey, configurations);
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someApolloConfig);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+
+    ResponseEntity<byte[]> plainResponse =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip");
+    ResponseEntity<byte[]> gzipResponse =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    assertNull(plainResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("gzip", gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    //the repetitive key value pairs are compressed well
+    assertTrue(gzipResponse.getBody().length * 4 < plainResponse.getBody().length);
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipResponse.getBody()))) {
+      assertArrayEquals(plainResponse.getBody(), ByteStreams.toByteArray(in));
+    }
+    assertEquals("W/\"" + someReleaseKey + "\"", plainResponse.getHeaders().getETag());
+    assertEquals(plainResponse.getHeaders().getETag(), gzipResponse.getHeaders().getETag());
+
+    verify(watchKeysUtil, times(1))
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter);
   }
 
   @Test
   public void testQueryConfigWithGrayRelease() throws Exception {
     String someKey = "someKey";
     String someValue = "someValue";
+    String someGrayValue = "someGrayValue";
+    String someGrayReleaseKey = "someGrayReleaseKey";
+    String someGrayClientIp = "10.1.1.2";
     Type responseType = new TypeToken<Map<String, String>>(){}.getType();
 
-    Map<String, String> configurations =
-        ImmutableMap.of(someKey, someValue);
-
-    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace))
-        .thenReturn(true);
-
-    ApolloConfig someApolloConfig = mock(ApolloConfig.class);
-    when(someApolloConfig.getConfigurations()).thenReturn(configurations);
+    ApolloConfig someApolloConfig = assembleApolloConfig(someReleaseKey, ImmutableMap.of(someKey, someValue));
+    ApolloConfig someGrayApolloConfig = assembleApolloConfig(someGrayReleaseKey,
+        ImmutableMap.of(someKey, someGrayValue));
     when(configController
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
             someRequest, someResponse)).thenReturn(someApolloConfig);
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someGrayClientIp, null,
+            someRequest, someResponse)).thenReturn(someGrayApolloConfig);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someGrayClientIp, someNamespace)).thenReturn(true);
 
-    ResponseEntity<String> response =
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
+    ResponseEntity<byte[]> grayResponse =
+        configFileController
+            .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+                someGrayClientIp, someRequest, someResponse);
+    ResponseEntity<byte[]> anotherGrayResponse =
+        configFileController
+            .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
+                someGrayClientIp, someRequest, someResponse);
+
+    assertEquals(ImmutableMap.of(someKey, someValue),
+        GSON.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), responseType));
+    assertEquals(ImmutableMap.of(someKey, someGrayValue),
+        GSON.fromJson(new String(grayResponse.getBody(), StandardCharsets.UTF_8), responseType));
+    assertNotSame(response.getBody(), grayResponse.getBody());
+    //the gray release is cached as well
+    assertSame(grayResponse.getBody(), anotherGrayResponse.getBody());
+    assertEquals(2, localCache.size());
+    //the releases of the gray clients are loaded on every request
+    verify(configController, times(2))
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someGrayClientIp, null,
+            someRequest, someResponse);
+  }
 
-    ResponseEntity<String> anotherResponse =
+  @Test
+  public void testQueryConfigWithGrayReleaseConflict() throws Exception {
+    String someKey = "someKey";
+    String someGrayValue = "someGrayValue";
+    Type responseType = new TypeToken<Map<String, String>>(){}.getType();
+
+    ApolloConfig someGrayApolloConfig = assembleApolloConfig("someGrayReleaseKey",
+        ImmutableMap.of(someKey, someGrayValue));
+    when(configController
+        .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
+            someRequest, someResponse)).thenReturn(someGrayApolloConfig);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet("someWatchKey"));
+    //the gray release rule is added while the releases are loaded
+    when(grayReleaseRulesHolder.hasGrayReleaseRule(someAppId, someClientIp, someNamespace)).thenReturn(false, true);
+
+    ResponseEntity<byte[]> response =
         configFileController
             .queryConfigAsJson(someAppId, someClusterName, someNamespace, someDataCenter,
                 someClientIp, someRequest, someResponse);
 
-    verify(configController, times(2))
+    assertEquals(ImmutableMap.of(someKey, someGrayValue),
+        GSON.fromJson(new String(response.getBody(), StandardCharsets.UTF_8), responseType));
+    //the gray release is not cached as the config file of the namespace
+    assertEquals(0, localCache.size());
+  }
+
+  @Test
+  public void testQueryConfigWithNewRelease() throws Exception {
+    String someKey = "someKey";
+    String someWatchKey = "someWatchKey";
+    String anotherReleaseKey = "anotherReleaseKey";
+
+    ApolloConfig someApolloConfig = assembleApolloConfig(someReleaseKey, ImmutableMap.of(someKey, "someValue"));
+    ApolloConfig anotherApolloConfig = assembleApolloConfig(anotherReleaseKey,
+        ImmutableMap.of(someKey, "anotherValue"));
+    when(configController
         .queryConfig(someAppId, someClusterName, someNamespace, someDataCenter, "-1", someClientIp, null,
-            someRequest, someResponse);
+            someRequest, someResponse)).thenReturn(someApolloConfig, anotherApolloConfig);
+    when(watchKeysUtil
+        .assembleAllWatchKeys(someAppId, someClusterName, someNamespace, someDataCenter))
+        .thenReturn(Sets.newHashSet(someWatchKey));
 
-    assertEquals(HttpStatus.OK, response.getStatusCode());
-    assertEquals(configurations, GSON.fromJson(response.getBody(), responseType));
-    assertTrue(watchedKeys2CacheKey.isEmpty());
-    assertTrue(cacheKey2WatchedKeys.isEmpty());
+    ResponseEntity<byte[]> response =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    configFileController.handleMessage(new ReleaseMessage(someWatchKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    ResponseEntity<byte[]> anotherResponse =
+        configFileController
+            .queryConfigAsProperties(someAppId, someClusterName, someNamespace, someDataCenter,
+                someClientIp, someRequest, someResponse);
+
+    assertTrue(new String(response.getBody(), StandardCharsets.UTF_8).contains("someValue"));
+    assertTrue(new String(anotherResponse.getBody(), StandardCharsets.UTF_8).contains("anotherValue"));
+    assertEquals("W/\"" + anotherReleaseKey + "\"", anotherResponse.getHeaders().getETag());
   }
 
   @Test
@@ -232,25 +348,34 @@ public class ConfigFileControllerTest {
     String anotherWatchKey = "anotherWatchKey";
     String someCacheKey = "someCacheKey";
     String anotherCacheKey = "anotherCacheKey";
-    String someValue = "someValue";
-
-    ReleaseMessage someReleaseMessage = mock(ReleaseMessage.class);
-    when(someReleaseMessage.getMessage()).thenReturn(someWatchKey);
+    String yetAnotherCacheKey = "yetAnotherCacheKey";
+    ConfigFileController.ConfigFileResponse someValue = new ConfigFileController.ConfigFileResponse(
+        "someValue".getBytes(StandardCharsets.UTF_8), new HttpHeaders(), null,
+        Sets.newHashSet(someWatchKey, anotherWatchKey));
+    ConfigFileController.ConfigFileResponse anotherValue = new ConfigFileController.ConfigFileResponse(
+        "anotherValue".getBytes(StandardCharsets.UTF_8), new HttpHeaders(), null, Sets.newHashSet(anotherWatchKey));
 
-    Cache<String, String> cache =
-        (Cache<String, String>) ReflectionTestUtils.getField(configFileController, "localCache");
-    cache.put(someCacheKey, someValue);
-    cache.put(anotherCacheKey, someValue);
+    ReleaseMessage someReleaseMessage = new ReleaseMessage(someWatchKey);
 
-    watchedKeys2CacheKey.putAll(someWatchKey, Lists.newArrayList(someCacheKey, anotherCacheKey));
-    watchedKeys2CacheKey.putAll(anotherWatchKey, Lists.newArrayList(someCacheKey, anotherCacheKey));
+    localCache.put(someCacheKey, someValue);
+    localCache.put(anotherCacheKey, someValue);
+    localCache.put(yetAnotherCacheKey, anotherValue);
 
-    cacheKey2WatchedKeys.putAll(someCacheKey, Lists.newArrayList(someWatchKey, anotherWatchKey));
-    cacheKey2WatchedKeys.putAll(anotherCacheKey, Lists.newArrayList(someWatchKey, anotherWatchKey));
+    watchedKeys2CacheKey.put(someWatchKey, Sets.newConcurrentHashSet(Sets.newHashSet(someCacheKey, anotherCacheKey)));
+    watchedKeys2CacheKey.put(anotherWatchKey,
+        Sets.newConcurrentHashSet(Sets.newHashSet(someCacheKey, anotherCacheKey, yetAnotherCacheKey)));
 
     configFileController.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
 
-    assertTrue(watchedKeys2CacheKey.isEmpty());
-    assertTrue(cacheKey2WatchedKeys.isEmpty());
+    assertEquals(1, localCache.size());
+    assertSame(anotherValue, localCache.getIfPresent(yetAnotherCacheKey));
+    assertEquals(1, watchedKeys2CacheKey.size());
+    assertEquals(Sets.newHashSet(yetAnotherCacheKey), watchedKeys2CacheKey.get(anotherWatchKey));
+  }
+
+  private ApolloConfig assembleApolloConfig(String releaseKey, Map<String, String> configurations) {
+    ApolloConfig apolloConfig = new ApolloConfig(someAppId, someClusterName, someNamespace, releaseKey);
+    apolloConfig.setConfigurations(configurations);
+    return apolloConfig;
   }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.biz.utils.EntityManagerUtil;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutScheduler;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultRegistry;
+import com.ctrip.framework.apollo.configservice.wrapper.MultiplexedDeferredResultWrapper;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfig;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigMultiplexedNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigSubscription;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MultiplexedNotificationControllerTest {
+  private MultiplexedNotificationController controller;
+  private String someAppId;
+  private String anotherAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private String someDataCenter;
+  private String someClientIp;
+  private long someNotificationId;
+  private String someReleaseKey;
+  @Mock
+  private ReleaseMessageServiceWithCache releaseMessageService;
+  @Mock
+  private EntityManagerUtil entityManagerUtil;
+  @Mock
+  private AccessKeyUtil accessKeyUtil;
+  @Mock
+  private NamespaceUtil namespaceUtil;
+  @Mock
+  private WatchKeysUtil watchKeysUtil;
+  @Mock
+  private ConfigController configController;
+  @Mock
+  private BizConfig bizConfig;
+
+  private Gson gson;
+
+  private DeferredResultRegistry<MultiplexedDeferredResultWrapper> deferredResults;
+
+  @Before
+  public void setUp() throws Exception {
+    gson = new Gson();
+    when(bizConfig.releaseMessageNotificationWorkers()).thenReturn(2);
+    controller = new MultiplexedNotificationController(watchKeysUtil, releaseMessageService, entityManagerUtil,
+        accessKeyUtil, namespaceUtil, configController, gson, bizConfig, new NotificationFanOutScheduler(bizConfig));
+
+    someAppId = "someAppId";
+    anotherAppId = "anotherAppId";
+    someCluster = "someCluster";
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    someDataCenter = "someDC";
+    someClientIp = "someClientIp";
+    someNotificationId = 1;
+    someReleaseKey = "someReleaseKey";
+
+    when(bizConfig.longPollingTimeoutInMilli()).thenReturn(60000L);
+    when(bizConfig.releaseMessageNotificationBatch()).thenReturn(100);
+    when(namespaceUtil.filterNamespaceName(defaultNamespace)).thenReturn(defaultNamespace);
+    when(namespaceUtil.normalizeNamespace(anyString(), eq(defaultNamespace))).thenReturn(defaultNamespace);
+
+    deferredResults = (DeferredResultRegistry<MultiplexedDeferredResultWrapper>) ReflectionTestUtils
+        .getField(controller, "deferredResults");
+  }
+
+  @Test
+  public void testPollNotificationWithMultipleAppIds() throws Exception {
+    String someWatchKey = assembleKey(someAppId, someCluster, defaultNamespace);
+    String anotherWatchKey = assembleKey(anotherAppId, someCluster, defaultNamespace);
+
+    mockWatchKeys(someAppId, someWatchKey);
+    mockWatchKeys(anotherAppId, anotherWatchKey);
+
+    DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult =
+        controller.pollNotification(someAppId, assembleSubscriptions(someAppId, anotherAppId), someDataCenter,
+            someClientIp);
+
+    assertEquals(2, deferredResults.size());
+    assertEquals(1, deferredResults.get(someWatchKey).size());
+    assertSame(deferredResults.get(someWatchKey).get(0), deferredResults.get(anotherWatchKey).get(0));
+    assertFalse(deferredResult.hasResult());
+    verify(entityManagerUtil).closeEntityManager();
+  }
+
+  @Test
+  public void testPollNotificationWithNewReleaseCarriesConfig() throws Exception {
+    String someWatchKey = assembleKey(someAppId, someCluster, defaultNamespace);
+    long newNotificationId = someNotificationId + 1;
+    ApolloConfig someConfig = new ApolloConfig(someAppId, someCluster, defaultNamespace, "anotherReleaseKey");
+
+    mockWatchKeys(someAppId, someWatchKey);
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(newNotificationId, someWatchKey);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someWatchKey)))
+        .thenReturn(Lists.newArrayList(someReleaseMessage));
+    when(configController.loadConfig(eq(someAppId), eq(someCluster), eq(defaultNamespace), eq(someDataCenter),
+        eq(someReleaseKey), eq(someClientIp), any())).thenReturn(someConfig);
+
+    DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult =
+        controller.pollNotification(someAppId, assembleSubscriptions(someAppId), someDataCenter, someClientIp);
+
+    await().atMost(5, TimeUnit.SECONDS).until(deferredResult::hasResult);
+
+    ApolloConfigMultiplexedNotification notification = assertSingleNotification(deferredResult);
+    assertEquals(someAppId, notification.getAppId());
+    assertEquals(someCluster, notification.getCluster());
+    assertEquals(defaultNamespace, notification.getNotification().getNamespaceName());
+    assertEquals(newNotificationId, notification.getNotification().getNotificationId());
+    assertEquals(newNotificationId, (long) notification.getNotification().getMessages().get(someWatchKey));
+    assertSame(someConfig, notification.getConfig());
+  }
+
+  @Test
+  public void testPollNotificationWithHandleMessage() throws Exception {
+    String someWatchKey = assembleKey(someAppId, someCluster, defaultNamespace);
+    String anotherWatchKey = assembleKey(anotherAppId, someCluster, defaultNamespace);
+    long newNotificationId = someNotificationId + 1;
+    ApolloConfig anotherConfig = new ApolloConfig(anotherAppId, someCluster, defaultNamespace, "anotherReleaseKey");
+
+    mockWatchKeys(someAppId, someWatchKey);
+    mockWatchKeys(anotherAppId, anotherWatchKey);
+    when(configController.loadConfig(eq(anotherAppId), eq(someCluster), eq(defaultNamespace), eq(someDataCenter),
+        eq(someReleaseKey), eq(someClientIp), any())).thenReturn(anotherConfig);
+
+    DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult =
+        controller.pollNotification(someAppId, assembleSubscriptions(someAppId, anotherAppId), someDataCenter,
+            someClientIp);
+
+    controller.handleMessage(assembleReleaseMessage(newNotificationId, anotherWatchKey),
+        Topics.APOLLO_RELEASE_TOPIC);
+
+    await().atMost(5, TimeUnit.SECONDS).until(deferredResult::hasResult);
+
+    ApolloConfigMultiplexedNotification notification = assertSingleNotification(deferredResult);
+    assertEquals(anotherAppId, notification.getAppId());
+    assertEquals(newNotificationId, notification.getNotification().getNotificationId());
+    assertSame(anotherConfig, notification.getConfig());
+  }
+
+  @Test
+  public void testPollNotificationWithConfigLoadFailure() throws Exception {
+    String someWatchKey = assembleKey(someAppId, someCluster, defaultNamespace);
+    long newNotificationId = someNotificationId + 1;
+
+    mockWatchKeys(someAppId, someWatchKey);
+    when(configController.loadConfig(eq(someAppId), eq(someCluster), eq(defaultNamespace), eq(someDataCenter),
+        eq(someReleaseKey), eq(someClientIp), any())).thenThrow(new IllegalStateException("some error"));
+
+    DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult =
+        controller.pollNotification(someAppId, assembleSubscriptions(someAppId), someDataCenter, someClientIp);
+
+    controller.handleMessage(assembleReleaseMessage(newNotificationId, someWatchKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    await().atMost(5, TimeUnit.SECONDS).until(deferredResult::hasResult);
+
+    //the client queries the config by itself
+    ApolloConfigMultiplexedNotification notification = assertSingleNotification(deferredResult);
+    assertEquals(newNotificationId, notification.getNotification().getNotificationId());
+    assertNull(notification.getConfig());
+  }
+
+  @Test
+  public void testPollNotificationWithConfigLoaderRejected() throws Exception {
+    String someWatchKey = assembleKey(someAppId, someCluster, defaultNamespace);
+    long newNotificationId = someNotificationId + 1;
+
+    mockWatchKeys(someAppId, someWatchKey);
+    ThreadPoolExecutor configLoader = (ThreadPoolExecutor) ReflectionTestUtils.getField(controller, "configLoader");
+    configLoader.shutdown();
+
+    DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult =
+        controller.pollNotification(someAppId, assembleSubscriptions(someAppId), someDataCenter, someClientIp);
+
+    controller.handleMessage(assembleReleaseMessage(newNotificationId, someWatchKey), Topics.APOLLO_RELEASE_TOPIC);
+
+    await().atMost(5, TimeUnit.SECONDS).until(deferredResult::hasResult);
+
+    //completed without loading the config, the client queries it by itself
+    ApolloConfigMultiplexedNotification notification = assertSingleNotification(deferredResult);
+    assertEquals(newNotificationId, notification.getNotification().getNotificationId());
+    assertNull(notification.getConfig());
+    verify(configController, never()).loadConfig(anyString(), anyString(), anyString(), anyString(), anyString(),
+        anyString(), any());
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testPollNotificationWithProtectedAppId() throws Exception {
+    when(accessKeyUtil.findAvailableSecret(anotherAppId)).thenReturn(Lists.newArrayList("someSecret"));
+
+    controller.pollNotification(someAppId, assembleSubscriptions(someAppId, anotherAppId), someDataCenter,
+        someClientIp);
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testPollNotificationWithInvalidSubscriptions() throws Exception {
+    controller.pollNotification(someAppId, "[]", someDataCenter, someClientIp);
+  }
+
+  private void mockWatchKeys(String appId, String watchKey) {
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    watchKeysMap.put(defaultNamespace, watchKey);
+    when(watchKeysUtil.assembleAllWatchKeys(appId, someCluster, Sets.newHashSet(defaultNamespace), someDataCenter))
+        .thenReturn(watchKeysMap);
+  }
+
+  private String assembleSubscriptions(String... appIds) {
+    List<ApolloConfigSubscription> subscriptions = Lists.newArrayList();
+    for (String appId : appIds) {
+      ApolloConfigSubscription subscription =
+          new ApolloConfigSubscription(appId, someCluster, defaultNamespace, someNotificationId);
+      subscription.setReleaseKey(someReleaseKey);
+      subscriptions.add(subscription);
+    }
+    return gson.toJson(subscriptions);
+  }
+
+  private ApolloConfigMultiplexedNotification assertSingleNotification(
+      DeferredResult<ResponseEntity<List<ApolloConfigMultiplexedNotification>>> deferredResult) {
+    ResponseEntity<List<ApolloConfigMultiplexedNotification>> response =
+        (ResponseEntity<List<ApolloConfigMultiplexedNotification>>) deferredResult.getResult();
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(1, response.getBody().size());
+    return response.getBody().get(0);
+  }
+
+  private ReleaseMessage assembleReleaseMessage(long id, String message) {
+    ReleaseMessage releaseMessage = new ReleaseMessage(message);
+    releaseMessage.setId(id);
+    return releaseMessage;
+  }
+
+  private String assembleKey(String appId, String cluster, String namespace) {
+    return String.join(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR, appId, cluster, namespace);
+  }
+}
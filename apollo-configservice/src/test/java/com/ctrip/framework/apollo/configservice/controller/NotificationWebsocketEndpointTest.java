@@ -0,0 +1,266 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
+import com.ctrip.framework.apollo.biz.message.Topics;
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.configservice.util.NamespaceUtil;
+import com.ctrip.framework.apollo.configservice.util.NotificationFanOutScheduler;
+import com.ctrip.framework.apollo.configservice.util.WatchKeysUtil;
+import com.ctrip.framework.apollo.configservice.wrapper.DeferredResultRegistry;
+import com.ctrip.framework.apollo.configservice.wrapper.WebsocketSubscriber;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.collect.HashMultimap;
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationWebsocketEndpointTest {
+  private NotificationWebsocketEndpoint endpoint;
+  private String someAppId;
+  private String someCluster;
+  private String someDataCenter;
+  private String defaultNamespace;
+  private String somePublicNamespace;
+  @Mock
+  private ReleaseMessageServiceWithCache releaseMessageService;
+  @Mock
+  private NamespaceUtil namespaceUtil;
+  @Mock
+  private WatchKeysUtil watchKeysUtil;
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private Session session;
+  @Mock
+  private RemoteEndpoint.Basic basicRemote;
+  private Map<String, Object> userProperties;
+  private Gson gson;
+  private DeferredResultRegistry<WebsocketSubscriber> subscribers;
+
+  @Before
+  public void setUp() throws Exception {
+    gson = new Gson();
+    when(bizConfig.releaseMessageNotificationWorkers()).thenReturn(2);
+    endpoint = new NotificationWebsocketEndpoint(watchKeysUtil, releaseMessageService, namespaceUtil, gson,
+        bizConfig, new NotificationFanOutScheduler(bizConfig));
+
+    someAppId = "someAppId";
+    someCluster = "someCluster";
+    someDataCenter = "someDC";
+    defaultNamespace = "application";
+    somePublicNamespace = "somePublicNamespace";
+
+    userProperties = Maps.newHashMap();
+    when(session.getUserProperties()).thenReturn(userProperties);
+
+    subscribers = (DeferredResultRegistry<WebsocketSubscriber>) ReflectionTestUtils.getField(endpoint, "subscribers");
+  }
+
+  @Test
+  public void testSubscribe() throws Exception {
+    String someWatchKey = "someAppId+someCluster+application";
+    String anotherWatchKey = "someAppId+default+application";
+    long someNotificationId = 1;
+    long newNotificationId = 10;
+    WebsocketSubscriber subscriber = open();
+    mockWatchKeys(defaultNamespace, someWatchKey, anotherWatchKey);
+    ReleaseMessage someReleaseMessage = assembleReleaseMessage(newNotificationId, anotherWatchKey);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(
+        Sets.newHashSet(someWatchKey, anotherWatchKey))).thenReturn(Lists.newArrayList(someReleaseMessage));
+
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, someNotificationId));
+
+    assertEquals(2, subscribers.size());
+    assertTrue(subscribers.get(someWatchKey).contains(subscriber));
+    assertTrue(subscribers.get(anotherWatchKey).contains(subscriber));
+
+    ApolloNotificationWebsocketMessage sent = captureSentMessages(1).get(0);
+    assertEquals(ApolloNotificationWebsocketMessage.NOTIFY, sent.getType());
+    assertEquals(1, sent.getNotifications().size());
+    ApolloConfigNotification notification = sent.getNotifications().get(0);
+    assertEquals(defaultNamespace, notification.getNamespaceName());
+    assertEquals(newNotificationId, notification.getNotificationId());
+    assertEquals(newNotificationId, notification.getMessages().get(anotherWatchKey).longValue());
+  }
+
+  @Test
+  public void testSubscribeWithUpToDateNotifications() throws Exception {
+    String someWatchKey = "someAppId+someCluster+application";
+    long someNotificationId = 10;
+    WebsocketSubscriber subscriber = open();
+    mockWatchKeys(defaultNamespace, someWatchKey);
+    when(releaseMessageService.findLatestReleaseMessagesGroupByMessages(Sets.newHashSet(someWatchKey)))
+        .thenReturn(Lists.newArrayList(assembleReleaseMessage(someNotificationId, someWatchKey)));
+
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, someNotificationId));
+
+    assertEquals(1, subscribers.size());
+    verify(basicRemote, never()).sendText(any(String.class));
+  }
+
+  @Test
+  public void testSubscribeAgainReplacesWatchKeys() throws Exception {
+    String someWatchKey = "someAppId+someCluster+application";
+    String anotherWatchKey = "someAppId+someCluster+somePublicNamespace";
+    WebsocketSubscriber subscriber = open();
+    mockWatchKeys(defaultNamespace, someWatchKey);
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, 1));
+
+    mockWatchKeys(somePublicNamespace, anotherWatchKey);
+    endpoint.onMessage(subscriber, subscribeMessage(somePublicNamespace, 1));
+
+    assertEquals(1, subscribers.size());
+    assertTrue(subscribers.get(someWatchKey).isEmpty());
+    assertTrue(subscribers.get(anotherWatchKey).contains(subscriber));
+  }
+
+  @Test
+  public void testHandleMessage() throws Exception {
+    String someWatchKey = "someAppId+someCluster+application";
+    long someNotificationId = 1;
+    long newNotificationId = 2;
+    WebsocketSubscriber subscriber = open();
+    mockWatchKeys(defaultNamespace, someWatchKey);
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, someNotificationId));
+    when(bizConfig.releaseMessageNotificationBatch()).thenReturn(100);
+
+    //watch keys are case insensitive
+    endpoint.handleMessage(assembleReleaseMessage(newNotificationId, someWatchKey.toUpperCase()),
+        Topics.APOLLO_RELEASE_TOPIC);
+
+    ApolloNotificationWebsocketMessage sent = captureSentMessages(1).get(0);
+    assertEquals(ApolloNotificationWebsocketMessage.NOTIFY, sent.getType());
+    ApolloConfigNotification notification = sent.getNotifications().get(0);
+    assertEquals(defaultNamespace, notification.getNamespaceName());
+    assertEquals(newNotificationId, notification.getNotificationId());
+    assertEquals(newNotificationId, notification.getMessages().get(someWatchKey.toUpperCase()).longValue());
+  }
+
+  @Test
+  public void testPing() throws Exception {
+    WebsocketSubscriber subscriber = open();
+
+    endpoint.onMessage(subscriber,
+        gson.toJson(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.PING, null)));
+
+    assertEquals(ApolloNotificationWebsocketMessage.PONG, captureSentMessages(1).get(0).getType());
+  }
+
+  @Test
+  public void testCloseUnregistersSubscriber() throws Exception {
+    String someWatchKey = "someAppId+someCluster+application";
+    WebsocketSubscriber subscriber = open();
+    mockWatchKeys(defaultNamespace, someWatchKey);
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, 1));
+
+    endpoint.onClose(session, new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+
+    assertEquals(0, subscribers.size());
+
+    //subscriptions after closed are ignored
+    endpoint.onMessage(subscriber, subscribeMessage(defaultNamespace, 1));
+
+    assertEquals(0, subscribers.size());
+  }
+
+  @Test
+  public void testOpenWithoutAppId() throws Exception {
+    when(session.getRequestParameterMap()).thenReturn(
+        ImmutableMap.<String, List<String>>of("cluster", Lists.newArrayList(someCluster)));
+
+    endpoint.onOpen(session, null);
+
+    verify(session, times(1)).close(any(CloseReason.class));
+    assertTrue(userProperties.isEmpty());
+  }
+
+  private WebsocketSubscriber open() {
+    when(session.getRequestParameterMap()).thenReturn(ImmutableMap.<String, List<String>>of(
+        "appId", Lists.newArrayList(someAppId),
+        "cluster", Lists.newArrayList(someCluster),
+        "dataCenter", Lists.newArrayList(someDataCenter)));
+    when(session.isOpen()).thenReturn(true);
+    when(session.getBasicRemote()).thenReturn(basicRemote);
+
+    endpoint.onOpen(session, null);
+
+    return (WebsocketSubscriber) userProperties.get(WebsocketSubscriber.class.getName());
+  }
+
+  private void mockWatchKeys(String namespace, String... watchKeys) {
+    when(namespaceUtil.filterNamespaceName(namespace)).thenReturn(namespace);
+    when(namespaceUtil.normalizeNamespace(someAppId, namespace)).thenReturn(namespace);
+    Multimap<String, String> watchKeysMap = HashMultimap.create();
+    for (String watchKey : watchKeys) {
+      watchKeysMap.put(namespace, watchKey);
+    }
+    when(watchKeysUtil.assembleAllWatchKeys(someAppId, someCluster, Sets.newHashSet(namespace), someDataCenter))
+        .thenReturn(watchKeysMap);
+  }
+
+  private String subscribeMessage(String namespace, long notificationId) {
+    return gson.toJson(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.SUBSCRIBE,
+        Collections.singletonList(new ApolloConfigNotification(namespace, notificationId))));
+  }
+
+  private List<ApolloNotificationWebsocketMessage> captureSentMessages(int times) throws Exception {
+    ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+    verify(basicRemote, times(times)).sendText(captor.capture());
+    List<ApolloNotificationWebsocketMessage> messages = Lists.newArrayList();
+    for (String text : captor.getAllValues()) {
+      messages.add(gson.fromJson(text, ApolloNotificationWebsocketMessage.class));
+    }
+    return messages;
+  }
+
+  private ReleaseMessage assembleReleaseMessage(long id, String message) {
+    ReleaseMessage releaseMessage = new ReleaseMessage(message);
+    releaseMessage.setId(id);
+    return releaseMessage;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.controller;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.biz.message.ReleaseMessageScanner;
+import com.ctrip.framework.apollo.common.dto.ReleaseMessageDTO;
+import com.ctrip.framework.apollo.common.exception.BadRequestException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReleaseMessageControllerTest {
+  private ReleaseMessageController releaseMessageController;
+  @Mock
+  private ReleaseMessageScanner releaseMessageScanner;
+  @Mock
+  private BizConfig bizConfig;
+  private ReleaseMessageDTO someReleaseMessage;
+  private String someToken;
+
+  @Before
+  public void setUp() throws Exception {
+    releaseMessageController = new ReleaseMessageController(releaseMessageScanner, bizConfig);
+    someReleaseMessage = new ReleaseMessageDTO(1, "someAppId+default+application");
+    someToken = "someToken";
+  }
+
+  @Test
+  public void testPush() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn("anotherToken, " + someToken);
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(true);
+
+    ResponseEntity<Void> response = releaseMessageController.push(someReleaseMessage, someToken);
+
+    assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+    verify(releaseMessageScanner, times(1)).onMessagePushed(someReleaseMessage.getId());
+  }
+
+  @Test
+  public void testPushWhenPushDisabled() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn(someToken);
+    when(bizConfig.isReleaseMessagePushEnabled()).thenReturn(false);
+
+    ResponseEntity<Void> response = releaseMessageController.push(someReleaseMessage, someToken);
+
+    assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testPushWithInvalidToken() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn(someToken);
+
+    ResponseEntity<Void> response = releaseMessageController.push(someReleaseMessage, "someInvalidToken");
+
+    assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testPushWhenAccessControlDisabled() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(false);
+
+    ResponseEntity<Void> response = releaseMessageController.push(someReleaseMessage, null);
+
+    assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test
+  public void testPushWhenAccessTokensNotConfigured() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn("");
+
+    ResponseEntity<Void> response = releaseMessageController.push(someReleaseMessage, someToken);
+
+    assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+    verify(releaseMessageScanner, never()).onMessagePushed(anyLong());
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void testPushInvalidMessage() throws Exception {
+    when(bizConfig.isAdminServiceAccessControlEnabled()).thenReturn(true);
+    when(bizConfig.getAdminServiceAccessTokens()).thenReturn(someToken);
+
+    releaseMessageController.push(new ReleaseMessageDTO(0, null), someToken);
+  }
+}
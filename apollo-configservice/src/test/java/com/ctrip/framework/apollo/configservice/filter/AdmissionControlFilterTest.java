@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.ctrip.framework.apollo.configservice.util.AccessKeyUtil;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AdmissionControlFilterTest {
+
+  private AdmissionControlFilter admissionControlFilter;
+
+  @Mock
+  private BizConfig bizConfig;
+  @Mock
+  private AccessKeyUtil accessKeyUtil;
+  @Mock
+  private HttpServletRequest request;
+  @Mock
+  private HttpServletResponse response;
+  @Mock
+  private FilterChain filterChain;
+
+  private String someAppId;
+  private String someIp;
+
+  @Before
+  public void setUp() {
+    admissionControlFilter = new AdmissionControlFilter(bizConfig, accessKeyUtil);
+
+    someAppId = "someAppId";
+    someIp = "1.1.1.1";
+  }
+
+  @Test
+  public void testAdmissionControlDisabled() throws Exception {
+    when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(false);
+
+    admissionControlFilter.doFilter(request, response, filterChain);
+
+    verify(filterChain, times(1)).doFilter(request, response);
+    verify(accessKeyUtil, never()).extractAppIdFromRequest(any());
+  }
+
+  @Test
+  public void testRequestsWithinLimits() throws Exception {
+    when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(true);
+    when(bizConfig.configServiceAdmissionControlIpQps()).thenReturn(10);
+    when(bizConfig.configServiceAdmissionControlAppQps()).thenReturn(10);
+    when(request.getRemoteAddr()).thenReturn(someIp);
+    when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(someAppId);
+
+    admissionControlFilter.doFilter(request, response, filterChain);
+    admissionControlFilter.doFilter(request, response, filterChain);
+
+    verify(filterChain, times(2)).doFilter(request, response);
+    verify(response, never()).sendError(429, "TooManyRequests");
+  }
+
+  @Test
+  public void testRequestsBeyondIpLimit() throws Exception {
+    when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(true);
+    when(bizConfig.configServiceAdmissionControlIpQps()).thenReturn(1);
+    when(bizConfig.configServiceAdmissionControlAppQps()).thenReturn(10);
+    when(bizConfig.configServiceAdmissionControlRetryAfter()).thenReturn(1);
+    when(request.getRemoteAddr()).thenReturn(someIp);
+    when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(someAppId);
+
+    admissionControlFilter.doFilter(request, response, filterChain);
+    admissionControlFilter.doFilter(request, response, filterChain);
+
+    verify(filterChain, times(1)).doFilter(request, response);
+    verify(response, times(1)).setHeader(HttpHeaders.RETRY_AFTER, "1");
+    verify(response, times(1)).sendError(429, "TooManyRequests");
+  }
+
+  @Test
+  public void testRequestsBeyondAppLimit() throws Exception {
+    String anotherIp = "2.2.2.2";
+
+    when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(true);
+    when(bizConfig.configServiceAdmissionControlIpQps()).thenReturn(10);
+    when(bizConfig.configServiceAdmissionControlAppQps()).thenReturn(1);
+    when(bizConfig.configServiceAdmissionControlRetryAfter()).thenReturn(1);
+    when(request.getRemoteAddr()).thenReturn(someIp, anotherIp);
+    when(accessKeyUtil.extractAppIdFromRequest(any())).thenReturn(someAppId);
+
+    admissionControlFilter.doFilter(request, response, filterChain);
+    admissionControlFilter.doFilter(request, response, filterChain);
+
+    verify(filterChain, times(1)).doFilter(request, response);
+    verify(response, times(1)).sendError(429, "TooManyRequests");
+  }
+}
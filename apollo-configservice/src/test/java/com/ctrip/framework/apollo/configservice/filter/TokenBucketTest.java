@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  @Test
+  public void testTryAcquireWithBurst() throws Exception {
+    int someQps = 3;
+    long now = 0;
+    TokenBucket tokenBucket = new TokenBucket(someQps, now);
+
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertFalse(tokenBucket.tryAcquire(someQps, now));
+  }
+
+  @Test
+  public void testTryAcquireAfterRefill() throws Exception {
+    int someQps = 2;
+    long now = 0;
+    TokenBucket tokenBucket = new TokenBucket(someQps, now);
+
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertFalse(tokenBucket.tryAcquire(someQps, now));
+
+    now += TimeUnit.MILLISECONDS.toNanos(500);
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertFalse(tokenBucket.tryAcquire(someQps, now));
+
+    //no more than one second of tokens is kept
+    now += TimeUnit.SECONDS.toNanos(10);
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertTrue(tokenBucket.tryAcquire(someQps, now));
+    assertFalse(tokenBucket.tryAcquire(someQps, now));
+  }
+
+  @Test
+  public void testTryAcquireWithRateChanged() throws Exception {
+    long now = 0;
+    TokenBucket tokenBucket = new TokenBucket(10, now);
+
+    assertTrue(tokenBucket.tryAcquire(1, now));
+    assertFalse(tokenBucket.tryAcquire(1, now));
+  }
+}
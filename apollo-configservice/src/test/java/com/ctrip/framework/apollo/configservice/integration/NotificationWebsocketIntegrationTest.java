@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.integration;
+
+import com.ctrip.framework.apollo.configservice.service.ReleaseMessageServiceWithCache;
+import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.core.dto.ApolloConfigNotification;
+import com.ctrip.framework.apollo.core.dto.ApolloNotificationWebsocketMessage;
+import com.google.common.base.Joiner;
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationWebsocketIntegrationTest extends AbstractBaseIntegrationTest {
+  @Autowired
+  private Gson gson;
+
+  @Autowired
+  private ReleaseMessageServiceWithCache releaseMessageServiceWithCache;
+
+  private String someAppId;
+  private String someCluster;
+  private String defaultNamespace;
+  private ExecutorService executorService;
+  private BlockingQueue<ApolloNotificationWebsocketMessage> receivedMessages;
+  private Session session;
+
+  @Before
+  public void setUp() throws Exception {
+    ReflectionTestUtils.invokeMethod(releaseMessageServiceWithCache, "reset");
+    someAppId = "someAppId";
+    someCluster = ConfigConsts.CLUSTER_NAME_DEFAULT;
+    defaultNamespace = ConfigConsts.NAMESPACE_APPLICATION;
+    executorService = Executors.newFixedThreadPool(1);
+    receivedMessages = new LinkedBlockingQueue<>();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executorService.shutdownNow();
+    if (session != null) {
+      session.close();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  @Sql(scripts = "/integration-test/cleanup.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+  public void testSubscribeAndPing() throws Exception {
+    String key = Joiner.on(ConfigConsts.CLUSTER_NAMESPACE_SEPARATOR).join(someAppId, someCluster, defaultNamespace);
+    connect();
+
+    send(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.PING, null));
+    assertEquals(ApolloNotificationWebsocketMessage.PONG, receivedMessages.take().getType());
+
+    send(new ApolloNotificationWebsocketMessage(ApolloNotificationWebsocketMessage.SUBSCRIBE,
+        Collections.singletonList(new ApolloConfigNotification(defaultNamespace + ".properties",
+            ConfigConsts.NOTIFICATION_ID_PLACEHOLDER))));
+    AtomicBoolean stop = new AtomicBoolean();
+    periodicSendMessage(executorService, key, stop);
+
+    ApolloNotificationWebsocketMessage message = receivedMessages.take();
+    stop.set(true);
+
+    assertEquals(ApolloNotificationWebsocketMessage.NOTIFY, message.getType());
+    ApolloConfigNotification notification = message.getNotifications().get(0);
+    assertEquals(defaultNamespace, notification.getNamespaceName());
+    assertTrue(notification.getNotificationId() > 0);
+    assertNotNull(notification.getMessages().get(key));
+  }
+
+  private void connect() throws Exception {
+    WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+    URI uri = URI.create(String.format("ws://%s/notifications/v2/websocket?appId=%s&cluster=%s", getHostUrl(),
+        someAppId, someCluster));
+    session = container.connectToServer(new Endpoint() {
+      @Override
+      public void onOpen(Session session, EndpointConfig config) {
+        session.addMessageHandler(String.class, (MessageHandler.Whole<String>) text ->
+            receivedMessages.add(gson.fromJson(text, ApolloNotificationWebsocketMessage.class)));
+      }
+    }, ClientEndpointConfig.Builder.create().build(), uri);
+    assertTrue(session.isOpen());
+  }
+
+  private void send(ApolloNotificationWebsocketMessage message) throws Exception {
+    session.getBasicRemote().sendText(gson.toJson(message));
+    TimeUnit.MILLISECONDS.sleep(10);
+  }
+}
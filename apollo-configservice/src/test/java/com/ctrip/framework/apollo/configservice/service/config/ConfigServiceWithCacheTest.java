@@ -17,14 +17,17 @@
 package com.ctrip.framework.apollo.configservice.service.config;
 
 import com.ctrip.framework.apollo.core.dto.ApolloNotificationMessages;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
+import com.ctrip.framework.apollo.biz.config.BizConfig;
 import com.ctrip.framework.apollo.biz.entity.Release;
 import com.ctrip.framework.apollo.biz.entity.ReleaseMessage;
 import com.ctrip.framework.apollo.biz.message.Topics;
 import com.ctrip.framework.apollo.biz.service.ReleaseMessageService;
 import com.ctrip.framework.apollo.biz.service.ReleaseService;
 import com.ctrip.framework.apollo.biz.utils.ReleaseMessageKeyGenerator;
+import com.ctrip.framework.apollo.common.exception.TooManyRequestsException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -35,7 +38,12 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -52,7 +60,7 @@ public class ConfigServiceWithCacheTest {
   @Mock
   private ReleaseMessageService releaseMessageService;
   @Mock
-  private Release someRelease;
+  private BizConfig bizConfig;
   @Mock
   private ReleaseMessage someReleaseMessage;
 
@@ -61,6 +69,7 @@ public class ConfigServiceWithCacheTest {
   private String someNamespaceName;
   private String someKey;
   private long someNotificationId;
+  private Release someRelease;
   private ApolloNotificationMessages someNotificationMessages;
 
   @Before
@@ -68,6 +77,9 @@ public class ConfigServiceWithCacheTest {
     configServiceWithCache = new ConfigServiceWithCache();
     ReflectionTestUtils.setField(configServiceWithCache, "releaseService", releaseService);
     ReflectionTestUtils.setField(configServiceWithCache, "releaseMessageService", releaseMessageService);
+    ReflectionTestUtils.setField(configServiceWithCache, "bizConfig", bizConfig);
+
+    when(bizConfig.configServiceCacheMaxWeightInMB()).thenReturn(1);
 
     configServiceWithCache.initialize();
 
@@ -77,6 +89,7 @@ public class ConfigServiceWithCacheTest {
     someNotificationId = 1;
 
     someKey = ReleaseMessageKeyGenerator.generate(someAppId, someClusterName, someNamespaceName);
+    someRelease = assembleRelease(1, someAppId, someClusterName, someNamespaceName);
 
     someNotificationMessages = new ApolloNotificationMessages();
   }
@@ -87,7 +100,7 @@ public class ConfigServiceWithCacheTest {
 
     when(releaseService.findActiveOne(someId)).thenReturn(someRelease);
 
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
 
     verify(releaseService, times(1)).findActiveOne(someId);
   }
@@ -98,9 +111,9 @@ public class ConfigServiceWithCacheTest {
 
     when(releaseService.findActiveOne(someId)).thenReturn(someRelease);
 
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
 
     verify(releaseService, times(1)).findActiveOne(someId);
   }
@@ -109,16 +122,16 @@ public class ConfigServiceWithCacheTest {
   public void testFindActiveOneWithMultipleIdMultipleTimes() throws Exception {
     long someId = 1;
     long anotherId = 2;
-    Release anotherRelease = mock(Release.class);
+    Release anotherRelease = assembleRelease(2, someAppId, someClusterName, someNamespaceName);
 
     when(releaseService.findActiveOne(someId)).thenReturn(someRelease);
     when(releaseService.findActiveOne(anotherId)).thenReturn(anotherRelease);
 
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
-    assertEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
+    assertReleaseEquals(someRelease, configServiceWithCache.findActiveOne(someId, someNotificationMessages));
 
-    assertEquals(anotherRelease, configServiceWithCache.findActiveOne(anotherId, someNotificationMessages));
-    assertEquals(anotherRelease, configServiceWithCache.findActiveOne(anotherId, someNotificationMessages));
+    assertReleaseEquals(anotherRelease, configServiceWithCache.findActiveOne(anotherId, someNotificationMessages));
+    assertReleaseEquals(anotherRelease, configServiceWithCache.findActiveOne(anotherId, someNotificationMessages));
 
     verify(releaseService, times(1)).findActiveOne(someId);
     verify(releaseService, times(1)).findActiveOne(anotherId);
@@ -157,8 +170,8 @@ public class ConfigServiceWithCacheTest {
           someNamespaceName, someNotificationMessages);
     }
 
-    assertEquals(someRelease, release);
-    assertEquals(someRelease, anotherRelease);
+    assertReleaseEquals(someRelease, release);
+    assertReleaseEquals(someRelease, anotherRelease);
 
     verify(releaseMessageService, times(1)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
@@ -192,7 +205,7 @@ public class ConfigServiceWithCacheTest {
   public void testFindLatestActiveReleaseWithDirtyRelease() throws Exception {
     long someNewNotificationId = someNotificationId + 1;
     ReleaseMessage anotherReleaseMessage = mock(ReleaseMessage.class);
-    Release anotherRelease = mock(Release.class);
+    Release anotherRelease = assembleRelease(2, someAppId, someClusterName, someNamespaceName);
 
     when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
         (someReleaseMessage);
@@ -217,9 +230,9 @@ public class ConfigServiceWithCacheTest {
     Release shouldBeNewRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
         someNamespaceName, someNotificationMessages);
 
-    assertEquals(someRelease, release);
-    assertEquals(someRelease, stillOldRelease);
-    assertEquals(anotherRelease, shouldBeNewRelease);
+    assertReleaseEquals(someRelease, release);
+    assertReleaseEquals(someRelease, stillOldRelease);
+    assertReleaseEquals(anotherRelease, shouldBeNewRelease);
 
     verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
@@ -229,7 +242,7 @@ public class ConfigServiceWithCacheTest {
   public void testFindLatestActiveReleaseWithReleaseMessageNotification() throws Exception {
     long someNewNotificationId = someNotificationId + 1;
     ReleaseMessage anotherReleaseMessage = mock(ReleaseMessage.class);
-    Release anotherRelease = mock(Release.class);
+    Release anotherRelease = assembleRelease(2, someAppId, someClusterName, someNamespaceName);
 
     when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
         (someReleaseMessage);
@@ -255,9 +268,9 @@ public class ConfigServiceWithCacheTest {
     Release shouldBeNewRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
         someNamespaceName, someNotificationMessages);
 
-    assertEquals(someRelease, release);
-    assertEquals(someRelease, stillOldRelease);
-    assertEquals(anotherRelease, shouldBeNewRelease);
+    assertReleaseEquals(someRelease, release);
+    assertReleaseEquals(someRelease, stillOldRelease);
+    assertReleaseEquals(anotherRelease, shouldBeNewRelease);
 
     verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
@@ -285,11 +298,262 @@ public class ConfigServiceWithCacheTest {
     Release shouldStillBeOldRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
         someNamespaceName, someNotificationMessages);
 
-    assertEquals(someRelease, release);
-    assertEquals(someRelease, stillOldRelease);
-    assertEquals(someRelease, shouldStillBeOldRelease);
+    assertReleaseEquals(someRelease, release);
+    assertReleaseEquals(someRelease, stillOldRelease);
+    assertReleaseEquals(someRelease, shouldStillBeOldRelease);
 
     verify(releaseMessageService, times(1)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
     verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
   }
+
+  @Test
+  public void testFindLatestActiveReleaseWithReleaseNotFoundAndNewNotification() throws Exception {
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn(null);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn(null);
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    Release stillNullRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    someNotificationMessages.put(someKey, someNotificationId);
+
+    Release shouldBeNewRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+    Release shouldBeCachedRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    assertNull(release);
+    assertNull(stillNullRelease);
+    assertReleaseEquals(someRelease, shouldBeNewRelease);
+    assertReleaseEquals(someRelease, shouldBeCachedRelease);
+
+    verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindLatestActiveReleaseAfterReleaseMessageNotification() throws Exception {
+    long someNewNotificationId = someNotificationId + 1;
+    ReleaseMessage anotherReleaseMessage = mock(ReleaseMessage.class);
+    Release anotherRelease = assembleRelease(2, someAppId, someClusterName, someNamespaceName);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (anotherReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (anotherRelease);
+    when(anotherReleaseMessage.getMessage()).thenReturn(someKey);
+    when(anotherReleaseMessage.getId()).thenReturn(someNewNotificationId);
+
+    configServiceWithCache.handleMessage(anotherReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+    //the same message is delivered twice, e.g. by the scanner and the push
+    configServiceWithCache.handleMessage(anotherReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    someNotificationMessages.put(someKey, someNewNotificationId);
+
+    int retryTimes = 100;
+
+    for (int i = 0; i < retryTimes; i++) {
+      assertReleaseEquals(anotherRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+          someNamespaceName, someNotificationMessages));
+    }
+
+    verify(releaseMessageService, times(2)).findLatestReleaseMessageForMessages(Lists.newArrayList(someKey));
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindLatestActiveReleaseAfterReleaseMessageNotificationReloadFailed() throws Exception {
+    long someNewNotificationId = someNotificationId + 1;
+    ReleaseMessage anotherReleaseMessage = mock(ReleaseMessage.class);
+    Release anotherRelease = assembleRelease(2, someAppId, someClusterName, someNamespaceName);
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName, null);
+
+    when(anotherReleaseMessage.getMessage()).thenReturn(someKey);
+    when(anotherReleaseMessage.getId()).thenReturn(someNewNotificationId);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName))
+        .thenThrow(new RuntimeException("some db error")).thenReturn(anotherRelease);
+
+    configServiceWithCache.handleMessage(anotherReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    //the requests without notification messages, e.g. the config file requests, don't get the out-dated release
+    assertReleaseEquals(anotherRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, null));
+
+    verify(releaseService, times(3)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindLatestActiveReleaseWithReleaseModifiedByCaller() throws Exception {
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+    release.setConfigurations("{}");
+
+    Release anotherRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    assertReleaseEquals(someRelease, anotherRelease);
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testFindLatestActiveReleaseWithReleaseHeavierThanCache() throws Exception {
+    someRelease.setConfigurations(Strings.repeat("a", 2 * 1024 * 1024));
+
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+    Release anotherRelease = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages);
+
+    assertReleaseEquals(someRelease, release);
+    assertReleaseEquals(someRelease, anotherRelease);
+    //evicted as soon as loaded
+    verify(releaseService, times(2)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test(expected = TooManyRequestsException.class)
+  public void testFindLatestActiveReleaseWithLoadRejected() throws Exception {
+    //no load permit is configured in the test
+    when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(true);
+    when(bizConfig.configServiceAdmissionControlRetryAfter()).thenReturn(1);
+
+    try {
+      configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+          someNotificationMessages);
+    } finally {
+      verify(releaseService, never()).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+    }
+  }
+
+  @Test
+  public void testReleaseMessageNotificationNotRejected() throws Exception {
+    //no load permit is configured in the test, and it's not asked for at all
+    lenient().when(bizConfig.isConfigServiceAdmissionControlEnabled()).thenReturn(true);
+    when(releaseMessageService.findLatestReleaseMessageForMessages(Lists.newArrayList(someKey))).thenReturn
+        (someReleaseMessage);
+    when(releaseService.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName)).thenReturn
+        (someRelease);
+    when(someReleaseMessage.getMessage()).thenReturn(someKey);
+    when(someReleaseMessage.getId()).thenReturn(someNotificationId);
+
+    configServiceWithCache.handleMessage(someReleaseMessage, Topics.APOLLO_RELEASE_TOPIC);
+
+    //served from the cache refreshed by the release message
+    assertReleaseEquals(someRelease, configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName,
+        someNamespaceName, someNotificationMessages));
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    String anotherNamespaceName = "anotherNamespaceName";
+    String anotherKey = ReleaseMessageKeyGenerator.generate(someAppId, someClusterName, anotherNamespaceName);
+    long someNewNotificationId = someNotificationId + 2;
+    Release someLatestRelease = assembleRelease(3, someAppId, someClusterName, someNamespaceName);
+
+    when(releaseMessageService.findReleaseMessagesBefore(Long.MAX_VALUE)).thenReturn(Lists.newArrayList(
+        assembleReleaseMessage(someKey, someNewNotificationId), assembleReleaseMessage(anotherKey, someNotificationId + 1),
+        assembleReleaseMessage(someKey, someNotificationId)));
+    when(releaseMessageService.findReleaseMessagesBefore(someNotificationId)).thenReturn(Lists.newArrayList());
+    //the other namespace is deleted, so it has no active release
+    when(releaseService.findLatestActiveReleases(Lists.newArrayList(someAppId))).thenReturn(
+        Lists.newArrayList(someLatestRelease));
+
+    configServiceWithCache.warmUp(100, Long.MAX_VALUE);
+
+    someNotificationMessages.put(someKey, someNewNotificationId);
+    Release release = configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, someNamespaceName,
+        someNotificationMessages);
+
+    assertReleaseEquals(someLatestRelease, release);
+    verify(releaseService, never()).findLatestActiveRelease(someAppId, someClusterName, someNamespaceName);
+    verify(releaseService, times(1)).findLatestActiveReleases(Lists.newArrayList(someAppId));
+
+    configServiceWithCache.findLatestActiveRelease(someAppId, someClusterName, anotherNamespaceName,
+        someNotificationMessages);
+
+    verify(releaseService, times(1)).findLatestActiveRelease(someAppId, someClusterName, anotherNamespaceName);
+  }
+
+  @Test
+  public void testWarmUpWithMaxNamespaces() throws Exception {
+    String anotherAppId = "anotherAppId";
+    String anotherKey = ReleaseMessageKeyGenerator.generate(anotherAppId, someClusterName, someNamespaceName);
+
+    when(releaseMessageService.findReleaseMessagesBefore(Long.MAX_VALUE)).thenReturn(Lists.newArrayList(
+        assembleReleaseMessage(someKey, 2), assembleReleaseMessage(anotherKey, 1)));
+    when(releaseService.findLatestActiveReleases(Lists.newArrayList(someAppId))).thenReturn(
+        Lists.newArrayList(assembleRelease(3, someAppId, someClusterName, someNamespaceName)));
+
+    configServiceWithCache.warmUp(1, Long.MAX_VALUE);
+
+    verify(releaseMessageService, times(1)).findReleaseMessagesBefore(anyLong());
+    verify(releaseService, times(1)).findLatestActiveReleases(anyCollection());
+  }
+
+  @Test
+  public void testIsReadyWithoutWarmUp() throws Exception {
+    assertTrue(configServiceWithCache.isReady());
+  }
+
+  private ReleaseMessage assembleReleaseMessage(String message, long id) {
+    ReleaseMessage releaseMessage = new ReleaseMessage(message);
+    releaseMessage.setId(id);
+    return releaseMessage;
+  }
+
+  private Release assembleRelease(long id, String appId, String clusterName, String namespaceName) {
+    Release release = new Release();
+    release.setId(id);
+    release.setReleaseKey("someReleaseKey-" + id);
+    release.setConfigurations("{\"someKey\":\"someValue-" + id + "\"}");
+    release.setAppId(appId);
+    release.setClusterName(clusterName);
+    release.setNamespaceName(namespaceName);
+    return release;
+  }
+
+  private void assertReleaseEquals(Release expected, Release actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getReleaseKey(), actual.getReleaseKey());
+    assertEquals(expected.getAppId(), actual.getAppId());
+    assertEquals(expected.getClusterName(), actual.getClusterName());
+    assertEquals(expected.getNamespaceName(), actual.getNamespaceName());
+    assertEquals(expected.getConfigurations(), actual.getConfigurations());
+  }
 }
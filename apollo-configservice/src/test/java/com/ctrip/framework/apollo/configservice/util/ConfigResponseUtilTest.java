@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConfigResponseUtilTest {
+  private HttpServletRequest someRequest;
+
+  @Before
+  public void setUp() throws Exception {
+    someRequest = mock(HttpServletRequest.class);
+  }
+
+  @Test
+  public void testAcceptsGzip() throws Exception {
+    assertTrue(acceptsGzip("gzip"));
+    assertTrue(acceptsGzip("deflate, GZIP"));
+    assertTrue(acceptsGzip("gzip;q=0.5, deflate"));
+    assertTrue(acceptsGzip("x-gzip"));
+    assertTrue(acceptsGzip("*"));
+  }
+
+  @Test
+  public void testAcceptsGzipWithoutGzip() throws Exception {
+    assertFalse(acceptsGzip(null));
+    assertFalse(acceptsGzip(""));
+    assertFalse(acceptsGzip("deflate, br"));
+    assertFalse(acceptsGzip("identity"));
+  }
+
+  @Test
+  public void testAcceptsGzipWithZeroQuality() throws Exception {
+    assertFalse(acceptsGzip("gzip;q=0"));
+    assertFalse(acceptsGzip("deflate, gzip; q=0.0"));
+    assertFalse(acceptsGzip("*;q=0"));
+    assertFalse(acceptsGzip("gzip;q=0, *"));
+    assertTrue(acceptsGzip("*;q=0, gzip"));
+  }
+
+  @Test
+  public void testAcceptsGzipWithMalformedQuality() throws Exception {
+    assertFalse(acceptsGzip("gzip;q=abc"));
+  }
+
+  private boolean acceptsGzip(String acceptEncoding) {
+    when(someRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(acceptEncoding);
+    return ConfigResponseUtil.acceptsGzip(someRequest);
+  }
+}
@@ -19,16 +19,26 @@ package com.ctrip.framework.apollo.configservice.util;
 import com.ctrip.framework.apollo.biz.entity.Instance;
 import com.ctrip.framework.apollo.biz.entity.InstanceConfig;
 import com.ctrip.framework.apollo.biz.service.InstanceService;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -41,7 +51,8 @@ public class InstanceConfigAuditUtilTest {
 
   @Mock
   private InstanceService instanceService;
-  private BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel> audits;
+  private Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel> audits;
+  private List<BlockingQueue<List<InstanceConfigAuditUtil.InstanceConfigAuditModel>>> auditBatches;
 
   private String someAppId;
   private String someConfigClusterName;
@@ -58,8 +69,10 @@ public class InstanceConfigAuditUtilTest {
   public void setUp() throws Exception {
     instanceConfigAuditUtil = new InstanceConfigAuditUtil(instanceService);
 
-    audits = (BlockingQueue<InstanceConfigAuditUtil.InstanceConfigAuditModel>)
+    audits = (Map<String, InstanceConfigAuditUtil.InstanceConfigAuditModel>)
         ReflectionTestUtils.getField(instanceConfigAuditUtil, "audits");
+    auditBatches = (List<BlockingQueue<List<InstanceConfigAuditUtil.InstanceConfigAuditModel>>>)
+        ReflectionTestUtils.getField(instanceConfigAuditUtil, "auditBatches");
 
     someAppId = "someAppId";
     someClusterName = "someClusterName";
@@ -80,12 +93,40 @@ public class InstanceConfigAuditUtilTest {
     boolean result = instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
         someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
 
-    InstanceConfigAuditUtil.InstanceConfigAuditModel audit = audits.poll();
+    InstanceConfigAuditUtil.InstanceConfigAuditModel audit = audits.values().iterator().next();
 
     assertTrue(result);
+    assertEquals(1, audits.size());
     assertTrue(Objects.equals(someAuditModel, audit));
   }
 
+  @Test
+  public void testAuditCoalescesSameInstanceAndNamespace() throws Exception {
+    String anotherReleaseKey = "anotherReleaseKey";
+    String anotherConfigNamespace = "anotherConfigNamespace";
+
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, someConfigNamespace, anotherReleaseKey);
+    instanceConfigAuditUtil.audit(someAppId, someClusterName, someDataCenter,
+        someIp, someConfigAppId, someConfigClusterName, anotherConfigNamespace, someReleaseKey);
+
+    assertEquals(2, audits.size());
+
+    instanceConfigAuditUtil.flush();
+
+    List<InstanceConfigAuditUtil.InstanceConfigAuditModel> flushed = Lists.newArrayList();
+    for (BlockingQueue<List<InstanceConfigAuditUtil.InstanceConfigAuditModel>> batches : auditBatches) {
+      batches.forEach(flushed::addAll);
+    }
+
+    assertTrue(audits.isEmpty());
+    assertEquals(2, flushed.size());
+    assertEquals(anotherReleaseKey, flushed.stream()
+        .filter(audit -> someConfigNamespace.equals(audit.getConfigNamespace())).findFirst().get().getReleaseKey());
+  }
+
   @Test
   public void testDoAudit() throws Exception {
     long someInstanceId = 1;
@@ -94,15 +135,130 @@ public class InstanceConfigAuditUtilTest {
     when(someInstance.getId()).thenReturn(someInstanceId);
     when(instanceService.createInstance(any(Instance.class))).thenReturn(someInstance);
 
-    instanceConfigAuditUtil.doAudit(someAuditModel);
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
 
     verify(instanceService, times(1)).findInstance(someAppId, someClusterName, someDataCenter,
         someIp);
     verify(instanceService, times(1)).createInstance(any(Instance.class));
-    verify(instanceService, times(1)).findInstanceConfig(someInstanceId, someConfigAppId,
-        someConfigNamespace);
+    verify(instanceService, times(1)).findInstanceConfigs(someConfigAppId, someConfigNamespace,
+        Sets.newHashSet(someInstanceId));
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(anyList());
+  }
+
+  @Test
+  public void testDoAuditInBatch() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String anotherIp = "anotherIp";
+    String anotherReleaseKey = "anotherReleaseKey";
+    InstanceConfigAuditUtil.InstanceConfigAuditModel anotherAuditModel =
+        new InstanceConfigAuditUtil.InstanceConfigAuditModel(someAppId, someClusterName, someDataCenter, anotherIp,
+            someConfigAppId, someConfigClusterName, someConfigNamespace, anotherReleaseKey);
+    Instance someInstance = mock(Instance.class);
+    Instance anotherInstance = mock(Instance.class);
+    InstanceConfig existedInstanceConfig = new InstanceConfig();
+    existedInstanceConfig.setId(1);
+    existedInstanceConfig.setInstanceId(anotherInstanceId);
+    existedInstanceConfig.setReleaseKey(someReleaseKey);
+
+    when(someInstance.getId()).thenReturn(someInstanceId);
+    when(anotherInstance.getId()).thenReturn(anotherInstanceId);
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, someIp)).thenReturn(someInstance);
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, anotherIp))
+        .thenReturn(anotherInstance);
+    when(instanceService.findInstanceConfigs(someConfigAppId, someConfigNamespace,
+        Sets.newHashSet(someInstanceId, anotherInstanceId))).thenReturn(Lists.newArrayList(existedInstanceConfig));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel, anotherAuditModel));
+
+    ArgumentCaptor<List<InstanceConfig>> saved = ArgumentCaptor.forClass(List.class);
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(saved.capture());
+    verify(instanceService, never()).findInstanceConfig(anyLong(), anyString(), anyString());
+
+    Map<Long, InstanceConfig> savedByInstance = saved.getValue().stream()
+        .collect(Collectors.toMap(InstanceConfig::getInstanceId, Function.identity()));
+    assertEquals(2, savedByInstance.size());
+    assertEquals(0, savedByInstance.get(someInstanceId).getId());
+    assertEquals(someReleaseKey, savedByInstance.get(someInstanceId).getReleaseKey());
+    assertSame(existedInstanceConfig, savedByInstance.get(anotherInstanceId));
+    assertEquals(anotherReleaseKey, existedInstanceConfig.getReleaseKey());
+
+    //the same release keys are not written again
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel, anotherAuditModel));
+
+    verify(instanceService, times(1)).batchSaveInstanceConfigs(anyList());
+  }
+
+  @Test
+  public void testDoAuditFallbackWhenBatchConflicts() throws Exception {
+    long someInstanceId = 1;
+    Instance someInstance = mock(Instance.class);
+
+    when(someInstance.getId()).thenReturn(someInstanceId);
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, someIp)).thenReturn(someInstance);
+    when(instanceService.batchSaveInstanceConfigs(anyList())).thenThrow(new DataIntegrityViolationException("some"));
+    when(instanceService.createInstanceConfig(any(InstanceConfig.class)))
+        .thenThrow(new DataIntegrityViolationException("some"));
+
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
+
     verify(instanceService, times(1)).createInstanceConfig(any(InstanceConfig.class));
   }
 
+  @Test
+  public void testDoAuditFallbackAfterBatchAssignedIds() throws Exception {
+    long someInstanceId = 1;
+    long anotherInstanceId = 2;
+    String anotherIp = "anotherIp";
+    Instance someInstance = mock(Instance.class);
+    Instance anotherInstance = mock(Instance.class);
+    InstanceConfigAuditUtil.InstanceConfigAuditModel anotherAuditModel =
+        new InstanceConfigAuditUtil.InstanceConfigAuditModel(someAppId, someClusterName, someDataCenter, anotherIp,
+            someConfigAppId, someConfigClusterName, someConfigNamespace, someReleaseKey);
+    long someExistedInstanceConfigId = 10;
+
+    when(someInstance.getId()).thenReturn(someInstanceId);
+    when(anotherInstance.getId()).thenReturn(anotherInstanceId);
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, someIp)).thenReturn(someInstance);
+    when(instanceService.findInstance(someAppId, someClusterName, someDataCenter, anotherIp))
+        .thenReturn(anotherInstance);
+    when(instanceService.findInstanceConfigs(eq(someConfigAppId), eq(someConfigNamespace), anySet()))
+        .thenAnswer(invocation -> {
+          InstanceConfig someExistedInstanceConfig = new InstanceConfig();
+          someExistedInstanceConfig.setId(someExistedInstanceConfigId);
+          someExistedInstanceConfig.setInstanceId(someInstanceId);
+          someExistedInstanceConfig.setConfigAppId(someConfigAppId);
+          someExistedInstanceConfig.setConfigNamespaceName(someConfigNamespace);
+          someExistedInstanceConfig.setReleaseKey("someOldReleaseKey");
+          return Lists.newArrayList(someExistedInstanceConfig);
+        });
+    //the ids are assigned before the batch is rolled back
+    when(instanceService.batchSaveInstanceConfigs(anyList())).thenAnswer(invocation -> {
+      List<InstanceConfig> instanceConfigs = invocation.getArgument(0);
+      for (InstanceConfig instanceConfig : instanceConfigs) {
+        if (instanceConfig.getId() == 0) {
+          instanceConfig.setId(100);
+        }
+      }
+      throw new DataIntegrityViolationException("some");
+    });
+    //the existed one is deleted concurrently
+    when(instanceService.updateInstanceConfig(any(InstanceConfig.class)))
+        .thenThrow(new IllegalArgumentException("some"));
 
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel, anotherAuditModel));
+
+    ArgumentCaptor<InstanceConfig> created = ArgumentCaptor.forClass(InstanceConfig.class);
+    ArgumentCaptor<InstanceConfig> updated = ArgumentCaptor.forClass(InstanceConfig.class);
+    verify(instanceService, times(1)).createInstanceConfig(created.capture());
+    verify(instanceService, times(1)).updateInstanceConfig(updated.capture());
+    assertEquals(anotherInstanceId, created.getValue().getInstanceId());
+    assertEquals(someExistedInstanceConfigId, updated.getValue().getId());
+
+    //the failed one is audited again
+    instanceConfigAuditUtil.doAudit(Lists.newArrayList(someAuditModel));
+
+    verify(instanceService, times(2)).updateInstanceConfig(any(InstanceConfig.class));
+    verify(instanceService, times(1)).createInstanceConfig(any(InstanceConfig.class));
+  }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.util;
+
+import com.ctrip.framework.apollo.biz.config.BizConfig;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationFanOutSchedulerTest {
+  private NotificationFanOutScheduler scheduler;
+  @Mock
+  private BizConfig bizConfig;
+  private int someBatch;
+  private int someBatchInterval;
+  private String someSource;
+
+  @Before
+  public void setUp() throws Exception {
+    someBatch = 2;
+    someBatchInterval = 100;
+    someSource = "someSource";
+    when(bizConfig.releaseMessageNotificationWorkers()).thenReturn(1);
+    when(bizConfig.releaseMessageNotificationBatch()).thenReturn(someBatch);
+    when(bizConfig.releaseMessageNotificationBatchIntervalInMilli()).thenReturn(someBatchInterval);
+
+    scheduler = new NotificationFanOutScheduler(bizConfig);
+  }
+
+  @Test
+  public void testDispatchSmallFanOutInline() throws Exception {
+    Queue<Integer> notified = new ConcurrentLinkedQueue<>();
+
+    scheduler.dispatch(someSource, "someKey", Lists.newArrayList(1, 2), notified::add);
+
+    assertEquals(Lists.newArrayList(1, 2), Lists.newArrayList(notified));
+    assertEquals(0, scheduler.pendingFanOuts());
+  }
+
+  @Test
+  public void testDispatchLargeFanOutInBatches() throws Exception {
+    Queue<Integer> notified = new ConcurrentLinkedQueue<>();
+    List<Integer> targets = IntStream.range(0, someBatch * 3).boxed().collect(Collectors.toList());
+
+    scheduler.dispatch(someSource, "someKey", targets, notified::add);
+
+    //the first batch is notified right away, the rest are paced
+    await().pollInterval(5, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS)
+        .until(() -> notified.size() >= someBatch);
+    assertTrue(notified.size() < targets.size());
+
+    await().atMost(someBatchInterval * 20, TimeUnit.MILLISECONDS).until(() -> notified.size() == targets.size());
+    await().atMost(1, TimeUnit.SECONDS).until(() -> scheduler.pendingFanOuts() == 0);
+    assertEquals(targets, Lists.newArrayList(notified));
+  }
+
+  @Test
+  public void testSmallerFanOutGoesFirst() throws Exception {
+    Queue<String> notified = new ConcurrentLinkedQueue<>();
+    List<String> largeTargets = IntStream.range(0, someBatch * 10).mapToObj(i -> "large" + i)
+        .collect(Collectors.toList());
+    List<String> smallTargets = IntStream.range(0, someBatch + 1).mapToObj(i -> "small" + i)
+        .collect(Collectors.toList());
+
+    scheduler.dispatch(someSource, "someKey", largeTargets, notified::add);
+    scheduler.dispatch(someSource, "anotherKey", smallTargets, notified::add);
+
+    await().atMost(someBatchInterval * 20, TimeUnit.MILLISECONDS)
+        .until(() -> notified.containsAll(smallTargets));
+
+    assertTrue(notified.size() < largeTargets.size() + smallTargets.size());
+  }
+
+  @Test
+  public void testDispatchSameKeyBackToBack() throws Exception {
+    Queue<String> notified = new ConcurrentLinkedQueue<>();
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch secondDispatched = new CountDownLatch(1);
+    List<String> someTargets = IntStream.range(0, someBatch * 3).mapToObj(i -> "some" + i)
+        .collect(Collectors.toList());
+    List<String> anotherTargets = IntStream.range(0, someBatch * 3).mapToObj(i -> "another" + i)
+        .collect(Collectors.toList());
+
+    scheduler.dispatch(someSource, "someKey", someTargets, target -> {
+      firstBatchStarted.countDown();
+      awaitQuietly(secondDispatched);
+      notified.add(target);
+    });
+    assertTrue(firstBatchStarted.await(1, TimeUnit.SECONDS));
+
+    long start = System.nanoTime();
+    scheduler.dispatch(someSource, "someKey", anotherTargets, notified::add);
+    secondDispatched.countDown();
+
+    //the pending fan-out of the key is replaced instead of running another one in parallel
+    assertEquals(1, scheduler.pendingFanOuts());
+
+    await().atMost(someBatchInterval * 20, TimeUnit.MILLISECONDS).until(() -> scheduler.pendingFanOuts() == 0);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    List<String> expected = Lists.newArrayList(someTargets.subList(0, someBatch));
+    expected.addAll(anotherTargets);
+    assertEquals(expected, Lists.newArrayList(notified));
+    //the replaced clients are still paced batch by batch
+    assertTrue(elapsed >= someBatchInterval * 3);
+  }
+
+  @Test
+  public void testDispatchSameKeyOfDifferentSources() throws Exception {
+    Queue<String> notified = new ConcurrentLinkedQueue<>();
+    List<String> someTargets = IntStream.range(0, someBatch * 3).mapToObj(i -> "some" + i)
+        .collect(Collectors.toList());
+    List<String> anotherTargets = IntStream.range(0, someBatch * 3).mapToObj(i -> "another" + i)
+        .collect(Collectors.toList());
+
+    scheduler.dispatch(someSource, "someKey", someTargets, notified::add);
+    scheduler.dispatch("anotherSource", "someKey", anotherTargets, notified::add);
+
+    await().atMost(someBatchInterval * 20, TimeUnit.MILLISECONDS).until(() -> scheduler.pendingFanOuts() == 0);
+    assertTrue(notified.containsAll(someTargets));
+    assertTrue(notified.containsAll(anotherTargets));
+  }
+
+  @Test
+  public void testDispatchIsolatesNotifierFailure() throws Exception {
+    Queue<Integer> notified = new ConcurrentLinkedQueue<>();
+
+    scheduler.dispatch(someSource, "someKey", Lists.newArrayList(1, 2), target -> {
+      if (target == 1) {
+        throw new IllegalStateException("some error");
+      }
+      notified.add(target);
+    });
+
+    assertEquals(Lists.newArrayList(2), Lists.newArrayList(notified));
+  }
+
+  @Test
+  public void testBindTo() throws Exception {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    scheduler.bindTo(meterRegistry);
+
+    scheduler.dispatch(someSource, "someKey", Lists.newArrayList(1), target -> {
+    });
+
+    assertEquals(1, meterRegistry.get("apollo.notification.fanout.latency").timer().count());
+    assertEquals(0, meterRegistry.get("apollo.notification.fanout.pending").gauge().value(), 0);
+  }
+
+  private void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(1, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
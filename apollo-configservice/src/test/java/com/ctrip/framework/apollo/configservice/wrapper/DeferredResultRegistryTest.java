@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.configservice.wrapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeferredResultRegistryTest {
+  private DeferredResultRegistry<Object> registry;
+
+  @Before
+  public void setUp() throws Exception {
+    registry = new DeferredResultRegistry<>("someMetric", 4);
+  }
+
+  @Test
+  public void testRegisterAndGetIgnoresCase() throws Exception {
+    String someKey = "someAppId+default+application";
+    Object someValue = new Object();
+    Object anotherValue = new Object();
+
+    assertTrue(registry.register(someKey, someValue));
+    assertTrue(registry.register(someKey.toUpperCase(), anotherValue));
+    assertFalse(registry.register(someKey, someValue));
+
+    List<Object> values = registry.get(someKey.toLowerCase());
+
+    assertEquals(2, values.size());
+    assertTrue(values.contains(someValue));
+    assertTrue(values.contains(anotherValue));
+    assertEquals(2, registry.size());
+    assertEquals(1, registry.keySize());
+  }
+
+  @Test
+  public void testUnregisterRemovesEmptyKey() throws Exception {
+    String someKey = "someKey";
+    Object someValue = new Object();
+
+    registry.register(someKey, someValue);
+
+    assertTrue(registry.unregister(someKey.toUpperCase(), someValue));
+    assertFalse(registry.unregister(someKey, someValue));
+    assertFalse(registry.containsKey(someKey));
+    assertTrue(registry.get(someKey).isEmpty());
+    assertEquals(0, registry.size());
+    assertEquals(0, registry.keySize());
+  }
+
+  @Test
+  public void testGetReturnsSnapshot() throws Exception {
+    String someKey = "someKey";
+    Object someValue = new Object();
+
+    registry.register(someKey, someValue);
+    List<Object> values = registry.get(someKey);
+    registry.unregister(someKey, someValue);
+
+    assertEquals(1, values.size());
+  }
+
+  @Test
+  public void testConcurrentRegisterAndUnregister() throws Exception {
+    int threads = 8;
+    int valuesPerThread = 1000;
+    String[] keys = {"someKey", "anotherKey", "yetAnotherKey"};
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    CountDownLatch latch = new CountDownLatch(threads);
+
+    for (int i = 0; i < threads; i++) {
+      executorService.submit(() -> {
+        try {
+          for (int j = 0; j < valuesPerThread; j++) {
+            Object value = new Object();
+            for (String key : keys) {
+              registry.register(key, value);
+              registry.get(key);
+            }
+            for (String key : keys) {
+              registry.unregister(key, value);
+            }
+          }
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    executorService.shutdown();
+
+    assertEquals(0, registry.size());
+    assertEquals(0, registry.keySize());
+  }
+
+  @Test
+  public void testBindTo() throws Exception {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    registry.bindTo(meterRegistry);
+
+    registry.register("someKey", new Object());
+    registry.register("anotherKey", new Object());
+
+    assertEquals(2, meterRegistry.get("someMetric.registrations").gauge().value(), 0);
+    assertEquals(2, meterRegistry.get("someMetric.keys").gauge().value(), 0);
+    assertEquals(2, meterRegistry.get("someMetric.registered").functionCounter().count(), 0);
+  }
+}
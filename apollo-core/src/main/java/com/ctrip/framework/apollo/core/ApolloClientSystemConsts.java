@@ -126,4 +126,24 @@ public class ApolloClientSystemConsts {
    * enable property order environment variables
    */
   public static final String APOLLO_PROPERTY_ORDER_ENABLE_ENVIRONMENT_VARIABLES = "APOLLO_PROPERTY_ORDER_ENABLE";
+
+  /**
+   * enable incremental config sync
+   */
+  public static final String APOLLO_INCREMENTAL_SYNC_ENABLE = "apollo.incremental.sync.enable";
+
+  /**
+   * enable multiplexed long polling, which carries the changed configs with the notifications
+   */
+  public static final String APOLLO_LONG_POLL_MULTIPLEX_ENABLE = "apollo.long-poll.multiplex.enable";
+
+  /**
+   * enable the pooled http client
+   */
+  public static final String APOLLO_HTTP_CLIENT_POOLED_ENABLE = "apollo.http-client.pooled.enable";
+
+  /**
+   * enable the batch config query, which loads many namespaces with one request
+   */
+  public static final String APOLLO_CONFIG_BATCH_QUERY_ENABLE = "apollo.config.batch-query.enable";
 }
@@ -16,6 +16,7 @@
  */
 package com.ctrip.framework.apollo.core.dto;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,6 +34,10 @@ public class ApolloConfig {
 
   private String releaseKey;
 
+  private String configSyncType;
+
+  private List<ConfigurationChange> configurationChanges;
+
   public ApolloConfig() {
   }
 
@@ -86,6 +91,28 @@ public class ApolloConfig {
     this.configurations = configurations;
   }
 
+  /**
+   * @return the value of {@link com.ctrip.framework.apollo.core.enums.ConfigSyncType}, null means full sync
+   */
+  public String getConfigSyncType() {
+    return configSyncType;
+  }
+
+  public void setConfigSyncType(String configSyncType) {
+    this.configSyncType = configSyncType;
+  }
+
+  /**
+   * @return the changes since the release key sent by the client, only available for incremental sync
+   */
+  public List<ConfigurationChange> getConfigurationChanges() {
+    return configurationChanges;
+  }
+
+  public void setConfigurationChanges(List<ConfigurationChange> configurationChanges) {
+    this.configurationChanges = configurationChanges;
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder("ApolloConfig{");
@@ -94,6 +121,10 @@ public class ApolloConfig {
     sb.append(", namespaceName='").append(namespaceName).append('\'');
     sb.append(", configurations=").append(configurations);
     sb.append(", releaseKey='").append(releaseKey).append('\'');
+    if (configSyncType != null) {
+      sb.append(", configSyncType='").append(configSyncType).append('\'');
+      sb.append(", configurationChanges=").append(configurationChanges);
+    }
     sb.append('}');
     return sb.toString();
   }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.dto;
+
+/**
+ * The notification of a multiplexed long polling request, which carries the changed config as well so the client
+ * doesn't need to query it again
+ */
+public class ApolloConfigMultiplexedNotification {
+
+  private String appId;
+
+  private String cluster;
+
+  private ApolloConfigNotification notification;
+
+  private ApolloConfig config;
+
+  public ApolloConfigMultiplexedNotification() {
+  }
+
+  public ApolloConfigMultiplexedNotification(String appId, String cluster, ApolloConfigNotification notification) {
+    this.appId = appId;
+    this.cluster = cluster;
+    this.notification = notification;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public void setAppId(String appId) {
+    this.appId = appId;
+  }
+
+  public String getCluster() {
+    return cluster;
+  }
+
+  public void setCluster(String cluster) {
+    this.cluster = cluster;
+  }
+
+  public ApolloConfigNotification getNotification() {
+    return notification;
+  }
+
+  public void setNotification(ApolloConfigNotification notification) {
+    this.notification = notification;
+  }
+
+  /**
+   * @return the latest config of the namespace, null if it could not be loaded or is the same as the client side
+   * release key, then the client should query it by itself
+   */
+  public ApolloConfig getConfig() {
+    return config;
+  }
+
+  public void setConfig(ApolloConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("ApolloConfigMultiplexedNotification{");
+    sb.append("appId='").append(appId).append('\'');
+    sb.append(", cluster='").append(cluster).append('\'');
+    sb.append(", notification=").append(notification);
+    sb.append(", config=").append(config);
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.dto;
+
+/**
+ * A namespace watched by a multiplexed long polling request, the namespaces of different appIds and clusters could be
+ * watched by the same request
+ */
+public class ApolloConfigSubscription {
+
+  private String appId;
+
+  private String cluster;
+
+  private String namespaceName;
+
+  private long notificationId;
+
+  private String releaseKey;
+
+  public ApolloConfigSubscription() {
+  }
+
+  public ApolloConfigSubscription(String appId, String cluster, String namespaceName, long notificationId) {
+    this.appId = appId;
+    this.cluster = cluster;
+    this.namespaceName = namespaceName;
+    this.notificationId = notificationId;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public void setAppId(String appId) {
+    this.appId = appId;
+  }
+
+  public String getCluster() {
+    return cluster;
+  }
+
+  public void setCluster(String cluster) {
+    this.cluster = cluster;
+  }
+
+  public String getNamespaceName() {
+    return namespaceName;
+  }
+
+  public void setNamespaceName(String namespaceName) {
+    this.namespaceName = namespaceName;
+  }
+
+  public long getNotificationId() {
+    return notificationId;
+  }
+
+  public void setNotificationId(long notificationId) {
+    this.notificationId = notificationId;
+  }
+
+  /**
+   * @return the release key of the client side config, null if the client has no config yet
+   */
+  public String getReleaseKey() {
+    return releaseKey;
+  }
+
+  public void setReleaseKey(String releaseKey) {
+    this.releaseKey = releaseKey;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("ApolloConfigSubscription{");
+    sb.append("appId='").append(appId).append('\'');
+    sb.append(", cluster='").append(cluster).append('\'');
+    sb.append(", namespaceName='").append(namespaceName).append('\'');
+    sb.append(", notificationId=").append(notificationId);
+    sb.append(", releaseKey='").append(releaseKey).append('\'');
+    sb.append('}');
+    return sb.toString();
+  }
+}
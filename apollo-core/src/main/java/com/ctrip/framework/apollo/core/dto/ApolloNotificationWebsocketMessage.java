@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.dto;
+
+import java.util.List;
+
+/**
+ * The message exchanged on the notification websocket of the config service.
+ *
+ * <p>The client sends {@link #SUBSCRIBE} with its latest notification ids whenever the watched namespaces change, or
+ * after reconnecting, and the server pushes {@link #NOTIFY} for every notification newer than the subscribed ones.
+ * {@link #PING} and {@link #PONG} are the heartbeats which keep the connection and its proxies alive.</p>
+ */
+public class ApolloNotificationWebsocketMessage {
+  public static final String SUBSCRIBE = "subscribe";
+  public static final String NOTIFY = "notify";
+  public static final String PING = "ping";
+  public static final String PONG = "pong";
+
+  private String type;
+
+  private List<ApolloConfigNotification> notifications;
+
+  public ApolloNotificationWebsocketMessage() {
+  }
+
+  public ApolloNotificationWebsocketMessage(String type, List<ApolloConfigNotification> notifications) {
+    this.type = type;
+    this.notifications = notifications;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  public List<ApolloConfigNotification> getNotifications() {
+    return notifications;
+  }
+
+  public void setNotifications(List<ApolloConfigNotification> notifications) {
+    this.notifications = notifications;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("ApolloNotificationWebsocketMessage{");
+    sb.append("type='").append(type).append('\'');
+    sb.append(", notifications=").append(notifications);
+    sb.append('}');
+    return sb.toString();
+  }
+}
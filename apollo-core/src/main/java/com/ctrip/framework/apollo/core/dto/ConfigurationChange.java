@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.dto;
+
+import com.ctrip.framework.apollo.core.enums.ConfigurationChangeType;
+
+/**
+ * A changed key of an incremental config response
+ */
+public class ConfigurationChange {
+
+  private String key;
+
+  private String newValue;
+
+  private ConfigurationChangeType configurationChangeType;
+
+  public ConfigurationChange() {
+  }
+
+  public ConfigurationChange(String key, String newValue, ConfigurationChangeType configurationChangeType) {
+    this.key = key;
+    this.newValue = newValue;
+    this.configurationChangeType = configurationChangeType;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  /**
+   * @return the new value, null if the key is deleted
+   */
+  public String getNewValue() {
+    return newValue;
+  }
+
+  public void setNewValue(String newValue) {
+    this.newValue = newValue;
+  }
+
+  public ConfigurationChangeType getConfigurationChangeType() {
+    return configurationChangeType;
+  }
+
+  public void setConfigurationChangeType(ConfigurationChangeType configurationChangeType) {
+    this.configurationChangeType = configurationChangeType;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("ConfigurationChange{");
+    sb.append("key='").append(key).append('\'');
+    sb.append(", newValue='").append(newValue).append('\'');
+    sb.append(", configurationChangeType=").append(configurationChangeType);
+    sb.append('}');
+    return sb.toString();
+  }
+}
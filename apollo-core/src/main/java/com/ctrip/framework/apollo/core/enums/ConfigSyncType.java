@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.core.enums;
+
+import com.ctrip.framework.apollo.core.utils.StringUtils;
+
+/**
+ * How the configurations of a config response are delivered
+ */
+public enum ConfigSyncType {
+  /**
+   * the response carries all the configurations
+   */
+  FULL_SYNC("FullSync"),
+  /**
+   * the response only carries the changes since the release key sent by the client
+   */
+  INCREMENTAL_SYNC("IncrementalSync");
+
+  private final String value;
+
+  ConfigSyncType(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public static ConfigSyncType fromString(String value) {
+    if (StringUtils.isEmpty(value)) {
+      return FULL_SYNC;
+    }
+    for (ConfigSyncType type : values()) {
+      if (type.value.equalsIgnoreCase(value)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException(value + " can not map enum");
+  }
+}
@@ -44,6 +44,18 @@ public class ExponentialSchedulePolicy implements SchedulePolicy {
     return delayTime;
   }
 
+  /**
+   * Called when the server asks to wait at least the given delay before retrying, e.g. with Retry-After, the next
+   * delays grow from the delay asked by the server
+   */
+  public long fail(long minDelayTime) {
+    long delayTime = Math.max(fail(), Math.min(minDelayTime, delayTimeUpperBound));
+
+    lastDelayTime = delayTime;
+
+    return delayTime;
+  }
+
   @Override
   public void success() {
     lastDelayTime = 0;
@@ -122,7 +122,9 @@ public class AdminServiceAddressLocator {
         if (services == null || services.length == 0) {
           continue;
         }
-        cache.put(env, Arrays.asList(services));
+        List<ServiceDTO> serviceList = Arrays.asList(services);
+        cache.put(env, serviceList);
+        restTemplateFactory.sizeConnectionPool(env, serviceList);
         return true;
       } catch (Throwable e) {
         logger.error(String.format("Get admin server address from meta server failed. env: %s, meta server address:%s",
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.portal.component;
+
+import com.ctrip.framework.apollo.core.utils.ApolloThreadFactory;
+import com.ctrip.framework.apollo.portal.component.config.PortalConfig;
+import com.ctrip.framework.apollo.portal.constant.TracerEventType;
+import com.ctrip.framework.apollo.portal.environment.Env;
+import com.ctrip.framework.apollo.tracer.Tracer;
+import com.google.common.collect.Lists;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Calls the admin services of the envs concurrently, so a multi-env read takes as long as the slowest env instead of
+ * the sum of them, and a slow env can't hold the others beyond the timeout.
+ *
+ * <p>The result of every env is returned, the failed or timed out envs with the error instead of the value, so the
+ * callers could show the partial results.</p>
+ */
+@Component
+public class EnvFanOutExecutor {
+
+  private static final int THREADS = 32;
+  private static final long THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+  private static final long DEFAULT_TIMEOUT_IN_MILLI = 15000;
+
+  private final PortalConfig portalConfig;
+  private final ExecutorService executor;
+
+  public EnvFanOutExecutor(final PortalConfig portalConfig) {
+    this.portalConfig = portalConfig;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, THREAD_KEEP_ALIVE_IN_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), ApolloThreadFactory.create("EnvFanOutExecutor", true));
+    executor.allowCoreThreadTimeOut(true);
+    this.executor = executor;
+  }
+
+  /**
+   * Run the task for each env concurrently and wait for them within the fan out timeout
+   *
+   * @return the results in the order of the envs
+   */
+  public <T> List<EnvResult<T>> execute(Collection<Env> envs, Function<Env, T> task) {
+    long timeoutInMilli = portalConfig.envFanOutTimeoutInMilli();
+    if (timeoutInMilli <= 0) {
+      timeoutInMilli = DEFAULT_TIMEOUT_IN_MILLI;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilli);
+
+    Map<Env, Future<T>> futures = new LinkedHashMap<>();
+    for (Env env : envs) {
+      futures.put(env, executor.submit(() -> task.apply(env)));
+    }
+
+    List<EnvResult<T>> results = Lists.newArrayListWithCapacity(futures.size());
+    for (Map.Entry<Env, Future<T>> entry : futures.entrySet()) {
+      results.add(await(entry.getKey(), entry.getValue(), deadline, timeoutInMilli));
+    }
+    return results;
+  }
+
+  private <T> EnvResult<T> await(Env env, Future<T> future, long deadline, long timeoutInMilli) {
+    try {
+      return EnvResult.success(env, future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+    } catch (ExecutionException ex) {
+      return EnvResult.failure(env, ex.getCause());
+    } catch (TimeoutException | CancellationException ex) {
+      future.cancel(true);
+      Tracer.logEvent(TracerEventType.API_ENV_TIMEOUT, env.getName());
+      return EnvResult.failure(env,
+          new TimeoutException(String.format("env %s did not respond in %d ms", env, timeoutInMilli)));
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return EnvResult.failure(env, ex);
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  public static class EnvResult<T> {
+
+    private final Env env;
+    private final T value;
+    private final Throwable error;
+
+    private EnvResult(Env env, T value, Throwable error) {
+      this.env = env;
+      this.value = value;
+      this.error = error;
+    }
+
+    static <T> EnvResult<T> success(Env env, T value) {
+      return new EnvResult<>(env, value, null);
+    }
+
+    static <T> EnvResult<T> failure(Env env, Throwable error) {
+      return new EnvResult<>(env, null, error);
+    }
+
+    public Env getEnv() {
+      return env;
+    }
+
+    public T getValue() {
+      return value;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+  }
+}
@@ -16,9 +16,21 @@
  */
 package com.ctrip.framework.apollo.portal.component;
 
+import com.ctrip.framework.apollo.core.dto.ServiceDTO;
 import com.ctrip.framework.apollo.portal.component.config.PortalConfig;
+import com.ctrip.framework.apollo.portal.environment.Env;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,10 +39,22 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The connections to the admin services are pooled and kept alive, so the calls of the portal don't open a connection
+ * each time. An admin service instance is a route of the pool, its max connections can be configured per env.
+ */
 @Component
-public class RestTemplateFactory implements FactoryBean<RestTemplate>, InitializingBean {
+public class RestTemplateFactory implements FactoryBean<RestTemplate>, InitializingBean, DisposableBean,
+    MeterBinder {
+
+  private static final Logger logger = LoggerFactory.getLogger(RestTemplateFactory.class);
+  private static final long CONNECTION_IDLE_TIMEOUT_IN_SECONDS = 30;
 
   @Autowired
   private HttpMessageConverters httpMessageConverters;
@@ -38,6 +62,9 @@ public class RestTemplateFactory implements FactoryBean<RestTemplate>, Initializ
   private PortalConfig portalConfig;
 
   private RestTemplate restTemplate;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private CloseableHttpClient httpClient;
+  private final CompositeMeterRegistry meterRegistry = new CompositeMeterRegistry();
 
   public RestTemplate getObject() {
     return restTemplate;
@@ -52,7 +79,15 @@ public class RestTemplateFactory implements FactoryBean<RestTemplate>, Initializ
   }
 
   public void afterPropertiesSet() throws UnsupportedEncodingException {
-    CloseableHttpClient httpClient = HttpClientBuilder.create().build();
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(portalConfig.connectionPoolMaxTotal());
+    connectionManager.setDefaultMaxPerRoute(portalConfig.connectionPoolMaxPerRoute());
+
+    httpClient = HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .evictExpiredConnections()
+        .evictIdleConnections(CONNECTION_IDLE_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)
+        .build();
 
     restTemplate = new RestTemplate(httpMessageConverters.getConverters());
     HttpComponentsClientHttpRequestFactory requestFactory =
@@ -61,7 +96,51 @@ public class RestTemplateFactory implements FactoryBean<RestTemplate>, Initializ
     requestFactory.setReadTimeout(portalConfig.readTimeout());
 
     restTemplate.setRequestFactory(requestFactory);
+
+    Gauge.builder("apollo.portal.admin-api.connections.leased", connectionManager,
+        manager -> manager.getTotalStats().getLeased())
+        .description("connections to the admin services in use").register(meterRegistry);
+    Gauge.builder("apollo.portal.admin-api.connections.available", connectionManager,
+        manager -> manager.getTotalStats().getAvailable())
+        .description("idle connections to the admin services kept alive").register(meterRegistry);
+    Gauge.builder("apollo.portal.admin-api.connections.pending", connectionManager,
+        manager -> manager.getTotalStats().getPending())
+        .description("requests waiting for a connection to the admin services").register(meterRegistry);
+    Gauge.builder("apollo.portal.admin-api.connections.max", connectionManager,
+        manager -> manager.getTotalStats().getMax())
+        .description("max connections to the admin services").register(meterRegistry);
   }
 
+  /**
+   * Applies the max connections configured for the env to its admin service instances
+   */
+  public void sizeConnectionPool(Env env, List<ServiceDTO> services) {
+    Integer maxPerRoute = portalConfig.connectionPoolMaxPerRouteOfEnvs().get(env);
+    if (maxPerRoute == null || connectionManager == null) {
+      return;
+    }
+    for (ServiceDTO service : services) {
+      try {
+        URI uri = URI.create(service.getHomepageUrl());
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+        HttpRoute route = new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+        connectionManager.setMaxPerRoute(route, maxPerRoute);
+      } catch (Throwable ex) {
+        logger.warn("Size connection pool failed, env: {}, admin service: {}", env, service.getHomepageUrl(), ex);
+      }
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    meterRegistry.add(registry);
+  }
 
+  @Override
+  public void destroy() throws IOException {
+    if (httpClient != null) {
+      httpClient.close();
+    }
+  }
 }
@@ -49,6 +49,8 @@ public class PortalConfig extends RefreshableConfig {
    */
   private static final Type META_SERVERS = new TypeToken<Map<String, String>>(){}.getType();
 
+  private static final Type ENV_CONNECTIONS = new TypeToken<Map<String, Integer>>(){}.getType();
+
   private final PortalDBPropertySource portalDBPropertySource;
 
   public PortalConfig(final PortalDBPropertySource portalDBPropertySource) {
@@ -157,6 +159,53 @@ public class PortalConfig extends RefreshableConfig {
     return getIntProperty("api.readTimeout", 10000);
   }
 
+  /**
+   * how long the multi-env reads wait for the admin services of all the envs, the envs not responded in time are
+   * shown as failed
+   */
+  public int envFanOutTimeoutInMilli() {
+    return getIntProperty("api.envFanOut.timeoutInMilli", 15000);
+  }
+
+  /**
+   * the max connections kept to all the admin services, read on startup
+   */
+  public int connectionPoolMaxTotal() {
+    return getIntProperty("api.connectionPool.maxTotal", 200);
+  }
+
+  /**
+   * the max connections kept to one admin service instance, unless configured for its env
+   */
+  public int connectionPoolMaxPerRoute() {
+    return getIntProperty("api.connectionPool.maxPerRoute", 20);
+  }
+
+  /**
+   * @return the max connections kept to one admin service instance of the envs, e.g. {"PRO": 50}. empty if meet
+   * exception
+   */
+  public Map<Env, Integer> connectionPoolMaxPerRouteOfEnvs() {
+    final String key = "api.connectionPool.maxPerRoute.envs";
+    String jsonContent = getValue(key);
+    if (Strings.isNullOrEmpty(jsonContent)) {
+      return Collections.emptyMap();
+    }
+
+    Map<Env, Integer> result = new HashMap<>();
+    try {
+      Map<String, Integer> map = GSON.fromJson(jsonContent, ENV_CONNECTIONS);
+      map.forEach((env, maxPerRoute) -> {
+        if (Env.exists(env) && maxPerRoute != null && maxPerRoute > 0) {
+          result.put(Env.valueOf(env), maxPerRoute);
+        }
+      });
+    } catch (Exception e) {
+      logger.error("Wrong format for: {}", key, e);
+    }
+    return result;
+  }
+
   public List<Organization> organizations() {
 
     String organizations = getValue("organizations");
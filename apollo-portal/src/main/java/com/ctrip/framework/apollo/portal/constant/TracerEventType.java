@@ -36,6 +36,8 @@ public interface TracerEventType {
 
   String API_RETRY = "API.Retry";
 
+  String API_ENV_TIMEOUT = "API.Env.Timeout";
+
   String USER_ACCESS = "User.Access";
 
   String CREATE_GRAY_RELEASE = "GrayRelease.Create";
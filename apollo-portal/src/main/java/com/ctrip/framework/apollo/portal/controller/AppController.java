@@ -25,6 +25,8 @@ import com.ctrip.framework.apollo.common.http.MultiResponseEntity;
 import com.ctrip.framework.apollo.common.http.RichResponseEntity;
 import com.ctrip.framework.apollo.common.utils.BeanUtils;
 import com.ctrip.framework.apollo.core.ConfigConsts;
+import com.ctrip.framework.apollo.portal.component.EnvFanOutExecutor;
+import com.ctrip.framework.apollo.portal.component.EnvFanOutExecutor.EnvResult;
 import com.ctrip.framework.apollo.portal.component.PortalSettings;
 import com.ctrip.framework.apollo.portal.enricher.adapter.AppDtoUserInfoEnrichedAdapter;
 import com.ctrip.framework.apollo.portal.entity.model.AppModel;
@@ -77,6 +79,7 @@ public class AppController {
   private final RolePermissionService rolePermissionService;
   private final RoleInitializationService roleInitializationService;
   private final AdditionalUserInfoEnrichService additionalUserInfoEnrichService;
+  private final EnvFanOutExecutor envFanOutExecutor;
 
   public AppController(
       final UserInfoHolder userInfoHolder,
@@ -85,7 +88,8 @@ public class AppController {
       final ApplicationEventPublisher publisher,
       final RolePermissionService rolePermissionService,
       final RoleInitializationService roleInitializationService,
-      final AdditionalUserInfoEnrichService additionalUserInfoEnrichService) {
+      final AdditionalUserInfoEnrichService additionalUserInfoEnrichService,
+      final EnvFanOutExecutor envFanOutExecutor) {
     this.userInfoHolder = userInfoHolder;
     this.appService = appService;
     this.portalSettings = portalSettings;
@@ -93,6 +97,7 @@ public class AppController {
     this.rolePermissionService = rolePermissionService;
     this.roleInitializationService = roleInitializationService;
     this.additionalUserInfoEnrichService = additionalUserInfoEnrichService;
+    this.envFanOutExecutor = envFanOutExecutor;
   }
 
   @GetMapping
@@ -168,12 +173,13 @@ public class AppController {
 
     MultiResponseEntity<EnvClusterInfo> response = MultiResponseEntity.ok();
     List<Env> envs = portalSettings.getActiveEnvs();
-    for (Env env : envs) {
-      try {
-        response.addResponseEntity(RichResponseEntity.ok(appService.createEnvNavNode(env, appId)));
-      } catch (Exception e) {
+    for (EnvResult<EnvClusterInfo> envResult : envFanOutExecutor
+        .execute(envs, env -> appService.createEnvNavNode(env, appId))) {
+      if (envResult.isSuccess()) {
+        response.addResponseEntity(RichResponseEntity.ok(envResult.getValue()));
+      } else {
         response.addResponseEntity(RichResponseEntity.error(HttpStatus.INTERNAL_SERVER_ERROR,
-            "load env:" + env.name() + " cluster error." + e
+            "load env:" + envResult.getEnv().name() + " cluster error." + envResult.getError()
                 .getMessage()));
       }
     }
@@ -211,19 +217,20 @@ public class AppController {
   public MultiResponseEntity<String> findMissEnvs(@PathVariable String appId) {
 
     MultiResponseEntity<String> response = MultiResponseEntity.ok();
-    for (Env env : portalSettings.getActiveEnvs()) {
-      try {
-        appService.load(env, appId);
-      } catch (Exception e) {
-        if (e instanceof HttpClientErrorException &&
-            ((HttpClientErrorException) e).getStatusCode() == HttpStatus.NOT_FOUND) {
-          response.addResponseEntity(RichResponseEntity.ok(env.toString()));
-        } else {
-          response.addResponseEntity(RichResponseEntity.error(HttpStatus.INTERNAL_SERVER_ERROR,
-              String.format("load appId:%s from env %s error.", appId,
-                  env)
-                  + e.getMessage()));
-        }
+    for (EnvResult<AppDTO> envResult : envFanOutExecutor
+        .execute(portalSettings.getActiveEnvs(), env -> appService.load(env, appId))) {
+      Throwable e = envResult.getError();
+      if (e == null) {
+        continue;
+      }
+      if (e instanceof HttpClientErrorException &&
+          ((HttpClientErrorException) e).getStatusCode() == HttpStatus.NOT_FOUND) {
+        response.addResponseEntity(RichResponseEntity.ok(envResult.getEnv().toString()));
+      } else {
+        response.addResponseEntity(RichResponseEntity.error(HttpStatus.INTERNAL_SERVER_ERROR,
+            String.format("load appId:%s from env %s error.", appId,
+                envResult.getEnv())
+                + e.getMessage()));
       }
     }
 
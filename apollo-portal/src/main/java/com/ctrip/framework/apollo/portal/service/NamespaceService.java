@@ -26,6 +26,8 @@ import com.ctrip.framework.apollo.common.utils.BeanUtils;
 import com.ctrip.framework.apollo.core.enums.ConfigFileFormat;
 import com.ctrip.framework.apollo.core.utils.StringUtils;
 import com.ctrip.framework.apollo.portal.api.AdminServiceAPI;
+import com.ctrip.framework.apollo.portal.component.EnvFanOutExecutor;
+import com.ctrip.framework.apollo.portal.component.EnvFanOutExecutor.EnvResult;
 import com.ctrip.framework.apollo.portal.component.PortalSettings;
 import com.ctrip.framework.apollo.portal.component.config.PortalConfig;
 import com.ctrip.framework.apollo.portal.constant.RoleType;
@@ -44,7 +46,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
@@ -68,6 +70,7 @@ public class NamespaceService {
   private final NamespaceBranchService branchService;
   private final RolePermissionService rolePermissionService;
   private final AdditionalUserInfoEnrichService additionalUserInfoEnrichService;
+  private final EnvFanOutExecutor envFanOutExecutor;
 
   public NamespaceService(
       final PortalConfig portalConfig,
@@ -80,7 +83,8 @@ public class NamespaceService {
       final InstanceService instanceService,
       final @Lazy NamespaceBranchService branchService,
       final RolePermissionService rolePermissionService,
-      final AdditionalUserInfoEnrichService additionalUserInfoEnrichService) {
+      final AdditionalUserInfoEnrichService additionalUserInfoEnrichService,
+      final EnvFanOutExecutor envFanOutExecutor) {
     this.portalConfig = portalConfig;
     this.portalSettings = portalSettings;
     this.userInfoHolder = userInfoHolder;
@@ -92,6 +96,7 @@ public class NamespaceService {
     this.branchService = branchService;
     this.rolePermissionService = rolePermissionService;
     this.additionalUserInfoEnrichService = additionalUserInfoEnrichService;
+    this.envFanOutExecutor = envFanOutExecutor;
   }
 
 
@@ -217,10 +222,15 @@ public class NamespaceService {
   public Map<String, Map<String, Boolean>> getNamespacesPublishInfo(String appId) {
     Map<String, Map<String, Boolean>> result = Maps.newHashMap();
 
-    Set<Env> envs = portalConfig.publishTipsSupportedEnvs();
-    for (Env env : envs) {
-      if (portalSettings.isEnvActive(env)) {
-        result.put(env.toString(), namespaceAPI.getNamespacePublishInfo(env, appId));
+    List<Env> envs = portalConfig.publishTipsSupportedEnvs().stream()
+        .filter(portalSettings::isEnvActive).collect(Collectors.toList());
+    for (EnvResult<Map<String, Boolean>> envResult : envFanOutExecutor
+        .execute(envs, env -> namespaceAPI.getNamespacePublishInfo(env, appId))) {
+      if (envResult.isSuccess()) {
+        result.put(envResult.getEnv().toString(), envResult.getValue());
+      } else {
+        logger.warn("Load namespaces publish info of app {} from env {} failed", appId, envResult.getEnv(),
+            envResult.getError());
       }
     }
 
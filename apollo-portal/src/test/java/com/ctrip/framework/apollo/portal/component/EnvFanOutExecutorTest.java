@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Apollo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.ctrip.framework.apollo.portal.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.ctrip.framework.apollo.portal.AbstractUnitTest;
+import com.ctrip.framework.apollo.portal.component.EnvFanOutExecutor.EnvResult;
+import com.ctrip.framework.apollo.portal.component.config.PortalConfig;
+import com.ctrip.framework.apollo.portal.environment.Env;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+public class EnvFanOutExecutorTest extends AbstractUnitTest {
+
+  @Mock
+  private PortalConfig portalConfig;
+
+  private EnvFanOutExecutor envFanOutExecutor;
+
+  @Before
+  public void setUp() {
+    when(portalConfig.envFanOutTimeoutInMilli()).thenReturn(1000);
+    envFanOutExecutor = new EnvFanOutExecutor(portalConfig);
+  }
+
+  @After
+  public void tearDown() {
+    envFanOutExecutor.shutdown();
+  }
+
+  @Test
+  public void testExecuteConcurrently() {
+    List<Env> envs = Arrays.asList(Env.DEV, Env.FAT, Env.PRO);
+    CountDownLatch allStarted = new CountDownLatch(envs.size());
+
+    List<EnvResult<String>> results = envFanOutExecutor.execute(envs, env -> {
+      allStarted.countDown();
+      try {
+        //would time out if the envs were called one by one
+        if (!allStarted.await(500, TimeUnit.MILLISECONDS)) {
+          throw new IllegalStateException("not called concurrently");
+        }
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return env.getName();
+    });
+
+    assertEquals(envs.size(), results.size());
+    for (int i = 0; i < envs.size(); i++) {
+      EnvResult<String> result = results.get(i);
+      assertTrue(result.isSuccess());
+      assertEquals(envs.get(i), result.getEnv());
+      assertEquals(envs.get(i).getName(), result.getValue());
+    }
+  }
+
+  @Test
+  public void testExecuteWithPartialResults() {
+    RuntimeException someError = new RuntimeException("some error");
+
+    List<EnvResult<String>> results = envFanOutExecutor.execute(Arrays.asList(Env.DEV, Env.FAT, Env.PRO), env -> {
+      if (env == Env.FAT) {
+        throw someError;
+      }
+      if (env == Env.PRO) {
+        try {
+          TimeUnit.SECONDS.sleep(10);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return env.getName();
+    });
+
+    assertTrue(results.get(0).isSuccess());
+    assertEquals(Env.DEV.getName(), results.get(0).getValue());
+
+    assertFalse(results.get(1).isSuccess());
+    assertNull(results.get(1).getValue());
+    assertSame(someError, results.get(1).getError());
+
+    assertFalse(results.get(2).isSuccess());
+    assertEquals(Env.PRO, results.get(2).getEnv());
+    assertTrue(results.get(2).getError() instanceof TimeoutException);
+  }
+}